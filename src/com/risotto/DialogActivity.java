@@ -1,37 +1,137 @@
 package com.risotto;
 
+import java.util.Date;
+
 import android.app.Activity;
+import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
+import android.database.Cursor;
 import android.os.Bundle;
+import android.text.format.DateFormat;
+import android.util.Log;
+import android.view.View;
+import android.view.View.OnClickListener;
 import android.view.Window;
+import android.widget.Button;
+import android.widget.TextView;
+
 import com.risotto.R;
+import com.risotto.service.MainService;
+import com.risotto.storage.StorageProvider;
+
+/**
+ * The prompt for a patient's due doses, opened from the patient's notification. Taken
+ * and Snooze send the patient's pending doses to MainService, which moves them and
+ * takes the notification down.
+ */
+public class DialogActivity extends Activity implements OnClickListener {
+
+	public static final String LOG_TAG = "com.risotto.DialogActivity";
 
-public class DialogActivity extends Activity {
+	// The intent that shows the doses of a patient, followed by ":" and the patient id.
+	public static final String ACTION_SHOW_DOSES = "com.risotto.SHOW_DOSES";
+
+	private int patientId;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
-		super.onCreate(savedInstanceState); 
-		
+		super.onCreate(savedInstanceState);
+
 		// Hide the title bar on our DialogActivity
         requestWindowFeature(Window.FEATURE_NO_TITLE);
-        
+
         // Set the content of our activity.
         setContentView(R.layout.dialog_layout);
-        
+
+        patientId = getIntent().getIntExtra(MainService.EXTRA_PATIENT_ID, -1);
+        if (patientId != -1) {
+        	this.showNotification();
+        }
+
+        Button snooze = (Button) findViewById(R.id.button_snooze);
+        snooze.setOnClickListener(this);
+
+        Button taken = (Button) findViewById(R.id.button_taken);
+        taken.setOnClickListener(this);
 	}
-	
+
 	/**
-	 * 
-	 * Will display a custom dialog prompt to the user. This dialog can be 
+	 * Fills the dialog in from the patient's stored notification.
+	 */
+	private void showNotification() {
+		String[] projection = {
+			StorageProvider.NotificationColumns.NOTIFICATIONS_POSTED_TIME,
+			StorageProvider.NotificationColumns.NOTIFICATIONS_TITLE,
+			StorageProvider.NotificationColumns.NOTIFICATIONS_TEXT
+		};
+		Cursor cursor = getContentResolver().query(ContentUris.withAppendedId(StorageProvider.NotificationColumns.CONTENT_URI, patientId),
+				projection, null, null, null);
+
+		try {
+			if (cursor.moveToFirst()) {
+				((TextView) findViewById(R.id.text_time)).setText(DateFormat.getTimeFormat(this).format(new Date(cursor.getLong(0))));
+				((TextView) findViewById(R.id.text_name)).setText(cursor.getString(1));
+				((TextView) findViewById(R.id.text_message)).setText(cursor.getString(2));
+			} else {
+				Log.d(LOG_TAG, "The notification of patient " + patientId + " is gone.");
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see android.view.View.OnClickListener#onClick(android.view.View)
+	 */
+	public void onClick(View v) {
+		Intent intent = new Intent();
+		switch(v.getId()) {
+			case R.id.button_taken:
+				intent.setAction(MainService.ACTION_DOSES_TAKEN);
+				break;
+			case R.id.button_snooze:
+				intent.setAction(MainService.ACTION_DOSES_SNOOZED);
+				break;
+			default:
+				return;
+		}
+
+		if (patientId != -1) {
+			intent.putExtra(MainService.EXTRA_PATIENT_ID, patientId);
+			intent.setClass(getApplicationContext(), MainService.class);
+			startService(intent);
+		}
+		finish();
+	}
+
+	/**
+	 *
+	 * Will display a custom dialog prompt to the user. This dialog can be
 	 * displayed without a foreground activity and over the home screen.
-	 * 
+	 *
 	 * @param context the current application context.
 	 */
 	public static void showDialog(Context context) {
 		/* Send a new intent to show a new DialogActivity using the
-		 * specified context object. */ 
+		 * specified context object. */
 		context.startActivity(new Intent(context, DialogActivity.class));
 	}
 
+	/**
+	 * Builds the intent that shows the doses of the given patient. The action holds the
+	 * patient id, so each patient's notification gets its own pending intent.
+	 *
+	 * @param context the current application context.
+	 * @param patientId the id of the patient
+	 */
+	public static Intent buildIntent(Context context, int patientId) {
+		Intent intent = new Intent(ACTION_SHOW_DOSES + ":" + patientId);
+		intent.putExtra(MainService.EXTRA_PATIENT_ID, patientId);
+		intent.setClass(context, DialogActivity.class);
+		intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+		return intent;
+	}
+
 }
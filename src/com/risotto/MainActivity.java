@@ -41,6 +41,12 @@ public class MainActivity extends Activity implements OnClickListener {
         //StorageTester.runTest(this.getApplicationContext());
         // END DATABASE TESTING
         
+        // START DATABASE BENCHMARKS
+        //StorageBenchmark.runBenchmark(this.getApplicationContext());
+        //ListBindingBenchmark.runBenchmark(this.getApplicationContext());
+        //WizardDataBenchmark.runBenchmark(this.getApplicationContext());
+        // END DATABASE BENCHMARKS
+        
         //START DRUG TESTING
         //DrugTest.testToContentValues();
         //END DRUG TESTING
@@ -4,6 +4,7 @@ import android.app.Notification;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import com.risotto.DialogActivity;
 import com.risotto.R;
 import com.risotto.model.Prescription;
 
@@ -12,16 +13,17 @@ public class StatusBarNotification {
 	/*
 	 * When defining a constructor for this class, the Context object will need
 	 * to be passed in. This is because this class is not a declared activity in
-	 * the manifest. The context object passed in, will be the same one that is
-	 * used throughout the application
+	 * the manifest. The application context is kept, so a notification doesn't
+	 * hold on to the activity or service that created it.
 	 */
-	private static Context context;
+	private Context context;
 	private int icon;
 	private String statusBarText, messageTitle, messageText;
 	private Notification myNot = null;
 	private Intent intent;
 	private PendingIntent contentIntent;
-	private Prescription prescription;
+	private int patientId;
+	private long time;
 	
 	public enum Content { 
 		STATUS_BAR,
@@ -30,11 +32,22 @@ public class StatusBarNotification {
 	}
 	
 	public StatusBarNotification(Context ctx, Prescription p, String stBrTxt, String msgTitle, String msgText) {
-		long time = System.currentTimeMillis();
+		this(ctx, p.getPatient().get_id(), System.currentTimeMillis(), stBrTxt, msgTitle, msgText);
+	}
+	
+	/**
+	 * Builds a notification for a patient's doses, shown at the given time.
+	 * 
+	 * @param ctx - any context, the application context is kept
+	 * @param patientId - the id of the patient the notification is for
+	 * @param time - the time the notification was first shown, in ms
+	 */
+	public StatusBarNotification(Context ctx, int patientId, long time, String stBrTxt, String msgTitle, String msgText) {
 		icon = R.drawable.icon;
-		context = ctx;
-		intent = new Intent(ctx, StatusBarNotification.class);
-		contentIntent = PendingIntent.getActivity(context, 0, intent, 0);
+		context = ctx.getApplicationContext();
+		// Opening the notification asks the user about the patient's doses.
+		intent = DialogActivity.buildIntent(context, patientId);
+		contentIntent = PendingIntent.getActivity(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
 		this.statusBarText = stBrTxt;
 		this.messageTitle = msgTitle;
 		this.messageText = msgText;
@@ -43,7 +56,8 @@ public class StatusBarNotification {
 		myNot.setLatestEventInfo(context, msgTitle, msgText, contentIntent);
 		
 		
-		this.prescription = p;
+		this.patientId = patientId;
+		this.time = time;
 	}
 	
 	public void setVibrate() {
@@ -58,6 +72,13 @@ public class StatusBarNotification {
 		return this.myNot;
 	}
 	
+	/**
+	 * Sets the intent sent when the user clears the notification.
+	 */
+	public void setDeleteIntent(PendingIntent deleteIntent) {
+		myNot.deleteIntent = deleteIntent;
+	}
+	
 	public void setVibrate(long[] settings) {
 		myNot.vibrate = settings;
 	}
@@ -107,4 +128,18 @@ public class StatusBarNotification {
 	public String getMessageText() {
 		return messageText;
 	}
+
+	/**
+	 * @return the id of the patient the notification is for
+	 */
+	public int getPatientId() {
+		return patientId;
+	}
+
+	/**
+	 * @return the time the notification was first shown, in ms
+	 */
+	public long getTime() {
+		return time;
+	}
 }
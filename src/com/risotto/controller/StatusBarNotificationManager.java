@@ -1,46 +1,83 @@
 package com.risotto.controller;
 
+import java.util.Collections;
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.Vector;
+
 import com.risotto.controller.StatusBarNotification.Content;
+import com.risotto.model.Dose;
+import com.risotto.service.MainService;
+import com.risotto.storage.StorageProvider;
+
 import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.ContentValues;
 import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.text.TextUtils;
+import android.util.Log;
 
+/**
+ * Shows the status bar notifications, one per patient, and keeps the ones that are showing
+ * in the notifications table. The id of a notification is the id of its patient, so showing
+ * the patient's next doses replaces the ones before them. A notification is removed from the
+ * table when the user clears it, when it expires, or when none of its patient's doses are
+ * pending or snoozed any more; a patient with open doses always keeps their notification.
+ * restore() shows the rest again after the process or the phone was restarted.
+ */
 public class StatusBarNotificationManager {
 
-	private static Hashtable<Integer, StatusBarNotification> notifications = new Hashtable<Integer, StatusBarNotification>();
-	private static Context context;
-	private static int NOTIFICATION_ID = 0;
-	private String statusBarText, messageTitle, messageText;
-	private int not_id;
+	private static final String LOG_TAG = "RISOTTO_NOTIFICATION_MANAGER";
+
+	// How long a notification is kept after it is first shown.
+	public static final long NOTIFICATION_LIFETIME = 12 * 60 * 60 * 1000L;
+	// The extra of the dismiss intent that holds the notification id.
+	public static final String EXTRA_NOTIFICATION_ID = "NOTIFICATION_ID";
+
+	private Context context;
+	// The notifications added or restored through this manager, by id.
+	private HashMap<Integer, StatusBarNotification> notifications = new HashMap<Integer, StatusBarNotification>();
 	private String ns = Context.NOTIFICATION_SERVICE;
-	private long time;
-	private int icon;
-	private StatusBarNotification myNot;
 
 	/**
-	 * Constructor - saves a local copy of the context (TO DO: is that correct?) & initializes the hashtable
-	 * 
+	 * Constructor - keeps the application context, so the manager doesn't hold on to an activity
+	 *
 	 * @param ctx - the application's current context
 	 */
 	public StatusBarNotificationManager(Context ctx) {
-		context = ctx;
+		context = ctx.getApplicationContext();
 	}
 
 	/**
-	 * Adds a notification to the manager (TO DO: should we generalize this class in the case that we have other types of notifications?)
-	 * 
+	 * Adds the notification for a patient to the manager and stores it, replacing the patient's
+	 * last notification. The expired notifications and the ones with no open doses are removed.
+	 *
+	 * @param patientId - the id of the patient the notification is for
 	 * @param stbn - the status bar notification to add to the manager
 	 * @return the id for a given notification
 	 */
-	public int add(StatusBarNotification stbn) {
-		notifications.put(++NOTIFICATION_ID, stbn);
-		return NOTIFICATION_ID;
+	public int add(int patientId, StatusBarNotification stbn) {
+		stbn.setDeleteIntent(this.buildDismissIntent(patientId));
+		notifications.put(patientId, stbn);
+
+		ContentValues values = new ContentValues();
+		values.put(StorageProvider.NotificationColumns._ID, patientId);
+		values.put(StorageProvider.NotificationColumns.NOTIFICATIONS_POSTED_TIME, stbn.getTime());
+		values.put(StorageProvider.NotificationColumns.NOTIFICATIONS_EXPIRE_TIME, stbn.getTime() + NOTIFICATION_LIFETIME);
+		values.put(StorageProvider.NotificationColumns.NOTIFICATIONS_STATUS_BAR_TEXT, stbn.getStatusBarText());
+		values.put(StorageProvider.NotificationColumns.NOTIFICATIONS_TITLE, stbn.getMessageTitle());
+		values.put(StorageProvider.NotificationColumns.NOTIFICATIONS_TEXT, stbn.getMessageText());
+		context.getContentResolver().insert(StorageProvider.NotificationColumns.CONTENT_URI, values);
+
+		this.evict(System.currentTimeMillis());
+		return patientId;
 	}
-	
+
 	/**
 	 * This method modifies a notification in the manager
-	 * 
+	 *
 	 * @param id - the id of the notification attempting to be retrieved
 	 * @return the notification if it was in the manager, or else a null object
 	 */
@@ -53,30 +90,30 @@ public class StatusBarNotificationManager {
 	}
 
 	/**
-	 * Removes notification from the manager
-	 * 
+	 * Removes notification from the manager and the status bar
+	 *
 	 * @param id - number which identifies which element to remove
-	 * @return true if the element was in the manager's store and was removed, false if the element was not in the manager's store
+	 * @return true if the element was stored and was removed, false if the element was not stored
 	 */
 	public boolean cancel(int id) {
-		if (notifications.containsKey(id)) {
-			notifications.remove(id);
-			return true;
-		}
-		return false;
+		notifications.remove(id);
+		((NotificationManager) context.getSystemService(ns)).cancel(id);
 
+		int count = context.getContentResolver().delete(StorageProvider.NotificationColumns.CONTENT_URI,
+				StorageProvider.NotificationColumns._ID + "=" + id, null);
+		return count > 0;
 	}
-	
+
 	/**
-	 * Returns the status bar texts for all the notifications created thus far 
-	 * @return vector containing all the strings
+	 * Returns the notifications added or restored through this manager
+	 * @return enumeration of the notifications
 	 */
 	public Enumeration<StatusBarNotification> getAllNotifications() {
-		return notifications.elements();
+		return Collections.enumeration(notifications.values());
 	}
-	
+
 	/**
-	 * Prints all notifications contained in the local hash table to the system log.
+	 * Prints all notifications contained in the manager to the system log.
 	 */
 	public void printAllNotifications() {
 		Enumeration<StatusBarNotification> en = this.getAllNotifications();
@@ -84,26 +121,130 @@ public class StatusBarNotificationManager {
 			System.out.println(en.nextElement().getStatusBarText());
 		}
 	}
-	
+
 
 	/**
-	 * 
+	 *
 	 * @param id - number of the notification to be enabled
 	 * @throws Exception - (TO DO) place holder, needs to throw exception if the id isn't in the store; the application needs to
 	 * 					   handle it if the situation arises because that means a notification was attempted to be enabled and doesn't
 	 * 					   exist, which could be cause for concern
-	 * 
+	 *
 	 */
-	public void sendMessage(int id) throws Exception {		
+	public void sendMessage(int id) throws Exception {
 		if (notifications.containsKey(id)) {
-			System.out.println("Inside Stat Bar Not Mgr, id = " + id);
-			myNot = notifications.get(id);
+			Log.d(LOG_TAG, "Showing notification " + id);
 			NotificationManager nm = (NotificationManager) context.getSystemService(ns);
 
-			nm.notify(id, myNot.getNotification());
+			nm.notify(id, notifications.get(id).getNotification());
 		}
 		else
 			throw new Exception();
 	}
 
+	/**
+	 * Shows the stored notifications again, after the ones that expired are removed. Called
+	 * when the service starts, as the status bar is empty after the phone restarts.
+	 *
+	 * @return the number of notifications shown
+	 */
+	public int restore() {
+		long start = System.currentTimeMillis();
+		this.evict(start);
+
+		String[] projection = {
+			StorageProvider.NotificationColumns._ID,
+			StorageProvider.NotificationColumns.NOTIFICATIONS_POSTED_TIME,
+			StorageProvider.NotificationColumns.NOTIFICATIONS_STATUS_BAR_TEXT,
+			StorageProvider.NotificationColumns.NOTIFICATIONS_TITLE,
+			StorageProvider.NotificationColumns.NOTIFICATIONS_TEXT
+		};
+		Cursor cursor = context.getContentResolver().query(StorageProvider.NotificationColumns.CONTENT_URI, projection, null, null, null);
+
+		NotificationManager nm = (NotificationManager) context.getSystemService(ns);
+		int count = 0;
+		try {
+			while (cursor.moveToNext()) {
+				int id = cursor.getInt(0);
+				StatusBarNotification stbn = new StatusBarNotification(context, id, cursor.getLong(1),
+						cursor.getString(2), cursor.getString(3), cursor.getString(4));
+				stbn.setDeleteIntent(this.buildDismissIntent(id));
+				notifications.put(id, stbn);
+
+				nm.notify(id, stbn.getNotification());
+				count++;
+			}
+		} finally {
+			cursor.close();
+		}
+
+		Log.d(LOG_TAG, "Restored " + count + " notifications in " + (System.currentTimeMillis() - start) + "ms");
+		return count;
+	}
+
+	/**
+	 * Removes the notifications that have expired by the given time, and the ones whose
+	 * patient has no pending or snoozed doses left, from the table and the status bar. A
+	 * notification of doses that are still open is never removed before it expires, the
+	 * doses are marked missed by then.
+	 */
+	private void evict(long now) {
+		String[] projection = { StorageProvider.NotificationColumns._ID, StorageProvider.NotificationColumns.NOTIFICATIONS_EXPIRE_TIME };
+		Cursor cursor = context.getContentResolver().query(StorageProvider.NotificationColumns.CONTENT_URI, projection, null, null,
+				StorageProvider.NotificationColumns.DEFAULT_SORT_ORDER);
+
+		Vector<Integer> evicted = new Vector<Integer>();
+		try {
+			while (cursor.moveToNext()) {
+				int id = cursor.getInt(0);
+				if (cursor.getLong(1) <= now || !this.hasOpenDoses(id)) {
+					evicted.add(id);
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+
+		if (evicted.isEmpty()) {
+			return;
+		}
+
+		NotificationManager nm = (NotificationManager) context.getSystemService(ns);
+		for (int i = 0; i < evicted.size(); i++) {
+			notifications.remove(evicted.get(i));
+			nm.cancel(evicted.get(i));
+		}
+
+		context.getContentResolver().delete(StorageProvider.NotificationColumns.CONTENT_URI,
+				StorageProvider.NotificationColumns._ID + " IN (" + TextUtils.join(",", evicted) + ")", null);
+		Log.d(LOG_TAG, "Removed " + evicted.size() + " old notifications");
+	}
+
+	/**
+	 * Checks whether the patient still has doses that are pending or snoozed.
+	 */
+	private boolean hasOpenDoses(int patientId) {
+		String[] projection = { StorageProvider.DoseColumns._ID };
+		String where = StorageProvider.DoseColumns.PATIENT_WHERE + " AND " + StorageProvider.DoseColumns.DOSES_STATE + " IN (?,?)";
+		String[] whereArgs = { String.valueOf(patientId), String.valueOf(Dose.STATE_PENDING), String.valueOf(Dose.STATE_SNOOZED) };
+		Cursor cursor = context.getContentResolver().query(StorageProvider.DoseColumns.CONTENT_URI, projection, where, whereArgs, null);
+
+		try {
+			return cursor.moveToFirst();
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Builds the intent MainService gets when the user clears a notification.
+	 */
+	private PendingIntent buildDismissIntent(int id) {
+		Intent intent = new Intent(MainService.ACTION_NOTIFICATION_DISMISSED + ":" + id);
+		intent.putExtra(EXTRA_NOTIFICATION_ID, id);
+		intent.setClass(context, MainService.class);
+
+		return PendingIntent.getService(context, 0, intent, 0);
+	}
+
 }
@@ -0,0 +1,167 @@
+package com.risotto.model;
+
+import com.risotto.model.event.NotificationEvent;
+import com.risotto.model.event.NotificationEvent.NotificationEventType;
+import com.risotto.storage.StorageProvider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+/**
+ * One dose of a schedule that came due, from when it is shown until the user handles it.
+ * <br><br>
+ * A dose starts PENDING. From there it is ACKNOWLEDGED when the user takes it, SNOOZED
+ * when the user wants to be reminded later, or MISSED when it is cleared or goes unhandled.
+ * A snoozed dose goes back to PENDING at its alarm time, or is MISSED if it never does.
+ * ACKNOWLEDGED and MISSED are final: the dose's row is deleted and only its notification
+ * event is kept. Every move a user makes is recorded as a notification event, see
+ * getEventType().
+ */
+public class Dose {
+
+	// STATES, the pending and snoozed ones are stored in the doses table
+	public static final int STATE_PENDING = 0;
+	public static final int STATE_SNOOZED = 1;
+	public static final int STATE_ACKNOWLEDGED = 2;
+	public static final int STATE_MISSED = 3;
+
+	// The schedule id of a dose whose schedule row was changed or removed after it came due.
+	public static final int NO_SCHEDULE = -1;
+
+	private int scheduleId;
+	private int prescriptionId;
+	private long dueTime;
+	private int state;
+	private long alarmTime;
+
+	// Unique ID for storage references
+	private int _id;
+	private static final int INVALID_ID = -1;
+
+	/**
+	 * Creates a new pending dose.
+	 *
+	 * @param scheduleId - db id of the schedule that came due
+	 * @param prescriptionId - db id of the schedule's prescription
+	 * @param dueTime - the time the dose was due
+	 */
+	public Dose(int scheduleId, int prescriptionId, long dueTime) {
+		this(INVALID_ID, scheduleId, prescriptionId, dueTime, STATE_PENDING, dueTime);
+	}
+
+	private Dose(int _id, int scheduleId, int prescriptionId, long dueTime, int state, long alarmTime) {
+		this._id = _id;
+		this.scheduleId = scheduleId;
+		this.prescriptionId = prescriptionId;
+		this.dueTime = dueTime;
+		this.state = state;
+		this.alarmTime = alarmTime;
+	}
+
+	/**
+	 * Checks whether a dose can move from one state to another.
+	 */
+	public static boolean canMove(int from, int to) {
+		switch (from) {
+		case STATE_PENDING:
+			return to == STATE_ACKNOWLEDGED || to == STATE_SNOOZED || to == STATE_MISSED;
+		case STATE_SNOOZED:
+			return to == STATE_PENDING || to == STATE_MISSED;
+		default:
+			// The final states don't move.
+			return false;
+		}
+	}
+
+	/**
+	 * Checks whether a dose in the given state is done with, and no longer stored.
+	 */
+	public static boolean isFinal(int state) {
+		return state == STATE_ACKNOWLEDGED || state == STATE_MISSED;
+	}
+
+	/**
+	 * Returns the type of the event recorded when a dose moves to the given state, or null
+	 * for the move back to PENDING, which is the snooze running out rather than the user.
+	 */
+	public static NotificationEventType getEventType(int state) {
+		switch (state) {
+		case STATE_ACKNOWLEDGED:
+			return NotificationEventType.TAKEN;
+		case STATE_SNOOZED:
+			return NotificationEventType.DELAY;
+		case STATE_MISSED:
+			return NotificationEventType.MISSED;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Builds the event of this dose moving to the given state at the given time. A missed
+	 * dose is recorded at the time it was due, so it counts on the day it was missed.
+	 *
+	 * @param state - the state the dose moves to
+	 * @param eventType - the event type, usually getEventType(state)
+	 * @param time - the time of the move
+	 */
+	public NotificationEvent toEvent(int state, NotificationEventType eventType, long time) {
+		return new NotificationEvent((state == STATE_MISSED) ? this.dueTime : time, this.prescriptionId, eventType);
+	}
+
+	public int getScheduleId() {
+		return scheduleId;
+	}
+
+	public int getPrescriptionId() {
+		return prescriptionId;
+	}
+
+	public long getDueTime() {
+		return dueTime;
+	}
+
+	public int getState() {
+		return state;
+	}
+
+	public long getAlarmTime() {
+		return alarmTime;
+	}
+
+	public int get_id() {
+		return _id;
+	}
+
+	public ContentValues toContentValues() {
+		ContentValues cv = new ContentValues();
+
+		// Store the schedule and prescription ids.
+		cv.put(StorageProvider.DoseColumns.DOSES_SCHEDULE, this.getScheduleId());
+		cv.put(StorageProvider.DoseColumns.DOSES_PRESCRIPTION, this.getPrescriptionId());
+		// Store the due time.
+		cv.put(StorageProvider.DoseColumns.DOSES_DUE_TIME, this.getDueTime());
+		// Store the state and when it is shown next.
+		cv.put(StorageProvider.DoseColumns.DOSES_STATE, this.getState());
+		cv.put(StorageProvider.DoseColumns.DOSES_ALARM_TIME, this.getAlarmTime());
+
+		return cv;
+	}
+
+	public static Dose fromCursor(Cursor cursor) {
+		int _id = cursor.getInt(cursor.getColumnIndex(StorageProvider.DoseColumns._ID));
+
+		int scheduleId = cursor.getInt(cursor.getColumnIndex(StorageProvider.DoseColumns.DOSES_SCHEDULE));
+
+		int prescriptionId = cursor.getInt(cursor.getColumnIndex(StorageProvider.DoseColumns.DOSES_PRESCRIPTION));
+
+		long dueTime = cursor.getLong(cursor.getColumnIndex(StorageProvider.DoseColumns.DOSES_DUE_TIME));
+
+		int state = cursor.getInt(cursor.getColumnIndex(StorageProvider.DoseColumns.DOSES_STATE));
+
+		long alarmTime = cursor.getLong(cursor.getColumnIndex(StorageProvider.DoseColumns.DOSES_ALARM_TIME));
+
+		return new Dose(_id, scheduleId, prescriptionId, dueTime, state, alarmTime);
+	}
+
+}
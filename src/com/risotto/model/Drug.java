@@ -8,11 +8,13 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.CursorIndexOutOfBoundsException;
 import android.net.Uri;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.util.Log;
 
 import com.risotto.storage.StorageProvider;
 
-public class Drug implements Serializable{
+public class Drug implements Serializable, Parcelable {
 	
 	// Required Fields
 	private String brandName;
@@ -82,6 +84,22 @@ public class Drug implements Serializable{
 		SMALL, MEDIUM, LARGE, NONE, OTHER, DEFAULT
 	}
 	
+	// The enum constants by ordinal, for reading parcels without copying values() every time.
+	private static final TYPE[] TYPES = TYPE.values();
+	private static final FORM[] FORMS = FORM.values();
+	private static final SHAPE[] SHAPES = SHAPE.values();
+	private static final SIZE[] SIZES = SIZE.values();
+	
+	public static final Parcelable.Creator<Drug> CREATOR = new Parcelable.Creator<Drug>() {
+		public Drug createFromParcel(Parcel in) {
+			return new Drug(in);
+		}
+
+		public Drug[] newArray(int size) {
+			return new Drug[size];
+		}
+	};
+	
 	public Drug(String brandName) {
 		this(INVALID_ID, brandName);
 	}
@@ -103,6 +121,70 @@ public class Drug implements Serializable{
 		this.strengthLabel = strengthLabel;
 	}
 
+	/**
+	 * Reads a drug written by writeToParcel(), field by field in the same order.
+	 */
+	private Drug(Parcel in) {
+		this._id = in.readInt();
+		this.brandName = in.readString();
+		int type = in.readInt();
+		this.type = (type == -1) ? null : TYPES[type];
+		this.strength = in.readInt();
+		this.strengthLabel = in.readString();
+		this.compoundName = in.readString();
+		this.manufacturer = in.readString();
+		
+		int interactionCount = in.readInt();
+		if (interactionCount != -1) {
+			this.interactions = new Vector<Integer>(interactionCount);
+			for (int i = 0; i < interactionCount; i++) {
+				this.interactions.add(in.readInt());
+			}
+		}
+		
+		this.nickName = in.readString();
+		int form = in.readInt();
+		this.form = (form == -1) ? null : FORMS[form];
+		this.color = in.readInt();
+		int shape = in.readInt();
+		this.shape = (shape == -1) ? null : SHAPES[shape];
+		int size = in.readInt();
+		this.size = (size == -1) ? null : SIZES[size];
+	}
+
+	public int describeContents() {
+		return 0;
+	}
+
+	/**
+	 * Writes every field straight to the parcel. The enums are written as ordinals, or -1 
+	 * for null, and a null interactions vector as a count of -1.
+	 */
+	public void writeToParcel(Parcel out, int flags) {
+		out.writeInt(_id);
+		out.writeString(brandName);
+		out.writeInt(type == null ? -1 : type.ordinal());
+		out.writeInt(strength);
+		out.writeString(strengthLabel);
+		out.writeString(compoundName);
+		out.writeString(manufacturer);
+		
+		if (interactions == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(interactions.size());
+			for (int i = 0; i < interactions.size(); i++) {
+				out.writeInt(interactions.get(i));
+			}
+		}
+		
+		out.writeString(nickName);
+		out.writeInt(form == null ? -1 : form.ordinal());
+		out.writeInt(color);
+		out.writeInt(shape == null ? -1 : shape.ordinal());
+		out.writeInt(size == null ? -1 : size.ordinal());
+	}
+
 	public String getCompoundName() {
 		return compoundName;
 	}
@@ -297,7 +379,10 @@ public class Drug implements Serializable{
 			drugValues.put(StorageProvider.DrugColumns.DRUG_SIZE, this.getSize().toString());
 		}
 		
-		// TODO Store drug interactions.
+		// Store the interactions
+		if ( this.getInteractions() != null ) {
+			drugValues.put(StorageProvider.DrugColumns.DRUG_INTERACTIONS, interactionsToBytes(this.getInteractions()));
+		}
 			
 		return drugValues;
 	}
@@ -383,7 +468,12 @@ public class Drug implements Serializable{
 			
 			// Get any interactions
 			if ( ! cursor.isNull(cursor.getColumnIndex(StorageProvider.DrugColumns.DRUG_INTERACTIONS))) {
-				// TODO Get all interactions.
+				int[] drugIds = interactionsFromBytes(cursor.getBlob(cursor.getColumnIndex(StorageProvider.DrugColumns.DRUG_INTERACTIONS)));
+				Vector<Integer> interactions = new Vector<Integer>(drugIds.length);
+				for (int i = 0; i < drugIds.length; i++) {
+					interactions.add(drugIds[i]);
+				}
+				newDrug.setInteractions(interactions);
 			}
 			
 			Log.d(LOG_TAG,"finished parsing cursor data into drug object.");
@@ -396,5 +486,39 @@ public class Drug implements Serializable{
 			throw cioobe;
 		}
 	}
+	
+	/**
+	 * Encodes the ids of the interacting drugs for the interactions column, four bytes 
+	 * per id. The storage provider keeps the drug_interactions table in step with it.
+	 * 
+	 * @param interactions the ids of the interacting drugs
+	 * @return the blob to store
+	 */
+	public static byte[] interactionsToBytes(Vector<Integer> interactions) {
+		byte[] bytes = new byte[interactions.size() * 4];
+		for (int i = 0; i < interactions.size(); i++) {
+			int drugId = interactions.get(i);
+			bytes[i * 4] = (byte) (drugId >> 24);
+			bytes[i * 4 + 1] = (byte) (drugId >> 16);
+			bytes[i * 4 + 2] = (byte) (drugId >> 8);
+			bytes[i * 4 + 3] = (byte) drugId;
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Decodes the interactions column to the ids of the interacting drugs.
+	 * 
+	 * @param bytes the blob stored in the interactions column
+	 * @return the ids of the interacting drugs
+	 */
+	public static int[] interactionsFromBytes(byte[] bytes) {
+		int[] drugIds = new int[bytes.length / 4];
+		for (int i = 0; i < drugIds.length; i++) {
+			drugIds[i] = ((bytes[i * 4] & 0xFF) << 24) | ((bytes[i * 4 + 1] & 0xFF) << 16)
+					| ((bytes[i * 4 + 2] & 0xFF) << 8) | (bytes[i * 4 + 3] & 0xFF);
+		}
+		return drugIds;
+	}
 
 }
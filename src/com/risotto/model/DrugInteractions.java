@@ -0,0 +1,327 @@
+package com.risotto.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Vector;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import com.risotto.storage.StorageProvider;
+
+/**
+ * Checks the drugs patients take for interactions without reading the drugs themselves.
+ * The interactions come from the drug_interactions table and each patient's regimen, the
+ * drugs of the prescriptions that haven't expired, from the prescriptions table. Both are
+ * kept as sorted arrays of drug ids, so checking one drug against a regimen is a merge of
+ * two short arrays and checking every patient is one pass over every regimen.
+ * <br><br>
+ * An interaction stored for either drug counts both ways. Use get() for the loaded
+ * interactions; StorageProvider calls invalidate() for every URI it changed, which drops
+ * them whenever a drug, an interaction or a prescription changes, and the next get()
+ * loads them again.
+ * <br><br>
+ * No lock is held while the interactions load, since get() queries the StorageProvider
+ * which may be waiting on a transaction. A load is only kept if nothing was invalidated
+ * since it started, the same generation check the ModelCache does.
+ */
+public final class DrugInteractions {
+
+	private static final String LOG_TAG = "RISOTTO_DRUG_INTERACTIONS";
+
+	private static final String DRUGS_PATH = "drugs";
+	private static final String DRUG_INTERACTIONS_PATH = "drug_interactions";
+	private static final String PRESCRIPTIONS_PATH = "prescriptions";
+
+	private static final int[] NONE = new int[0];
+
+	// The loaded interactions, or null until the next get().
+	private static volatile DrugInteractions sLoaded = null;
+	// Bumped every time the loaded interactions are dropped.
+	private static long sGeneration = 0;
+
+	// The drugs each drug interacts with, and each patient's drugs, as sorted ids.
+	private final HashMap<Integer, int[]> mInteractions;
+	private final HashMap<Integer, int[]> mRegimens;
+
+	/**
+	 * Builds the interactions from pairs of ids. Pairs may repeat, an interaction may be
+	 * given for either drug or for both.
+	 *
+	 * @param drugs the drug of each interaction
+	 * @param otherDrugs the drug it interacts with
+	 * @param patients the patient of each prescription
+	 * @param patientDrugs the drug of each prescription
+	 */
+	public DrugInteractions(int[] drugs, int[] otherDrugs, int[] patients, int[] patientDrugs) {
+		// Every interaction goes both ways.
+		long[] interactionPairs = new long[drugs.length * 2];
+		for (int i = 0; i < drugs.length; i++) {
+			interactionPairs[i * 2] = pair(drugs[i], otherDrugs[i]);
+			interactionPairs[i * 2 + 1] = pair(otherDrugs[i], drugs[i]);
+		}
+		long[] regimenPairs = new long[patients.length];
+		for (int i = 0; i < patients.length; i++) {
+			regimenPairs[i] = pair(patients[i], patientDrugs[i]);
+		}
+
+		mInteractions = group(interactionPairs);
+		mRegimens = group(regimenPairs);
+	}
+
+	/**
+	 * Returns the interactions and regimens as they are stored, loading them if anything
+	 * changed since the last call. Loading queries the database, so don't call this on
+	 * the UI thread.
+	 *
+	 * @param context any context, used for the ContentResolver queries
+	 * @return the loaded interactions
+	 */
+	public static DrugInteractions get(Context context) {
+		DrugInteractions loaded = sLoaded;
+		if (loaded != null) {
+			return loaded;
+		}
+
+		long generation = getGeneration();
+		loaded = load(context);
+
+		synchronized (DrugInteractions.class) {
+			// Something changed while loading, hand this load out but don't keep it.
+			if (generation == sGeneration) {
+				sLoaded = loaded;
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Drops the loaded interactions if the URI changed a drug, an interaction or a
+	 * prescription. Called by StorageProvider for every URI it changed, once the change
+	 * is committed.
+	 *
+	 * @param uri the URI that changed
+	 */
+	public static void invalidate(Uri uri) {
+		List<String> segments = uri.getPathSegments();
+
+		if (segments.isEmpty()) {
+			return;
+		}
+
+		String path = segments.get(0);
+		if (!path.equals(DRUGS_PATH) && !path.equals(DRUG_INTERACTIONS_PATH) && !path.equals(PRESCRIPTIONS_PATH)) {
+			return;
+		}
+
+		synchronized (DrugInteractions.class) {
+			sGeneration++;
+			sLoaded = null;
+		}
+	}
+
+	private static synchronized long getGeneration() {
+		return sGeneration;
+	}
+
+	private static DrugInteractions load(Context context) {
+		long start = System.currentTimeMillis();
+
+		Cursor interactionCursor = context.getApplicationContext().getContentResolver().query(
+				StorageProvider.DrugInteractionColumns.CONTENT_URI,
+				new String[] { StorageProvider.DrugInteractionColumns.DRUG_INTERACTIONS_DRUG, StorageProvider.DrugInteractionColumns.DRUG_INTERACTIONS_OTHER_DRUG },
+				null, null, null);
+		int[] drugs;
+		int[] otherDrugs;
+		try {
+			drugs = new int[interactionCursor.getCount()];
+			otherDrugs = new int[drugs.length];
+			for (int i = 0; interactionCursor.moveToNext(); i++) {
+				drugs[i] = interactionCursor.getInt(0);
+				otherDrugs[i] = interactionCursor.getInt(1);
+			}
+		} finally {
+			interactionCursor.close();
+		}
+
+		// Only the prescriptions that haven't expired yet.
+		Cursor regimenCursor = context.getApplicationContext().getContentResolver().query(
+				StorageProvider.PrescriptionColumns.CONTENT_URI,
+				new String[] { StorageProvider.PrescriptionColumns.PRESCRIPTION_PATIENT, StorageProvider.PrescriptionColumns.PRESCRIPTION_DRUG },
+				StorageProvider.PrescriptionColumns.PRESCRIPTION_DATE_EXPIRATION + " IS NULL OR "
+						+ StorageProvider.PrescriptionColumns.PRESCRIPTION_DATE_EXPIRATION + ">?",
+				new String[] { String.valueOf(System.currentTimeMillis()) }, null);
+		int[] patients;
+		int[] patientDrugs;
+		try {
+			patients = new int[regimenCursor.getCount()];
+			patientDrugs = new int[patients.length];
+			for (int i = 0; regimenCursor.moveToNext(); i++) {
+				patients[i] = regimenCursor.getInt(0);
+				patientDrugs[i] = regimenCursor.getInt(1);
+			}
+		} finally {
+			regimenCursor.close();
+		}
+
+		DrugInteractions loaded = new DrugInteractions(drugs, otherDrugs, patients, patientDrugs);
+		Log.d(LOG_TAG, "Loaded " + drugs.length + " interactions and " + patients.length + " prescriptions in "
+				+ (System.currentTimeMillis() - start) + "ms");
+		return loaded;
+	}
+
+	/**
+	 * Finds the drugs of the patient's regimen that interact with the given drug. The drug
+	 * doesn't have to be stored yet, the interactions set on it are checked as well as the
+	 * stored ones.
+	 *
+	 * @param patientId the patient's id
+	 * @param drug the drug about to be prescribed
+	 * @return the ids of the interacting drugs, in order, empty if there are none
+	 */
+	public int[] findInteractions(int patientId, Drug drug) {
+		int[] regimen = mRegimens.get(patientId);
+		if (regimen == null) {
+			return NONE;
+		}
+
+		int[] interactions = this.getInteractions(drug.get_id());
+
+		Vector<Integer> unstored = drug.getInteractions();
+		if (unstored != null && !unstored.isEmpty()) {
+			long[] pairs = new long[interactions.length + unstored.size()];
+			for (int i = 0; i < interactions.length; i++) {
+				pairs[i] = pair(0, interactions[i]);
+			}
+			for (int i = 0; i < unstored.size(); i++) {
+				pairs[interactions.length + i] = pair(0, unstored.get(i));
+			}
+			interactions = group(pairs).get(0);
+		}
+
+		return intersect(regimen, interactions, Integer.MIN_VALUE);
+	}
+
+	/**
+	 * Finds every interaction within every patient's regimen.
+	 *
+	 * @return one { patient, drug, other drug } entry per interacting pair, with the
+	 * lower drug id first
+	 */
+	public Vector<int[]> findAllInteractions() {
+		Vector<int[]> found = new Vector<int[]>();
+
+		for (Integer patientId : mRegimens.keySet()) {
+			int[] regimen = mRegimens.get(patientId);
+
+			for (int i = 0; i < regimen.length; i++) {
+				int[] interactions = mInteractions.get(regimen[i]);
+				if (interactions == null) {
+					continue;
+				}
+				// Only the drugs after this one, so each pair is found once.
+				int[] others = intersect(regimen, interactions, regimen[i]);
+				for (int j = 0; j < others.length; j++) {
+					found.add(new int[] { patientId.intValue(), regimen[i], others[j] });
+				}
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * Returns the drugs the given drug interacts with, as sorted ids.
+	 */
+	public int[] getInteractions(int drugId) {
+		int[] interactions = mInteractions.get(drugId);
+		return (interactions != null) ? interactions : NONE;
+	}
+
+	/**
+	 * Returns the drugs of the patient's regimen, as sorted ids.
+	 */
+	public int[] getRegimen(int patientId) {
+		int[] regimen = mRegimens.get(patientId);
+		return (regimen != null) ? regimen : NONE;
+	}
+
+	// Packs two ids into one long that sorts by the first id and then the second.
+	private static long pair(int key, int value) {
+		return ((long) key << 32) | (value & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Groups packed pairs by their first id, into the sorted distinct second ids of each.
+	 */
+	private static HashMap<Integer, int[]> group(long[] pairs) {
+		HashMap<Integer, int[]> groups = new HashMap<Integer, int[]>();
+		Arrays.sort(pairs);
+
+		int start = 0;
+		while (start < pairs.length) {
+			int key = (int) (pairs[start] >> 32);
+
+			int end = start;
+			int distinct = 0;
+			while (end < pairs.length && (int) (pairs[end] >> 32) == key) {
+				if (end == start || pairs[end] != pairs[end - 1]) {
+					distinct++;
+				}
+				end++;
+			}
+
+			int[] values = new int[distinct];
+			for (int i = start, j = 0; i < end; i++) {
+				if (i == start || pairs[i] != pairs[i - 1]) {
+					values[j++] = (int) pairs[i];
+				}
+			}
+			groups.put(key, values);
+
+			start = end;
+		}
+
+		return groups;
+	}
+
+	/**
+	 * Merges two sorted arrays into the ids in both that are greater than after.
+	 */
+	private static int[] intersect(int[] a, int[] b, int after) {
+		int[] both = null;
+		int count = 0;
+		int i = 0;
+		int j = 0;
+
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				if (a[i] > after) {
+					if (both == null) {
+						both = new int[Math.min(a.length - i, b.length - j)];
+					}
+					both[count++] = a[i];
+				}
+				i++;
+				j++;
+			}
+		}
+
+		if (count == 0) {
+			return NONE;
+		}
+		if (count < both.length) {
+			int[] trimmed = new int[count];
+			System.arraycopy(both, 0, trimmed, 0, count);
+			both = trimmed;
+		}
+		return both;
+	}
+}
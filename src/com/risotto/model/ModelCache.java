@@ -0,0 +1,358 @@
+package com.risotto.model;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Parcel;
+import android.util.Log;
+
+import com.risotto.storage.StorageProvider;
+
+/**
+ * A process wide cache of the Drug and Patient objects read from the database, so the
+ * same drug or patient isn't queried and deserialized again for every prescription.
+ * <br><br>
+ * The map is kept in least recently used order and bounded both by the number of
+ * objects and by an estimate of the memory they use. StorageProvider calls invalidate()
+ * for every URI it changes, which drops exactly the objects that changed, or every
+ * object of a table when the whole table changed.
+ * <br><br>
+ * Objects are only added with the generation that was current before their row was
+ * queried. Any invalidation of the same table since then means the row may be older
+ * than the change, and the object is not kept.
+ * <br><br>
+ * The cache keeps its own copy of every object and hands each caller a new copy, so a
+ * caller changing its drug or patient doesn't change what other callers see.
+ */
+public final class ModelCache {
+
+	private static final String LOG_TAG = "RISOTTO_MODEL_CACHE";
+
+	// The most objects kept, drugs and patients together.
+	private static final int MAX_ENTRIES = 256;
+	// The most memory, as estimated by sizeOf(), the kept objects may use.
+	private static final long MAX_BYTES = 256 * 1024;
+
+	// The rough size of an object header and its fields, and of a reference to a string.
+	private static final int OBJECT_BYTES = 64;
+	private static final int STRING_BYTES = 40;
+
+	private static final int TYPE_DRUG = 0;
+	private static final int TYPE_PATIENT = 1;
+
+	private static final String DRUGS_PATH = "drugs";
+	private static final String PATIENTS_PATH = "patients";
+
+	// Every cached object, keyed by key(), in least recently used order.
+	private static final LinkedHashMap<Long, Entry> sEntries = new LinkedHashMap<Long, Entry>(32, 0.75f, true);
+	private static long sBytes = 0;
+
+	// Bumped every time the drugs or patients change, indexed by type.
+	private static final long[] sGenerations = new long[2];
+
+	// Counters for the cache statistics.
+	private static int sHits = 0;
+	private static int sMisses = 0;
+
+	// This class cannot be instantiated
+	private ModelCache() {}
+
+	private static class Entry {
+		final Object value;
+		final long bytes;
+
+		Entry(Object value, long bytes) {
+			this.value = value;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * Returns the drug with the given id, reading it from the database if it isn't cached.
+	 *
+	 * @param context any context, used for the ContentResolver query
+	 * @param id the drug's id
+	 * @return the drug, or null if no drug has that id
+	 */
+	public static Drug getDrug(Context context, int id) {
+		Drug drug = peekDrug(id);
+		if (drug != null) {
+			return drug;
+		}
+
+		long generation = getDrugGeneration();
+		Uri drugUri = ContentUris.withAppendedId(StorageProvider.DrugColumns.CONTENT_URI, id);
+		Cursor drugCursor = context.getApplicationContext().getContentResolver().query(drugUri, null, null, null, null);
+
+		try {
+			if (!drugCursor.moveToFirst()) {
+				return null;
+			}
+			drug = Drug.fromCursor(drugCursor);
+		} finally {
+			drugCursor.close();
+		}
+
+		putDrug(drug, generation);
+		return drug;
+	}
+
+	/**
+	 * Returns the patient with the given id, reading it from the database if it isn't cached.
+	 *
+	 * @param context any context, used for the ContentResolver query
+	 * @param id the patient's id
+	 * @return the patient, or null if no patient has that id
+	 */
+	public static Patient getPatient(Context context, int id) {
+		Patient patient = peekPatient(id);
+		if (patient != null) {
+			return patient;
+		}
+
+		long generation = getPatientGeneration();
+		Uri patientUri = ContentUris.withAppendedId(StorageProvider.PatientColumns.CONTENT_URI, id);
+		Cursor patientCursor = context.getApplicationContext().getContentResolver().query(patientUri, null, null, null, null);
+
+		try {
+			if (!patientCursor.moveToFirst()) {
+				return null;
+			}
+			patient = Patient.fromCursor(patientCursor);
+		} finally {
+			patientCursor.close();
+		}
+
+		putPatient(patient, generation);
+		return patient;
+	}
+
+	/**
+	 * @return a copy of the cached drug with the given id, or null
+	 */
+	public static Drug peekDrug(int id) {
+		Drug drug = (Drug) get(key(TYPE_DRUG, id));
+		return drug == null ? null : copyOf(drug);
+	}
+
+	/**
+	 * @return a copy of the cached patient with the given id, or null
+	 */
+	public static Patient peekPatient(int id) {
+		Patient patient = (Patient) get(key(TYPE_PATIENT, id));
+		return patient == null ? null : copyOf(patient);
+	}
+
+	/**
+	 * Take the generation before querying the rows that are passed to putDrug().
+	 */
+	public static synchronized long getDrugGeneration() {
+		return sGenerations[TYPE_DRUG];
+	}
+
+	/**
+	 * Take the generation before querying the rows that are passed to putPatient().
+	 */
+	public static synchronized long getPatientGeneration() {
+		return sGenerations[TYPE_PATIENT];
+	}
+
+	/**
+	 * Caches a copy of a drug read from the database.
+	 *
+	 * @param drug the drug, read from a row queried after generation was taken
+	 * @param generation the value of getDrugGeneration() before the query
+	 */
+	public static void putDrug(Drug drug, long generation) {
+		put(TYPE_DRUG, drug.get_id(), copyOf(drug), sizeOf(drug), generation);
+	}
+
+	/**
+	 * Caches a copy of a patient read from the database.
+	 *
+	 * @param patient the patient, read from a row queried after generation was taken
+	 * @param generation the value of getPatientGeneration() before the query
+	 */
+	public static void putPatient(Patient patient, long generation) {
+		put(TYPE_PATIENT, patient.get_id(), copyOf(patient), sizeOf(patient), generation);
+	}
+
+	/**
+	 * Drops the objects that changed with the given content URI. Called by
+	 * StorageProvider for every change it makes, before the change is announced.
+	 *
+	 * @param uri a drugs or patients URI, any other URI is ignored
+	 */
+	public static synchronized void invalidate(Uri uri) {
+		List<String> segments = uri.getPathSegments();
+
+		if (segments.isEmpty()) {
+			return;
+		}
+
+		int type;
+		if (segments.get(0).equals(DRUGS_PATH)) {
+			type = TYPE_DRUG;
+		} else if (segments.get(0).equals(PATIENTS_PATH)) {
+			type = TYPE_PATIENT;
+		} else {
+			return;
+		}
+
+		sGenerations[type]++;
+
+		if (segments.size() == 2) {
+			try {
+				remove(key(type, Integer.parseInt(segments.get(1))));
+				return;
+			} catch (NumberFormatException e) {
+				// Not a single row, fall through and drop the whole table.
+			}
+		}
+
+		Log.d(LOG_TAG, "Dropping every cached object for " + uri);
+		Iterator<Map.Entry<Long, Entry>> it = sEntries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Long, Entry> entry = it.next();
+			if (typeOf(entry.getKey()) == type) {
+				sBytes -= entry.getValue().bytes;
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Empties the cache, for example when memory is low.
+	 */
+	public static synchronized void clear() {
+		sEntries.clear();
+		sBytes = 0;
+		sGenerations[TYPE_DRUG]++;
+		sGenerations[TYPE_PATIENT]++;
+	}
+
+	public static synchronized String getStatistics() {
+		return sEntries.size() + " objects, ~" + sBytes + " bytes, " + sHits + " hits, " + sMisses + " misses";
+	}
+
+	private static synchronized Object get(Long key) {
+		Entry entry = sEntries.get(key);
+
+		if (entry == null) {
+			sMisses++;
+			return null;
+		}
+
+		sHits++;
+		return entry.value;
+	}
+
+	private static synchronized void put(int type, int id, Object value, long bytes, long generation) {
+		if (generation != sGenerations[type]) {
+			// The table changed since the row was queried, the row may be stale.
+			return;
+		}
+
+		if (bytes > MAX_BYTES) {
+			return;
+		}
+
+		Long key = key(type, id);
+		remove(key);
+		sEntries.put(key, new Entry(value, bytes));
+		sBytes += bytes;
+
+		// Evict the least recently used objects until both bounds are met.
+		Iterator<Entry> it = sEntries.values().iterator();
+		while ((sEntries.size() > MAX_ENTRIES || sBytes > MAX_BYTES) && it.hasNext()) {
+			sBytes -= it.next().bytes;
+			it.remove();
+		}
+	}
+
+	private static void remove(Long key) {
+		Entry entry = sEntries.remove(key);
+		if (entry != null) {
+			sBytes -= entry.bytes;
+		}
+	}
+
+	/**
+	 * Copies a drug through a parcel, which writes and reads every one of its fields.
+	 */
+	private static Drug copyOf(Drug drug) {
+		Parcel parcel = Parcel.obtain();
+		try {
+			drug.writeToParcel(parcel, 0);
+			parcel.setDataPosition(0);
+			return Drug.CREATOR.createFromParcel(parcel);
+		} finally {
+			parcel.recycle();
+		}
+	}
+
+	/**
+	 * Copies a patient through a parcel, which writes and reads every one of its fields.
+	 */
+	private static Patient copyOf(Patient patient) {
+		Parcel parcel = Parcel.obtain();
+		try {
+			patient.writeToParcel(parcel, 0);
+			parcel.setDataPosition(0);
+			return Patient.CREATOR.createFromParcel(parcel);
+		} finally {
+			parcel.recycle();
+		}
+	}
+
+	private static Long key(int type, int id) {
+		return Long.valueOf(((long) type << 32) | (id & 0xffffffffL));
+	}
+
+	private static int typeOf(Long key) {
+		return (int) (key.longValue() >>> 32);
+	}
+
+	private static long sizeOf(String string) {
+		return string == null ? 0 : STRING_BYTES + 2 * string.length();
+	}
+
+	private static long sizeOf(Drug drug) {
+		long bytes = OBJECT_BYTES;
+		bytes += sizeOf(drug.getBrandName());
+		bytes += sizeOf(drug.getStrengthLabel());
+		bytes += sizeOf(drug.getCompoundName());
+		bytes += sizeOf(drug.getManufacturer());
+		bytes += sizeOf(drug.getNickName());
+
+		if (drug.getInteractions() != null) {
+			bytes += OBJECT_BYTES + drug.getInteractions().size() * 16;
+		}
+		return bytes;
+	}
+
+	private static long sizeOf(Patient patient) {
+		long bytes = OBJECT_BYTES;
+		bytes += sizeOf(patient.getFirstName());
+		bytes += sizeOf(patient.getLastName());
+
+		Hashtable<Integer, String> relations = patient.getRelations();
+		if (relations != null) {
+			bytes += OBJECT_BYTES;
+			Enumeration<String> values = relations.elements();
+			while (values.hasMoreElements()) {
+				// The table entry and the boxed key, plus the value.
+				bytes += 48 + sizeOf(values.nextElement());
+			}
+		}
+		return bytes;
+	}
+}
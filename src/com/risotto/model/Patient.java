@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Enumeration;
 import java.util.Hashtable;
 
 import android.content.ContentValues;
@@ -13,11 +14,13 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.CursorIndexOutOfBoundsException;
 import android.net.Uri;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.util.Log;
 
 import com.risotto.storage.StorageProvider;
 
-public class Patient implements Serializable {
+public class Patient implements Serializable, Parcelable {
 	
 	// Required Fields
 	private String firstName;
@@ -62,6 +65,19 @@ public class Patient implements Serializable {
 	// DEBUG: LOG_TAG
 	private static final String LOG_TAG = "RISOTTO_PATIENT";
 	
+	// The genders by ordinal, for reading parcels without copying values() every time.
+	private static final GENDER[] GENDERS = GENDER.values();
+	
+	public static final Parcelable.Creator<Patient> CREATOR = new Parcelable.Creator<Patient>() {
+		public Patient createFromParcel(Parcel in) {
+			return new Patient(in);
+		}
+
+		public Patient[] newArray(int size) {
+			return new Patient[size];
+		}
+	};
+	
 	public Patient(String firstName) {
 		this(INVALID_ID, firstName);
 	}
@@ -82,6 +98,56 @@ public class Patient implements Serializable {
 		this.gender = gender;
 	}
 
+	/**
+	 * Reads a patient written by writeToParcel(), field by field in the same order.
+	 */
+	private Patient(Parcel in) {
+		this._id = in.readInt();
+		this.firstName = in.readString();
+		this.lastName = in.readString();
+		int gender = in.readInt();
+		this.gender = (gender == -1) ? null : GENDERS[gender];
+		this.age = in.readInt();
+		
+		int relationCount = in.readInt();
+		if (relationCount != -1) {
+			this.relations = new Hashtable<Integer, String>(relationCount);
+			for (int i = 0; i < relationCount; i++) {
+				int relationId = in.readInt();
+				this.relations.put(relationId, in.readString());
+			}
+		}
+	}
+
+	public int describeContents() {
+		return 0;
+	}
+
+	/**
+	 * Writes every field straight to the parcel. The gender is written as its ordinal, or 
+	 * -1 for null, and the relations as a count (-1 for null) followed by the id and 
+	 * relation of each one.
+	 */
+	public void writeToParcel(Parcel out, int flags) {
+		out.writeInt(_id);
+		out.writeString(firstName);
+		out.writeString(lastName);
+		out.writeInt(gender == null ? -1 : gender.ordinal());
+		out.writeInt(age);
+		
+		if (relations == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(relations.size());
+			Enumeration<Integer> relationIds = relations.keys();
+			while (relationIds.hasMoreElements()) {
+				Integer relationId = relationIds.nextElement();
+				out.writeInt(relationId);
+				out.writeString(relations.get(relationId));
+			}
+		}
+	}
+
 	public int getAge() {
 		return age;
 	}
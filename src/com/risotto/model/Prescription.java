@@ -1,26 +1,28 @@
 package com.risotto.model;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.TimeZone;
 import java.util.Vector;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.util.Log;
 
 import com.risotto.storage.StorageProvider;
 
-public class Prescription implements Serializable {
+public class Prescription implements Serializable, Parcelable {
 
 	// Required fields
 	private Patient patient;
@@ -39,6 +41,7 @@ public class Prescription implements Serializable {
 	private int numDaysSupplied = -1;
 	private int numRefills = -1;
 	private Date expiration;
+	private Date created;
 	private Vector<Integer> daysOfWeek;
 	
 	// Scheduled time vectors
@@ -73,6 +76,20 @@ public class Prescription implements Serializable {
 	// DEBUG: LOG_TAG
 	private static final String LOG_TAG = "RISOTTO_PRESCRIPTION";
 	
+	// The first byte of a compact day times blob. Legacy blobs written by ObjectOutputStream 
+	// start with the stream magic number (0xACED) instead, so the two can't be confused.
+	private static final byte DAY_TIMES_FORMAT_COMPACT = 0x01;
+	
+	public static final Parcelable.Creator<Prescription> CREATOR = new Parcelable.Creator<Prescription>() {
+		public Prescription createFromParcel(Parcel in) {
+			return new Prescription(in);
+		}
+
+		public Prescription[] newArray(int size) {
+			return new Prescription[size];
+		}
+	};
+	
 	//default prescription projection to be used with fromCursor
 	public static final String[] DEFAULT_PRESCRIPTION_PROJECTION = {
 		StorageProvider.PrescriptionColumns._ID,
@@ -142,6 +159,129 @@ public class Prescription implements Serializable {
 		this.initializeAllDayVectors();
 	}
 
+	/**
+	 * Reads a prescription written by writeToParcel(), field by field in the same order. 
+	 * The patient and drug are read in place, with their own parcel constructors.
+	 */
+	private Prescription(Parcel in) {
+		this._id = in.readInt();
+		this.patient = (in.readInt() != 0) ? Patient.CREATOR.createFromParcel(in) : null;
+		this.drug = (in.readInt() != 0) ? Drug.CREATOR.createFromParcel(in) : null;
+		this.doseType = in.readInt();
+		this.doseSize = in.readInt();
+		this.totalUnits = in.readInt();
+		this.filled = readDate(in);
+		this.drName = in.readString();
+		this.prescripID = in.readInt();
+		this.cost = in.readInt();
+		this.numDaysSupplied = in.readInt();
+		this.numRefills = in.readInt();
+		this.expiration = readDate(in);
+		this.created = readDate(in);
+		
+		int dayCount = in.readInt();
+		if (dayCount != -1) {
+			this.daysOfWeek = new Vector<Integer>(dayCount);
+			for (int i = 0; i < dayCount; i++) {
+				this.daysOfWeek.add(in.readInt());
+			}
+		}
+		
+		this.sundayTimes = readDayVector(in);
+		this.mondayTimes = readDayVector(in);
+		this.tuesdayTimes = readDayVector(in);
+		this.wednesdayTimes = readDayVector(in);
+		this.thursdayTimes = readDayVector(in);
+		this.fridayTimes = readDayVector(in);
+		this.saturdayTimes = readDayVector(in);
+	}
+
+	public int describeContents() {
+		return 0;
+	}
+
+	/**
+	 * Writes every field straight to the parcel, with the patient and drug written in 
+	 * place after a flag that says whether they are there. The times are written as 
+	 * they are, so they come back exactly as they were added.
+	 */
+	public void writeToParcel(Parcel out, int flags) {
+		out.writeInt(_id);
+		
+		out.writeInt(patient != null ? 1 : 0);
+		if (patient != null) {
+			patient.writeToParcel(out, flags);
+		}
+		out.writeInt(drug != null ? 1 : 0);
+		if (drug != null) {
+			drug.writeToParcel(out, flags);
+		}
+		
+		out.writeInt(doseType);
+		out.writeInt(doseSize);
+		out.writeInt(totalUnits);
+		writeDate(out, filled);
+		out.writeString(drName);
+		out.writeInt(prescripID);
+		out.writeInt(cost);
+		out.writeInt(numDaysSupplied);
+		out.writeInt(numRefills);
+		writeDate(out, expiration);
+		writeDate(out, created);
+		
+		if (daysOfWeek == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(daysOfWeek.size());
+			for (int i = 0; i < daysOfWeek.size(); i++) {
+				out.writeInt(daysOfWeek.get(i));
+			}
+		}
+		
+		writeDayVector(out, sundayTimes);
+		writeDayVector(out, mondayTimes);
+		writeDayVector(out, tuesdayTimes);
+		writeDayVector(out, wednesdayTimes);
+		writeDayVector(out, thursdayTimes);
+		writeDayVector(out, fridayTimes);
+		writeDayVector(out, saturdayTimes);
+	}
+	
+	private static void writeDate(Parcel out, Date date) {
+		out.writeInt(date != null ? 1 : 0);
+		if (date != null) {
+			out.writeLong(date.getTime());
+		}
+	}
+	
+	private static Date readDate(Parcel in) {
+		return (in.readInt() != 0) ? new Date(in.readLong()) : null;
+	}
+	
+	private static void writeDayVector(Parcel out, Vector<String> dayVector) {
+		if (dayVector == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(dayVector.size());
+			for (int i = 0; i < dayVector.size(); i++) {
+				out.writeString(dayVector.get(i));
+			}
+		}
+	}
+	
+	private static Vector<String> readDayVector(Parcel in) {
+		int count = in.readInt();
+		if (count == -1) {
+			return null;
+		}
+		
+		Vector<String> dayVector = new Vector<String>(count);
+		for (int i = 0; i < count; i++) {
+			dayVector.add(in.readString());
+		}
+		return dayVector;
+	}
+
 	public Patient getPatient() {
 		return patient;
 	}
@@ -238,6 +378,17 @@ public class Prescription implements Serializable {
 		this.expiration = expiration;
 	}
 
+	/**
+	 * Returns when the prescription was stored, or null if it isn't stored yet.
+	 */
+	public Date getCreated() {
+		return created;
+	}
+
+	public void setCreated(Date created) {
+		this.created = created;
+	}
+
 	public int get_id() {
 		return _id;
 	}
@@ -615,6 +766,86 @@ public class Prescription implements Serializable {
 		}
 	}
 	
+	/**
+	 * Builds the recurrence of the times on the scheduled days, whatever the dose type.
+	 *
+	 * @param timeZone the time zone the times are local to
+	 * @param start no dose is due before this time, in ms
+	 * @param count the most doses from the start, or Recurrence.UNLIMITED
+	 * @return the recurrence of this prescription's doses
+	 */
+	public Recurrence getRecurrence(TimeZone timeZone, long start, int count) {
+		int[][] minutesByDay = new int[7][];
+		
+		Enumeration<ScheduledDay> scheduledDays = this.getAllScheduledTimeVectors();
+		while (scheduledDays.hasMoreElements()) {
+			ScheduledDay scheduledDay = scheduledDays.nextElement();
+			Vector<String> times = scheduledDay.getTimes();
+			
+			int[] minutes = new int[times.size()];
+			for (int i = 0; i < minutes.length; i++) {
+				minutes[i] = timeToMinutes(times.get(i));
+			}
+			minutesByDay[scheduledDay.getDay() - Calendar.SUNDAY] = minutes;
+		}
+		
+		return new Recurrence(minutesByDay, timeZone, start, count);
+	}
+
+	/**
+	 * Returns the number of fills, the first one and its refills.
+	 */
+	public int getNumFills() {
+		return 1 + Math.max(this.numRefills, 0);
+	}
+
+	/**
+	 * Returns the number of doses the units of every fill make up, or
+	 * Recurrence.UNLIMITED if the total units or the dose size isn't known.
+	 */
+	public int getDosesSupplied() {
+		if (this.totalUnits <= 0 || this.doseSize <= 0) {
+			return Recurrence.UNLIMITED;
+		}
+
+		return (this.totalUnits / this.doseSize) * this.getNumFills();
+	}
+
+	/**
+	 * Builds the recurrence of the doses the supply covers. The supply starts when the
+	 * prescription was filled, or at the given time if the fill date isn't known, and
+	 * lasts for the doses the units make up and for the days supplied of every fill,
+	 * whichever runs out first. Without either it goes on forever. No doses are
+	 * supplied once the prescription has expired.
+	 *
+	 * @param timeZone the time zone the times are local to
+	 * @param start when the supply starts if the fill date isn't known, in ms
+	 * @return the recurrence of the supplied doses
+	 */
+	public Recurrence getSupplyRecurrence(TimeZone timeZone, long start) {
+		if (this.filled != null) {
+			start = this.filled.getTime();
+		}
+
+		int count = this.getDosesSupplied();
+		Recurrence unlimited = this.getRecurrence(timeZone, start, Recurrence.UNLIMITED);
+
+		if (this.numDaysSupplied > 0) {
+			long end = Recurrence.addDays(start, this.numDaysSupplied * this.getNumFills(), timeZone);
+			count = limit(count, unlimited.count(start, end));
+		}
+		if (this.expiration != null) {
+			count = limit(count, unlimited.count(start, this.expiration.getTime()));
+		}
+
+		return this.getRecurrence(timeZone, start, count);
+	}
+
+	// Lowers a count of doses, which may be unlimited, to the given limit.
+	private static int limit(int count, long limit) {
+		return (count == Recurrence.UNLIMITED || limit < count) ? (int) limit : count;
+	}
+
 	private boolean areDayVectorsEmpty() {
 		
 		if ( this.sundayTimes != null && !this.sundayTimes.isEmpty() 
@@ -640,41 +871,134 @@ public class Prescription implements Serializable {
 		this.saturdayTimes = new Vector<String>();
 	}
 	
-	private byte[] dayVectorToBytes(Vector<String> dayVector) {
-		byte[] returnArray = null;
-		
-		Log.d(LOG_TAG, "Atempting to convert a day vector to bytes...");
-		
-		// Trim the vector to remove any unnecessary space.
-		dayVector.trimToSize();
+	/**
+	 * Converts a time in the "H:MM" format to the number of minutes since midnight.
+	 * 
+	 * @param time the time to convert, e.g. "7:30" or "07:30"
+	 * @return the minutes since midnight
+	 * @throws NumberFormatException if the time can't be parsed
+	 */
+	public static int timeToMinutes(String time) throws NumberFormatException {
+		int separator = time.indexOf(':');
+		if (separator == -1) {
+			throw new NumberFormatException("Not a valid time: " + time);
+		}
+		int hours = Integer.parseInt(time.substring(0, separator).trim());
+		int minutes = Integer.parseInt(time.substring(separator + 1).trim());
+		return hours * 60 + minutes;
+	}
+	
+	/**
+	 * Converts a number of minutes since midnight to a time in the "H:MM" format.
+	 * 
+	 * @param minutesSinceMidnight the minutes since midnight
+	 * @return the time, e.g. "7:30"
+	 */
+	public static String minutesToTime(int minutesSinceMidnight) {
+		int minutes = minutesSinceMidnight % 60;
+		return (minutesSinceMidnight / 60) + (minutes < 10 ? ":0" : ":") + minutes;
+	}
+	
+	/**
+	 * Encodes a day vector in the compact format: a format byte followed by 
+	 * each time as a two byte, big endian count of minutes since midnight.
+	 */
+	private static byte[] dayVectorToBytes(Vector<String> dayVector) {
+		byte[] returnArray = new byte[1 + dayVector.size() * 2];
 		
-		try {
-			ByteArrayOutputStream bos = new ByteArrayOutputStream(); 
-			ObjectOutputStream oos = new ObjectOutputStream(bos); 
-			// Serialize the vector
-			oos.writeObject(dayVector);
-			// Flush the stream
-			oos.flush();
-			// Create the byte array
-			byte[] relationBytes = bos.toByteArray();
-			// Set the return value.
-			returnArray = relationBytes;
-			// Close the stream
-			oos.close();
-		} catch (IOException e) {
-			Log.e(LOG_TAG, "Could not write the Vector<String> object to byte array.");
-			e.printStackTrace();
-		} 
+		returnArray[0] = DAY_TIMES_FORMAT_COMPACT;
 		
-		Log.d(LOG_TAG, "Returning after converting day vector to bytes...");
+		for (int i = 0; i < dayVector.size(); i++) {
+			int minutes = timeToMinutes(dayVector.get(i));
+			returnArray[1 + i * 2] = (byte) (minutes >> 8);
+			returnArray[2 + i * 2] = (byte) minutes;
+		}
 		
 		return returnArray;
 	}
 	
+	/**
+	 * Decodes a day vector written in either the compact format or the legacy 
+	 * Java serialization format.
+	 */
 	private Vector<String> dayVectorFromBytes(byte[] dayBytes) {
+		if (isLegacyDayBytes(dayBytes)) {
+			return legacyDayVectorFromBytes(dayBytes);
+		}
+		
+		int[] minutes = minutesFromDayBytes(dayBytes);
+		Vector<String> dayVector = new Vector<String>(minutes.length);
+		
+		for (int i = 0; i < minutes.length; i++) {
+			dayVector.add(minutesToTime(minutes[i]));
+		}
+		
+		return dayVector;
+	}
+	
+	/**
+	 * Decodes a day times blob, in either the compact or the legacy format, to 
+	 * the stored times as minutes since midnight. Used by the storage provider 
+	 * to keep the prescription_times table in step with the day columns.
+	 * 
+	 * @param dayBytes the blob stored in one of the day columns
+	 * @return the times as minutes since midnight, empty if the blob can't be read
+	 */
+	public static int[] minutesFromDayBytes(byte[] dayBytes) {
+		if (isLegacyDayBytes(dayBytes)) {
+			Vector<String> dayVector = legacyDayVectorFromBytes(dayBytes);
+			if (dayVector == null) {
+				return new int[0];
+			}
+			int[] minutes = new int[dayVector.size()];
+			for (int i = 0; i < minutes.length; i++) {
+				minutes[i] = timeToMinutes(dayVector.get(i));
+			}
+			return minutes;
+		}
+		
+		int[] minutes = new int[(dayBytes.length - 1) / 2];
+		for (int i = 0; i < minutes.length; i++) {
+			minutes[i] = ((dayBytes[1 + i * 2] & 0xFF) << 8) | (dayBytes[2 + i * 2] & 0xFF);
+		}
+		return minutes;
+	}
+	
+	/**
+	 * Reads the times stored in the given day column of the cursor.
+	 */
+	private Vector<String> readDayTimes(Cursor cursor, String columnName) {
+		return this.dayVectorFromBytes(cursor.getBlob(cursor.getColumnIndex(columnName)));
+	}
+	
+	/**
+	 * Re-encodes a legacy day times blob in the compact format. Used by the storage 
+	 * provider's migration, so rows are never rewritten while they are being read.
+	 * 
+	 * @param dayBytes the blob stored in one of the day columns
+	 * @return the compact blob, or null if the blob is already compact or can't be read
+	 */
+	public static byte[] compactDayBytes(byte[] dayBytes) {
+		if (!isLegacyDayBytes(dayBytes)) {
+			return null;
+		}
+		
+		Vector<String> dayVector = legacyDayVectorFromBytes(dayBytes);
+		return (dayVector != null) ? dayVectorToBytes(dayVector) : null;
+	}
+	
+	/**
+	 * Returns whether the blob was written by the old ObjectOutputStream encoding, 
+	 * which always starts with the serialization stream magic number.
+	 */
+	private static boolean isLegacyDayBytes(byte[] dayBytes) {
+		return dayBytes.length >= 2 && dayBytes[0] == (byte) 0xAC && dayBytes[1] == (byte) 0xED;
+	}
+	
+	private static Vector<String> legacyDayVectorFromBytes(byte[] dayBytes) {
 		Vector<String> dayVector = null;
 		
-		Log.d(LOG_TAG, "Attempting to parse day bytes into a vector...");
+		Log.d(LOG_TAG, "Attempting to parse legacy day bytes into a vector...");
 		
 		try {
 			ByteArrayInputStream bis = new ByteArrayInputStream(dayBytes);           
@@ -691,8 +1015,6 @@ public class Prescription implements Serializable {
 			e.printStackTrace();
 		}
 		
-		Log.d(LOG_TAG, "Returning after converting day bytes into a vector...");
-		
 		return dayVector;
 	}
 
@@ -845,11 +1167,6 @@ public class Prescription implements Serializable {
 	 * @return the ContentValues object for storing in db
 	 */
 	public ContentValues toContentValues(Context context) {
-		ContentValues cv = new ContentValues();
-
-		// Is this a new prescription? (check _id)
-		boolean newPrescription = (this._id == INVALID_ID ? true : false);
-
 		// Is this a new drug?
 		boolean newDrug = (drug.get_id() == INVALID_ID ? true : false);
 
@@ -875,6 +1192,66 @@ public class Prescription implements Serializable {
 					Integer.parseInt(patientUri.getPathSegments().get(1)));
 		}
 
+		// Return the 'ContentValues' to the caller
+		return this.buildContentValues();
+	}
+	
+	/**
+	 * Appends the operations needed to insert this prescription to the given batch. 
+	 * If the drug or patient has not been stored yet, an insert is appended for it 
+	 * as well and the prescription picks up the new row id through a back reference, 
+	 * so the whole batch can be committed in one ContentResolver.applyBatch() call.
+	 * 
+	 * @param operations the batch to append to
+	 */
+	public void addInsertOperations(ArrayList<ContentProviderOperation> operations) {
+		// The batch indexes of the drug and patient inserts, if any.
+		int drugIndex = -1;
+		int patientIndex = -1;
+		
+		// If the drug is new, insert it ahead of the prescription.
+		if (drug.get_id() == INVALID_ID) {
+			drugIndex = operations.size();
+			operations.add(ContentProviderOperation.newInsert(StorageProvider.DrugColumns.CONTENT_URI)
+					.withValues(this.getDrug().toContentValues())
+					.build());
+		}
+		
+		// If the patient is new, insert it ahead of the prescription.
+		if (patient.get_id() == INVALID_ID) {
+			patientIndex = operations.size();
+			operations.add(ContentProviderOperation.newInsert(StorageProvider.PatientColumns.CONTENT_URI)
+					.withValues(this.getPatient().toContentValues())
+					.build());
+		}
+		
+		ContentProviderOperation.Builder builder = ContentProviderOperation
+				.newInsert(StorageProvider.PrescriptionColumns.CONTENT_URI)
+				.withValues(this.buildContentValues());
+		
+		// Point the prescription at the rows inserted above.
+		if (drugIndex != -1) {
+			builder.withValueBackReference(StorageProvider.PrescriptionColumns.PRESCRIPTION_DRUG, drugIndex);
+		}
+		if (patientIndex != -1) {
+			builder.withValueBackReference(StorageProvider.PrescriptionColumns.PRESCRIPTION_PATIENT, patientIndex);
+		}
+		
+		operations.add(builder.build());
+	}
+	
+	/**
+	 * Builds the content values for this prescription using the drug and patient 
+	 * ids currently held in memory.
+	 * 
+	 * @return the content values for this prescription
+	 */
+	private ContentValues buildContentValues() {
+		ContentValues cv = new ContentValues();
+		
+		// Is this a new prescription? (check _id)
+		boolean newPrescription = (this._id == INVALID_ID ? true : false);
+
 		// If the prescription is not new, we need to provide the _id
 		if (!newPrescription) {
 			// Give the previous _id to the caller
@@ -941,6 +1318,10 @@ public class Prescription implements Serializable {
 		if ( this.getExpiration() != null) {
 			cv.put(StorageProvider.PrescriptionColumns.PRESCRIPTION_DATE_EXPIRATION, this.getExpiration().getTime());
 		}
+		// Keep when it was stored, insert() sets it for a new prescription.
+		if (this.getCreated() != null) {
+			cv.put(StorageProvider.PrescriptionColumns.PRESCRIPTION_DATE_CREATED, this.getCreated().getTime());
+		}
 		
 		// If there is schedule data...
 		if ( this.isScheduled() ) {
@@ -956,37 +1337,37 @@ public class Prescription implements Serializable {
 				case Calendar.SUNDAY:
 					// There is some data on sunday, add it to the content values
 					Log.d(LOG_TAG, "Found some data on Sunday, converting it to add to the content values.");
-					cv.put(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_SUNDAY, this.dayVectorToBytes(this.sundayTimes));
+					cv.put(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_SUNDAY, dayVectorToBytes(this.sundayTimes));
 					break;
 				case Calendar.MONDAY:
 					// There is some data on monday, add it to the content values
 					Log.d(LOG_TAG, "Found some data on Monday, converting it to add to the content values.");
-					cv.put(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_MONDAY, this.dayVectorToBytes(this.mondayTimes));
+					cv.put(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_MONDAY, dayVectorToBytes(this.mondayTimes));
 					break;
 				case Calendar.TUESDAY:
 					// There is some data on tuesday, add it to the content values
 					Log.d(LOG_TAG, "Found some data on Tuesday, converting it to add to the content values.");
-					cv.put(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_TUESDAY, this.dayVectorToBytes(this.tuesdayTimes));
+					cv.put(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_TUESDAY, dayVectorToBytes(this.tuesdayTimes));
 					break;
 				case Calendar.WEDNESDAY:
 					// There is some data on wednesday, add it to the content values
 					Log.d(LOG_TAG, "Found some data on Wednesday, converting it to add to the content values.");
-					cv.put(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_WEDNESDAY, this.dayVectorToBytes(this.wednesdayTimes));
+					cv.put(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_WEDNESDAY, dayVectorToBytes(this.wednesdayTimes));
 					break;
 				case Calendar.THURSDAY:
 					// There is some data on thursday, add it to the content values
 					Log.d(LOG_TAG, "Found some data on Thursday, converting it to add to the content values.");
-					cv.put(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_THURSDAY, this.dayVectorToBytes(this.thursdayTimes));
+					cv.put(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_THURSDAY, dayVectorToBytes(this.thursdayTimes));
 					break;
 				case Calendar.FRIDAY:
 					// There is some data on friday, add it to the content values
 					Log.d(LOG_TAG, "Found some data on Friday, converting it to add to the content values.");
-					cv.put(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_FRIDAY, this.dayVectorToBytes(this.fridayTimes));
+					cv.put(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_FRIDAY, dayVectorToBytes(this.fridayTimes));
 					break;
 				case Calendar.SATURDAY:
 					// There is some data on saturday, add it to the content values
 					Log.d(LOG_TAG, "Found some data on Saturday, converting it to add to the content values.");
-					cv.put(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_SATURDAY, this.dayVectorToBytes(this.saturdayTimes));
+					cv.put(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_SATURDAY, dayVectorToBytes(this.saturdayTimes));
 					break;
 				default:
 					// Not sure how we would get to this case, panic...
@@ -1021,7 +1402,6 @@ public class Prescription implements Serializable {
 	 */
 	public static Prescription fromCursor(Cursor cursor, Context context) {
 		// Create the new objects.
-		Prescription newPrescription = null;
 		Patient newPatient = null;
 		Drug newDrug = null;
 		
@@ -1032,27 +1412,60 @@ public class Prescription implements Serializable {
 		
 		int patientId = cursor.getInt(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_PATIENT));
 		Log.d(LOG_TAG, "Patient ID: " + patientId);
-		// Get the Patient object from the id
-		Uri myPatient = ContentUris.withAppendedId(StorageProvider.PatientColumns.CONTENT_URI, patientId);
-		Cursor patientCursor = context.getApplicationContext().getContentResolver().query(myPatient, null, null, null, null);
-		patientCursor.moveToFirst();
-		newPatient = Patient.fromCursor(patientCursor);
-		patientCursor.close();
+		// Get the Patient object from the id, the cache only queries it once and hands out copies.
+		newPatient = ModelCache.getPatient(context, patientId);
 		
 		int drugId = cursor.getInt(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DRUG));
 		Log.d(LOG_TAG, "Drug ID: " + drugId);
 		// Get the drug object from the id
-		Uri myDrug = ContentUris.withAppendedId(StorageProvider.DrugColumns.CONTENT_URI, drugId);
-		Cursor drugCursor = context.getApplicationContext().getContentResolver().query(myDrug, null, null, null, null);
-		drugCursor.moveToFirst();
-		newDrug = Drug.fromCursor(drugCursor);
-		drugCursor.close();
+		newDrug = ModelCache.getDrug(context, drugId);
+		
+		return readPrescription(cursor, _id, newPatient, newDrug);
+	}
+	
+	/**
+	 * Builds a Prescription, along with its Patient and Drug, from a single row of a 
+	 * PrescriptionColumns.FULL_CONTENT_URI cursor. Unlike fromCursor() this doesn't 
+	 * run any further queries, so a list of prescriptions can be read in one pass.
+	 * <br><br>
+	 * Note: this function does not operate on the cursor's location in the search results, so when passed in
+	 * the cursor must be pointing to the correct row.
+	 * 
+	 * @param cursor a cursor on the prescriptions/full URI
+	 * @param context the application context
+	 * @return a populated Prescription object
+	 */
+	public static Prescription fromJoinedCursor(Cursor cursor, Context context) {
+		int _id = cursor.getInt(cursor.getColumnIndex(StorageProvider.PrescriptionColumns._ID));
 		
+		// The _id column belongs to the prescription, so take the patient 
+		// and drug ids from the prescription's foreign keys instead.
+		int patientId = cursor.getInt(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_PATIENT));
+		Patient newPatient = ModelCache.peekPatient(patientId);
+		if (newPatient == null) {
+			newPatient = Patient.fromCursor(cursor);
+			newPatient.set_id(patientId);
+		}
+		
+		int drugId = cursor.getInt(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DRUG));
+		Drug newDrug = ModelCache.peekDrug(drugId);
+		if (newDrug == null) {
+			newDrug = Drug.fromCursor(cursor);
+			newDrug.set_id(drugId);
+		}
+		
+		return readPrescription(cursor, _id, newPatient, newDrug);
+	}
+	
+	/**
+	 * Reads the prescription's own columns from the cursor.
+	 */
+	private static Prescription readPrescription(Cursor cursor, int _id, Patient newPatient, Drug newDrug) {
 		// Get the dose type.
 		int doseType = cursor.getInt(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DOSE_TYPE));
 
 		// Instantiate the prescription object.
-		newPrescription = new Prescription(_id, newPatient, newDrug, doseType);
+		Prescription newPrescription = new Prescription(_id, newPatient, newDrug, doseType);
 		
 		/**
 		 * GET THE OPTIONAL FIELDS.
@@ -1069,8 +1482,7 @@ public class Prescription implements Serializable {
 		}
 		// Get the date filled.
 		if ( !cursor.isNull(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DATE_FILLED))) {
-			int dateFilledInt = cursor.getInt(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DATE_FILLED));
-			newPrescription.setFilled(new Date((long)dateFilledInt));
+			newPrescription.setFilled(new Date(cursor.getLong(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DATE_FILLED))));
 		}
 		// Get the Dr's name.
 		if ( !cursor.isNull(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DR_NAME))) {
@@ -1094,53 +1506,40 @@ public class Prescription implements Serializable {
 		}
 		// Get the expiration.
 		if ( !cursor.isNull(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DATE_EXPIRATION))) {
-			int dateExpiredInt = cursor.getInt(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DATE_EXPIRATION));
-			newPrescription.setExpiration(new Date((long)dateExpiredInt));
+			newPrescription.setExpiration(new Date(cursor.getLong(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DATE_EXPIRATION))));
+		}
+		// Get when it was stored, if the cursor has the column.
+		int createdIndex = cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DATE_CREATED);
+		if ( createdIndex != -1 && !cursor.isNull(createdIndex)) {
+			newPrescription.setCreated(new Date(cursor.getLong(createdIndex)));
 		}
 		// Get the scheduled days of the week.
 		if ( !cursor.isNull(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_SUNDAY))) {
-			Log.d(LOG_TAG, "Found cursor data on Sunday, attempting to parse and add it...");
-			// Get the byte[] from the cursor
-			byte[] sundayData = cursor.getBlob(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_SUNDAY));
-			// Parse and set the resulting vector of times
-			newPrescription.sundayTimes = newPrescription.dayVectorFromBytes(sundayData);
-			// Make sure the scheduling vector has been updated for this day
+			newPrescription.sundayTimes = newPrescription.readDayTimes(cursor, StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_SUNDAY);
 			newPrescription.addDay(columnNameToDay(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_SUNDAY));
 		}
 		if ( !cursor.isNull(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_MONDAY))) {
-			Log.d(LOG_TAG, "Found cursor data on Monday, attempting to parse and add it...");
-			byte[] mondayData = cursor.getBlob(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_MONDAY));
-			newPrescription.mondayTimes = newPrescription.dayVectorFromBytes(mondayData);
+			newPrescription.mondayTimes = newPrescription.readDayTimes(cursor, StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_MONDAY);
 			newPrescription.addDay(columnNameToDay(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_MONDAY));
 		}
 		if ( !cursor.isNull(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_TUESDAY))) {
-			Log.d(LOG_TAG, "Found cursor data on Tuesday, attempting to parse and add it...");
-			byte[] tuesdayData = cursor.getBlob(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_TUESDAY));
-			newPrescription.tuesdayTimes = newPrescription.dayVectorFromBytes(tuesdayData);
+			newPrescription.tuesdayTimes = newPrescription.readDayTimes(cursor, StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_TUESDAY);
 			newPrescription.addDay(columnNameToDay(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_TUESDAY));
 		}
 		if ( !cursor.isNull(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_WEDNESDAY))) {
-			Log.d(LOG_TAG, "Found cursor data on Wednesday, attempting to parse and add it...");
-			byte[] wednesdayData = cursor.getBlob(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_WEDNESDAY));
-			newPrescription.wednesdayTimes = newPrescription.dayVectorFromBytes(wednesdayData);
+			newPrescription.wednesdayTimes = newPrescription.readDayTimes(cursor, StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_WEDNESDAY);
 			newPrescription.addDay(columnNameToDay(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_WEDNESDAY));
 		}
 		if ( !cursor.isNull(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_THURSDAY))) {
-			Log.d(LOG_TAG, "Found cursor data on Thursday, attempting to parse and add it...");
-			byte[] thursdayData = cursor.getBlob(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_THURSDAY));
-			newPrescription.thursdayTimes = newPrescription.dayVectorFromBytes(thursdayData);
+			newPrescription.thursdayTimes = newPrescription.readDayTimes(cursor, StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_THURSDAY);
 			newPrescription.addDay(columnNameToDay(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_THURSDAY));
 		}
 		if ( !cursor.isNull(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_FRIDAY))) {
-			Log.d(LOG_TAG, "Found cursor data on Friday, attempting to parse and add it...");
-			byte[] fridayData = cursor.getBlob(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_FRIDAY));
-			newPrescription.fridayTimes = newPrescription.dayVectorFromBytes(fridayData);
+			newPrescription.fridayTimes = newPrescription.readDayTimes(cursor, StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_FRIDAY);
 			newPrescription.addDay(columnNameToDay(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_FRIDAY));
 		}
 		if ( !cursor.isNull(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_SATURDAY))) {
-			Log.d(LOG_TAG, "Found cursor data on Saturday, attempting to parse and add it...");
-			byte[] saturdayData = cursor.getBlob(cursor.getColumnIndex(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_SATURDAY));
-			newPrescription.saturdayTimes = newPrescription.dayVectorFromBytes(saturdayData);
+			newPrescription.saturdayTimes = newPrescription.readDayTimes(cursor, StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_SATURDAY);
 			newPrescription.addDay(columnNameToDay(StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_SATURDAY));
 		}
 
@@ -0,0 +1,359 @@
+package com.risotto.model;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Expands a weekly schedule, a list of local times for each day of the week, into the
+ * times in ms at which the doses are due. Only java.util is used, so a recurrence can
+ * be built and checked on any JVM.
+ * <br><br>
+ * The times are local times in the given time zone, so a dose at 8:00 stays at 8:00
+ * across daylight saving time changes. A time that doesn't exist on the day the clocks
+ * go forward is due at the change itself, and a time that happens twice on the day the
+ * clocks go back is only due the first time. The times in a window always come out in
+ * order.
+ * <br><br>
+ * A recurrence starts at a given time and may be limited to a number of doses; the
+ * doses are counted in order from the start. Nothing is allocated per dose, expand()
+ * writes the times into an array the caller can keep reusing.
+ */
+public final class Recurrence {
+
+	// Returned by next() when there are no more doses.
+	public static final long NO_OCCURRENCE = Long.MAX_VALUE;
+	// Returned by getLast() when there are no doses at all.
+	public static final long NO_DOSES = Long.MIN_VALUE;
+	// The count of a recurrence that goes on forever.
+	public static final int UNLIMITED = -1;
+
+	private static final long MINUTE_IN_MS = 60 * 1000L;
+	private static final long DAY_IN_MS = 24 * 60 * MINUTE_IN_MS;
+	private static final int MINUTES_IN_ONE_DAY = 24 * 60;
+	private static final int DAYS_IN_ONE_WEEK = 7;
+	// Far enough from any offset change to see the offsets on either side of it.
+	private static final long HALF_DAY_IN_MS = DAY_IN_MS / 2;
+	// 1970-01-01, local day 0, was a Thursday; this makes the day index 0 a Sunday.
+	private static final int EPOCH_DAY_INDEX = Calendar.THURSDAY - Calendar.SUNDAY;
+
+	private final TimeZone mTimeZone;
+	// The sorted distinct minutes of each day, indexed from Sunday.
+	private final int[][] mMinutes;
+	private final int mWeekCount;
+
+	private final long mStart;
+	// The index, as counted by slotsBefore(), of the first slot past the count limit.
+	private final long mEndIndex;
+
+	/**
+	 * @param minutesByDay the times of each day in minutes since midnight, indexed from
+	 * Calendar.SUNDAY - 1; null or empty for a day without doses
+	 * @param timeZone the time zone the times are local to
+	 * @param start no dose is due before this time, in ms
+	 * @param count the most doses from the start, or UNLIMITED
+	 * @throws IllegalArgumentException if there aren't seven days or a time isn't within a day
+	 */
+	public Recurrence(int[][] minutesByDay, TimeZone timeZone, long start, int count) throws IllegalArgumentException {
+		if (minutesByDay.length != DAYS_IN_ONE_WEEK) {
+			throw new IllegalArgumentException("A week has seven days, not " + minutesByDay.length);
+		}
+
+		mTimeZone = timeZone;
+		mMinutes = new int[DAYS_IN_ONE_WEEK][];
+		int weekCount = 0;
+
+		for (int day = 0; day < DAYS_IN_ONE_WEEK; day++) {
+			mMinutes[day] = sortedDistinct(minutesByDay[day]);
+			weekCount += mMinutes[day].length;
+		}
+		mWeekCount = weekCount;
+
+		mStart = start;
+		mEndIndex = (count == UNLIMITED || weekCount == 0) ? Long.MAX_VALUE : this.slotsBefore(start) + count;
+	}
+
+	private static int[] sortedDistinct(int[] minutes) {
+		if (minutes == null || minutes.length == 0) {
+			return new int[0];
+		}
+
+		int[] sorted = minutes.clone();
+		Arrays.sort(sorted);
+
+		int distinct = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (sorted[i] < 0 || sorted[i] >= MINUTES_IN_ONE_DAY) {
+				throw new IllegalArgumentException("Not a time of day: " + sorted[i]);
+			}
+			if (i == 0 || sorted[i] != sorted[i - 1]) {
+				sorted[distinct++] = sorted[i];
+			}
+		}
+
+		if (distinct < sorted.length) {
+			int[] trimmed = new int[distinct];
+			System.arraycopy(sorted, 0, trimmed, 0, distinct);
+			return trimmed;
+		}
+		return sorted;
+	}
+
+	/**
+	 * Returns the number of doses in a week.
+	 */
+	public int getWeekCount() {
+		return mWeekCount;
+	}
+
+	/**
+	 * Checks whether every day of the week has the same times, so each time repeats
+	 * every day rather than once a week.
+	 */
+	public boolean isDaily() {
+		if (mWeekCount == 0) {
+			return false;
+		}
+
+		for (int day = 1; day < DAYS_IN_ONE_WEEK; day++) {
+			if (!Arrays.equals(mMinutes[day], mMinutes[0])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the first dose due at or after the given time.
+	 *
+	 * @param time the time in ms
+	 * @return the time of the dose, or NO_OCCURRENCE if there are no more doses
+	 */
+	public long next(long time) {
+		long low = Math.max(time, mStart);
+		if (mWeekCount == 0 || low == NO_OCCURRENCE) {
+			return NO_OCCURRENCE;
+		}
+
+		if (this.slotsBefore(low) >= mEndIndex) {
+			return NO_OCCURRENCE;
+		}
+
+		// The day before may end after low when the clocks went back at midnight.
+		for (long day = this.localDay(low) - 1;; day++) {
+			int[] minutes = mMinutes[dayIndex(day)];
+
+			for (int i = 0; i < minutes.length; i++) {
+				long next = this.toTime(day * DAY_IN_MS + minutes[i] * MINUTE_IN_MS);
+				if (next >= low) {
+					return next;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the doses due from from (inclusive) to to (exclusive) into the array, in order.
+	 *
+	 * @param from the start of the window in ms
+	 * @param to the end of the window in ms
+	 * @param times the array the times are written to; once it is full the rest are left out
+	 * @return the number of times written
+	 */
+	public int expand(long from, long to, long[] times) {
+		if (mWeekCount == 0 || times.length == 0) {
+			return 0;
+		}
+
+		long low = Math.max(from, mStart);
+		if (low >= to) {
+			return 0;
+		}
+
+		long index = this.slotsBefore(low);
+		int written = 0;
+
+		// The day before may end after low when the clocks went back at midnight.
+		for (long day = this.localDay(low) - 1; index < mEndIndex; day++) {
+			int[] minutes = mMinutes[dayIndex(day)];
+
+			for (int i = 0; i < minutes.length; i++) {
+				long time = this.toTime(day * DAY_IN_MS + minutes[i] * MINUTE_IN_MS);
+				if (time < low) {
+					continue;
+				}
+				if (time >= to) {
+					return written;
+				}
+
+				times[written++] = time;
+				index++;
+				if (written == times.length || index >= mEndIndex) {
+					return written;
+				}
+			}
+		}
+
+		return written;
+	}
+
+	/**
+	 * Counts the doses due from from (inclusive) to to (exclusive), without going through them.
+	 *
+	 * @param from the start of the window in ms
+	 * @param to the end of the window in ms
+	 * @return the number of doses
+	 */
+	public long count(long from, long to) {
+		if (mWeekCount == 0) {
+			return 0;
+		}
+
+		long low = Math.max(from, mStart);
+		if (low >= to) {
+			return 0;
+		}
+
+		long count = Math.min(this.slotsBefore(to), mEndIndex) - this.slotsBefore(low);
+		return Math.max(0, count);
+	}
+
+	/**
+	 * Returns the time of the last dose, NO_OCCURRENCE if the doses go on forever, or
+	 * NO_DOSES if the count is zero.
+	 */
+	public long getLast() {
+		if (mEndIndex == Long.MAX_VALUE) {
+			return NO_OCCURRENCE;
+		}
+
+		long index = this.slotsBefore(mStart);
+		if (index >= mEndIndex) {
+			// A count of zero.
+			return NO_DOSES;
+		}
+
+		// Skip the whole weeks, then walk the days to the last dose.
+		long day = this.localDay(mStart) - 1;
+		long weeks = (mEndIndex - index) / mWeekCount - 1;
+		if (weeks > 0) {
+			day += weeks * DAYS_IN_ONE_WEEK;
+		}
+		index = this.slotsBeforeDay(day);
+
+		for (;; day++) {
+			int[] minutes = mMinutes[dayIndex(day)];
+			if (index + minutes.length >= mEndIndex) {
+				int last = (int) (mEndIndex - index) - 1;
+				return this.toTime(day * DAY_IN_MS + minutes[last] * MINUTE_IN_MS);
+			}
+			index += minutes.length;
+		}
+	}
+
+	/**
+	 * Moves a time by a number of days, keeping its local time of day.
+	 *
+	 * @param time the time in ms
+	 * @param days the number of days, may be negative
+	 * @param timeZone the time zone the time of day is kept in
+	 * @return the moved time in ms
+	 */
+	public static long addDays(long time, int days, TimeZone timeZone) {
+		long local = time + timeZone.getOffset(time) + days * DAY_IN_MS;
+		return toTime(local, timeZone);
+	}
+
+	/**
+	 * Counts the slots, from local day 0, that are due before the given time.
+	 */
+	private long slotsBefore(long time) {
+		long day = this.localDay(time);
+		// The day before may end after the time when the clocks went back at midnight.
+		long count = this.slotsBeforeDay(day - 1);
+
+		for (long d = day - 1; d <= day; d++) {
+			int[] minutes = mMinutes[dayIndex(d)];
+			for (int i = 0; i < minutes.length; i++) {
+				if (this.toTime(d * DAY_IN_MS + minutes[i] * MINUTE_IN_MS) < time) {
+					count++;
+				}
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Counts the slots of the local days before the given day, from local day 0.
+	 */
+	private long slotsBeforeDay(long day) {
+		long weeks = floorDiv(day, DAYS_IN_ONE_WEEK);
+		long count = weeks * mWeekCount;
+
+		for (long d = weeks * DAYS_IN_ONE_WEEK; d < day; d++) {
+			count += mMinutes[dayIndex(d)].length;
+		}
+
+		return count;
+	}
+
+	private long localDay(long time) {
+		return floorDiv(time + mTimeZone.getOffset(time), DAY_IN_MS);
+	}
+
+	private long toTime(long local) {
+		return toTime(local, mTimeZone);
+	}
+
+	/**
+	 * Finds the time in ms of a local time, given as ms since local day 0.
+	 */
+	private static long toTime(long local, TimeZone timeZone) {
+		long standard = local - timeZone.getRawOffset();
+		int offsetBefore = timeZone.getOffset(standard - HALF_DAY_IN_MS);
+		int offsetAfter = timeZone.getOffset(standard + HALF_DAY_IN_MS);
+
+		if (offsetBefore == offsetAfter) {
+			return local - offsetBefore;
+		}
+
+		// The offset changes near this time. Prefer the time before the change, which is
+		// the first of the two when the clocks go back.
+		long before = local - offsetBefore;
+		if (timeZone.getOffset(before) == offsetBefore) {
+			return before;
+		}
+		long after = local - offsetAfter;
+		if (timeZone.getOffset(after) == offsetAfter) {
+			return after;
+		}
+
+		// The clocks skipped this time, find the minute they changed at.
+		long low = after;
+		long high = before;
+		while (high - low > MINUTE_IN_MS) {
+			long middle = low + (high - low) / 2;
+			if (timeZone.getOffset(middle) == offsetBefore) {
+				low = middle;
+			} else {
+				high = middle;
+			}
+		}
+		return high - floorMod(high, MINUTE_IN_MS);
+	}
+
+	// The day of the week of a local day, 0 for Sunday.
+	private static int dayIndex(long day) {
+		return (int) floorMod(day + EPOCH_DAY_INDEX, DAYS_IN_ONE_WEEK);
+	}
+
+	private static long floorDiv(long x, long y) {
+		long quotient = x / y;
+		return (x % y != 0 && (x < 0) != (y < 0)) ? quotient - 1 : quotient;
+	}
+
+	private static long floorMod(long x, long y) {
+		return x - floorDiv(x, y) * y;
+	}
+}
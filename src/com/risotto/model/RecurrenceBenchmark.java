@@ -0,0 +1,110 @@
+package com.risotto.model;
+
+import java.util.TimeZone;
+
+/**
+ * Benchmark for Recurrence. Unlike the other benchmarks it doesn't need a device, Recurrence
+ * only uses java.util, so it is run with main() on any JVM with Recurrence and this class on
+ * the class path, and reports to standard out.
+ *
+ * A prescription with four times a day, one of them in the hour the clocks skip in the
+ * spring, is expanded over a week and a year from different starts in a time zone with
+ * daylight saving time, then its doses are counted over a year and its last dose found
+ * with a count limit. The time per call is reported for each.
+ */
+public class RecurrenceBenchmark {
+
+	// The number of calls timed for each case.
+	private static final int ITERATIONS = 100000;
+	// A year of doses takes longer to expand, so fewer of those calls are timed.
+	private static final int EXPAND_ITERATIONS = 1000;
+	// The calls made first, so the code is compiled before anything is timed.
+	private static final int WARM_UP_ITERATIONS = 10000;
+
+	private static final long HOUR_IN_MS = 60 * 60 * 1000L;
+	private static final long DAY_IN_MS = 24 * HOUR_IN_MS;
+
+	// Every result is added in here, so the JIT can't leave out the timed calls.
+	private static volatile long sResults = 0;
+
+	public static void main(String[] args) {
+		log("Starting the recurrence benchmark...");
+
+		TimeZone timeZone = TimeZone.getTimeZone("America/New_York");
+		int[] times = { 90, 150, 480, 1290 };
+		int[][] minutesByDay = new int[7][];
+		for (int day = 0; day < minutesByDay.length; day++) {
+			minutesByDay[day] = times;
+		}
+
+		// 2026-01-01 00:00 UTC, the starts are an hour apart from there.
+		long start = 1767225600000L;
+		Recurrence unlimited = new Recurrence(minutesByDay, timeZone, start, Recurrence.UNLIMITED);
+		long[] buffer = new long[4 * 366];
+
+		log("expand() over a week", timeExpand(unlimited, start, 7 * DAY_IN_MS, buffer));
+		log("expand() over a year", timeExpand(unlimited, start, 365 * DAY_IN_MS, buffer));
+		log("count() over a year", timeCount(unlimited, start, 365 * DAY_IN_MS));
+		log("getLast() of 90 doses", timeLast(minutesByDay, timeZone, start, 90));
+
+		log("Recurrence benchmark complete.");
+	}
+
+	private static long timeExpand(Recurrence recurrence, long start, long window, long[] buffer) {
+		long found = 0;
+		for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+			long from = start + (i % 8760) * HOUR_IN_MS;
+			found += recurrence.expand(from, from + window, buffer);
+		}
+
+		long begin = System.nanoTime();
+		for (int i = 0; i < EXPAND_ITERATIONS; i++) {
+			long from = start + (i % 8760) * HOUR_IN_MS;
+			found += recurrence.expand(from, from + window, buffer);
+		}
+		long nanos = (System.nanoTime() - begin) / (EXPAND_ITERATIONS);
+		sResults += found;
+		return nanos;
+	}
+
+	private static long timeCount(Recurrence recurrence, long start, long window) {
+		long found = 0;
+		for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+			long from = start + (i % 8760) * HOUR_IN_MS;
+			found += recurrence.count(from, from + window);
+		}
+
+		long begin = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			long from = start + (i % 8760) * HOUR_IN_MS;
+			found += recurrence.count(from, from + window);
+		}
+		long nanos = (System.nanoTime() - begin) / ITERATIONS;
+		sResults += found;
+		return nanos;
+	}
+
+	private static long timeLast(int[][] minutesByDay, TimeZone timeZone, long start, int count) {
+		long last = 0;
+		for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+			last += new Recurrence(minutesByDay, timeZone, start + (i % 8760) * HOUR_IN_MS, count).getLast();
+		}
+
+		long begin = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			last += new Recurrence(minutesByDay, timeZone, start + (i % 8760) * HOUR_IN_MS, count).getLast();
+		}
+		long nanos = (System.nanoTime() - begin) / ITERATIONS;
+		sResults += last;
+		return nanos;
+	}
+
+	private static void log(String name, long nanos) {
+		log(name + ": " + (nanos / 1000) + "." + ((nanos % 1000) / 100) + "us per call");
+	}
+
+	private static void log(String message) {
+		System.out.println(message);
+	}
+
+}
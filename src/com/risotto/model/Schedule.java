@@ -144,11 +144,11 @@ public class Schedule {
 		
 		int prescriptionId = cursor.getInt(cursor.getColumnIndex(StorageProvider.ScheduleColumns.SCHEDULES_PRESCRIPTION));
 		
-		long firstTime = cursor.getInt(cursor.getColumnIndex(StorageProvider.ScheduleColumns.SCHEDULES_FIRST_TIME));
+		long firstTime = cursor.getLong(cursor.getColumnIndex(StorageProvider.ScheduleColumns.SCHEDULES_FIRST_TIME));
 		
 		int interval = cursor.getInt(cursor.getColumnIndex(StorageProvider.ScheduleColumns.SCHEDULES_INTERVAL));
 		
-		long nextTime = cursor.getInt(cursor.getColumnIndex(StorageProvider.ScheduleColumns.SCHEDULES_NEXT_TIME));
+		long nextTime = cursor.getLong(cursor.getColumnIndex(StorageProvider.ScheduleColumns.SCHEDULES_NEXT_TIME));
 		
 		int countRemain = cursor.getInt(cursor.getColumnIndex(StorageProvider.ScheduleColumns.SCHEDULES_COUNT_REMAIN));
 		
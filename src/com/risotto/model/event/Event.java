@@ -1,5 +1,7 @@
 package com.risotto.model.event;
 
+import java.util.List;
+
 import android.content.Context;
 
 import com.risotto.model.Prescription;
@@ -50,6 +52,11 @@ public class Event {
 		NotificationEvent.storeNotificationEvent(context, event);
 	}
 	
+	// Log a number of events at once, e.g. for doses handled together
+	public static void logNotificationEvents(Context context, List<NotificationEvent> events) {
+		NotificationEvent.storeNotificationEvents(context, events);
+	}
+	
 	/*
 	 * System Event Methods.
 	 */
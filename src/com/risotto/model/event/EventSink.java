@@ -0,0 +1,207 @@
+package com.risotto.model.event;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.risotto.storage.StorageProvider;
+
+/**
+ * Buffers events in memory and writes them to the event tables on a background thread,
+ * so logging an event never waits on the disk. Events are written in batches, each in a
+ * single transaction, once FLUSH_SIZE events are waiting or FLUSH_DELAY_MS after the
+ * first one was added, whichever comes first.
+ *
+ * The buffer holds at most CAPACITY events. When it is full, add() blocks until the
+ * background thread has made room. Call flush() before the process may go away.
+ *
+ * If a batch fails, its events are written again one at a time, so one bad row only
+ * loses itself.
+ */
+public class EventSink {
+
+	private static final String LOG_TAG = "RISOTTO_EVENT_SINK";
+
+	// The most events that can wait in the buffer.
+	private static final int CAPACITY = 256;
+	// The number of waiting events that triggers a flush right away.
+	private static final int FLUSH_SIZE = 32;
+	// The longest an event waits before it is flushed.
+	private static final long FLUSH_DELAY_MS = 2000;
+
+	private static EventSink sInstance;
+
+	private final Context mContext;
+	private final Handler mHandler;
+
+	// The ring buffer of waiting events, each a table uri and its values.
+	private final Uri[] mUris = new Uri[CAPACITY];
+	private final ContentValues[] mValues = new ContentValues[CAPACITY];
+	private int mHead = 0;
+	private int mCount = 0;
+
+	private final Runnable mFlush = new Runnable() {
+		public void run() {
+			EventSink.this.flush();
+		}
+	};
+
+	private EventSink(Context context) {
+		mContext = context;
+
+		HandlerThread thread = new HandlerThread("RisottoEventSink", Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		mHandler = new Handler(thread.getLooper());
+	}
+
+	public static synchronized EventSink getInstance(Context context) {
+		if (sInstance == null) {
+			sInstance = new EventSink(context.getApplicationContext());
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Queues one row for the given event table. If the caller is interrupted while
+	 * waiting for room, the row is written right away instead and the interrupt is kept.
+	 *
+	 * @param uri the content uri of the event table
+	 * @param values the row to insert
+	 */
+	public void add(Uri uri, ContentValues values) {
+		if (!this.enqueue(uri, values)) {
+			this.insert(uri, values);
+		}
+	}
+
+	/**
+	 * Queues rows for the given event table together, e.g. the events of the doses a user
+	 * handled at once, and has them written right away rather than after FLUSH_DELAY_MS.
+	 *
+	 * @param uri the content uri of the event table
+	 * @param values the rows to insert
+	 */
+	public void addAll(Uri uri, List<ContentValues> values) {
+		if (values.isEmpty()) {
+			return;
+		}
+
+		for (int i = 0; i < values.size(); i++) {
+			this.add(uri, values.get(i));
+		}
+
+		mHandler.removeCallbacks(mFlush);
+		mHandler.post(mFlush);
+	}
+
+	/**
+	 * Puts one row into the buffer, waiting for room if it is full.
+	 *
+	 * @return false if the caller was interrupted and the row wasn't queued
+	 */
+	private synchronized boolean enqueue(Uri uri, ContentValues values) {
+		// Apply backpressure: wait for the background thread to drain the buffer.
+		while (mCount == CAPACITY) {
+			Log.d(LOG_TAG, "The event buffer is full, waiting for a flush...");
+			mHandler.removeCallbacks(mFlush);
+			mHandler.post(mFlush);
+			try {
+				this.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+
+		int tail = (mHead + mCount) % CAPACITY;
+		mUris[tail] = uri;
+		mValues[tail] = values;
+		mCount++;
+
+		if (mCount == FLUSH_SIZE) {
+			// Enough events are waiting, write them now.
+			mHandler.removeCallbacks(mFlush);
+			mHandler.post(mFlush);
+		} else if (mCount == 1) {
+			// The first event of a batch starts the timer.
+			mHandler.postDelayed(mFlush, FLUSH_DELAY_MS);
+		}
+		return true;
+	}
+
+	/**
+	 * Writes every waiting event on the calling thread, in a single transaction. If the
+	 * transaction fails, the events are written one at a time.
+	 */
+	public void flush() {
+		ArrayList<Uri> uris;
+		ArrayList<ContentValues> rows;
+		ArrayList<ContentProviderOperation> operations;
+
+		synchronized (this) {
+			mHandler.removeCallbacks(mFlush);
+
+			if (mCount == 0) {
+				return;
+			}
+
+			uris = new ArrayList<Uri>(mCount);
+			rows = new ArrayList<ContentValues>(mCount);
+			operations = new ArrayList<ContentProviderOperation>(mCount);
+
+			while (mCount > 0) {
+				uris.add(mUris[mHead]);
+				rows.add(mValues[mHead]);
+				operations.add(ContentProviderOperation.newInsert(mUris[mHead]).withValues(mValues[mHead]).build());
+				mUris[mHead] = null;
+				mValues[mHead] = null;
+				mHead = (mHead + 1) % CAPACITY;
+				mCount--;
+			}
+
+			// Wake up anyone waiting for room.
+			this.notifyAll();
+		}
+
+		Log.d(LOG_TAG, "Flushing " + operations.size() + " events...");
+
+		try {
+			mContext.getContentResolver().applyBatch(StorageProvider.AUTHORITY, operations);
+			return;
+		} catch (RemoteException e) {
+			Log.e(LOG_TAG, "Unable to store the batch of events.", e);
+		} catch (OperationApplicationException e) {
+			Log.e(LOG_TAG, "Unable to store the batch of events.", e);
+		} catch (SQLException e) {
+			Log.e(LOG_TAG, "Unable to store the batch of events.", e);
+		}
+
+		// The batch was rolled back as a whole, so none of its rows are stored yet.
+		Log.d(LOG_TAG, "Writing the " + rows.size() + " events one at a time...");
+		for (int i = 0; i < rows.size(); i++) {
+			this.insert(uris.get(i), rows.get(i));
+		}
+	}
+
+	/**
+	 * Writes one row on the calling thread, logging it if it can't be stored.
+	 */
+	private void insert(Uri uri, ContentValues values) {
+		try {
+			mContext.getContentResolver().insert(uri, values);
+		} catch (SQLException e) {
+			Log.e(LOG_TAG, "Unable to store the event " + values + " in " + uri, e);
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package com.risotto.model.event;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import android.content.ContentValues;
 import android.content.Context;
@@ -23,6 +25,9 @@ public class NotificationEvent extends Event {
 	 * - Delay: The user has delayed the current medication alarm for a later date
 	 * - Dismiss: The user has closed the drug reminder notification dialog
 	 * - Skip: The user has chosen to skip this dosage
+	 * - Missed: The dose came due without being handled, e.g. while the phone was off
+	 * 
+	 * The ordinals are stored, so new types go at the end.
 	 */
 	public enum NotificationEventType {
 		TAKEN,
@@ -30,7 +35,8 @@ public class NotificationEvent extends Event {
 		DISMISS,
 		SKIP,
 		OTHER,
-		NONE
+		NONE,
+		MISSED
 	}
 	
 	public NotificationEvent(long timestamp, int prescriptionId, NotificationEventType eventType) {
@@ -146,7 +152,17 @@ public class NotificationEvent extends Event {
 	
 	protected static void storeNotificationEvent(Context context, NotificationEvent notificationEvent) {
 		ContentValues notificationContentValues = notificationEvent.toContentValues();
-		context.getContentResolver().insert(StorageProvider.NotificationEventColumns.CONTENT_URI, notificationContentValues);
+		// Queue the row, it is written in the background along with other events.
+		EventSink.getInstance(context).add(StorageProvider.NotificationEventColumns.CONTENT_URI, notificationContentValues);
+	}
+	
+	protected static void storeNotificationEvents(Context context, List<NotificationEvent> notificationEvents) {
+		ArrayList<ContentValues> notificationContentValues = new ArrayList<ContentValues>(notificationEvents.size());
+		for (int i = 0; i < notificationEvents.size(); i++) {
+			notificationContentValues.add(notificationEvents.get(i).toContentValues());
+		}
+		// Queue the rows together, they are written in one transaction.
+		EventSink.getInstance(context).addAll(StorageProvider.NotificationEventColumns.CONTENT_URI, notificationContentValues);
 	}
 	
 }
@@ -176,7 +176,8 @@ public class SyncEvent extends Event {
 	
 	protected static void storeSyncEvent(Context context, SyncEvent syncEvent) {
 		ContentValues syncContentValues = syncEvent.toContentValues();
-		context.getContentResolver().insert(StorageProvider.SyncEventColumns.CONTENT_URI, syncContentValues);
+		// Queue the row, it is written in the background along with other events.
+		EventSink.getInstance(context).add(StorageProvider.SyncEventColumns.CONTENT_URI, syncContentValues);
 	}
 	
 }
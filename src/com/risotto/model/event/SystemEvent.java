@@ -184,7 +184,8 @@ public class SystemEvent extends Event {
 	
 	protected static void storeSystemEvent(Context context, SystemEvent systemEvent) {
 		ContentValues systemContentValues = systemEvent.toContentValues();
-		context.getContentResolver().insert(StorageProvider.SystemEventColumns.CONTENT_URI, systemContentValues);
+		// Queue the row, it is written in the background along with other events.
+		EventSink.getInstance(context).add(StorageProvider.SystemEventColumns.CONTENT_URI, systemContentValues);
 	}
 	
 }
\ No newline at end of file
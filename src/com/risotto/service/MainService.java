@@ -1,29 +1,51 @@
 package com.risotto.service;
 
-import java.util.Calendar;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.TimeZone;
 
 import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.text.format.DateFormat;
 import android.util.Log;
 
 import com.risotto.controller.StatusBarNotification;
 import com.risotto.controller.StatusBarNotificationManager;
+import com.risotto.model.Dose;
 import com.risotto.model.Drug;
+import com.risotto.model.ModelCache;
 import com.risotto.model.Patient;
 import com.risotto.model.Prescription;
-import com.risotto.model.Prescription.ScheduledDay;
+import com.risotto.model.Recurrence;
 import com.risotto.model.Schedule;
+import com.risotto.model.event.Event;
+import com.risotto.model.event.EventSink;
+import com.risotto.model.event.NotificationEvent;
+import com.risotto.model.event.NotificationEvent.NotificationEventType;
 import com.risotto.storage.StorageProvider;
 
 public class MainService extends Service {
@@ -35,14 +57,131 @@ public class MainService extends Service {
 	public static final String ACTION_START_SERVICE = "com.risotto.service.START_SERVICE";
 	// The intent used to schedule an alarm.
 	public static final String ACTION_ALARM_TRIGGER = "com.risotto.service.ALARM_TRIGGER";
-	// The intent used to schedule an alarm.
+	// The intent sent when the user unlocks the screen, it only re-arms the next alarm.
 	public static final String ACTION_ALARM_SCHEDULE = "com.risotto.service.ALARM_SCHEDULE";
 	// The intent used when the schedules need to be recalculated.
 	public static final String ACTION_ALARM_RESCHEDULE = "com.risotto.service.ALARM_RESCHEDULE";
 
+	// The intent sent by the single alarm of the next alarm scheduler.
+	public static final String ACTION_ALARM_DUE = "com.risotto.service.ALARM_DUE";
+	
+	// The intent sent once a day to archive the old events.
+	public static final String ACTION_EVENT_MAINTENANCE = "com.risotto.service.EVENT_MAINTENANCE";
+	
+	// The intent sent when the user clears a notification, followed by ":" and the notification id.
+	public static final String ACTION_NOTIFICATION_DISMISSED = "com.risotto.service.NOTIFICATION_DISMISSED";
+	
+	// The intents sent when the user took or snoozed the doses of a patient's notification.
+	public static final String ACTION_DOSES_TAKEN = "com.risotto.service.DOSES_TAKEN";
+	public static final String ACTION_DOSES_SNOOZED = "com.risotto.service.DOSES_SNOOZED";
+	// The patient id placed in the dose intents.
+	public static final String EXTRA_PATIENT_ID = "PATIENT_ID";
+
 	// The schedule id placed in the alarm pending intent
 	private static final String PENDING_INTENT_SCHEDULE_ID = "SCHEDULE_ID";
 	
+	// The shared preferences that configure the scheduler.
+	public static final String SCHEDULER_PREFERENCES = "scheduler";
+	// The scheduler mode, one of the SCHEDULER_MODE constants.
+	public static final String PREFERENCE_SCHEDULER_MODE = "scheduler_mode";
+	// How far ahead, in ms, doses are handled when the next alarm fires.
+	public static final String PREFERENCE_DUE_WINDOW = "due_window";
+	// How old, in ms, an event gets before it is moved to the event archives.
+	public static final String PREFERENCE_EVENT_RETENTION = "event_retention";
+	// How long, in ms, a snoozed dose waits before it is shown again.
+	public static final String PREFERENCE_SNOOZE_TIME = "snooze_time";
+	
+	// One repeating alarm for every schedule.
+	public static final int SCHEDULER_MODE_PER_SCHEDULE = 0;
+	// A single alarm armed for the earliest next time in the schedules table.
+	public static final int SCHEDULER_MODE_NEXT_ALARM = 1;
+	
+	public static final int DEFAULT_SCHEDULER_MODE = SCHEDULER_MODE_NEXT_ALARM;
+	// Five minutes.
+	public static final long DEFAULT_DUE_WINDOW = 5 * Schedule.SECONDS_IN_ONE_MINUTE * Schedule.MS_IN_ONE_SECOND;
+	// Ninety days.
+	public static final long DEFAULT_EVENT_RETENTION = 90L * Schedule.TWENTY_FOUR_HOURS_IN_MS;
+	// Ten minutes.
+	public static final long DEFAULT_SNOOZE_TIME = 10 * Schedule.SECONDS_IN_ONE_MINUTE * Schedule.MS_IN_ONE_SECOND;
+	
+	// How long the observer waits for a burst of prescription changes to settle before rescheduling.
+	private static final long RESCHEDULE_DEBOUNCE_MS = 500;
+	
+	// All of the schedule table work runs on this thread, one pass at a time.
+	private HandlerThread mScheduleThread;
+	private Handler mScheduleHandler;
+	
+	// Held from the start of each command until the work it posted has run, as an alarm 
+	// doesn't keep the device awake once it has started the service. Reference counted.
+	private PowerManager.WakeLock mWakeLock;
+	
+	// The only prescription observer, registered for the life of the service.
+	private PrescriptionContentObserver mPrescriptionObserver;
+	
+	// The number of change notifications folded into the pending reschedule, only used on the schedule thread.
+	private int mPendingChanges = 0;
+	
+	// Set when the pending reschedule has to go over every prescription, e.g. after a time change.
+	private volatile boolean mFullReschedule = false;
+	
+	private final Runnable mReschedule = new Runnable() {
+		public void run() {
+			long start = SystemClock.uptimeMillis();
+			
+			boolean full = mFullReschedule;
+			mFullReschedule = false;
+			// Taken even for a full pass, which covers these changes too.
+			Set<Integer> changed = StorageProvider.takeChangedPrescriptions();
+			if (full) {
+				changed = null;
+			}
+			
+			if (changed == null || !changed.isEmpty()) {
+				MainService.this.schedulePrescriptions(changed);
+			}
+			
+			Log.d(LOG_TAG, "Rescheduling " + ((changed == null) ? "all" : String.valueOf(changed.size())) + " prescriptions for " 
+					+ mPendingChanges + " changes took " + (SystemClock.uptimeMillis() - start) + "ms.");
+			mPendingChanges = 0;
+		}
+	};
+	
+	private final Runnable mHandleDue = new Runnable() {
+		public void run() {
+			MainService.this.handleDueSchedules();
+		}
+	};
+	
+	private final Runnable mEventMaintenance = new Runnable() {
+		public void run() {
+			MainService.this.archiveOldEvents();
+		}
+	};
+	
+	private final Runnable mCatchUp = new Runnable() {
+		public void run() {
+			MainService.this.catchUpMissedDoses();
+		}
+	};
+	
+	private final Runnable mRestoreNotifications = new Runnable() {
+		public void run() {
+			new StatusBarNotificationManager(MainService.this).restore();
+		}
+	};
+	
+	private final Runnable mArmNextAlarm = new Runnable() {
+		public void run() {
+			MainService.this.armNextAlarm();
+		}
+	};
+	
+	private final Runnable mReleaseWakeLock = new Runnable() {
+		public void run() {
+			mWakeLock.release();
+		}
+	};
+	
 	@Override
 	public IBinder onBind(Intent intent) {
 		return null;
@@ -52,225 +191,739 @@ public class MainService extends Service {
 	public void onCreate() {
 		Log.d(LOG_TAG, "onCreate has been called...");
 		super.onCreate();
+		
+		mScheduleThread = new HandlerThread("RisottoScheduler", Process.THREAD_PRIORITY_BACKGROUND);
+		mScheduleThread.start();
+		mScheduleHandler = new Handler(mScheduleThread.getLooper());
+		
+		PowerManager powerManager = (PowerManager) this.getSystemService(Context.POWER_SERVICE);
+		mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, LOG_TAG);
+		
+		// Listen for any changes that may occur to the prescriptions, on the schedule thread.
+		mPrescriptionObserver = new PrescriptionContentObserver(mScheduleHandler);
+		this.getApplicationContext().getContentResolver().registerContentObserver(StorageProvider.PrescriptionColumns.CONTENT_URI, true, mPrescriptionObserver);
 	}
 
 	@Override
 	public void onDestroy() {
 		Log.d(LOG_TAG, "onDestroy has been called...");
+		
+		this.getApplicationContext().getContentResolver().unregisterContentObserver(mPrescriptionObserver);
+		// Run a waiting reschedule now instead of after its delay, the maintenance runs again with its alarm.
+		mScheduleHandler.removeCallbacks(mReschedule);
+		mScheduleHandler.post(mReschedule);
+		mScheduleHandler.removeCallbacks(mEventMaintenance);
+		
+		// Let the queued work finish, the due doses among it and the wake lock releases 
+		// that follow it, before the thread quits.
+		final HandlerThread scheduleThread = mScheduleThread;
+		mScheduleHandler.post(new Runnable() {
+			public void run() {
+				// Write out any events that are still buffered.
+				EventSink.getInstance(MainService.this).flush();
+				scheduleThread.quit();
+			}
+		});
+		
 		super.onDestroy();
 	}
 
 	@Override
 	public void onLowMemory() {
 		Log.d(LOG_TAG, "onLowMemory has been called...");
+		ModelCache.clear();
 		super.onLowMemory();
 	}
 
 	@Override
 	public int onStartCommand(Intent intent, int flags, int startId) {
-		// Handle this command by passing it to the following method.
-		handleCommand(intent);
+		if (intent == null) {
+			// The service was restarted after its process was killed, start over as after a boot.
+			intent = new Intent(ACTION_START_SERVICE);
+		}
+		
+		mWakeLock.acquire();
+		try {
+			// Handle this command by passing it to the following method.
+			handleCommand(intent);
+		} finally {
+			// Released once the work the command posted has run.
+			mScheduleHandler.post(mReleaseWakeLock);
+		}
 		
 		return Service.START_STICKY;
 	}
 	
 	/**
+	 * Builds the schedules the given prescription should have, one for each of its 
+	 * times, starting at the next occurrence of that time. Every dose type is stored 
+	 * as times on the days of the week, so the interval follows those times rather 
+	 * than the dose type: when every day has the same times each time repeats every 
+	 * day, otherwise each time repeats on its day of the week, every week. Each 
+	 * schedule counts the doses it has left before the supply runs out, and the times 
+	 * without any are left out. A prescription of an unknown dose type gets no 
+	 * schedules.
 	 * 
+	 * @param prescription the prescription that needs to be scheduled
+	 * @param lastDose the time of the last dose the supply covers, 
+	 * Recurrence.NO_OCCURRENCE if the supply isn't known, or Recurrence.NO_DOSES if it 
+	 * is used up
+	 * @return the desired schedules
+	 */
+	private ArrayList<Schedule> buildSchedules(Prescription prescription, long lastDose) {
+		Log.d(LOG_TAG, "Building the schedules for prescription id: " + prescription.get_id());
+		
+		Log.d(LOG_TAG, "Prescription dose type: " + prescription.getDoseType());
+		
+		// The schedules for this prescription, stored together once they are all built.
+		ArrayList<Schedule> newSchedules = new ArrayList<Schedule>();
+		
+		switch (prescription.getDoseType()) {
+			case Prescription.DOSE_TYPE_EVERY_DAY_OF_WEEK:
+			case Prescription.DOSE_TYPE_EVERY_HOUR:
+			case Prescription.DOSE_TYPE_EVERY_HOUR_DAY_OF_WEEK:
+			case Prescription.DOSE_TYPE_EVERY_DAY:
+			case Prescription.DOSE_TYPE_OTHER:
+				break;
+			default:
+				Log.e(LOG_TAG, "Prescription " + prescription.get_id() + " has an unknown dose type, it isn't scheduled.");
+				return newSchedules;
+		}
+		
+		TimeZone timeZone = TimeZone.getDefault();
+		long now = System.currentTimeMillis();
+		Recurrence recurrence = prescription.getRecurrence(timeZone, now, Recurrence.UNLIMITED);
+		
+		int intervalInDays;
+		int interval;
+		
+		if (recurrence.isDaily()) {
+			intervalInDays = 1;
+			interval = Schedule.TWENTY_FOUR_HOURS_IN_MS;
+		} else {
+			intervalInDays = Schedule.SEVEN_DAYS_IN_DAYS;
+			interval = Schedule.SEVEN_DAYS_IN_MS;
+		}
+		
+		// Within one interval from now every time comes up exactly once, at its first time.
+		long[] firstTimes = new long[recurrence.getWeekCount()];
+		int count = recurrence.expand(now, Recurrence.addDays(now, intervalInDays, timeZone), firstTimes);
+		
+		for (int i = 0; i < count; i++) {
+			Log.d(LOG_TAG, "The 'first time' of this schedule: " + new Date(firstTimes[i]).toString() );
+			
+			// The first time is also the next time it is due.
+			Schedule schedule = new Schedule(prescription.get_id(), firstTimes[i], interval, firstTimes[i]);
+			schedule.setCountRemain(countRemaining(schedule, schedule.getNextTime(), lastDose));
+			
+			if (schedule.getCountRemain() != 0) {
+				newSchedules.add(schedule);
+			}
+		}
+		
+		return newSchedules;
+	}
+	
+	/**
+	 * Finds the time of the last dose the prescription's supply covers. A supply 
+	 * without a fill date is counted from when the prescription was stored, which 
+	 * doesn't move when its schedules are rebuilt, so the doses already due stay used 
+	 * up when the prescription is scheduled again.
 	 * 
+	 * @param prescription the scheduled prescription
+	 * @return the time of the last dose, Recurrence.NO_OCCURRENCE if the supply isn't 
+	 * known, or Recurrence.NO_DOSES if it doesn't cover a single dose
+	 */
+	private long getLastDose(Prescription prescription) {
+		return prescription.getSupplyRecurrence(TimeZone.getDefault(), getSupplyStart(prescription)).getLast();
+	}
+	
+	/**
+	 * Returns when the prescription's supply starts: when it was filled, or else when 
+	 * it was stored.
+	 */
+	private static long getSupplyStart(Prescription prescription) {
+		if (prescription.getFilled() != null) {
+			return prescription.getFilled().getTime();
+		}
+		return (prescription.getCreated() != null) ? prescription.getCreated().getTime() : System.currentTimeMillis();
+	}
+	
+	/**
+	 * Queues the change that brings the stored run out date of a prescription in line 
+	 * with the time of its last dose: an insert, an update, a delete once the supply 
+	 * isn't known, or nothing if the date didn't change. A supply without any doses 
+	 * ran out when it started.
 	 * 
-	 * @param prescriptionId id of prescription that needs to be scheduled
+	 * @param prescriptionId the prescription's id
+	 * @param stored the stored run out date, or null if there is none
+	 * @param lastDose the time of the last dose, Recurrence.NO_OCCURRENCE, or 
+	 * getSupplyStart() for Recurrence.NO_DOSES
+	 * @param operations the list the operation is added to
 	 */
-	private void scheduleNewPrescription(int prescriptionId) {
-		Log.d(LOG_TAG, "Scheduling a new prescription in the schedule table...");
-		Log.d(LOG_TAG, "Scheduling prescription id: " + prescriptionId);
+	private void queueRunout(int prescriptionId, Long stored, long lastDose, ArrayList<ContentProviderOperation> operations) {
+		String runoutWhere = StorageProvider.PrescriptionRunoutColumns._ID + "=?";
+		String[] runoutWhereArgs = { String.valueOf(prescriptionId) };
 		
-		Uri prescriptionUri = ContentUris.withAppendedId(StorageProvider.PrescriptionColumns.CONTENT_URI, prescriptionId);
+		if (lastDose == Recurrence.NO_OCCURRENCE) {
+			if (stored != null) {
+				operations.add(ContentProviderOperation.newDelete(StorageProvider.PrescriptionRunoutColumns.CONTENT_URI)
+						.withSelection(runoutWhere, runoutWhereArgs)
+						.build());
+			}
+		} else if (stored == null) {
+			operations.add(ContentProviderOperation.newInsert(StorageProvider.PrescriptionRunoutColumns.CONTENT_URI)
+					.withValue(StorageProvider.PrescriptionRunoutColumns._ID, prescriptionId)
+					.withValue(StorageProvider.PrescriptionRunoutColumns.PRESCRIPTION_RUNOUTS_DATE, lastDose)
+					.build());
+		} else if (stored.longValue() != lastDose) {
+			operations.add(ContentProviderOperation.newUpdate(StorageProvider.PrescriptionRunoutColumns.CONTENT_URI)
+					.withValue(StorageProvider.PrescriptionRunoutColumns.PRESCRIPTION_RUNOUTS_DATE, lastDose)
+					.withSelection(runoutWhere, runoutWhereArgs)
+					.build());
+		}
+	}
+	
+	/**
+	 * Counts the doses of the given schedule from the given time up to the last dose.
+	 * 
+	 * @return the number of doses, or Schedule.DEFAULT_COUNT_REMAINING if the supply isn't known
+	 */
+	private static int countRemaining(Schedule schedule, long from, long lastDose) {
+		if (lastDose == Recurrence.NO_OCCURRENCE) {
+			return Schedule.DEFAULT_COUNT_REMAINING;
+		}
+		if (lastDose == Recurrence.NO_DOSES) {
+			// The supply is used up, nothing is left to remind of.
+			return 0;
+		}
+		if (schedule.getInterval() <= 0) {
+			return (from <= lastDose) ? 1 : 0;
+		}
 		
-		String[] prescriptionProjection = { 
-				StorageProvider.PrescriptionColumns._ID,
-				StorageProvider.PrescriptionColumns.PRESCRIPTION_PATIENT,
-				StorageProvider.PrescriptionColumns.PRESCRIPTION_DRUG,
-				StorageProvider.PrescriptionColumns.PRESCRIPTION_DOSE_TYPE,
-				StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_SUNDAY,
-				StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_MONDAY,
-				StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_TUESDAY,
-				StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_WEDNESDAY,
-				StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_THURSDAY,
-				StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_FRIDAY,
-				StorageProvider.PrescriptionColumns.PRESCRIPTION_DAY_SATURDAY
-				};
+		int count = 0;
+		for (long time = from; time <= lastDose; time = addInterval(time, schedule)) {
+			count++;
+		}
 		
-		Cursor prescriptionCursor = this.getApplicationContext().getContentResolver().query(prescriptionUri, prescriptionProjection, null, null, null);
+		return count;
+	}
+	
+	/**
+	 * Sets the per schedule alarm for the given schedule, replacing any alarm it 
+	 * already has.
+	 */
+	private void setScheduleAlarm(int scheduleId, long alarmTime) {
+		// Get an instance of the AlarmManager
+		AlarmManager am = (AlarmManager)this.getApplicationContext().getSystemService(Context.ALARM_SERVICE);
 		
-		prescriptionCursor.moveToFirst();
+		// Create a pending intent which will be sent when the alarm is done.
+		Intent scheduleIntent = this.buildPrescriptionIntent(scheduleId);
+		PendingIntent pendingIntent = PendingIntent.getService(this, 0, scheduleIntent, PendingIntent.FLAG_ONE_SHOT);
 		
-		Prescription prescription = Prescription.fromCursor(prescriptionCursor, this.getApplicationContext());
+		// Have the AlarmManager schedule the alarm.
+		Log.d(LOG_TAG, "Setting an alarm for: " + new Date(alarmTime).toString() );
+		Log.d(LOG_TAG, "Difference of: " + (alarmTime - System.currentTimeMillis()) );
 		
-		Log.d(LOG_TAG, "Prescription dose type: " + prescription.getDoseType());
+		am.set(AlarmManager.RTC_WAKEUP, alarmTime, pendingIntent);
+	}
+	
+	private void cancelScheduleAlarm(int scheduleId) {
+		// Get an instance of the AlarmManager
+		AlarmManager am = (AlarmManager)this.getApplicationContext().getSystemService(Context.ALARM_SERVICE);
 		
-		switch (prescription.getDoseType()) {
-			case Prescription.DOSE_TYPE_EVERY_DAY:
-			case Prescription.DOSE_TYPE_EVERY_HOUR:
-				
-				Log.d(LOG_TAG, "Dose type is every day or every hour...");
-				
-				// Pick any day and schedule an alarm for each time with an interval of 24 hours
-				Enumeration<String> sundayTimes = prescription.getScheduledTimes(Calendar.SUNDAY);
-				
-				while(sundayTimes.hasMoreElements()) {
-					// Get the next scheduled time
-					String scheduledTime = sundayTimes.nextElement();
-					
-					Log.d(LOG_TAG, "The current time to schedule: " + scheduledTime);
-					
-					// Parse out the hours and minutes from the times
-					String hourValue = scheduledTime.split(":")[0];
-					String minuteValue = scheduledTime.split(":")[1];
-					
-					// Get an instance of the current date/time
-					Calendar firstDate = Calendar.getInstance();
-					
-					// Set the hour/minute in todays date
-					firstDate.set(Calendar.HOUR_OF_DAY, Integer.parseInt(hourValue));
-					firstDate.set(Calendar.MINUTE, Integer.parseInt(minuteValue));
-					firstDate.set(Calendar.SECOND, Schedule.ZERO);
-					
-					Log.d(LOG_TAG, "Current date/time: " + new Date(System.currentTimeMillis()).toString());
-					Log.d(LOG_TAG, "The 'first time' of this schedule: " + new Date(firstDate.getTimeInMillis()).toString() );
-					
-					// See if we have already passed the first scheduled time...
-					if ( firstDate.getTimeInMillis() < System.currentTimeMillis() ) {
-						// If we have, schedule it for 24 hours from now
-						firstDate.add(Calendar.HOUR, Schedule.TWENTY_FOUR_HOURS_IN_HOURS);
-						
-						Log.d(LOG_TAG, "Scheduling this prescription on the next date: " + new Date(firstDate.getTimeInMillis()).toString() );
-						
-					} else {
-						// Else, schedule it for today.
-						
-						Log.d(LOG_TAG, "Scheduling the prescription for today at this calendar: " + new Date(firstDate.getTimeInMillis()).toString() );
-						
-					}
-					
-					// TODO: See if there is some way that we can calculate the count remaining
-					
-					// Store the schedule!
-					Schedule newSchedule = new Schedule(prescription.get_id(), firstDate.getTimeInMillis(), Schedule.TWENTY_FOUR_HOURS_IN_MS );
-					Uri scheduleUri = this.getApplicationContext().getContentResolver().insert(StorageProvider.ScheduleColumns.CONTENT_URI, newSchedule.toContentValues());
-					
-					// Create a pending intent which will be sent when the alarm is done.
-					Intent scheduleIntent = this.buildPrescriptionIntent(Integer.parseInt(scheduleUri.getPathSegments().get(1)));
-					
-					// Get an instance of the AlarmManager
-					AlarmManager am = (AlarmManager)this.getApplicationContext().getSystemService(Context.ALARM_SERVICE);
-					
-					PendingIntent pendingIntent = PendingIntent.getService(this, 0, scheduleIntent, PendingIntent.FLAG_ONE_SHOT);
-					
-					// Have the AlarmManager schedule the alarm.
-					
-					Log.d(LOG_TAG, "Setting an alarm for: " + new Date(firstDate.getTimeInMillis()).toString() );
-					Log.d(LOG_TAG, "Repeating every 24 hours.");
-					
-					Log.d(LOG_TAG, "Current time in ms: " + System.currentTimeMillis());
-					Log.d(LOG_TAG, "Scheduled for: " + firstDate.getTimeInMillis());
-					Log.d(LOG_TAG, "Difference of: " + (firstDate.getTimeInMillis() - System.currentTimeMillis()) );
-					
-					am.set(AlarmManager.RTC_WAKEUP, firstDate.getTimeInMillis(), pendingIntent);
-					
-				}
-				
-				break;
-			case Prescription.DOSE_TYPE_EVERY_DAY_OF_WEEK:
-			case Prescription.DOSE_TYPE_EVERY_HOUR_DAY_OF_WEEK:
-				
-				Log.d(LOG_TAG, "Dose type is every day of week or every hour day of week...");
-				
-				// Get all the days that are scheduled.
-				
-				Enumeration<ScheduledDay> scheduledDays = prescription.getAllScheduledTimeVectors();
-				
-				// For each of those days...
-				while( scheduledDays.hasMoreElements() ) {
-					
-					// ...get the day.
-					ScheduledDay currentDay = scheduledDays.nextElement();
-					
-					// ...get the times.
-					Enumeration<String> dayTimes = currentDay.getTimes().elements();
-					
-					// For each of the times...
-					while(dayTimes.hasMoreElements()) {
-						// ...schedule an alarm with an interval of 7 days.
-						// Get the next scheduled time
-						String scheduledTime = dayTimes.nextElement();
-						
-						Log.d(LOG_TAG, "The current time to schedule: " + scheduledTime);
-						
-						// Parse out the hours and minutes from the times
-						String hourValue = scheduledTime.split(":")[0];
-						String minuteValue = scheduledTime.split(":")[1];
-						
-						// Get an instance of the current date/time
-						Calendar firstDate = Calendar.getInstance();
-						
-						// Set the hour/minute in todays date
-						firstDate.set(Calendar.HOUR_OF_DAY, Integer.parseInt(hourValue));
-						firstDate.set(Calendar.MINUTE, Integer.parseInt(minuteValue));
-						firstDate.set(Calendar.SECOND, Schedule.ZERO);
-						firstDate.set(Calendar.DAY_OF_WEEK, currentDay.getDay());
-						
-						Log.d(LOG_TAG, "Current date/time: " + new Date(System.currentTimeMillis()).toString());
-						Log.d(LOG_TAG, "The 'first time' of this schedule: " + new Date(firstDate.getTimeInMillis()).toString() );
-						
-						// See if we have already passed the first scheduled time...
-						if ( firstDate.getTimeInMillis() < System.currentTimeMillis() ) {
-							// If we have, schedule it for 7 days from now
-							firstDate.add(Calendar.DATE, Schedule.SEVEN_DAYS_IN_DAYS);
-							
-							Log.d(LOG_TAG, "Scheduling this prescription on the next date: " + new Date(firstDate.getTimeInMillis()).toString() );
-							
-						} else {
-							// Else, schedule it for today.
-							
-							Log.d(LOG_TAG, "Scheduling the prescription for today at this calendar: " + new Date(firstDate.getTimeInMillis()).toString() );
-							
-						}
-						
-						// TODO: See if there is some way that we can calculate the count remaining
-						
-						// Store the schedule!
-						Schedule newSchedule = new Schedule(prescription.get_id(), firstDate.getTimeInMillis(), Schedule.SEVEN_DAYS_IN_MS );
-						Uri scheduleUri = this.getApplicationContext().getContentResolver().insert(StorageProvider.ScheduleColumns.CONTENT_URI, newSchedule.toContentValues());
-						
-						// Create the intent that will be sent when the alarm triggers
-						Intent scheduleIntent = this.buildPrescriptionIntent(Integer.parseInt(scheduleUri.getPathSegments().get(1)));
-						
-						// Get an instance of the AlarmManager
-						AlarmManager am = (AlarmManager)this.getApplicationContext().getSystemService(Context.ALARM_SERVICE);
-						
-						// Create a pending intent which will be sent when the alarm is done.
-						PendingIntent pendingIntent = PendingIntent.getService(this, 0, scheduleIntent, PendingIntent.FLAG_ONE_SHOT);
-						
-						// Have the AlarmManager schedule the alarm.
-						
-						Log.d(LOG_TAG, "Setting an alarm for: " + new Date(firstDate.getTimeInMillis()).toString() );
-						Log.d(LOG_TAG, "Repeating every 7 days.");
-						
-						am.set(AlarmManager.RTC_WAKEUP, firstDate.getTimeInMillis(), pendingIntent);
-						
-					}			
-				}
-				break;
+		Intent scheduleIntent = this.buildPrescriptionIntent(scheduleId);
+		am.cancel(PendingIntent.getService(this, 0, scheduleIntent, PendingIntent.FLAG_ONE_SHOT));
+	}
+	
+	/**
+	 * Gets the first time the given schedule repeats after now, without changing 
+	 * the schedule.
+	 */
+	private long getUpcomingTime(Schedule schedule) {
+		long upcomingTime = schedule.getNextTime();
+		long now = System.currentTimeMillis();
+		
+		if (schedule.getInterval() > 0) {
+			while (upcomingTime < now) {
+				upcomingTime = addInterval(upcomingTime, schedule);
+			}
+		}
+		
+		return upcomingTime;
+	}
+	
+	/**
+	 * Moves a time of the given schedule on by one interval. Intervals of whole days 
+	 * keep the local time of day, so the doses stay at the same time on the clock 
+	 * when daylight saving time starts or ends.
+	 */
+	private static long addInterval(long time, Schedule schedule) {
+		if (schedule.getInterval() % Schedule.TWENTY_FOUR_HOURS_IN_MS != 0) {
+			return time + schedule.getInterval();
+		}
+		
+		return Recurrence.addDays(time, schedule.getInterval() / Schedule.TWENTY_FOUR_HOURS_IN_MS, TimeZone.getDefault());
+	}
+	
+	private int getSchedulerMode() {
+		return this.getSharedPreferences(SCHEDULER_PREFERENCES, Context.MODE_PRIVATE).getInt(PREFERENCE_SCHEDULER_MODE, DEFAULT_SCHEDULER_MODE);
+	}
+	
+	private long getDueWindow() {
+		return this.getSharedPreferences(SCHEDULER_PREFERENCES, Context.MODE_PRIVATE).getLong(PREFERENCE_DUE_WINDOW, DEFAULT_DUE_WINDOW);
+	}
+	
+	private long getEventRetention() {
+		return this.getSharedPreferences(SCHEDULER_PREFERENCES, Context.MODE_PRIVATE).getLong(PREFERENCE_EVENT_RETENTION, DEFAULT_EVENT_RETENTION);
+	}
+	
+	private long getSnoozeTime() {
+		return this.getSharedPreferences(SCHEDULER_PREFERENCES, Context.MODE_PRIVATE).getLong(PREFERENCE_SNOOZE_TIME, DEFAULT_SNOOZE_TIME);
+	}
+	
+	/**
+	 * Sets the daily event maintenance alarm, unless it is already set. The alarm doesn't 
+	 * wake the device, so the maintenance runs the next time the device is awake anyway, 
+	 * and inexact so it can be batched with other alarms. Setting it again on every start 
+	 * would push the first run out another day each time.
+	 */
+	private void armEventMaintenance() {
+		Intent maintenanceIntent = new Intent(ACTION_EVENT_MAINTENANCE);
+		maintenanceIntent.setClass(this, MainService.class);
+		
+		// The pending intent only exists while its alarm is set, a reboot clears both.
+		if (PendingIntent.getService(this, 0, maintenanceIntent, PendingIntent.FLAG_NO_CREATE) != null) {
+			Log.d(LOG_TAG, "The event maintenance alarm is already set.");
+			return;
+		}
+		
+		AlarmManager am = (AlarmManager)this.getApplicationContext().getSystemService(Context.ALARM_SERVICE);
+		PendingIntent pendingIntent = PendingIntent.getService(this, 0, maintenanceIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+		
+		am.setInexactRepeating(AlarmManager.RTC, System.currentTimeMillis() + AlarmManager.INTERVAL_DAY, AlarmManager.INTERVAL_DAY, pendingIntent);
+	}
+	
+	/**
+	 * Moves the events older than the retention preference into the event archives.
+	 */
+	private void archiveOldEvents() {
+		// Make sure the buffered events are in the tables before they are archived.
+		EventSink.getInstance(this).flush();
+		
+		ContentValues values = new ContentValues();
+		values.put(StorageProvider.EventArchiveColumns.RETENTION_HORIZON, this.getEventRetention());
+		
+		long start = SystemClock.uptimeMillis();
+		int archived = this.getApplicationContext().getContentResolver().update(StorageProvider.EventArchiveColumns.RETENTION_URI, values, null, null);
+		
+		Log.d(LOG_TAG, "Archiving " + archived + " events took " + (SystemClock.uptimeMillis() - start) + "ms.");
+	}
+	
+	private PendingIntent buildNextAlarmIntent() {
+		Intent dueIntent = new Intent(ACTION_ALARM_DUE);
+		dueIntent.setClass(this, MainService.class);
+		
+		// The intent is always the same, so setting it again replaces the previous alarm.
+		return PendingIntent.getService(this, 0, dueIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+	}
+	
+	/**
+	 * Arms the single alarm for the earliest of the next times in the schedules table 
+	 * and the times the snoozed doses are shown again, or cancels it when there is 
+	 * nothing to wait for. In the per schedule mode the schedules have alarms of their 
+	 * own, so only the snoozed doses count.
+	 */
+	private void armNextAlarm() {
+		// Get an instance of the AlarmManager
+		AlarmManager am = (AlarmManager)this.getApplicationContext().getSystemService(Context.ALARM_SERVICE);
+		PendingIntent pendingIntent = this.buildNextAlarmIntent();
+		
+		long nextTime = Long.MAX_VALUE;
+		
+		if (this.getSchedulerMode() == SCHEDULER_MODE_NEXT_ALARM) {
+			// Let the next_time index find the earliest time.
+			String[] projection = { "MIN(" + StorageProvider.ScheduleColumns.SCHEDULES_NEXT_TIME + ")" };
+			Cursor nextTimeCursor = this.getApplicationContext().getContentResolver().query(StorageProvider.ScheduleColumns.CONTENT_URI, projection, null, null, null);
 			
-			default:
-				Log.e(LOG_TAG, "Not sure how we ended up here without a dose type...");
+			if (nextTimeCursor.moveToFirst() && !nextTimeCursor.isNull(0)) {
+				nextTime = nextTimeCursor.getLong(0);
+			}
+			
+			nextTimeCursor.close();
+		}
+		
+		// Let the state and alarm_time index find the earliest snoozed dose.
+		String[] snoozeProjection = { "MIN(" + StorageProvider.DoseColumns.DOSES_ALARM_TIME + ")" };
+		String snoozeWhereClause = StorageProvider.DoseColumns.DOSES_STATE + "=?";
+		String[] snoozeWhereArgs = { String.valueOf(Dose.STATE_SNOOZED) };
+		Cursor snoozeCursor = this.getApplicationContext().getContentResolver().query(StorageProvider.DoseColumns.CONTENT_URI, snoozeProjection, snoozeWhereClause, snoozeWhereArgs, null);
+		
+		if (snoozeCursor.moveToFirst() && !snoozeCursor.isNull(0)) {
+			nextTime = Math.min(nextTime, snoozeCursor.getLong(0));
+		}
+		
+		snoozeCursor.close();
+		
+		if (nextTime != Long.MAX_VALUE) {
+			Log.d(LOG_TAG, "Setting the next alarm for: " + new Date(nextTime).toString() );
+			am.set(AlarmManager.RTC_WAKEUP, nextTime, pendingIntent);
+		} else {
+			Log.d(LOG_TAG, "Nothing is scheduled, cancelling the next alarm.");
+			am.cancel(pendingIntent);
+		}
+	}
+	
+	/**
+	 * Displays the doses of every schedule that is due before the end of the due 
+	 * window and of every snoozed dose whose snooze runs out by then, one notification 
+	 * per patient, moves those schedules past the window and re-arms the alarms. In 
+	 * the per schedule mode each schedule gets its alarm for its new next time, and 
+	 * the single alarm is armed again for the rest.
+	 * <br><br>
+	 * Each due schedule starts a pending dose. A pending dose whose schedule comes due 
+	 * again, and any dose left unhandled for the lifetime of a notification, is missed. 
+	 * The dose changes go in the same batch as the schedule changes.
+	 */
+	private void handleDueSchedules() {
+		long now = System.currentTimeMillis();
+		long windowEnd = now + this.getDueWindow();
+		
+		Log.d(LOG_TAG, "Handling the schedules due before: " + new Date(windowEnd).toString() );
+		
+		String dueWhereClause = StorageProvider.ScheduleColumns.SCHEDULES_NEXT_TIME + "<=?";
+		String[] dueWhereArgs = { String.valueOf(windowEnd) };
+		Cursor dueCursor = this.getApplicationContext().getContentResolver().query(StorageProvider.ScheduleColumns.CONTENT_URI, null, dueWhereClause, dueWhereArgs, StorageProvider.ScheduleColumns.DUE_SORT_ORDER);
+		
+		ArrayList<Schedule> due = new ArrayList<Schedule>();
+		ArrayList<Long> nextTimes = new ArrayList<Long>();
+		ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		HashSet<Integer> dueScheduleIds = new HashSet<Integer>();
+		
+		while (dueCursor.moveToNext()) {
+			Schedule schedule = Schedule.fromCursor(dueCursor);
+			due.add(schedule);
+			dueScheduleIds.add(schedule.get_id());
+			
+			// Move the schedule to its first time after the window, skipping any missed doses.
+			nextTimes.add(this.queueAdvance(schedule, windowEnd, operations));
+		}
+		
+		dueCursor.close();
+		
+		// Sort the doses the user hasn't handled yet into the ones that are missed and 
+		// the snoozed ones to show again.
+		long expired = now - StatusBarNotificationManager.NOTIFICATION_LIFETIME;
+		ArrayList<Dose> missed = new ArrayList<Dose>();
+		ArrayList<Dose> reminded = new ArrayList<Dose>();
+		String doseWhereClause = StorageProvider.DoseColumns.DOSES_STATE + " IN (?,?)";
+		String[] doseWhereArgs = { String.valueOf(Dose.STATE_PENDING), String.valueOf(Dose.STATE_SNOOZED) };
+		Cursor doseCursor = this.getApplicationContext().getContentResolver().query(StorageProvider.DoseColumns.CONTENT_URI, null, doseWhereClause, doseWhereArgs, null);
+		
+		while (doseCursor.moveToNext()) {
+			Dose dose = Dose.fromCursor(doseCursor);
+			
+			if (dose.getDueTime() <= expired || (dose.getState() == Dose.STATE_PENDING && dueScheduleIds.contains(dose.getScheduleId()))) {
+				missed.add(dose);
+			} else if (dose.getState() == Dose.STATE_SNOOZED && dose.getAlarmTime() <= windowEnd) {
+				reminded.add(dose);
+			}
+		}
+		
+		doseCursor.close();
+		
+		ArrayList<NotificationEvent> events = new ArrayList<NotificationEvent>();
+		this.queueTransitions(missed, Dose.STATE_MISSED, null, now, operations, events);
+		this.queueTransitions(reminded, Dose.STATE_PENDING, null, now, operations, events);
+		
+		// Every due schedule starts a new pending dose.
+		HashSet<Integer> shownPrescriptionIds = new HashSet<Integer>();
+		for (int i = 0; i < due.size(); i++) {
+			Schedule schedule = due.get(i);
+			Dose dose = new Dose(schedule.get_id(), schedule.getPrescriptionId(), schedule.getNextTime());
+			operations.add(ContentProviderOperation.newInsert(StorageProvider.DoseColumns.CONTENT_URI)
+					.withValues(dose.toContentValues())
+					.build());
+			shownPrescriptionIds.add(schedule.getPrescriptionId());
+		}
+		for (int i = 0; i < reminded.size(); i++) {
+			shownPrescriptionIds.add(reminded.get(i).getPrescriptionId());
+		}
+		
+		Log.d(LOG_TAG, "Handled " + due.size() + " due schedules, " + reminded.size() + " snoozed and " + missed.size() + " missed doses.");
+		
+		if (!operations.isEmpty()) {
+			try {
+				this.getApplicationContext().getContentResolver().applyBatch(StorageProvider.AUTHORITY, operations);
+			} catch (RemoteException e) {
+				Log.e(LOG_TAG, "Unable to update the due schedules.", e);
+				return;
+			} catch (OperationApplicationException e) {
+				Log.e(LOG_TAG, "Unable to update the due schedules.", e);
+				return;
+			}
+		}
+		
+		// The doses are in their new states, record the moves.
+		Event.logNotificationEvents(this, events);
+		
+		this.displayDueNotifications(shownPrescriptionIds);
+		
+		this.rearmAdvancedSchedules(due, nextTimes);
+	}
+	
+	/**
+	 * Moves the patient's pending doses to the given state, as the user asked from the 
+	 * patient's notification, and takes the notification down. The doses are read with 
+	 * one query and changed with one batch, and their events are queued together, so 
+	 * handling many doses at once costs about as much as handling one. Snoozing only 
+	 * re-arms the next alarm, the schedules are left as they are.
+	 * 
+	 * @param patientId the patient whose doses were handled
+	 * @param state Dose.STATE_ACKNOWLEDGED, STATE_SNOOZED or STATE_MISSED
+	 * @param eventType the type of the events, or null for the state's usual type
+	 */
+	private void handlePatientDoses(int patientId, int state, NotificationEventType eventType) {
+		long now = System.currentTimeMillis();
+		
+		String pendingWhereClause = StorageProvider.DoseColumns.PATIENT_WHERE + " AND " + StorageProvider.DoseColumns.DOSES_STATE + "=?";
+		String[] pendingWhereArgs = { String.valueOf(patientId), String.valueOf(Dose.STATE_PENDING) };
+		Cursor pendingCursor = this.getApplicationContext().getContentResolver().query(StorageProvider.DoseColumns.CONTENT_URI, null, pendingWhereClause, pendingWhereArgs, null);
+		
+		ArrayList<Dose> pending = new ArrayList<Dose>();
+		try {
+			while (pendingCursor.moveToNext()) {
+				pending.add(Dose.fromCursor(pendingCursor));
+			}
+		} finally {
+			pendingCursor.close();
 		}
 		
+		ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		ArrayList<NotificationEvent> events = new ArrayList<NotificationEvent>();
+		int moved = this.queueTransitions(pending, state, eventType, now, operations, events);
+		
+		if (moved == 0) {
+			Log.d(LOG_TAG, "Patient " + patientId + " has no pending doses.");
+			new StatusBarNotificationManager(this).cancel(patientId);
+			return;
+		}
+		
+		try {
+			this.getApplicationContext().getContentResolver().applyBatch(StorageProvider.AUTHORITY, operations);
+		} catch (RemoteException e) {
+			Log.e(LOG_TAG, "Unable to update the doses of patient " + patientId + ".", e);
+			return;
+		} catch (OperationApplicationException e) {
+			Log.e(LOG_TAG, "Unable to update the doses of patient " + patientId + ".", e);
+			return;
+		}
+		
+		// The doses are handled, so the notification that showed them goes. If the batch 
+		// failed, it stays up for the doses that are still pending.
+		new StatusBarNotificationManager(this).cancel(patientId);
+		
+		Event.logNotificationEvents(this, events);
+		
+		Log.d(LOG_TAG, "Moved " + moved + " doses of patient " + patientId + " to state " + state + ".");
+		
+		if (state == Dose.STATE_SNOOZED) {
+			this.armNextAlarm();
+		}
+	}
+	
+	/**
+	 * Queues the move of the given doses to the given state, as a single delete when the 
+	 * state is final and a single update otherwise. Doses that can't make the move are 
+	 * left out. The event of each move is added to events, to be logged once the batch 
+	 * has been applied.
+	 * 
+	 * @param eventType the type of the events, or null for Dose.getEventType(state)
+	 * @param time the time of the move, snoozed doses are shown again a snooze after it
+	 * @return the number of doses moved
+	 */
+	private int queueTransitions(ArrayList<Dose> doses, int state, NotificationEventType eventType, long time,
+			ArrayList<ContentProviderOperation> operations, ArrayList<NotificationEvent> events) {
+		if (eventType == null) {
+			eventType = Dose.getEventType(state);
+		}
+		
+		ArrayList<Integer> doseIds = new ArrayList<Integer>();
+		for (int i = 0; i < doses.size(); i++) {
+			Dose dose = doses.get(i);
+			
+			if (!Dose.canMove(dose.getState(), state)) {
+				Log.d(LOG_TAG, "Dose " + dose.get_id() + " can't move from state " + dose.getState() + " to " + state + ".");
+				continue;
+			}
+			
+			doseIds.add(dose.get_id());
+			if (eventType != null) {
+				events.add(dose.toEvent(state, eventType, time));
+			}
+		}
+		
+		if (doseIds.isEmpty()) {
+			return 0;
+		}
+		
+		String doseWhere = StorageProvider.DoseColumns._ID + " IN (" + TextUtils.join(",", doseIds) + ")";
+		
+		if (Dose.isFinal(state)) {
+			operations.add(ContentProviderOperation.newDelete(StorageProvider.DoseColumns.CONTENT_URI)
+					.withSelection(doseWhere, null)
+					.build());
+		} else {
+			ContentProviderOperation.Builder update = ContentProviderOperation.newUpdate(StorageProvider.DoseColumns.CONTENT_URI)
+					.withValue(StorageProvider.DoseColumns.DOSES_STATE, state)
+					.withSelection(doseWhere, null);
+			if (state == Dose.STATE_SNOOZED) {
+				update.withValue(StorageProvider.DoseColumns.DOSES_ALARM_TIME, time + this.getSnoozeTime());
+			}
+			operations.add(update.build());
+		}
+		
+		return doseIds.size();
 	}
 	
-	@SuppressWarnings("unused")
-	private void scheduleGivenDay() {
-		// TODO: Fill in the logic that was copy/pasted in the scheduleNewPrescription() method.
+	/**
+	 * Logs a missed dose for every dose that came due more than the due window ago 
+	 * without being handled, for example while the phone was off or the process was 
+	 * gone, and moves those schedules on to their first time after that. The late 
+	 * schedules are found with one query on the next_time index, and the events are 
+	 * written in the same batch as the schedule changes, so a dose is never logged 
+	 * twice. The doses that are still within the due window are left to the alarm.
+	 */
+	private void catchUpMissedDoses() {
+		long cutoff = System.currentTimeMillis() - this.getDueWindow();
+		
+		String lateWhereClause = StorageProvider.ScheduleColumns.SCHEDULES_NEXT_TIME + "<?";
+		String[] lateWhereArgs = { String.valueOf(cutoff) };
+		Cursor lateCursor = this.getApplicationContext().getContentResolver().query(StorageProvider.ScheduleColumns.CONTENT_URI, null, lateWhereClause, lateWhereArgs, StorageProvider.ScheduleColumns.DUE_SORT_ORDER);
+		
+		ArrayList<Schedule> late = new ArrayList<Schedule>();
+		ArrayList<Long> nextTimes = new ArrayList<Long>();
+		ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		int missed = 0;
+		
+		while (lateCursor.moveToNext()) {
+			Schedule schedule = Schedule.fromCursor(lateCursor);
+			late.add(schedule);
+			
+			missed += this.queueMissedEvents(schedule, cutoff, operations);
+			nextTimes.add(this.queueAdvance(schedule, cutoff - 1, operations));
+		}
+		
+		lateCursor.close();
+		
+		if (late.isEmpty()) {
+			Log.d(LOG_TAG, "No doses were missed.");
+			return;
+		}
+		
+		try {
+			this.getApplicationContext().getContentResolver().applyBatch(StorageProvider.AUTHORITY, operations);
+		} catch (RemoteException e) {
+			Log.e(LOG_TAG, "Unable to log the missed doses.", e);
+			return;
+		} catch (OperationApplicationException e) {
+			Log.e(LOG_TAG, "Unable to log the missed doses.", e);
+			return;
+		}
+		
+		Log.d(LOG_TAG, "Logged " + missed + " missed doses of " + late.size() + " schedules.");
+		
+		this.rearmAdvancedSchedules(late, nextTimes);
+	}
+	
+	/**
+	 * Queues a MISSED notification event for each dose of the given schedule from its 
+	 * next time up to the given time, as long as it has doses left.
+	 * 
+	 * @return the number of events queued
+	 */
+	private int queueMissedEvents(Schedule schedule, long before, ArrayList<ContentProviderOperation> operations) {
+		long time = schedule.getNextTime();
+		int countRemain = schedule.getCountRemain();
+		int count = 0;
+		
+		while (time < before && countRemain != 0) {
+			NotificationEvent event = new NotificationEvent(time, schedule.getPrescriptionId(), NotificationEventType.MISSED);
+			operations.add(ContentProviderOperation.newInsert(StorageProvider.NotificationEventColumns.CONTENT_URI)
+					.withValues(event.toContentValues())
+					.build());
+			count++;
+			
+			if (schedule.getInterval() <= 0) {
+				// A schedule that doesn't repeat only has the one dose.
+				break;
+			}
+			time = addInterval(time, schedule);
+			if (countRemain > 0) {
+				countRemain--;
+			}
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Re-arms the alarms once the given schedules were moved on to the given next times. 
+	 * In the per schedule mode each schedule gets its alarm for its new next time. The 
+	 * single alarm is armed again in either mode, as it also wakes the snoozed doses.
+	 */
+	private void rearmAdvancedSchedules(ArrayList<Schedule> schedules, ArrayList<Long> nextTimes) {
+		if (this.getSchedulerMode() == SCHEDULER_MODE_PER_SCHEDULE) {
+			for (int i = 0; i < schedules.size(); i++) {
+				if (nextTimes.get(i) != ScheduleChange.NO_ALARM) {
+					this.setScheduleAlarm(schedules.get(i).get_id(), nextTimes.get(i));
+				}
+			}
+		}
+		this.armNextAlarm();
+	}
+	
+	/**
+	 * Queues the change that moves the given schedule on to its first time after the 
+	 * given time, taking the doses it passes off its remaining count, or its delete 
+	 * once no doses remain. Both only apply while the row still has the next time it 
+	 * was read with, so a dose is never handled twice.
+	 * 
+	 * @return the new next time, or ScheduleChange.NO_ALARM if the schedule is done
+	 */
+	private long queueAdvance(Schedule schedule, long after, ArrayList<ContentProviderOperation> operations) {
+		Uri scheduleUri = ContentUris.withAppendedId(StorageProvider.ScheduleColumns.CONTENT_URI, schedule.get_id());
+		String nextTimeWhere = StorageProvider.ScheduleColumns.SCHEDULES_NEXT_TIME + "=?";
+		String[] nextTimeWhereArgs = { String.valueOf(schedule.getNextTime()) };
+		
+		long nextTime = schedule.getNextTime();
+		int countRemain = schedule.getCountRemain();
+		
+		if (schedule.getInterval() > 0) {
+			while (nextTime <= after && countRemain != 0) {
+				nextTime = addInterval(nextTime, schedule);
+				if (countRemain > 0) {
+					countRemain--;
+				}
+			}
+		} else {
+			// A schedule that doesn't repeat is done.
+			countRemain = 0;
+		}
+		
+		if (countRemain == 0) {
+			operations.add(ContentProviderOperation.newDelete(scheduleUri)
+					.withSelection(nextTimeWhere, nextTimeWhereArgs)
+					.build());
+			return ScheduleChange.NO_ALARM;
+		}
+		
+		operations.add(ContentProviderOperation.newUpdate(scheduleUri)
+				.withValue(StorageProvider.ScheduleColumns.SCHEDULES_NEXT_TIME, nextTime)
+				.withValue(StorageProvider.ScheduleColumns.SCHEDULES_COUNT_REMAIN, countRemain)
+				.withSelection(nextTimeWhere, nextTimeWhereArgs)
+				.build());
+		return nextTime;
 	}
 	
 	private Intent buildPrescriptionIntent(int scheduleId) {
@@ -296,100 +949,310 @@ public class MainService extends Service {
 		}
 	}
 	
-	@SuppressWarnings("unused")
-	private boolean isScheduleChanged() {
-		Log.d(LOG_TAG, "The schedule has changed for this prescription.");
-		// TODO: implement this function to compare a given prescription to the items stored in the schedule table
-		return false;
+	/**
+	 * Checks if the stored schedule still fires at the same times as the desired one. 
+	 * Both repeat at a fixed interval, so they match when their intervals are equal 
+	 * and their first times fall at the same point within the interval. Intervals of 
+	 * whole days step in local time, see addInterval(), so their first times are 
+	 * compared in local time: a schedule created on the other side of a daylight 
+	 * saving change still matches.
+	 */
+	private boolean isScheduleChanged(Schedule stored, Schedule desired) {
+		long interval = stored.getInterval();
+		if (interval != desired.getInterval() || interval <= 0) {
+			return true;
+		}
+		
+		long storedTime = stored.getFirstTime();
+		long desiredTime = desired.getFirstTime();
+		if (interval % Schedule.TWENTY_FOUR_HOURS_IN_MS == 0) {
+			// The local time of day, and the day within the interval, e.g. the weekday.
+			TimeZone timeZone = TimeZone.getDefault();
+			storedTime += timeZone.getOffset(storedTime);
+			desiredTime += timeZone.getOffset(desiredTime);
+		}
+		
+		return floorMod(storedTime, interval) != floorMod(desiredTime, interval);
 	}
 	
-	@SuppressWarnings("unused")
-	private void updateScheduledPrescription() {
-		Log.d(LOG_TAG, "Updating the schedule information for the prescription...");
-		// TODO: implement this function instead of simply removing the items from the schedule table
+	private static long floorMod(long x, long y) {
+		long mod = x % y;
+		return (mod < 0) ? mod + y : mod;
+	}
+	
+	/**
+	 * Compares the stored schedules of one prescription with the desired ones and 
+	 * queues only the operations needed to go from one to the other. Stored schedules 
+	 * that still match are left alone, leftover schedules are updated in place and 
+	 * the rest are inserted or deleted. A stored schedule that still matches only has 
+	 * its remaining count updated, if the supply changed. The open doses of a stale 
+	 * schedule are detached from it, so they keep their own due time instead of 
+	 * following the row to its new time.
+	 * 
+	 * @param stored the schedules in the schedule table, may be empty
+	 * @param desired the schedules the prescription should have, may be empty
+	 * @param lastDose the time of the last dose the supply covers, Recurrence.NO_OCCURRENCE 
+	 * or Recurrence.NO_DOSES
+	 * @param operations the list the operations are added to
+	 * @param changes the list the matching schedule changes are added to
+	 * @param doseOperations the list the dose operations are added to, kept apart from 
+	 * operations so it stays in step with changes
+	 */
+	private void updateScheduledPrescription(ArrayList<Schedule> stored, ArrayList<Schedule> desired, long lastDose,
+			ArrayList<ContentProviderOperation> operations, ArrayList<ScheduleChange> changes, ArrayList<ContentProviderOperation> doseOperations) {
+		
+		ArrayList<Schedule> staleSchedules = new ArrayList<Schedule>(stored);
+		ArrayList<Schedule> newSchedules = new ArrayList<Schedule>();
+		
+		// Remove every desired schedule that is already stored.
+		for (int i = 0; i < desired.size(); i++) {
+			Schedule desiredSchedule = desired.get(i);
+			boolean found = false;
+			
+			for (int j = 0; j < staleSchedules.size(); j++) {
+				if (!this.isScheduleChanged(staleSchedules.get(j), desiredSchedule)) {
+					Schedule keptSchedule = staleSchedules.remove(j);
+					int countRemain = countRemaining(keptSchedule, keptSchedule.getNextTime(), lastDose);
+					
+					if (countRemain == keptSchedule.getCountRemain()) {
+						// The schedule didn't change, only keep its alarm around.
+						changes.add(new ScheduleChange(ScheduleChange.TYPE_KEEP, keptSchedule.get_id(), this.getUpcomingTime(keptSchedule)));
+					} else {
+						// Only the supply changed, the times stay as they are.
+						operations.add(ContentProviderOperation.newUpdate(ContentUris.withAppendedId(StorageProvider.ScheduleColumns.CONTENT_URI, keptSchedule.get_id()))
+								.withValue(StorageProvider.ScheduleColumns.SCHEDULES_COUNT_REMAIN, countRemain)
+								.build());
+						changes.add(new ScheduleChange(ScheduleChange.TYPE_UPDATE, keptSchedule.get_id(), this.getUpcomingTime(keptSchedule)));
+					}
+					found = true;
+					break;
+				}
+			}
+			
+			if (!found) {
+				newSchedules.add(desiredSchedule);
+			}
+		}
+		
+		for (int i = 0; i < newSchedules.size(); i++) {
+			Schedule newSchedule = newSchedules.get(i);
+			
+			if (i < staleSchedules.size()) {
+				// Reuse a stale row instead of deleting it and inserting another.
+				int scheduleId = staleSchedules.get(i).get_id();
+				operations.add(ContentProviderOperation.newUpdate(ContentUris.withAppendedId(StorageProvider.ScheduleColumns.CONTENT_URI, scheduleId))
+						.withValues(newSchedule.toContentValues())
+						.build());
+				this.queueDetachDoses(scheduleId, doseOperations);
+				changes.add(new ScheduleChange(ScheduleChange.TYPE_UPDATE, scheduleId, newSchedule.getNextTime()));
+			} else {
+				operations.add(ContentProviderOperation.newInsert(StorageProvider.ScheduleColumns.CONTENT_URI)
+						.withValues(newSchedule.toContentValues())
+						.build());
+				changes.add(new ScheduleChange(ScheduleChange.TYPE_INSERT, ScheduleChange.NO_ID, newSchedule.getNextTime()));
+			}
+		}
+		
+		for (int i = newSchedules.size(); i < staleSchedules.size(); i++) {
+			int scheduleId = staleSchedules.get(i).get_id();
+			operations.add(ContentProviderOperation.newDelete(ContentUris.withAppendedId(StorageProvider.ScheduleColumns.CONTENT_URI, scheduleId))
+					.build());
+			// The row id may be handed out again to the next inserted schedule.
+			this.queueDetachDoses(scheduleId, doseOperations);
+			changes.add(new ScheduleChange(ScheduleChange.TYPE_DELETE, scheduleId, ScheduleChange.NO_ALARM));
+		}
+	}
+	
+	/**
+	 * Queues moving the open doses of the given schedule to Dose.NO_SCHEDULE. They are 
+	 * then missed only once they expire, not when the row they came from is due again.
+	 */
+	private void queueDetachDoses(int scheduleId, ArrayList<ContentProviderOperation> doseOperations) {
+		doseOperations.add(ContentProviderOperation.newUpdate(StorageProvider.DoseColumns.CONTENT_URI)
+				.withSelection(StorageProvider.DoseColumns.DOSES_SCHEDULE + "=?", new String[] { String.valueOf(scheduleId) })
+				.withValue(StorageProvider.DoseColumns.DOSES_SCHEDULE, Dose.NO_SCHEDULE)
+				.build());
 	}
 	
 	/**
 	 * This method will do the following:
 	 *  - Search for all prescriptions that need to be scheduled.
-	 *  - Check to see if the prescription schedule has changed since last run.
-	 *  - Update and reschedule any changed prescriptions.
-	 *  - Schedule any new prescriptions that have been added to the database.
+	 *  - Compare the schedules each prescription should have with the ones stored 
+	 *    in the schedule table.
+	 *  - Insert, update and delete only the schedules that differ, in one batch.
+	 *  - Remove the schedules of prescriptions that are no longer scheduled.
+	 *  - Bring the run out date of each prescription in line with its supply.
 	 *  
 	 *  This method will also run when the prescription content uri has been changed 
-	 *  to check for any of the above cases. If this method becomes too processor or 
-	 *  memory intensive, additional optimizations will have to be done.
+	 *  to check for any of the above cases, for the changed prescriptions only. The 
+	 *  prescriptions and the schedules are each read with a single query, and only 
+	 *  changed rows are written.
 	 *  
+	 * @param prescriptionIds the prescriptions to schedule, or null for all of them
 	 */
-	private void schedulePrescriptions() {
-		/* 1. Get a cursor to all of the prescriptions that have been 'scheduled' */
+	private void schedulePrescriptions(Set<Integer> prescriptionIds) {
+		/* 1. Read the stored schedules, grouped by prescription. */
+		HashMap<Integer, ArrayList<Schedule>> storedSchedules = new HashMap<Integer, ArrayList<Schedule>>();
+		
+		String scheduleWhereClause = (prescriptionIds == null) ? null : buildIdSelection(StorageProvider.ScheduleColumns.SCHEDULES_PRESCRIPTION, prescriptionIds);
+		Cursor scheduleCursor = this.getApplicationContext().getContentResolver().query(StorageProvider.ScheduleColumns.CONTENT_URI, null, scheduleWhereClause, null, null);
+		
+		while (scheduleCursor.moveToNext()) {
+			Schedule schedule = Schedule.fromCursor(scheduleCursor);
+			Integer prescriptionId = Integer.valueOf(schedule.getPrescriptionId());
+			
+			ArrayList<Schedule> prescriptionSchedules = storedSchedules.get(prescriptionId);
+			if (prescriptionSchedules == null) {
+				prescriptionSchedules = new ArrayList<Schedule>();
+				storedSchedules.put(prescriptionId, prescriptionSchedules);
+			}
+			prescriptionSchedules.add(schedule);
+		}
 		
-		// Create a where clause to only get the prescriptions that are scheduled
-		String prescriptionWhereClause = StorageProvider.PrescriptionColumns.PRESCRIPTION_SCHEDULED + "=" + "'" + Prescription.SCHEDULED + "'";
+		scheduleCursor.close();
+		
+		HashMap<Integer, Long> storedRunouts = new HashMap<Integer, Long>();
 		
-		// We only care about the prescription id fields for this query.
-		String[] prescriptionProjection = { StorageProvider.PrescriptionColumns._ID };
+		String[] runoutProjection = { StorageProvider.PrescriptionRunoutColumns._ID, StorageProvider.PrescriptionRunoutColumns.PRESCRIPTION_RUNOUTS_DATE };
+		String runoutWhereClause = (prescriptionIds == null) ? null : buildIdSelection(StorageProvider.PrescriptionRunoutColumns._ID, prescriptionIds);
+		Cursor runoutCursor = this.getApplicationContext().getContentResolver().query(StorageProvider.PrescriptionRunoutColumns.CONTENT_URI, runoutProjection, runoutWhereClause, null, null);
+		
+		while (runoutCursor.moveToNext()) {
+			storedRunouts.put(Integer.valueOf(runoutCursor.getInt(0)), Long.valueOf(runoutCursor.getLong(1)));
+		}
+		
+		runoutCursor.close();
+		
+		/* 2. Get the prescriptions that have been 'scheduled', along with their drugs and patients. */
+		String prescriptionWhereClause = StorageProvider.PRESCRIPTIONS_TABLE_NAME + "." + StorageProvider.PrescriptionColumns.PRESCRIPTION_SCHEDULED + "=?";
+		String[] prescriptionWhereArgs = { String.valueOf(Prescription.SCHEDULED) };
+		if (prescriptionIds != null) {
+			prescriptionWhereClause += " AND " + buildIdSelection(StorageProvider.PRESCRIPTIONS_TABLE_NAME + "." + StorageProvider.PrescriptionColumns._ID, prescriptionIds);
+		}
 		
 		Log.d(LOG_TAG, "Getting a cursor on the scheduled prescriptions...");
 		
-		// Get all of the prescriptions that are scheduled
-		Cursor prescriptionCursor = this.getApplicationContext().getContentResolver().query(StorageProvider.PrescriptionColumns.CONTENT_URI, prescriptionProjection, prescriptionWhereClause, null, null);
+		Cursor prescriptionCursor = this.getApplicationContext().getContentResolver().query(StorageProvider.PrescriptionColumns.FULL_CONTENT_URI, null, prescriptionWhereClause, prescriptionWhereArgs, null);
 		Log.d(LOG_TAG, "Number of prescriptions to schedule: " + prescriptionCursor.getCount());
 		
-		if ( prescriptionCursor == null || !prescriptionCursor.moveToFirst()) {
-			// There are no prescriptions to schedule, we are done here.
-			Log.i(LOG_TAG, "No prescriptions to schedule!");
-		} else {
-			
-			/* 2. Run the list of prescription ids against the foreign key prescription ids that have been placed in the schedule table */
-			
-			Log.d(LOG_TAG, "Getting ready to look for prescription ids in the schedule table...");
+		ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		ArrayList<ScheduleChange> changes = new ArrayList<ScheduleChange>();
+		ArrayList<Schedule> noSchedules = new ArrayList<Schedule>();
+		// Kept apart so the schedule operations stay in step with their changes.
+		ArrayList<ContentProviderOperation> runoutOperations = new ArrayList<ContentProviderOperation>();
+		ArrayList<ContentProviderOperation> doseOperations = new ArrayList<ContentProviderOperation>();
+		
+		/* 3. Diff the desired schedules of each prescription against the stored ones. */
+		while (prescriptionCursor.moveToNext()) {
+			Prescription prescription = Prescription.fromJoinedCursor(prescriptionCursor, this.getApplicationContext());
 			
-			do {
-				// Get the prescription id
-				int prescriptionId = prescriptionCursor.getInt(prescriptionCursor.getColumnIndex(StorageProvider.PrescriptionColumns._ID));
-				
-				Log.d(LOG_TAG,"Looking for prescription ID: " + prescriptionId );
-				
-				// The where clause for the schedule query
-				String scheduleWhereClause = StorageProvider.ScheduleColumns.SCHEDULES_PRESCRIPTION + "=" + "'" + prescriptionId + "'";
-				
-				Cursor specificScheduleCursor = this.getApplicationContext().getContentResolver().query(StorageProvider.ScheduleColumns.CONTENT_URI, null, scheduleWhereClause, null, null);
-				
-				if ( specificScheduleCursor != null && specificScheduleCursor.moveToFirst()) {
-					// There are entries for this prescription in the schedule table.
-					Log.d(LOG_TAG, "There are entries in the schedule table for prescription ID: " + prescriptionId );
-					
-					/* 3. Remove any schedules for this prescription. */
-					int countRemoved = this.getApplicationContext().getContentResolver().delete(StorageProvider.ScheduleColumns.CONTENT_URI, scheduleWhereClause, null);
-					
-					Log.d(LOG_TAG, "Removed " + countRemoved + " rows from the schedule table..." );	
-				}
-				
-				/* 4. Schedule the prescriptions */
-				// There are no entries for this prescription in the schedule table.
-				Log.d(LOG_TAG, "There are no entries for prescription ID: " + prescriptionId + " in the schedule table.");
-				// Create a new schedule for this prescription.
-				this.scheduleNewPrescription(prescriptionId);
-				
-				// Close the specific query for the schedules.
-				specificScheduleCursor.close();
-				
-			} while (prescriptionCursor.moveToNext());
+			ArrayList<Schedule> stored = storedSchedules.remove(Integer.valueOf(prescription.get_id()));
+			if (stored == null) {
+				stored = noSchedules;
+			}
 			
+			long lastDose = this.getLastDose(prescription);
+			this.updateScheduledPrescription(stored, this.buildSchedules(prescription, lastDose), lastDose, operations, changes, doseOperations);
+			long runout = (lastDose == Recurrence.NO_DOSES) ? getSupplyStart(prescription) : lastDose;
+			this.queueRunout(prescription.get_id(), storedRunouts.remove(Integer.valueOf(prescription.get_id())), runout, runoutOperations);
 		}
 		
-		// Close the query for all the prescription ids
+		// Close the query for all the prescriptions
 		prescriptionCursor.close();
-
-		/* 5. Listen for any changes that may occur to the prescription URI table */
-		this.getApplicationContext().getContentResolver().registerContentObserver(StorageProvider.DrugColumns.CONTENT_URI, true, new PrescriptionContentObserver(new Handler()));
+		
+		/* 4. Whatever is left belongs to prescriptions that are no longer scheduled. */
+		Iterator<ArrayList<Schedule>> leftovers = storedSchedules.values().iterator();
+		while (leftovers.hasNext()) {
+			this.updateScheduledPrescription(leftovers.next(), noSchedules, Recurrence.NO_OCCURRENCE, operations, changes, doseOperations);
+		}
+		Iterator<Integer> leftoverRunouts = storedRunouts.keySet().iterator();
+		while (leftoverRunouts.hasNext()) {
+			Integer prescriptionId = leftoverRunouts.next();
+			this.queueRunout(prescriptionId.intValue(), storedRunouts.get(prescriptionId), Recurrence.NO_OCCURRENCE, runoutOperations);
+		}
+		
+		/* 5. Apply the changes and update the alarms. */
+		operations.addAll(doseOperations);
+		operations.addAll(runoutOperations);
+		this.applyScheduleChanges(operations, changes);
+		
+		if (this.getSchedulerMode() == SCHEDULER_MODE_NEXT_ALARM) {
+			// Arm the single alarm now that the schedules are up to date.
+			this.armNextAlarm();
+		}
 	}
 	
-	private void displayAlarmNotification(Intent intent) {
-		// Get an instance of the SBNM
-		StatusBarNotificationManager sbnm = new StatusBarNotificationManager(this.getApplicationContext());
+	/**
+	 * Builds a selection that matches the given ids in the given column.
+	 */
+	private static String buildIdSelection(String column, Set<Integer> ids) {
+		return column + " IN (" + TextUtils.join(",", ids) + ")";
+	}
+	
+	/**
+	 * Queues a rescheduling pass on the schedule thread. Requests that arrive while 
+	 * one is already waiting are folded into it.
+	 * 
+	 * @param delay how long to wait, in ms, before the pass runs
+	 */
+	private void requestReschedule(long delay) {
+		mScheduleHandler.removeCallbacks(mReschedule);
+		mScheduleHandler.postDelayed(mReschedule, delay);
+	}
+	
+	/**
+	 * Applies the queued schedule operations in a single batch. In the per schedule 
+	 * mode the alarms then follow the rows: inserted and updated schedules get a new 
+	 * alarm, deleted ones lose theirs and unchanged ones are re-armed in case the 
+	 * alarms were cleared, for example by a reboot.
+	 */
+	private void applyScheduleChanges(ArrayList<ContentProviderOperation> operations, ArrayList<ScheduleChange> changes) {
+		Log.d(LOG_TAG, "Applying " + operations.size() + " schedule changes...");
+		
+		ContentProviderResult[] results = new ContentProviderResult[0];
 		
+		if (!operations.isEmpty()) {
+			try {
+				results = this.getApplicationContext().getContentResolver().applyBatch(StorageProvider.AUTHORITY, operations);
+			} catch (RemoteException e) {
+				Log.e(LOG_TAG, "Unable to store the schedules.", e);
+				return;
+			} catch (OperationApplicationException e) {
+				Log.e(LOG_TAG, "Unable to store the schedules.", e);
+				return;
+			}
+		}
+		
+		if (this.getSchedulerMode() != SCHEDULER_MODE_PER_SCHEDULE) {
+			return;
+		}
+		
+		int resultIndex = 0;
+		
+		for (int i = 0; i < changes.size(); i++) {
+			ScheduleChange change = changes.get(i);
+			
+			switch (change.type) {
+			case ScheduleChange.TYPE_INSERT:
+				int scheduleId = (int) ContentUris.parseId(results[resultIndex++].uri);
+				this.setScheduleAlarm(scheduleId, change.alarmTime);
+				break;
+			case ScheduleChange.TYPE_UPDATE:
+				resultIndex++;
+				this.setScheduleAlarm(change.scheduleId, change.alarmTime);
+				break;
+			case ScheduleChange.TYPE_DELETE:
+				resultIndex++;
+				this.cancelScheduleAlarm(change.scheduleId);
+				break;
+			case ScheduleChange.TYPE_KEEP:
+				this.setScheduleAlarm(change.scheduleId, change.alarmTime);
+				break;
+			}
+		}
+	}
+	
+	private void displayAlarmNotification(Intent intent) {
 		// Get the schedule id from the intent.
 		int scheduleId = intent.getIntExtra(PENDING_INTENT_SCHEDULE_ID, -1);
 		
@@ -398,35 +1261,137 @@ public class MainService extends Service {
 			return;
 		}
 		
-		Log.d(LOG_TAG, "Notification for prescription ID: " + scheduleId);
+		Log.d(LOG_TAG, "Alarm for schedule ID: " + scheduleId);
+		
+		// Handle this schedule along with every other dose due in the window, so the 
+		// doses that fire together are shown together.
+		mScheduleHandler.post(mHandleDue);
+	}
+	
+	/**
+	 * Displays one notification for each patient with a dose of the given prescriptions, 
+	 * listing the drugs of all of the patient's pending doses. The pending doses are read 
+	 * in one query and their prescriptions with their drugs and patients in another.
+	 * 
+	 * @param prescriptionIds the prescriptions of the doses that were just shown
+	 */
+	private void displayDueNotifications(HashSet<Integer> prescriptionIds) {
+		if (prescriptionIds.isEmpty()) {
+			return;
+		}
+		
+		// Every pending dose of the patients of these prescriptions, in the order they were due.
+		String pendingWhere = StorageProvider.DoseColumns.DOSES_STATE + "=" + Dose.STATE_PENDING + " AND "
+				+ StorageProvider.DoseColumns.DOSES_PRESCRIPTION + " IN (SELECT " + StorageProvider.PrescriptionColumns._ID
+				+ " FROM " + StorageProvider.PRESCRIPTIONS_TABLE_NAME + " WHERE " + StorageProvider.PrescriptionColumns.PRESCRIPTION_PATIENT
+				+ " IN (SELECT " + StorageProvider.PrescriptionColumns.PRESCRIPTION_PATIENT + " FROM " + StorageProvider.PRESCRIPTIONS_TABLE_NAME
+				+ " WHERE " + StorageProvider.PrescriptionColumns._ID + " IN (" + TextUtils.join(",", prescriptionIds) + ")))";
+		String[] pendingProjection = { StorageProvider.DoseColumns.DOSES_PRESCRIPTION, StorageProvider.DoseColumns.DOSES_DUE_TIME };
+		Cursor pendingCursor = this.getApplicationContext().getContentResolver().query(StorageProvider.DoseColumns.CONTENT_URI, pendingProjection, pendingWhere, null, null);
 		
-		// Get the schedule that triggered
-		Uri scheduleUri = ContentUris.withAppendedId(StorageProvider.ScheduleColumns.CONTENT_URI, scheduleId);
-		String[] scheduleProjection = { StorageProvider.ScheduleColumns._ID, StorageProvider.ScheduleColumns.SCHEDULES_PRESCRIPTION };
-		Cursor scheduleCursor = this.getApplicationContext().getContentResolver().query(scheduleUri, scheduleProjection, null, null, null);
+		ArrayList<Integer> pending = new ArrayList<Integer>();
+		// The earliest pending due time of each prescription.
+		HashMap<Integer, Long> dueTimes = new HashMap<Integer, Long>();
+		try {
+			while (pendingCursor.moveToNext()) {
+				Integer prescriptionId = Integer.valueOf(pendingCursor.getInt(0));
+				long dueTime = pendingCursor.getLong(1);
+				pending.add(prescriptionId);
+				
+				Long earliest = dueTimes.get(prescriptionId);
+				if (earliest == null || dueTime < earliest.longValue()) {
+					dueTimes.put(prescriptionId, Long.valueOf(dueTime));
+				}
+			}
+		} finally {
+			pendingCursor.close();
+		}
 		
-		if(!scheduleCursor.moveToFirst())
-			Log.d(LOG_TAG,"Schedule cursor is empty.");
+		if (pending.isEmpty()) {
+			return;
+		}
 		
-		// Get the prescription associated with this alarm
-		Uri prescriptionUri = ContentUris.withAppendedId(StorageProvider.PrescriptionColumns.CONTENT_URI, scheduleCursor.getInt(scheduleCursor.getColumnIndex(StorageProvider.ScheduleColumns.SCHEDULES_PRESCRIPTION)));
-		Cursor prescriptionCursor = this.getApplicationContext().getContentResolver().query(prescriptionUri, null, null, null, null);
-		prescriptionCursor.moveToFirst();
+		// Each prescription once, however many of its doses are pending.
+		String prescriptionWhere = StorageProvider.PRESCRIPTIONS_TABLE_NAME + "." + StorageProvider.PrescriptionColumns._ID 
+				+ " IN (" + TextUtils.join(",", new HashSet<Integer>(pending)) + ")";
+		Cursor prescriptionCursor = this.getApplicationContext().getContentResolver().query(StorageProvider.PrescriptionColumns.FULL_CONTENT_URI, null, prescriptionWhere, null, null);
 		
-		Log.d(LOG_TAG, "Notification for prescription " + scheduleCursor.getInt(scheduleCursor.getColumnIndex(StorageProvider.ScheduleColumns.SCHEDULES_PRESCRIPTION)) + " in schedule " + scheduleId);
+		HashMap<Integer, Prescription> prescriptions = new HashMap<Integer, Prescription>();
+		try {
+			while (prescriptionCursor.moveToNext()) {
+				Prescription prescription = Prescription.fromJoinedCursor(prescriptionCursor, this.getApplicationContext());
+				prescriptions.put(prescription.get_id(), prescription);
+			}
+		} finally {
+			prescriptionCursor.close();
+		}
 		
-		// Parse that cursor
-		Prescription prescription = Prescription.fromCursor(prescriptionCursor, this.getApplicationContext());
+		// Group the doses by patient, keeping the order they are due in.
+		LinkedHashMap<Integer, ArrayList<Prescription>> doses = new LinkedHashMap<Integer, ArrayList<Prescription>>();
+		for (int i = 0; i < pending.size(); i++) {
+			Prescription prescription = prescriptions.get(pending.get(i));
+			
+			if (prescription == null) {
+				Log.e(LOG_TAG, "Prescription " + pending.get(i) + " could not be found.");
+				continue;
+			}
+			
+			Integer patientId = Integer.valueOf(prescription.getPatient().get_id());
+			ArrayList<Prescription> patientDoses = doses.get(patientId);
+			if (patientDoses == null) {
+				patientDoses = new ArrayList<Prescription>();
+				doses.put(patientId, patientDoses);
+			}
+			if (!patientDoses.contains(prescription)) {
+				patientDoses.add(prescription);
+			}
+		}
 		
-		// Create and display the notification
-		String topText = prescription.getDrug().getBrandName();
-		String titleText = "Please take X " + prescription.getDrug().getBrandName();
-		String bodyText = "Body text.";
+		StatusBarNotificationManager sbnm = new StatusBarNotificationManager(this.getApplicationContext());
 		
-		StatusBarNotification not = new StatusBarNotification(this, prescription, topText, titleText, bodyText);
+		Iterator<Integer> patientIds = doses.keySet().iterator();
+		while (patientIds.hasNext()) {
+			Integer patientId = patientIds.next();
+			this.displayPatientNotification(sbnm, patientId.intValue(), doses.get(patientId), dueTimes);
+		}
 		
-		// Get the index of this notification
-		int x = sbnm.add(not);
+		Log.d(LOG_TAG, "Displayed " + pending.size() + " doses in " + doses.size() + " notifications.");
+	}
+	
+	/**
+	 * Displays the notification of one patient's due doses, replacing the patient's 
+	 * last notification. Each dose is listed with its amount and the time it was due.
+	 * 
+	 * @param dueTimes the earliest pending due time of each prescription, by id
+	 */
+	private void displayPatientNotification(StatusBarNotificationManager sbnm, int patientId, ArrayList<Prescription> patientDoses,
+			HashMap<Integer, Long> dueTimes) {
+		String firstName = patientDoses.get(0).getPatient().getFirstName();
+		
+		String topText;
+		String titleText;
+		String bodyText;
+		
+		if (patientDoses.size() == 1) {
+			Prescription prescription = patientDoses.get(0);
+			topText = prescription.getDrug().getBrandName();
+			titleText = firstName + ": take " + describeDose(prescription);
+			bodyText = "Due at " + this.formatTime(dueTimes.get(prescription.get_id()).longValue());
+		} else {
+			String[] doseTexts = new String[patientDoses.size()];
+			for (int i = 0; i < doseTexts.length; i++) {
+				Prescription prescription = patientDoses.get(i);
+				doseTexts[i] = describeDose(prescription) + " at " + this.formatTime(dueTimes.get(prescription.get_id()).longValue());
+			}
+			topText = doseTexts.length + " doses due";
+			titleText = firstName + ": " + doseTexts.length + " doses due";
+			bodyText = TextUtils.join(", ", doseTexts);
+		}
+		
+		StatusBarNotification not = new StatusBarNotification(this, patientId, System.currentTimeMillis(), topText, titleText, bodyText);
+		
+		// Store the notification, it replaces the last one of this patient
+		int x = sbnm.add(patientId, not);
 		try {
 			// Send the message to the NM to display
 			sbnm.sendMessage(x);
@@ -434,10 +1399,21 @@ public class MainService extends Service {
 		catch(Exception e) {
 			Log.d(LOG_TAG, "There was an exception while trying to display a notification.");
 		}
-		
-		// Close the cursors
-		scheduleCursor.close();
-		prescriptionCursor.close();
+	}
+	
+	/**
+	 * Describes one dose of the prescription, its amount and drug, e.g. "2 x Tylenol".
+	 */
+	private static String describeDose(Prescription prescription) {
+		String brandName = prescription.getDrug().getBrandName();
+		return (prescription.getDoseSize() > 0) ? prescription.getDoseSize() + " x " + brandName : brandName;
+	}
+	
+	/**
+	 * Formats a time of day the way the user has set the clock to show it.
+	 */
+	private String formatTime(long time) {
+		return DateFormat.getTimeFormat(this).format(new Date(time));
 	}
 	
 	/**
@@ -454,15 +1430,76 @@ public class MainService extends Service {
 		if ( this.isActionAlarmTriggerIntent(intentAction) ) {
 			// An alarm has completed!
 			displayAlarmNotification(intent);
-		} else if ( intentAction.equals(ACTION_START_SERVICE) || intentAction.equals(ACTION_ALARM_SCHEDULE) || intent.getAction().equals(ACTION_ALARM_RESCHEDULE) ) {
-			// Schedule alarms...
-			this.schedulePrescriptions();
+		} else if ( intentAction.equals(ACTION_ALARM_DUE) ) {
+			// The next alarm has gone off, handle everything that is due.
+			mScheduleHandler.post(mHandleDue);
+		} else if ( intentAction.equals(ACTION_EVENT_MAINTENANCE) ) {
+			// Archive the old events, one run at a time.
+			mScheduleHandler.removeCallbacks(mEventMaintenance);
+			mScheduleHandler.post(mEventMaintenance);
+		} else if ( (intentAction.split(":")[0]).equals(ACTION_NOTIFICATION_DISMISSED) ) {
+			// The user cleared a notification, its doses are missed.
+			final int notificationId = intent.getIntExtra(StatusBarNotificationManager.EXTRA_NOTIFICATION_ID, -1);
+			mScheduleHandler.post(new Runnable() {
+				public void run() {
+					MainService.this.handlePatientDoses(notificationId, Dose.STATE_MISSED, NotificationEventType.DISMISS);
+				}
+			});
+		} else if ( intentAction.equals(ACTION_DOSES_TAKEN) || intentAction.equals(ACTION_DOSES_SNOOZED) ) {
+			// The user took or snoozed the doses of a notification.
+			final int patientId = intent.getIntExtra(EXTRA_PATIENT_ID, -1);
+			final int state = intentAction.equals(ACTION_DOSES_TAKEN) ? Dose.STATE_ACKNOWLEDGED : Dose.STATE_SNOOZED;
+			mScheduleHandler.post(new Runnable() {
+				public void run() {
+					MainService.this.handlePatientDoses(patientId, state, null);
+				}
+			});
+		} else if ( intentAction.equals(ACTION_ALARM_SCHEDULE) ) {
+			// The screen was unlocked. Nothing about the schedules changed, so only make 
+			// sure the next alarm is armed; the full pass is left to boot and time changes.
+			mScheduleHandler.post(mArmNextAlarm);
+		} else if ( intentAction.equals(ACTION_START_SERVICE) || intentAction.equals(ACTION_ALARM_RESCHEDULE) ) {
+			if ( intentAction.equals(ACTION_START_SERVICE) ) {
+				this.armEventMaintenance();
+				// Log the doses missed while the alarms were gone, before the schedules are rebuilt.
+				mScheduleHandler.post(mCatchUp);
+				// Show the notifications that were showing before the restart again.
+				mScheduleHandler.post(mRestoreNotifications);
+			}
+			// Schedule alarms for every prescription, the times may all have moved.
+			mFullReschedule = true;
+			this.requestReschedule(0);
 		} else {
 			// How did we get this action? What is this!?
 			Log.d(LOG_TAG, "handleCommand() - Unknown intent: " + intentAction);
 		}			
 	}
 	
+	/**
+	 * One change to the schedule table found by the diff in schedulePrescriptions(). 
+	 * Every change except TYPE_KEEP has a matching operation in the batch, in the 
+	 * same order.
+	 */
+	private static class ScheduleChange {
+		static final int TYPE_INSERT = 0;
+		static final int TYPE_UPDATE = 1;
+		static final int TYPE_DELETE = 2;
+		static final int TYPE_KEEP = 3;
+		
+		static final int NO_ID = -1;
+		static final long NO_ALARM = -1;
+		
+		final int type;
+		final int scheduleId;
+		final long alarmTime;
+		
+		ScheduleChange(int type, int scheduleId, long alarmTime) {
+			this.type = type;
+			this.scheduleId = scheduleId;
+			this.alarmTime = alarmTime;
+		}
+	}
+	
 	class PrescriptionContentObserver extends ContentObserver {
 
 		public PrescriptionContentObserver(Handler handler) {
@@ -471,9 +1508,10 @@ public class MainService extends Service {
 
 		@Override
 		public void onChange(boolean selfChange) {
-			Log.d(LOG_TAG, "ScheduleContentObserver onChange() called...");
-			Log.d(LOG_TAG, "Updating schedules.");
-			MainService.this.schedulePrescriptions();
+			Log.d(LOG_TAG, "PrescriptionContentObserver onChange() called...");
+			// Wait for the rest of the burst before updating the schedules.
+			mPendingChanges++;
+			MainService.this.requestReschedule(RESCHEDULE_DEBOUNCE_MS);
 		}
 	}
 }
@@ -14,6 +14,7 @@ public class MainServiceManager extends BroadcastReceiver {
 
 		// If we have received the "USER_PRESENT" intent (screen unlocked)...
 		if (intent.getAction().equals(Intent.ACTION_USER_PRESENT)) {
+			// Only re-arms the next alarm, the schedules are rebuilt on boot and time changes.
 			Log.d(MainService.LOG_TAG, "Sending the ALARM SCHEDULE intent to the service...");
 			this.sendIntentToService(context, MainService.ACTION_ALARM_SCHEDULE);
 		
@@ -0,0 +1,342 @@
+package com.risotto.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+import com.risotto.model.event.NotificationEvent.NotificationEventType;
+import com.risotto.storage.StorageProvider.AdherenceColumns;
+import com.risotto.storage.StorageProvider.EventArchiveColumns;
+import com.risotto.storage.StorageProvider.NotificationEventColumns;
+import com.risotto.storage.StorageProvider.PrescriptionColumns;
+
+/**
+ * Maintains the per day adherence rollups of the notification events, one table keyed by
+ * prescription and one keyed by patient. Every row holds the counts of its own day along
+ * with running totals up to and including that day, and the number of adherent days in a
+ * row ending on that day. Any range can then be answered from the two rows at its ends,
+ * no matter how many events are stored.
+ *
+ * Events are nearly always recorded for the current day, which only touches the newest
+ * row of each key. An event for an earlier day also has to carry its counts forward
+ * through the later rows.
+ *
+ * A dismissed notification only counts as an event. Whether its doses were taken isn't
+ * known, so it is neither taken nor missed.
+ */
+final class AdherenceRollup {
+
+	private static final String LOG_TAG = "RISOTTO_ADHERENCE";
+
+	private static final String[] TOTALS_PROJECTION = {
+		AdherenceColumns.ADHERENCE_TOTAL_TAKEN,
+		AdherenceColumns.ADHERENCE_TOTAL_MISSED,
+		AdherenceColumns.ADHERENCE_TOTAL_EVENTS
+	};
+
+	// The columns of the summary cursor returned by the adherence query URIs.
+	private static final String[] SUMMARY_COLUMNS = {
+		AdherenceColumns._ID,
+		AdherenceColumns.ADHERENCE_TAKEN,
+		AdherenceColumns.ADHERENCE_MISSED,
+		AdherenceColumns.ADHERENCE_EVENTS,
+		AdherenceColumns.ADHERENCE_RATE,
+		AdherenceColumns.ADHERENCE_STREAK
+	};
+
+	// This class cannot be instantiated
+	private AdherenceRollup() {}
+
+	static void createTables(SQLiteDatabase db) {
+		createTable(db, StorageProvider.PRESCRIPTION_ADHERENCE_TABLE_NAME, AdherenceColumns.ADHERENCE_PRESCRIPTION, StorageProvider.PRESCRIPTIONS_TABLE_NAME);
+		createTable(db, StorageProvider.PATIENT_ADHERENCE_TABLE_NAME, AdherenceColumns.ADHERENCE_PATIENT, StorageProvider.PATIENTS_TABLE_NAME);
+	}
+
+	private static void createTable(SQLiteDatabase db, String tableName, String keyColumn, String keyTableName) {
+		Log.d(LOG_TAG, "Creating the " + tableName + " table...");
+		db.execSQL("CREATE TABLE " + tableName + " ("
+				+ AdherenceColumns._ID + " INTEGER PRIMARY KEY,"
+				+ keyColumn + " INTEGER NOT NULL,"
+				+ AdherenceColumns.ADHERENCE_DAY + " INTEGER NOT NULL,"
+				+ AdherenceColumns.ADHERENCE_TAKEN + " INTEGER NOT NULL DEFAULT 0,"
+				+ AdherenceColumns.ADHERENCE_MISSED + " INTEGER NOT NULL DEFAULT 0,"
+				+ AdherenceColumns.ADHERENCE_EVENTS + " INTEGER NOT NULL DEFAULT 0,"
+				+ AdherenceColumns.ADHERENCE_TOTAL_TAKEN + " INTEGER NOT NULL DEFAULT 0,"
+				+ AdherenceColumns.ADHERENCE_TOTAL_MISSED + " INTEGER NOT NULL DEFAULT 0,"
+				+ AdherenceColumns.ADHERENCE_TOTAL_EVENTS + " INTEGER NOT NULL DEFAULT 0,"
+				+ AdherenceColumns.ADHERENCE_STREAK + " INTEGER NOT NULL DEFAULT 0,"
+
+				// One row per key and day, which also indexes the range lookups.
+				+ "UNIQUE(" + keyColumn + "," + AdherenceColumns.ADHERENCE_DAY + "),"
+				// FOREIGN KEY(key) REFERENCES table(_id) ON DELETE CASCADE
+				+ "FOREIGN KEY(" + keyColumn + ") REFERENCES " + keyTableName + "(" + BaseColumns._ID + ") ON DELETE CASCADE"
+				+ ");");
+	}
+
+	/**
+	 * Adds one stored notification event to the rollups of its prescription and of that
+	 * prescription's patient. Call this in the transaction that inserted the event.
+	 *
+	 * @param db The database the event was stored in
+	 * @param values The values of the stored event
+	 */
+	static void recordEvent(SQLiteDatabase db, ContentValues values) {
+		Long prescriptionId = values.getAsLong(NotificationEventColumns.NOTIFICATION_EVENTS_PRESCRIPTION);
+		Long timestamp = values.getAsLong(NotificationEventColumns.NOTIFICATION_EVENTS_TIMESTAMP);
+		Integer eventType = values.getAsInteger(NotificationEventColumns.NOTIFICATION_EVENTS_EVENT_TYPE);
+
+		if (prescriptionId == null || timestamp == null || eventType == null) {
+			return;
+		}
+
+		recordEvent(db, prescriptionId.longValue(), timestamp.longValue(), eventType.intValue());
+	}
+
+	private static void recordEvent(SQLiteDatabase db, long prescriptionId, long timestamp, int eventType) {
+		int day = AdherenceColumns.toDay(timestamp);
+		int taken = 0;
+		int missed = 0;
+
+		if (eventType == NotificationEventType.TAKEN.ordinal()) {
+			taken = 1;
+		} else if (eventType == NotificationEventType.SKIP.ordinal() || eventType == NotificationEventType.MISSED.ordinal()) {
+			missed = 1;
+		}
+
+		Cursor c = db.query(StorageProvider.PRESCRIPTIONS_TABLE_NAME, new String[] { PrescriptionColumns.PRESCRIPTION_PATIENT },
+				PrescriptionColumns._ID + "=" + prescriptionId, null, null, null, null);
+		try {
+			if (!c.moveToFirst()) {
+				// The rollups only follow prescriptions that still exist.
+				Log.d(LOG_TAG, "No prescription " + prescriptionId + " to roll the event up into.");
+				return;
+			}
+
+			rollUp(db, StorageProvider.PRESCRIPTION_ADHERENCE_TABLE_NAME, AdherenceColumns.ADHERENCE_PRESCRIPTION, prescriptionId, day, taken, missed);
+			rollUp(db, StorageProvider.PATIENT_ADHERENCE_TABLE_NAME, AdherenceColumns.ADHERENCE_PATIENT, c.getLong(0), day, taken, missed);
+		} finally {
+			c.close();
+		}
+	}
+
+	private static void rollUp(SQLiteDatabase db, String tableName, String keyColumn, long key, int day, int taken, int missed) {
+		String keyWhere = keyColumn + "=" + key + " AND ";
+
+		Cursor c = db.query(tableName, new String[] { AdherenceColumns._ID },
+				keyWhere + AdherenceColumns.ADHERENCE_DAY + "=" + day, null, null, null, null);
+		boolean exists;
+		try {
+			exists = c.moveToFirst();
+		} finally {
+			c.close();
+		}
+
+		if (!exists) {
+			// Start the day from the running totals of the day before it.
+			ContentValues row = new ContentValues();
+			row.put(keyColumn, key);
+			row.put(AdherenceColumns.ADHERENCE_DAY, day);
+
+			c = db.query(tableName, TOTALS_PROJECTION, keyWhere + AdherenceColumns.ADHERENCE_DAY + "<" + day,
+					null, null, null, AdherenceColumns.ADHERENCE_DAY + " DESC", "1");
+			try {
+				if (c.moveToFirst()) {
+					row.put(AdherenceColumns.ADHERENCE_TOTAL_TAKEN, c.getLong(0));
+					row.put(AdherenceColumns.ADHERENCE_TOTAL_MISSED, c.getLong(1));
+					row.put(AdherenceColumns.ADHERENCE_TOTAL_EVENTS, c.getLong(2));
+				}
+			} finally {
+				c.close();
+			}
+
+			db.insert(tableName, null, row);
+		}
+
+		db.execSQL("UPDATE " + tableName + " SET "
+				+ AdherenceColumns.ADHERENCE_TAKEN + "=" + AdherenceColumns.ADHERENCE_TAKEN + "+" + taken + ","
+				+ AdherenceColumns.ADHERENCE_MISSED + "=" + AdherenceColumns.ADHERENCE_MISSED + "+" + missed + ","
+				+ AdherenceColumns.ADHERENCE_EVENTS + "=" + AdherenceColumns.ADHERENCE_EVENTS + "+1"
+				+ " WHERE " + keyWhere + AdherenceColumns.ADHERENCE_DAY + "=" + day);
+
+		// The running totals include this day, so carry the event into it and every later day.
+		db.execSQL("UPDATE " + tableName + " SET "
+				+ AdherenceColumns.ADHERENCE_TOTAL_TAKEN + "=" + AdherenceColumns.ADHERENCE_TOTAL_TAKEN + "+" + taken + ","
+				+ AdherenceColumns.ADHERENCE_TOTAL_MISSED + "=" + AdherenceColumns.ADHERENCE_TOTAL_MISSED + "+" + missed + ","
+				+ AdherenceColumns.ADHERENCE_TOTAL_EVENTS + "=" + AdherenceColumns.ADHERENCE_TOTAL_EVENTS + "+1"
+				+ " WHERE " + keyWhere + AdherenceColumns.ADHERENCE_DAY + ">=" + day);
+
+		updateStreaks(db, tableName, keyWhere, day);
+	}
+
+	/**
+	 * Recomputes the streaks from the given day on, stopping as soon as a later day
+	 * already has the right streak since the days after it can't have changed either.
+	 * A day is adherent when a dose was taken and none was missed.
+	 */
+	private static void updateStreaks(SQLiteDatabase db, String tableName, String keyWhere, int day) {
+		// Never adjacent to the first day, so a key without earlier rows starts from zero.
+		int lastDay = day - 2;
+		int lastStreak = 0;
+
+		Cursor c = db.query(tableName, new String[] { AdherenceColumns.ADHERENCE_DAY, AdherenceColumns.ADHERENCE_STREAK },
+				keyWhere + AdherenceColumns.ADHERENCE_DAY + "<" + day, null, null, null, AdherenceColumns.ADHERENCE_DAY + " DESC", "1");
+		try {
+			if (c.moveToFirst()) {
+				lastDay = c.getInt(0);
+				lastStreak = c.getInt(1);
+			}
+		} finally {
+			c.close();
+		}
+
+		c = db.query(tableName, new String[] { AdherenceColumns._ID, AdherenceColumns.ADHERENCE_DAY, AdherenceColumns.ADHERENCE_TAKEN,
+				AdherenceColumns.ADHERENCE_MISSED, AdherenceColumns.ADHERENCE_STREAK },
+				keyWhere + AdherenceColumns.ADHERENCE_DAY + ">=" + day, null, null, null, AdherenceColumns.ADHERENCE_DAY);
+		try {
+			while (c.moveToNext()) {
+				int rowDay = c.getInt(1);
+				boolean adherent = c.getInt(2) > 0 && c.getInt(3) == 0;
+				int streak = adherent ? (rowDay == lastDay + 1 ? lastStreak : 0) + 1 : 0;
+
+				if (streak == c.getInt(4)) {
+					if (rowDay != day) {
+						break;
+					}
+				} else {
+					db.execSQL("UPDATE " + tableName + " SET " + AdherenceColumns.ADHERENCE_STREAK + "=" + streak
+							+ " WHERE " + AdherenceColumns._ID + "=" + c.getLong(0));
+				}
+
+				lastDay = rowDay;
+				lastStreak = streak;
+			}
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Rebuilds both rollup tables from the stored notification events, chunkSize events
+	 * at a time, and from the archived ones, one archive at a time.
+	 */
+	static void fill(SQLiteDatabase db, int chunkSize) {
+		String[] projection = {
+			NotificationEventColumns._ID,
+			NotificationEventColumns.NOTIFICATION_EVENTS_PRESCRIPTION,
+			NotificationEventColumns.NOTIFICATION_EVENTS_TIMESTAMP,
+			NotificationEventColumns.NOTIFICATION_EVENTS_EVENT_TYPE
+		};
+
+		db.delete(StorageProvider.PRESCRIPTION_ADHERENCE_TABLE_NAME, null, null);
+		db.delete(StorageProvider.PATIENT_ADHERENCE_TABLE_NAME, null, null);
+
+		long lastId = 0;
+		int rows;
+
+		do {
+			Cursor c = db.query(StorageProvider.NOTIFICATION_EVENTS_TABLE_NAME, projection, NotificationEventColumns._ID + ">" + lastId,
+					null, null, null, NotificationEventColumns._ID, String.valueOf(chunkSize));
+			rows = 0;
+			try {
+				while (c.moveToNext()) {
+					rows++;
+					lastId = c.getLong(0);
+					recordEvent(db, c.getLong(1), c.getLong(2), c.getInt(3));
+				}
+			} finally {
+				c.close();
+			}
+		} while (rows == chunkSize);
+
+		String archiveWhere = EventArchiveColumns.EVENT_ARCHIVES_SOURCE_TABLE + "='" + StorageProvider.NOTIFICATION_EVENTS_TABLE_NAME + "' AND "
+				+ EventArchiveColumns._ID + ">";
+		lastId = 0;
+
+		while (true) {
+			byte[] data;
+			Cursor c = db.query(StorageProvider.EVENT_ARCHIVES_TABLE_NAME, new String[] { EventArchiveColumns._ID, EventArchiveColumns.EVENT_ARCHIVES_DATA },
+					archiveWhere + lastId, null, null, null, EventArchiveColumns._ID, "1");
+			try {
+				if (!c.moveToFirst()) {
+					break;
+				}
+				lastId = c.getLong(0);
+				data = c.getBlob(1);
+			} finally {
+				c.close();
+			}
+
+			ArrayList<ContentValues> events;
+			try {
+				events = EventRetention.readArchive(data);
+			} catch (IOException e) {
+				Log.e(LOG_TAG, "Unable to read the event archive " + lastId + ", its events are left out.", e);
+				continue;
+			}
+
+			for (int i = 0; i < events.size(); i++) {
+				recordEvent(db, events.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Summarizes the days fromDay to toDay (both inclusive) of one prescription or patient
+	 * in a single row, from the rollup rows at the two ends of the range.
+	 *
+	 * @return A cursor with the SUMMARY_COLUMNS, the rate is null when no dose was due
+	 */
+	static Cursor querySummary(SQLiteDatabase db, String tableName, String keyColumn, long key, int fromDay, int toDay) {
+		String keyWhere = keyColumn + "=" + key + " AND ";
+		long taken = 0;
+		long missed = 0;
+		long events = 0;
+		long streak = 0;
+
+		// The running totals at the end of the range...
+		Cursor c = db.query(tableName, new String[] { AdherenceColumns.ADHERENCE_TOTAL_TAKEN, AdherenceColumns.ADHERENCE_TOTAL_MISSED,
+				AdherenceColumns.ADHERENCE_TOTAL_EVENTS, AdherenceColumns.ADHERENCE_DAY, AdherenceColumns.ADHERENCE_STREAK },
+				keyWhere + AdherenceColumns.ADHERENCE_DAY + "<=" + toDay, null, null, null, AdherenceColumns.ADHERENCE_DAY + " DESC", "1");
+		try {
+			if (c.moveToFirst()) {
+				taken = c.getLong(0);
+				missed = c.getLong(1);
+				events = c.getLong(2);
+
+				// A streak is still running if it reached the last day, or the day before it
+				// when the last day has nothing recorded yet. Only count the days inside the range.
+				int lastDay = c.getInt(3);
+				if (lastDay >= toDay - 1) {
+					streak = Math.max(0, Math.min(c.getLong(4), lastDay - fromDay + 1));
+				}
+			}
+		} finally {
+			c.close();
+		}
+
+		// ...minus the running totals before it starts.
+		c = db.query(tableName, TOTALS_PROJECTION, keyWhere + AdherenceColumns.ADHERENCE_DAY + "<" + fromDay,
+				null, null, null, AdherenceColumns.ADHERENCE_DAY + " DESC", "1");
+		try {
+			if (c.moveToFirst()) {
+				taken -= c.getLong(0);
+				missed -= c.getLong(1);
+				events -= c.getLong(2);
+			}
+		} finally {
+			c.close();
+		}
+
+		Double rate = (taken + missed) > 0 ? Double.valueOf((double) taken / (taken + missed)) : null;
+
+		MatrixCursor summary = new MatrixCursor(SUMMARY_COLUMNS, 1);
+		summary.addRow(new Object[] { Long.valueOf(key), Long.valueOf(taken), Long.valueOf(missed), Long.valueOf(events), rate, Long.valueOf(streak) });
+		return summary;
+	}
+}
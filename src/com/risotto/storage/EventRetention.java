@@ -0,0 +1,354 @@
+package com.risotto.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.risotto.storage.StorageProvider.EventArchiveColumns;
+import com.risotto.storage.StorageProvider.NotificationEventColumns;
+import com.risotto.storage.StorageProvider.SyncEventColumns;
+import com.risotto.storage.StorageProvider.SystemEventColumns;
+
+/**
+ * Moves old rows out of the event tables. Events older than the retention horizon are
+ * packed into gzip compressed archive blobs, one or more per table and week, and the
+ * originals are deleted. Every chunk of events is archived and deleted in its own
+ * transaction so the database is never locked for long. Afterwards the freed pages are
+ * given back to the file system.
+ *
+ * The adherence rollups are kept up to date as the events are written, so archiving
+ * notification events doesn't change the adherence summaries.
+ */
+public final class EventRetention {
+
+	private static final String LOG_TAG = "RISOTTO_EVENT_RETENTION";
+
+	// The length of the time buckets the archives are grouped by.
+	private static final long BUCKET_IN_MS = 7L * 24 * 60 * 60 * 1000;
+	// The most events archived and deleted per transaction.
+	private static final int CHUNK_SIZE = 1000;
+	// The number of free pages that makes a vacuum worth it.
+	private static final long VACUUM_FREE_PAGES = 256;
+
+	// The format of the archive blobs, written first so it can change later.
+	private static final int ARCHIVE_FORMAT = 1;
+
+	// SQLite's auto_vacuum setting for incremental vacuuming.
+	private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+	// The archived tables and their columns, the last column of each is the blob.
+	private static final String[] TABLES = {
+		StorageProvider.NOTIFICATION_EVENTS_TABLE_NAME,
+		StorageProvider.SYSTEM_EVENTS_TABLE_NAME,
+		StorageProvider.SYNC_EVENTS_TABLE_NAME
+	};
+
+	private static final String[][] TABLE_COLUMNS = {
+		{
+			NotificationEventColumns._ID,
+			NotificationEventColumns.NOTIFICATION_EVENTS_TIMESTAMP,
+			NotificationEventColumns.NOTIFICATION_EVENTS_EVENT_TYPE,
+			NotificationEventColumns.NOTIFICATION_EVENTS_PRESCRIPTION
+		},
+		{
+			SystemEventColumns._ID,
+			SystemEventColumns.SYSTEM_EVENTS_TIMESTAMP,
+			SystemEventColumns.SYSTEM_EVENTS_EVENT_TYPE,
+			SystemEventColumns.SYSTEM_EVENTS_EVENT_SUBTYPE,
+			SystemEventColumns.SYSTEM_EVENTS_EVENT_DATA
+		},
+		{
+			SyncEventColumns._ID,
+			SyncEventColumns.SYNC_EVENTS_TIMESTAMP,
+			SyncEventColumns.SYNC_EVENTS_DIRECTION,
+			SyncEventColumns.SYNC_EVENTS_EVENT_TYPE,
+			SyncEventColumns.SYNC_EVENTS_EVENT_STATUS,
+			SyncEventColumns.SYNC_EVENTS_EVENT_DATA
+		}
+	};
+
+	// Which tables end with a blob column.
+	private static final boolean[] TABLE_HAS_BLOB = { false, true, true };
+
+	// The timestamp column is the same in every event table.
+	private static final String TIMESTAMP = NotificationEventColumns.NOTIFICATION_EVENTS_TIMESTAMP;
+
+	// This class cannot be instantiated
+	private EventRetention() {}
+
+	static void createArchiveTable(SQLiteDatabase db) {
+		Log.d(LOG_TAG, "Creating the " + StorageProvider.EVENT_ARCHIVES_TABLE_NAME + " table...");
+		db.execSQL("CREATE TABLE " + StorageProvider.EVENT_ARCHIVES_TABLE_NAME + " ("
+				+ EventArchiveColumns._ID + " INTEGER PRIMARY KEY,"
+				+ EventArchiveColumns.EVENT_ARCHIVES_SOURCE_TABLE + " TEXT NOT NULL,"
+				+ EventArchiveColumns.EVENT_ARCHIVES_BUCKET_START + " INTEGER NOT NULL,"
+				+ EventArchiveColumns.EVENT_ARCHIVES_BUCKET_END + " INTEGER NOT NULL,"
+				+ EventArchiveColumns.EVENT_ARCHIVES_EVENT_COUNT + " INTEGER NOT NULL,"
+				+ EventArchiveColumns.EVENT_ARCHIVES_DATA + " BLOB NOT NULL"
+				+ ");");
+	}
+
+	/**
+	 * Archives every event older than the horizon, then vacuums the database if enough
+	 * pages were freed.
+	 *
+	 * @param db The database to clean up, the vacuum is skipped inside a transaction
+	 * @param horizon How old, in ms, an event has to be to get archived
+	 * @return The number of events archived
+	 */
+	static int run(SQLiteDatabase db, long horizon) {
+		long start = System.currentTimeMillis();
+
+		// Only archive whole buckets, so a bucket is never split across two runs.
+		long cutoff = ((start - horizon) / BUCKET_IN_MS) * BUCKET_IN_MS;
+		int archived = 0;
+
+		for (int i = 0; i < TABLES.length; i++) {
+			int chunk;
+			do {
+				db.beginTransaction();
+				try {
+					chunk = archiveChunk(db, i, cutoff);
+					db.setTransactionSuccessful();
+				} finally {
+					db.endTransaction();
+				}
+				// The chunk's transaction has ended, so anyone waiting on the database gets in
+				// before the next one begins.
+				archived += chunk;
+			} while (chunk == CHUNK_SIZE);
+		}
+
+		Log.d(LOG_TAG, "Archived " + archived + " events in " + (System.currentTimeMillis() - start) + "ms");
+
+		vacuum(db);
+
+		return archived;
+	}
+
+	/**
+	 * Archives and deletes the oldest CHUNK_SIZE events of one table that are older than
+	 * the cutoff, writing one archive row per bucket they fall in.
+	 */
+	private static int archiveChunk(SQLiteDatabase db, int table, long cutoff) {
+		String[] columns = TABLE_COLUMNS[table];
+
+		Cursor c = db.query(TABLES[table], columns, TIMESTAMP + "<" + cutoff, null, null, null,
+				TIMESTAMP + "," + NotificationEventColumns._ID, String.valueOf(CHUNK_SIZE));
+
+		int count = 0;
+		StringBuilder ids = new StringBuilder();
+
+		try {
+			ArchiveWriter writer = null;
+			long bucketStart = 0;
+
+			while (c.moveToNext()) {
+				long rowBucket = (c.getLong(1) / BUCKET_IN_MS) * BUCKET_IN_MS;
+
+				if (writer == null || rowBucket != bucketStart) {
+					if (writer != null) {
+						writer.store(db, TABLES[table], bucketStart);
+					}
+					writer = new ArchiveWriter(columns);
+					bucketStart = rowBucket;
+				}
+
+				writer.writeRow(c, TABLE_HAS_BLOB[table]);
+
+				if (count > 0) {
+					ids.append(',');
+				}
+				ids.append(c.getLong(0));
+				count++;
+			}
+
+			if (writer != null) {
+				writer.store(db, TABLES[table], bucketStart);
+			}
+		} finally {
+			c.close();
+		}
+
+		if (count > 0) {
+			db.delete(TABLES[table], NotificationEventColumns._ID + " IN (" + ids + ")", null);
+		}
+
+		return count;
+	}
+
+	/**
+	 * Gives the free pages back to the file system once there are enough of them. The first
+	 * time this switches the database to incremental vacuuming with a full VACUUM, after that
+	 * only the free pages are released.
+	 */
+	private static void vacuum(SQLiteDatabase db) {
+		if (db.inTransaction()) {
+			// VACUUM can't run inside a transaction, try again on the next run.
+			return;
+		}
+		
+		long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+
+		if (freePages < VACUUM_FREE_PAGES) {
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+
+		if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL) {
+			// rawQuery() is used since the pragma returns rows.
+			Cursor c = db.rawQuery("PRAGMA incremental_vacuum", null);
+			try {
+				while (c.moveToNext()) {
+					// Each step releases one page.
+				}
+			} finally {
+				c.close();
+			}
+		} else {
+			db.execSQL("PRAGMA auto_vacuum=" + AUTO_VACUUM_INCREMENTAL);
+			db.execSQL("VACUUM");
+		}
+
+		Log.d(LOG_TAG, "Released " + freePages + " free pages in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	/**
+	 * Reads the events back out of an archive blob.
+	 *
+	 * @param data The archive data column
+	 * @return One set of values per archived event, keyed by the original column names
+	 * @throws IOException If the blob is not a valid archive
+	 */
+	public static ArrayList<ContentValues> readArchive(byte[] data) throws IOException {
+		DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(data)));
+		ArrayList<ContentValues> rows = new ArrayList<ContentValues>();
+
+		try {
+			int format = in.readInt();
+			if (format != ARCHIVE_FORMAT) {
+				throw new IOException("Unknown archive format " + format);
+			}
+
+			String[] columns = new String[in.readInt()];
+			boolean hasBlob = in.readBoolean();
+			for (int i = 0; i < columns.length; i++) {
+				columns[i] = in.readUTF();
+			}
+
+			int rowCount = in.readInt();
+			int numberColumns = hasBlob ? columns.length - 1 : columns.length;
+
+			for (int row = 0; row < rowCount; row++) {
+				ContentValues values = new ContentValues();
+				for (int i = 0; i < numberColumns; i++) {
+					if (in.readBoolean()) {
+						values.put(columns[i], in.readLong());
+					} else {
+						values.putNull(columns[i]);
+					}
+				}
+				if (hasBlob) {
+					int length = in.readInt();
+					if (length < 0) {
+						values.putNull(columns[numberColumns]);
+					} else {
+						byte[] blob = new byte[length];
+						in.readFully(blob);
+						values.put(columns[numberColumns], blob);
+					}
+				}
+				rows.add(values);
+			}
+		} finally {
+			in.close();
+		}
+
+		return rows;
+	}
+
+	/**
+	 * Builds one archive blob. The rows are buffered uncompressed and only compressed when
+	 * the archive is stored, once the row count is known.
+	 */
+	private static class ArchiveWriter {
+		private final String[] mColumns;
+		private final ByteArrayOutputStream mRowBytes = new ByteArrayOutputStream();
+		private final DataOutputStream mRows = new DataOutputStream(mRowBytes);
+		private boolean mHasBlob;
+		private int mRowCount = 0;
+
+		ArchiveWriter(String[] columns) {
+			mColumns = columns;
+		}
+
+		void writeRow(Cursor c, boolean hasBlob) {
+			mHasBlob = hasBlob;
+			int numberColumns = hasBlob ? mColumns.length - 1 : mColumns.length;
+
+			try {
+				for (int i = 0; i < numberColumns; i++) {
+					boolean present = !c.isNull(i);
+					mRows.writeBoolean(present);
+					if (present) {
+						mRows.writeLong(c.getLong(i));
+					}
+				}
+				if (hasBlob) {
+					byte[] blob = c.isNull(numberColumns) ? null : c.getBlob(numberColumns);
+					mRows.writeInt(blob == null ? -1 : blob.length);
+					if (blob != null) {
+						mRows.write(blob);
+					}
+				}
+			} catch (IOException e) {
+				// Writing to memory doesn't fail.
+				throw new IllegalStateException(e);
+			}
+
+			mRowCount++;
+		}
+
+		void store(SQLiteDatabase db, String tableName, long bucketStart) {
+			ByteArrayOutputStream archiveBytes = new ByteArrayOutputStream();
+
+			try {
+				DataOutputStream out = new DataOutputStream(new GZIPOutputStream(archiveBytes));
+				out.writeInt(ARCHIVE_FORMAT);
+				out.writeInt(mColumns.length);
+				out.writeBoolean(mHasBlob);
+				for (int i = 0; i < mColumns.length; i++) {
+					out.writeUTF(mColumns[i]);
+				}
+				out.writeInt(mRowCount);
+				mRows.flush();
+				mRowBytes.writeTo(out);
+				out.close();
+			} catch (IOException e) {
+				// Writing to memory doesn't fail.
+				throw new IllegalStateException(e);
+			}
+
+			ContentValues values = new ContentValues();
+			values.put(EventArchiveColumns.EVENT_ARCHIVES_SOURCE_TABLE, tableName);
+			values.put(EventArchiveColumns.EVENT_ARCHIVES_BUCKET_START, bucketStart);
+			values.put(EventArchiveColumns.EVENT_ARCHIVES_BUCKET_END, bucketStart + BUCKET_IN_MS);
+			values.put(EventArchiveColumns.EVENT_ARCHIVES_EVENT_COUNT, mRowCount);
+			values.put(EventArchiveColumns.EVENT_ARCHIVES_DATA, archiveBytes.toByteArray());
+
+			db.insert(StorageProvider.EVENT_ARCHIVES_TABLE_NAME, null, values);
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package com.risotto.storage;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.BaseColumns;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.risotto.storage.StorageProvider.DrugColumns;
+import com.risotto.storage.StorageProvider.PatientColumns;
+
+/**
+ * Maintains the full text search indexes of the drug and patient names. Each index is an
+ * FTS3 table with the searched columns of its table, keyed by the row's _id as the docid.
+ * Triggers on the drugs and patients tables keep the indexes in step with every insert,
+ * update and delete, so the provider never writes to them directly.
+ *
+ * A search finds the rows with a word starting with every word that was typed, through
+ * the index instead of a scan of the table, and ranks the rows matched on the name that is
+ * shown in the lists (the brand name, the first name) ahead of the others.
+ */
+final class SearchIndex {
+
+	private static final String LOG_TAG = "RISOTTO_SEARCH";
+
+	// The searched columns of each table.
+	private static final String[] DRUG_COLUMNS = {
+		DrugColumns.DRUG_BRAND_NAME,
+		DrugColumns.DRUG_COMPOUND_NAME,
+		DrugColumns.DRUG_NICK_NAME,
+		DrugColumns.DRUG_MANUFACTURER
+	};
+
+	private static final String[] PATIENT_COLUMNS = {
+		PatientColumns.PATIENT_FIRST_NAME,
+		PatientColumns.PATIENT_LAST_NAME
+	};
+
+	// This class cannot be instantiated
+	private SearchIndex() {}
+
+	static void createTables(SQLiteDatabase db) {
+		createTable(db, StorageProvider.DRUGS_SEARCH_TABLE_NAME, DRUG_COLUMNS);
+		createTable(db, StorageProvider.PATIENTS_SEARCH_TABLE_NAME, PATIENT_COLUMNS);
+		createTriggers(db);
+	}
+
+	private static void createTable(SQLiteDatabase db, String searchTableName, String[] columns) {
+		Log.d(LOG_TAG, "Creating the " + searchTableName + " table...");
+		db.execSQL("CREATE VIRTUAL TABLE " + searchTableName + " USING fts3(" + TextUtils.join(",", columns) + ");");
+	}
+
+	/**
+	 * Creates any of the triggers that keep the indexes in step that don't exist yet. The
+	 * triggers belong to the drugs and patients tables, so call this again after one of
+	 * them has been rebuilt.
+	 *
+	 * @param db The database to create the triggers in
+	 */
+	static void createTriggers(SQLiteDatabase db) {
+		createTriggers(db, StorageProvider.DRUGS_TABLE_NAME, StorageProvider.DRUGS_SEARCH_TABLE_NAME, DRUG_COLUMNS);
+		createTriggers(db, StorageProvider.PATIENTS_TABLE_NAME, StorageProvider.PATIENTS_SEARCH_TABLE_NAME, PATIENT_COLUMNS);
+	}
+
+	private static void createTriggers(SQLiteDatabase db, String tableName, String searchTableName, String[] columns) {
+		String columnList = TextUtils.join(",", columns);
+		String insert = "INSERT INTO " + searchTableName + " (docid," + columnList + ")"
+				+ " VALUES (new." + BaseColumns._ID + ",new." + TextUtils.join(",new.", columns) + ");";
+		String delete = "DELETE FROM " + searchTableName + " WHERE docid=old." + BaseColumns._ID + ";";
+
+		db.execSQL("CREATE TRIGGER IF NOT EXISTS " + searchTableName + "_insert AFTER INSERT ON " + tableName
+				+ " BEGIN " + insert + " END;");
+		// Only rewrite the index row when a searched column was set.
+		db.execSQL("CREATE TRIGGER IF NOT EXISTS " + searchTableName + "_update AFTER UPDATE OF " + columnList + " ON " + tableName
+				+ " BEGIN " + delete + " " + insert + " END;");
+		db.execSQL("CREATE TRIGGER IF NOT EXISTS " + searchTableName + "_delete AFTER DELETE ON " + tableName
+				+ " BEGIN " + delete + " END;");
+	}
+
+	/**
+	 * Indexes the drugs and patients that are already stored. Only used by the migration
+	 * that adds the indexes, the triggers take care of everything stored after it.
+	 */
+	static void fill(SQLiteDatabase db) {
+		fill(db, StorageProvider.DRUGS_TABLE_NAME, StorageProvider.DRUGS_SEARCH_TABLE_NAME, DRUG_COLUMNS);
+		fill(db, StorageProvider.PATIENTS_TABLE_NAME, StorageProvider.PATIENTS_SEARCH_TABLE_NAME, PATIENT_COLUMNS);
+	}
+
+	private static void fill(SQLiteDatabase db, String tableName, String searchTableName, String[] columns) {
+		long start = System.currentTimeMillis();
+		String columnList = TextUtils.join(",", columns);
+
+		db.execSQL("INSERT INTO " + searchTableName + " (docid," + columnList + ")"
+				+ " SELECT " + BaseColumns._ID + "," + columnList + " FROM " + tableName + ";");
+
+		Log.d(LOG_TAG, "Filled the " + searchTableName + " table in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	/**
+	 * Builds a WHERE clause for the indexed table that selects the rows found in its
+	 * search index.
+	 *
+	 * @param searchTableName The search index of the table
+	 * @param column The column to search, or null to search all of the indexed columns
+	 * @param text What the user typed
+	 * @param prefix Whether the typed words only have to start the stored words
+	 * @return The WHERE clause, or null if the text has no words in it
+	 */
+	static String getMatchWhere(String searchTableName, String column, String text, boolean prefix) {
+		String expression = toMatchExpression(column, text, prefix);
+		if (expression == null) {
+			return null;
+		}
+
+		return BaseColumns._ID + " IN (SELECT docid FROM " + searchTableName
+				+ " WHERE " + searchTableName + " MATCH " + DatabaseUtils.sqlEscapeString(expression) + ")";
+	}
+
+	/**
+	 * Builds an ORDER BY term that puts the rows with a prefix match on the given column
+	 * ahead of the rows that only matched on the other columns.
+	 *
+	 * @return The ORDER BY term, or null if the text has no words in it
+	 */
+	static String getRankOrder(String searchTableName, String rankColumn, String text) {
+		String rankWhere = getMatchWhere(searchTableName, rankColumn, text, true);
+		if (rankWhere == null) {
+			return null;
+		}
+		return "(" + rankWhere + ") DESC";
+	}
+
+	/**
+	 * Turns what the user typed into an FTS3 query that matches the rows with every typed
+	 * word. The words are split the way the simple tokenizer splits the indexed names: only
+	 * the ASCII characters other than letters and digits separate them, every other
+	 * character, such as an accented letter or a curly apostrophe, is part of a word, and
+	 * only the ASCII letters are lower cased. So a typed name finds the same words that were
+	 * indexed, and the text can never be read as an FTS operator.
+	 *
+	 * @return The query, or null if the text has no words in it
+	 */
+	static String toMatchExpression(String column, String text, boolean prefix) {
+		if (text == null) {
+			return null;
+		}
+
+		StringBuilder expression = new StringBuilder(text.length() + 16);
+		boolean inWord = false;
+
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+
+			if (isTokenChar(c)) {
+				if (!inWord) {
+					if (expression.length() > 0) {
+						expression.append(' ');
+					}
+					if (column != null) {
+						expression.append(column).append(':');
+					}
+					inWord = true;
+				}
+				expression.append((c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c);
+			} else if (inWord) {
+				if (prefix) {
+					expression.append('*');
+				}
+				inWord = false;
+			}
+		}
+		if (inWord && prefix) {
+			expression.append('*');
+		}
+
+		return (expression.length() > 0) ? expression.toString() : null;
+	}
+
+	// A character the simple tokenizer keeps in a word: an ASCII letter or digit, or
+	// anything outside ASCII, all of whose UTF-8 bytes are 0x80 or above.
+	private static boolean isTokenChar(char c) {
+		return c >= 0x80 || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+	}
+}
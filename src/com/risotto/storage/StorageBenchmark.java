@@ -0,0 +1,463 @@
+package com.risotto.storage;
+
+import java.util.ArrayList;
+import java.util.Vector;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.risotto.model.Drug;
+import com.risotto.model.DrugInteractions;
+import com.risotto.model.Patient;
+import com.risotto.model.Prescription;
+
+/**
+ * On-device benchmarks for the storage layer. Like StorageTester, these are run by hand
+ * from MainActivity and report through the log. They work on a scratch database so
+ * the user's data is never touched.
+ */
+public class StorageBenchmark {
+
+	private static final String LOG_TAG = "RISOTTO_STORAGE_BENCHMARK";
+
+	// The scratch database the benchmarks fill.
+	private static final String BENCHMARK_DATABASE_NAME = "risotto_benchmark.db";
+
+	// The number of rows in each of the large tables.
+	private static final int ROW_COUNT = 100000;
+	private static final int DRUG_COUNT = 500;
+	private static final int PATIENT_COUNT = 500;
+	private static final int PRESCRIPTION_COUNT = 5000;
+
+	// The number of times each query is run.
+	private static final int ITERATIONS = 20;
+
+	// The number of prescriptions the hydration benchmark reads.
+	private static final int HYDRATION_COUNT = 1000;
+
+	// The size of the formulary the search benchmark fills, and the name parts it is built from.
+	private static final int SEARCH_DRUG_COUNT = 50000;
+	private static final String[] NAME_PARTS = {
+		"amo", "xi", "cil", "lin", "ator", "va", "sta", "tin", "met", "for",
+		"min", "lis", "ino", "pril", "ome", "pra", "zole", "ser", "tra", "line"
+	};
+	// What the user might have typed so far.
+	private static final String[] SEARCH_QUERIES = { "a", "amo", "amoxi", "sta", "met for", "zole lab 7" };
+
+	// The formulary and patients the interaction benchmark checks.
+	private static final int INTERACTION_DRUG_COUNT = 2000;
+	private static final int INTERACTIONS_PER_DRUG = 10;
+	private static final int INTERACTION_PATIENT_COUNT = 10000;
+	private static final int REGIMEN_SIZE = 8;
+
+	public static void runBenchmark(Context context) {
+		indexBenchmark(context);
+		hydrationBenchmark(context);
+		searchBenchmark(context);
+		interactionBenchmark();
+	}
+
+	/**
+	 * Times the common foreign key and timestamp queries against ROW_COUNT rows,
+	 * first with the secondary indexes and then without them.
+	 */
+	private static void indexBenchmark(Context context) {
+		log("Starting the index benchmark...");
+
+		context.deleteDatabase(BENCHMARK_DATABASE_NAME);
+		SQLiteOpenHelper helper = StorageProvider.openScratchDatabase(context, BENCHMARK_DATABASE_NAME);
+		SQLiteDatabase db = helper.getWritableDatabase();
+
+		try {
+			fillDatabase(db);
+
+			log("With indexes:");
+			timeIndexQueries(db);
+
+			StorageProvider.dropIndexes(db);
+
+			log("Without indexes:");
+			timeIndexQueries(db);
+		} finally {
+			helper.close();
+			context.deleteDatabase(BENCHMARK_DATABASE_NAME);
+		}
+
+		log("Index benchmark complete.");
+	}
+
+	/**
+	 * Reads HYDRATION_COUNT prescriptions through the provider with fromCursor(), which
+	 * queries the patient and drug of every row, and then with one prescriptions/full
+	 * query and fromJoinedCursor(). The generated rows are removed afterwards.
+	 */
+	private static void hydrationBenchmark(Context context) {
+		log("Starting the hydration benchmark...");
+
+		ContentResolver resolver = context.getContentResolver();
+
+		// One drug and one patient shared by all of the generated prescriptions, which
+		// are left unscheduled so the service doesn't pick them up.
+		ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		operations.add(ContentProviderOperation.newInsert(StorageProvider.DrugColumns.CONTENT_URI)
+				.withValues(new Drug("Benchmark Drug", Drug.TYPE.PRESCRIPTION, 100, "mg").toContentValues())
+				.build());
+		operations.add(ContentProviderOperation.newInsert(StorageProvider.PatientColumns.CONTENT_URI)
+				.withValues(new Patient("Benchmark", "Patient", Patient.GENDER.FEMALE).toContentValues())
+				.build());
+		for (int i = 0; i < HYDRATION_COUNT; i++) {
+			operations.add(ContentProviderOperation.newInsert(StorageProvider.PrescriptionColumns.CONTENT_URI)
+					.withValue(StorageProvider.PrescriptionColumns.PRESCRIPTION_DOSE_TYPE, Prescription.DOSE_TYPE_EVERY_DAY)
+					.withValue(StorageProvider.PrescriptionColumns.PRESCRIPTION_SCHEDULED, Prescription.NOT_SCHEDULED)
+					.withValueBackReference(StorageProvider.PrescriptionColumns.PRESCRIPTION_DRUG, 0)
+					.withValueBackReference(StorageProvider.PrescriptionColumns.PRESCRIPTION_PATIENT, 1)
+					.build());
+		}
+
+		ContentProviderResult[] results;
+		try {
+			results = resolver.applyBatch(StorageProvider.AUTHORITY, operations);
+		} catch (Exception e) {
+			log("Could not store the benchmark prescriptions: " + e);
+			return;
+		}
+
+		long drugId = ContentUris.parseId(results[0].uri);
+		long patientId = ContentUris.parseId(results[1].uri);
+		String[] idRange = {
+				String.valueOf(ContentUris.parseId(results[2].uri)),
+				String.valueOf(ContentUris.parseId(results[results.length - 1].uri)) };
+
+		try {
+			long start = System.currentTimeMillis();
+			Cursor cursor = resolver.query(StorageProvider.PrescriptionColumns.CONTENT_URI, null,
+					StorageProvider.PrescriptionColumns._ID + " BETWEEN ? AND ?", idRange, null);
+			while (cursor.moveToNext()) {
+				Prescription.fromCursor(cursor, context);
+			}
+			cursor.close();
+			log("fromCursor: " + (System.currentTimeMillis() - start) + "ms for " + HYDRATION_COUNT + " prescriptions");
+
+			start = System.currentTimeMillis();
+			cursor = resolver.query(StorageProvider.PrescriptionColumns.FULL_CONTENT_URI, null,
+					StorageProvider.PRESCRIPTIONS_TABLE_NAME + "." + StorageProvider.PrescriptionColumns._ID + " BETWEEN ? AND ?", idRange, null);
+			while (cursor.moveToNext()) {
+				Prescription.fromJoinedCursor(cursor, context);
+			}
+			cursor.close();
+			log("fromJoinedCursor: " + (System.currentTimeMillis() - start) + "ms for " + HYDRATION_COUNT + " prescriptions");
+		} finally {
+			resolver.delete(StorageProvider.PrescriptionColumns.CONTENT_URI,
+					StorageProvider.PrescriptionColumns._ID + " BETWEEN ? AND ?", idRange);
+			resolver.delete(ContentUris.withAppendedId(StorageProvider.DrugColumns.CONTENT_URI, drugId), null, null);
+			resolver.delete(ContentUris.withAppendedId(StorageProvider.PatientColumns.CONTENT_URI, patientId), null, null);
+		}
+
+		log("Hydration benchmark complete.");
+	}
+
+	/**
+	 * Times the drug search as it is typed, through the search index and with a LIKE scan
+	 * of the drug names, over a formulary of SEARCH_DRUG_COUNT drugs.
+	 */
+	private static void searchBenchmark(Context context) {
+		log("Starting the search benchmark...");
+
+		context.deleteDatabase(BENCHMARK_DATABASE_NAME);
+		SQLiteOpenHelper helper = StorageProvider.openScratchDatabase(context, BENCHMARK_DATABASE_NAME);
+		SQLiteDatabase db = helper.getWritableDatabase();
+
+		try {
+			long start = System.currentTimeMillis();
+
+			db.beginTransaction();
+			try {
+				// The search index triggers run for every row.
+				SQLiteStatement drugInsert = db.compileStatement("INSERT INTO " + StorageProvider.DRUGS_TABLE_NAME
+						+ " (" + StorageProvider.DrugColumns.DRUG_BRAND_NAME
+						+ "," + StorageProvider.DrugColumns.DRUG_COMPOUND_NAME
+						+ "," + StorageProvider.DrugColumns.DRUG_MANUFACTURER + ") VALUES (?,?,?)");
+				for (int i = 0; i < SEARCH_DRUG_COUNT; i++) {
+					drugInsert.bindString(1, NAME_PARTS[i % 20] + NAME_PARTS[(i / 20) % 20] + NAME_PARTS[(i / 400) % 20] + " " + i);
+					drugInsert.bindString(2, NAME_PARTS[(i * 7) % 20] + NAME_PARTS[(i * 11) % 20]);
+					drugInsert.bindString(3, "Lab " + (i % 100));
+					drugInsert.executeInsert();
+				}
+				drugInsert.close();
+
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+
+			log("Filled the search benchmark database with " + SEARCH_DRUG_COUNT + " drugs in " + (System.currentTimeMillis() - start) + "ms");
+
+			for (int q = 0; q < SEARCH_QUERIES.length; q++) {
+				String text = SEARCH_QUERIES[q];
+				String matchWhere = SearchIndex.getMatchWhere(StorageProvider.DRUGS_SEARCH_TABLE_NAME, null, text, true);
+				String rankOrder = SearchIndex.getRankOrder(StorageProvider.DRUGS_SEARCH_TABLE_NAME, StorageProvider.DrugColumns.DRUG_BRAND_NAME, text);
+				int rows = 0;
+
+				// The first page of results, as the drug list shows them.
+				start = System.currentTimeMillis();
+				for (int i = 0; i < ITERATIONS; i++) {
+					rows = drain(db.rawQuery("SELECT * FROM " + StorageProvider.DRUGS_TABLE_NAME
+							+ " WHERE " + matchWhere
+							+ " ORDER BY " + rankOrder + "," + StorageProvider.DrugColumns.DRUG_BRAND_NAME
+							+ " LIMIT 50", null));
+				}
+				report("search index \"" + text + "\" (" + rows + " rows)", start);
+
+				start = System.currentTimeMillis();
+				for (int i = 0; i < ITERATIONS; i++) {
+					rows = drain(db.rawQuery("SELECT * FROM " + StorageProvider.DRUGS_TABLE_NAME
+							+ " WHERE " + StorageProvider.DrugColumns.DRUG_BRAND_NAME + " LIKE ?"
+							+ " OR " + StorageProvider.DrugColumns.DRUG_COMPOUND_NAME + " LIKE ?"
+							+ " ORDER BY " + StorageProvider.DrugColumns.DRUG_BRAND_NAME
+							+ " LIMIT 50", new String[] { "%" + text + "%", "%" + text + "%" }));
+				}
+				report("LIKE scan \"" + text + "\" (" + rows + " rows)", start);
+			}
+		} finally {
+			helper.close();
+			context.deleteDatabase(BENCHMARK_DATABASE_NAME);
+		}
+
+		log("Search benchmark complete.");
+	}
+
+	/**
+	 * Times a check of every patient's regimen for interactions, with DrugInteractions and
+	 * by comparing every pair of drugs in each regimen through the interactions vector of
+	 * the drugs, as a check over the Drug objects has to.
+	 */
+	private static void interactionBenchmark() {
+		log("Starting the interaction benchmark...");
+
+		int[] drugs = new int[INTERACTION_DRUG_COUNT * INTERACTIONS_PER_DRUG];
+		int[] otherDrugs = new int[drugs.length];
+		Vector<Vector<Integer>> drugInteractions = new Vector<Vector<Integer>>(INTERACTION_DRUG_COUNT + 1);
+		drugInteractions.add(null);
+		for (int i = 1; i <= INTERACTION_DRUG_COUNT; i++) {
+			Vector<Integer> interactions = new Vector<Integer>(INTERACTIONS_PER_DRUG);
+			for (int j = 0; j < INTERACTIONS_PER_DRUG; j++) {
+				int other = 1 + (i * 37 + j * 101) % INTERACTION_DRUG_COUNT;
+				drugs[(i - 1) * INTERACTIONS_PER_DRUG + j] = i;
+				otherDrugs[(i - 1) * INTERACTIONS_PER_DRUG + j] = other;
+				interactions.add(other);
+			}
+			drugInteractions.add(interactions);
+		}
+
+		int[] patients = new int[INTERACTION_PATIENT_COUNT * REGIMEN_SIZE];
+		int[] patientDrugs = new int[patients.length];
+		for (int i = 0; i < patients.length; i++) {
+			patients[i] = 1 + i / REGIMEN_SIZE;
+			patientDrugs[i] = 1 + (i * 7919) % INTERACTION_DRUG_COUNT;
+		}
+
+		long start = System.currentTimeMillis();
+		DrugInteractions interactions = null;
+		for (int i = 0; i < ITERATIONS; i++) {
+			interactions = new DrugInteractions(drugs, otherDrugs, patients, patientDrugs);
+		}
+		report("build the interactions", start);
+
+		int found = 0;
+		start = System.currentTimeMillis();
+		for (int i = 0; i < ITERATIONS; i++) {
+			found = interactions.findAllInteractions().size();
+		}
+		report("check every regimen with DrugInteractions (" + found + " interactions)", start);
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < ITERATIONS; i++) {
+			found = 0;
+			for (int p = 0; p < INTERACTION_PATIENT_COUNT; p++) {
+				for (int a = 0; a < REGIMEN_SIZE; a++) {
+					for (int b = a + 1; b < REGIMEN_SIZE; b++) {
+						Integer first = patientDrugs[p * REGIMEN_SIZE + a];
+						Integer second = patientDrugs[p * REGIMEN_SIZE + b];
+						if (!first.equals(second) && (drugInteractions.get(first).contains(second) || drugInteractions.get(second).contains(first))) {
+							found++;
+						}
+					}
+				}
+			}
+		}
+		report("check every pair of every regimen (" + found + " interactions)", start);
+
+		log("Interaction benchmark complete.");
+	}
+
+	private static void timeIndexQueries(SQLiteDatabase db) {
+		long start;
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < ITERATIONS; i++) {
+			drain(db.rawQuery("SELECT * FROM " + StorageProvider.SCHEDULES_TABLE_NAME
+					+ " WHERE " + StorageProvider.ScheduleColumns.SCHEDULES_PRESCRIPTION + "=?"
+					+ " ORDER BY " + StorageProvider.ScheduleColumns.SCHEDULES_NEXT_TIME,
+					new String[] { String.valueOf(prescriptionId(i)) }));
+		}
+		report("schedules by prescription", start);
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < ITERATIONS; i++) {
+			drain(db.rawQuery("SELECT * FROM " + StorageProvider.PRESCRIPTIONS_TABLE_NAME
+					+ " WHERE " + StorageProvider.PrescriptionColumns.PRESCRIPTION_DRUG + "=?",
+					new String[] { String.valueOf(1 + (i * 7) % DRUG_COUNT) }));
+		}
+		report("prescriptions by drug", start);
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < ITERATIONS; i++) {
+			drain(db.rawQuery("SELECT * FROM " + StorageProvider.PRESCRIPTIONS_TABLE_NAME
+					+ " WHERE " + StorageProvider.PrescriptionColumns.PRESCRIPTION_PATIENT + "=?",
+					new String[] { String.valueOf(1 + (i * 7) % PATIENT_COUNT) }));
+		}
+		report("prescriptions by patient", start);
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < ITERATIONS; i++) {
+			drain(db.rawQuery("SELECT * FROM " + StorageProvider.NOTIFICATION_EVENTS_TABLE_NAME
+					+ " ORDER BY " + StorageProvider.NotificationEventColumns.DEFAULT_SORT_ORDER
+					+ " LIMIT 50", null));
+		}
+		report("latest notification events", start);
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < ITERATIONS; i++) {
+			drain(db.rawQuery("SELECT * FROM " + StorageProvider.NOTIFICATION_EVENTS_TABLE_NAME
+					+ " WHERE " + StorageProvider.NotificationEventColumns.NOTIFICATION_EVENTS_PRESCRIPTION + "=?"
+					+ " ORDER BY " + StorageProvider.NotificationEventColumns.DEFAULT_SORT_ORDER,
+					new String[] { String.valueOf(prescriptionId(i)) }));
+		}
+		report("notification events by prescription", start);
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < ITERATIONS; i++) {
+			drain(db.rawQuery("SELECT * FROM " + StorageProvider.SYSTEM_EVENTS_TABLE_NAME
+					+ " ORDER BY " + StorageProvider.SystemEventColumns.DEFAULT_SORT_ORDER
+					+ " LIMIT 50", null));
+		}
+		report("latest system events", start);
+	}
+
+	/**
+	 * Fills the drug, patient, prescription, schedule and event tables with generated rows.
+	 */
+	private static void fillDatabase(SQLiteDatabase db) {
+		long start = System.currentTimeMillis();
+
+		db.beginTransaction();
+		try {
+			SQLiteStatement drugInsert = db.compileStatement("INSERT INTO " + StorageProvider.DRUGS_TABLE_NAME
+					+ " (" + StorageProvider.DrugColumns.DRUG_BRAND_NAME + ") VALUES (?)");
+			for (int i = 1; i <= DRUG_COUNT; i++) {
+				drugInsert.bindString(1, "Drug " + i);
+				drugInsert.executeInsert();
+			}
+			drugInsert.close();
+
+			SQLiteStatement patientInsert = db.compileStatement("INSERT INTO " + StorageProvider.PATIENTS_TABLE_NAME
+					+ " (" + StorageProvider.PatientColumns.PATIENT_FIRST_NAME + ") VALUES (?)");
+			for (int i = 1; i <= PATIENT_COUNT; i++) {
+				patientInsert.bindString(1, "Patient " + i);
+				patientInsert.executeInsert();
+			}
+			patientInsert.close();
+
+			SQLiteStatement prescriptionInsert = db.compileStatement("INSERT INTO " + StorageProvider.PRESCRIPTIONS_TABLE_NAME
+					+ " (" + StorageProvider.PrescriptionColumns.PRESCRIPTION_PATIENT
+					+ "," + StorageProvider.PrescriptionColumns.PRESCRIPTION_DRUG
+					+ "," + StorageProvider.PrescriptionColumns.PRESCRIPTION_DOSE_TYPE
+					+ "," + StorageProvider.PrescriptionColumns.PRESCRIPTION_SCHEDULED + ") VALUES (?,?,?,?)");
+			for (int i = 0; i < PRESCRIPTION_COUNT; i++) {
+				prescriptionInsert.bindLong(1, 1 + i % PATIENT_COUNT);
+				prescriptionInsert.bindLong(2, 1 + (i * 31) % DRUG_COUNT);
+				prescriptionInsert.bindLong(3, 0);
+				prescriptionInsert.bindLong(4, 1);
+				prescriptionInsert.executeInsert();
+			}
+			prescriptionInsert.close();
+
+			long now = System.currentTimeMillis();
+
+			SQLiteStatement scheduleInsert = db.compileStatement("INSERT INTO " + StorageProvider.SCHEDULES_TABLE_NAME
+					+ " (" + StorageProvider.ScheduleColumns.SCHEDULES_PRESCRIPTION
+					+ "," + StorageProvider.ScheduleColumns.SCHEDULES_FIRST_TIME
+					+ "," + StorageProvider.ScheduleColumns.SCHEDULES_NEXT_TIME + ") VALUES (?,?,?)");
+			SQLiteStatement notificationEventInsert = db.compileStatement("INSERT INTO " + StorageProvider.NOTIFICATION_EVENTS_TABLE_NAME
+					+ " (" + StorageProvider.NotificationEventColumns.NOTIFICATION_EVENTS_TIMESTAMP
+					+ "," + StorageProvider.NotificationEventColumns.NOTIFICATION_EVENTS_EVENT_TYPE
+					+ "," + StorageProvider.NotificationEventColumns.NOTIFICATION_EVENTS_PRESCRIPTION + ") VALUES (?,?,?)");
+			SQLiteStatement systemEventInsert = db.compileStatement("INSERT INTO " + StorageProvider.SYSTEM_EVENTS_TABLE_NAME
+					+ " (" + StorageProvider.SystemEventColumns.SYSTEM_EVENTS_TIMESTAMP
+					+ "," + StorageProvider.SystemEventColumns.SYSTEM_EVENTS_EVENT_TYPE
+					+ "," + StorageProvider.SystemEventColumns.SYSTEM_EVENTS_EVENT_SUBTYPE + ") VALUES (?,?,?)");
+
+			for (int i = 0; i < ROW_COUNT; i++) {
+				// Spread the rows over the prescriptions and over the last few months.
+				long prescriptionId = prescriptionId(i);
+				long timestamp = now - (long) ((i * 7919L) % ROW_COUNT) * 60000L;
+
+				scheduleInsert.bindLong(1, prescriptionId);
+				scheduleInsert.bindLong(2, timestamp);
+				scheduleInsert.bindLong(3, timestamp + 86400000L);
+				scheduleInsert.executeInsert();
+
+				notificationEventInsert.bindLong(1, timestamp);
+				notificationEventInsert.bindLong(2, i % 5);
+				notificationEventInsert.bindLong(3, prescriptionId);
+				notificationEventInsert.executeInsert();
+
+				systemEventInsert.bindLong(1, timestamp);
+				systemEventInsert.bindLong(2, i % 3);
+				systemEventInsert.bindLong(3, i % 4);
+				systemEventInsert.executeInsert();
+			}
+			scheduleInsert.close();
+			notificationEventInsert.close();
+			systemEventInsert.close();
+
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+
+		log("Filled the benchmark database with " + ROW_COUNT + " rows per table in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	private static long prescriptionId(int i) {
+		return 1 + (i * 13) % PRESCRIPTION_COUNT;
+	}
+
+	// Steps through every row so the query is fully run, then closes the cursor.
+	private static int drain(Cursor cursor) {
+		int rows = 0;
+		while (cursor.moveToNext()) {
+			rows++;
+		}
+		cursor.close();
+		return rows;
+	}
+
+	private static void report(String name, long start) {
+		long elapsed = System.currentTimeMillis() - start;
+		log(name + ": " + ((double) elapsed / ITERATIONS) + "ms per query (" + ITERATIONS + " runs)");
+	}
+
+	private static void log(String message) {
+		Log.d(LOG_TAG, message);
+	}
+
+}
@@ -1,9 +1,21 @@
 package com.risotto.storage;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TimeZone;
+
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
@@ -16,6 +28,8 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import com.risotto.model.Drug;
+import com.risotto.model.DrugInteractions;
+import com.risotto.model.ModelCache;
 import com.risotto.model.Patient;
 import com.risotto.model.Prescription;
 
@@ -25,8 +39,15 @@ public class StorageProvider extends ContentProvider {
     
     public static final String AUTHORITY = StorageProvider.class.getPackage().getName() + ".provider";
     
+    // The query parameter that limits the number of rows a directory query returns, see withLimit().
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+    
     private static final String DATABASE_NAME = "risotto.db";
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 19;
+    // The oldest version that can be migrated step by step, anything older is recreated.
+    private static final int FIRST_MIGRATABLE_VERSION = 3;
+    // The number of rows copied per statement when a migration rebuilds a table.
+    private static final int MIGRATION_CHUNK_SIZE = 5000;
     public static final String DRUGS_TABLE_NAME = "drugs";
     public static final String PATIENTS_TABLE_NAME = "patients";
     public static final String PRESCRIPTIONS_TABLE_NAME = "prescriptions";
@@ -34,6 +55,16 @@ public class StorageProvider extends ContentProvider {
     public static final String NOTIFICATION_EVENTS_TABLE_NAME = "notification_events";
     public static final String SYSTEM_EVENTS_TABLE_NAME = "system_events";
     public static final String SYNC_EVENTS_TABLE_NAME = "sync_events";
+    public static final String PRESCRIPTION_TIMES_TABLE_NAME = "prescription_times";
+    public static final String PRESCRIPTION_ADHERENCE_TABLE_NAME = "prescription_adherence";
+    public static final String PATIENT_ADHERENCE_TABLE_NAME = "patient_adherence";
+    public static final String EVENT_ARCHIVES_TABLE_NAME = "event_archives";
+    public static final String DRUGS_SEARCH_TABLE_NAME = "drugs_search";
+    public static final String PATIENTS_SEARCH_TABLE_NAME = "patients_search";
+    public static final String DRUG_INTERACTIONS_TABLE_NAME = "drug_interactions";
+    public static final String PRESCRIPTION_RUNOUTS_TABLE_NAME = "prescription_runouts";
+    public static final String NOTIFICATIONS_TABLE_NAME = "notifications";
+    public static final String DOSES_TABLE_NAME = "doses";
     
     // URI Matching ID's
     private static final int URI_TYPE_DRUGS = 0;
@@ -50,6 +81,26 @@ public class StorageProvider extends ContentProvider {
     private static final int URI_TYPE_SYSTEM_EVENT_ID = 11;
     private static final int URI_TYPE_SYNC_EVENTS = 12;
     private static final int URI_TYPE_SYNC_EVENT_ID = 13;
+    private static final int URI_TYPE_PRESCRIPTION_TIMES = 14;
+    private static final int URI_TYPE_PRESCRIPTION_TIMES_RANGE = 15;
+    private static final int URI_TYPE_PRESCRIPTIONS_FULL = 16;
+    private static final int URI_TYPE_PRESCRIPTION_FULL_ID = 17;
+    private static final int URI_TYPE_PRESCRIPTION_ADHERENCE = 18;
+    private static final int URI_TYPE_PRESCRIPTION_ADHERENCE_ID = 19;
+    private static final int URI_TYPE_PATIENT_ADHERENCE = 20;
+    private static final int URI_TYPE_PATIENT_ADHERENCE_ID = 21;
+    private static final int URI_TYPE_EVENT_ARCHIVES = 22;
+    private static final int URI_TYPE_EVENT_ARCHIVE_ID = 23;
+    private static final int URI_TYPE_EVENT_RETENTION = 24;
+    private static final int URI_TYPE_DRUG_SEARCH = 25;
+    private static final int URI_TYPE_PATIENT_SEARCH = 26;
+    private static final int URI_TYPE_DRUG_INTERACTIONS = 27;
+    private static final int URI_TYPE_PRESCRIPTION_RUNOUTS = 28;
+    private static final int URI_TYPE_PRESCRIPTIONS_RUNOUT = 29;
+    private static final int URI_TYPE_NOTIFICATIONS = 30;
+    private static final int URI_TYPE_NOTIFICATION_ID = 31;
+    private static final int URI_TYPE_DOSES = 32;
+    private static final int URI_TYPE_DOSE_ID = 33;
     
 	// Set up the URI matcher
 	private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
@@ -68,12 +119,111 @@ public class StorageProvider extends ContentProvider {
 		sUriMatcher.addURI(AUTHORITY, "system_events/#", URI_TYPE_SYSTEM_EVENT_ID);
 		sUriMatcher.addURI(AUTHORITY, "sync_events", URI_TYPE_SYNC_EVENTS);
 		sUriMatcher.addURI(AUTHORITY, "sync_events/#", URI_TYPE_SYNC_EVENT_ID);
+		sUriMatcher.addURI(AUTHORITY, "prescription_times", URI_TYPE_PRESCRIPTION_TIMES);
+		sUriMatcher.addURI(AUTHORITY, "prescription_times/range", URI_TYPE_PRESCRIPTION_TIMES_RANGE);
+		sUriMatcher.addURI(AUTHORITY, "prescriptions/full", URI_TYPE_PRESCRIPTIONS_FULL);
+		sUriMatcher.addURI(AUTHORITY, "prescriptions/full/#", URI_TYPE_PRESCRIPTION_FULL_ID);
+		sUriMatcher.addURI(AUTHORITY, "adherence/prescriptions", URI_TYPE_PRESCRIPTION_ADHERENCE);
+		sUriMatcher.addURI(AUTHORITY, "adherence/prescriptions/#", URI_TYPE_PRESCRIPTION_ADHERENCE_ID);
+		sUriMatcher.addURI(AUTHORITY, "adherence/patients", URI_TYPE_PATIENT_ADHERENCE);
+		sUriMatcher.addURI(AUTHORITY, "adherence/patients/#", URI_TYPE_PATIENT_ADHERENCE_ID);
+		sUriMatcher.addURI(AUTHORITY, "event_archives", URI_TYPE_EVENT_ARCHIVES);
+		sUriMatcher.addURI(AUTHORITY, "event_archives/#", URI_TYPE_EVENT_ARCHIVE_ID);
+		sUriMatcher.addURI(AUTHORITY, "event_archives/retention", URI_TYPE_EVENT_RETENTION);
+		sUriMatcher.addURI(AUTHORITY, "drugs/search", URI_TYPE_DRUG_SEARCH);
+		sUriMatcher.addURI(AUTHORITY, "patients/search", URI_TYPE_PATIENT_SEARCH);
+		sUriMatcher.addURI(AUTHORITY, "drug_interactions", URI_TYPE_DRUG_INTERACTIONS);
+		sUriMatcher.addURI(AUTHORITY, "prescription_runouts", URI_TYPE_PRESCRIPTION_RUNOUTS);
+		sUriMatcher.addURI(AUTHORITY, "prescriptions/runout", URI_TYPE_PRESCRIPTIONS_RUNOUT);
+		sUriMatcher.addURI(AUTHORITY, "notifications", URI_TYPE_NOTIFICATIONS);
+		sUriMatcher.addURI(AUTHORITY, "notifications/#", URI_TYPE_NOTIFICATION_ID);
+		sUriMatcher.addURI(AUTHORITY, "doses", URI_TYPE_DOSES);
+		sUriMatcher.addURI(AUTHORITY, "doses/#", URI_TYPE_DOSE_ID);
+	}
+	
+	// The tables behind the prescriptions/full URIs.
+	private static final String FULL_PRESCRIPTIONS_TABLES = PRESCRIPTIONS_TABLE_NAME
+			+ " INNER JOIN " + DRUGS_TABLE_NAME + " ON " + PRESCRIPTIONS_TABLE_NAME + "." + PrescriptionColumns.PRESCRIPTION_DRUG + "=" + DRUGS_TABLE_NAME + "." + DrugColumns._ID
+			+ " INNER JOIN " + PATIENTS_TABLE_NAME + " ON " + PRESCRIPTIONS_TABLE_NAME + "." + PrescriptionColumns.PRESCRIPTION_PATIENT + "=" + PATIENTS_TABLE_NAME + "." + PatientColumns._ID;
+	
+	// Maps the columns of the prescriptions/full URIs to the joined tables. _id is the prescription's, 
+	// the drug and patient ids are in the prescription's drug and patient columns.
+	private static final HashMap<String, String> sFullPrescriptionProjectionMap = new HashMap<String, String>();
+	
+	// The tables and columns behind the prescriptions/runout URI, the full prescriptions with their run out dates.
+	private static final String RUNOUT_PRESCRIPTIONS_TABLES = PRESCRIPTION_RUNOUTS_TABLE_NAME
+			+ " INNER JOIN " + FULL_PRESCRIPTIONS_TABLES + " ON " + PRESCRIPTION_RUNOUTS_TABLE_NAME + "." + PrescriptionRunoutColumns._ID + "=" + PRESCRIPTIONS_TABLE_NAME + "." + PrescriptionColumns._ID;
+	private static final HashMap<String, String> sRunoutPrescriptionProjectionMap = new HashMap<String, String>();
+	static {
+		String[] prescriptionColumns = {
+			PrescriptionColumns._ID,
+			PrescriptionColumns.PRESCRIPTION_PATIENT,
+			PrescriptionColumns.PRESCRIPTION_DRUG,
+			PrescriptionColumns.PRESCRIPTION_DOSE_TYPE,
+			PrescriptionColumns.PRESCRIPTION_DOSE_SIZE,
+			PrescriptionColumns.PRESCRIPTION_TOTAL_UNITS,
+			PrescriptionColumns.PRESCRIPTION_DATE_FILLED,
+			PrescriptionColumns.PRESCRIPTION_DR_NAME,
+			PrescriptionColumns.PRESCRIPTION_UNIQUE_ID,
+			PrescriptionColumns.PRESCRIPTION_COST,
+			PrescriptionColumns.PRESCRIPTION_NUM_REFILLS,
+			PrescriptionColumns.PRESCRIPTION_NUM_DAYS_SUPPLIED,
+			PrescriptionColumns.PRESCRIPTION_DATE_EXPIRATION,
+			PrescriptionColumns.PRESCRIPTION_SCHEDULE_TYPE,
+			PrescriptionColumns.PRESCRIPTION_SCHEDULED,
+			PrescriptionColumns.PRESCRIPTION_DAY_SUNDAY,
+			PrescriptionColumns.PRESCRIPTION_DAY_MONDAY,
+			PrescriptionColumns.PRESCRIPTION_DAY_TUESDAY,
+			PrescriptionColumns.PRESCRIPTION_DAY_WEDNESDAY,
+			PrescriptionColumns.PRESCRIPTION_DAY_THURSDAY,
+			PrescriptionColumns.PRESCRIPTION_DAY_FRIDAY,
+			PrescriptionColumns.PRESCRIPTION_DAY_SATURDAY,
+			PrescriptionColumns.PRESCRIPTION_DATE_CREATED
+		};
+		String[] drugColumns = {
+			DrugColumns.DRUG_BRAND_NAME,
+			DrugColumns.DRUG_TYPE,
+			DrugColumns.DRUG_STRENGTH,
+			DrugColumns.DRUG_STRENGTH_LABEL,
+			DrugColumns.DRUG_COMPOUND_NAME,
+			DrugColumns.DRUG_MANUFACTURER,
+			DrugColumns.DRUG_INTERACTIONS,
+			DrugColumns.DRUG_NICK_NAME,
+			DrugColumns.DRUG_FORM,
+			DrugColumns.DRUG_COLOR,
+			DrugColumns.DRUG_SHAPE,
+			DrugColumns.DRUG_SIZE
+		};
+		String[] patientColumns = {
+			PatientColumns.PATIENT_FIRST_NAME,
+			PatientColumns.PATIENT_LAST_NAME,
+			PatientColumns.PATIENT_GENDER,
+			PatientColumns.PATIENT_AGE,
+			PatientColumns.PATIENT_RELATIONS
+		};
+		
+		for (int i = 0; i < prescriptionColumns.length; i++) {
+			sFullPrescriptionProjectionMap.put(prescriptionColumns[i], PRESCRIPTIONS_TABLE_NAME + "." + prescriptionColumns[i] + " AS " + prescriptionColumns[i]);
+		}
+		for (int i = 0; i < drugColumns.length; i++) {
+			sFullPrescriptionProjectionMap.put(drugColumns[i], DRUGS_TABLE_NAME + "." + drugColumns[i] + " AS " + drugColumns[i]);
+		}
+		for (int i = 0; i < patientColumns.length; i++) {
+			sFullPrescriptionProjectionMap.put(patientColumns[i], PATIENTS_TABLE_NAME + "." + patientColumns[i] + " AS " + patientColumns[i]);
+		}
+		
+		sRunoutPrescriptionProjectionMap.putAll(sFullPrescriptionProjectionMap);
+		sRunoutPrescriptionProjectionMap.put(PrescriptionRunoutColumns.PRESCRIPTION_RUNOUTS_DATE, PRESCRIPTION_RUNOUTS_TABLE_NAME + "." + PrescriptionRunoutColumns.PRESCRIPTION_RUNOUTS_DATE + " AS " + PrescriptionRunoutColumns.PRESCRIPTION_RUNOUTS_DATE);
 	}
     
-	private class StorageDatabaseHelper extends SQLiteOpenHelper {
+	private static class StorageDatabaseHelper extends SQLiteOpenHelper {
 
 		public StorageDatabaseHelper(Context context) {
-			super(context, DATABASE_NAME, null, DATABASE_VERSION);
+			this(context, DATABASE_NAME);
+		}
+		
+		public StorageDatabaseHelper(Context context, String databaseName) {
+			super(context, databaseName, null, DATABASE_VERSION);
 		}
 		
 		 @Override
@@ -91,16 +241,146 @@ public class StorageProvider extends ContentProvider {
 		public void onCreate(SQLiteDatabase db) {
 			Log.d(LOG_TAG, "Creating the SQLite DB...");
 			this.createDrugsTable(db);
+			this.createDrugInteractionsTable(db);
 			this.createPatientsTable(db);
+			SearchIndex.createTables(db);
 			this.createPrescriptionsTable(db);
 			this.createSchedulesTable(db);
 			this.createNotificationEventsTable(db);
 			this.createSystemEventsTable(db);
 			this.createSyncEventsTable(db);
+			this.createPrescriptionTimesTable(db);
+			AdherenceRollup.createTables(db);
+			EventRetention.createArchiveTable(db);
+			this.createPrescriptionRunoutsTable(db);
+			this.createNotificationsTable(db);
+			this.createDosesTable(db);
+			createAllIndexes(db);
 		}
 
 		@Override
 		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+			
+			if (oldVersion < FIRST_MIGRATABLE_VERSION) {
+				// There are no migration steps for schemas this old, start over.
+				this.dropAllTables(db, oldVersion, newVersion);
+				return;
+			}
+			
+			// Run each version's step in order, one transaction per step.
+			for (int version = oldVersion + 1; version <= newVersion; version++) {
+				Log.d(LOG_TAG, "Migrating the SQLite DB to version " + version + "...");
+				long start = System.currentTimeMillis();
+				
+				db.beginTransaction();
+				try {
+					this.upgradeToVersion(db, version);
+					db.setTransactionSuccessful();
+				} finally {
+					db.endTransaction();
+				}
+				
+				Log.d(LOG_TAG, "Migrated to version " + version + " in " + (System.currentTimeMillis() - start) + "ms");
+			}
+		}
+		
+		/**
+		 * Applies the schema changes that take the database from (version - 1) to version. 
+		 * Add a case here whenever DATABASE_VERSION is bumped, and make the matching change 
+		 * in the create*Table() methods so that new installs end up with the same schema.
+		 * 
+		 * @param db The database to migrate
+		 * @param version The version to migrate to
+		 */
+		private void upgradeToVersion(SQLiteDatabase db, int version) {
+			switch (version) {
+			case 4:
+				// Version 4 added the secondary indexes.
+				createIndexes(db, 4);
+				break;
+			case 5:
+				// Version 5 added the prescription_times table.
+				this.createPrescriptionTimesTable(db);
+				this.fillPrescriptionTimesTable(db);
+				createIndexes(db, 5);
+				break;
+			case 6:
+				// Version 6 added the schedules next_time index for the next alarm scheduler.
+				createIndexes(db, 6);
+				break;
+			case 7:
+				// Version 7 added the adherence rollup tables. They are filled by version 18's step.
+				AdherenceRollup.createTables(db);
+				break;
+			case 8:
+				// Version 8 added the event_archives table for the retention engine.
+				EventRetention.createArchiveTable(db);
+				createIndexes(db, 8);
+				break;
+			case 9:
+				// Version 9 added the drug and patient name indexes the paged lists are sorted by.
+				createIndexes(db, 9);
+				break;
+			case 10:
+				// Version 10 added the full text search indexes of the drug and patient names.
+				SearchIndex.createTables(db);
+				SearchIndex.fill(db);
+				break;
+			case 11:
+				// Version 11 added the drug_interactions table.
+				this.createDrugInteractionsTable(db);
+				this.fillDrugInteractionsTable(db);
+				break;
+			case 12:
+				// Version 12 added the schedules count_remain index for the refill lookups.
+				createIndexes(db, 12);
+				break;
+			case 13:
+				// Version 13 added the prescription_runouts table, filled by the next scheduling pass.
+				this.createPrescriptionRunoutsTable(db);
+				createIndexes(db, 13);
+				break;
+			case 14:
+				// Version 14 added the notifications table, the status bar notifications still showing.
+				this.createNotificationsTable(db);
+				break;
+			case 15:
+				// Version 15 keyed the notifications by patient. The rows only last a few hours, 
+				// so the ones keyed by schedule are dropped rather than converted.
+				db.execSQL("DROP TABLE IF EXISTS " + NOTIFICATIONS_TABLE_NAME);
+				this.createNotificationsTable(db);
+				break;
+			case 16:
+				// Version 16 added the doses table, the doses shown or snoozed that wait for the user.
+				this.createDosesTable(db);
+				createIndexes(db, 16);
+				break;
+			case 17:
+				// Version 17 rewrote the day times still in the legacy serialized format in the compact one.
+				this.compactPrescriptionDayTimes(db);
+				break;
+			case 18:
+				// Version 18 stopped counting dismissed notifications as missed doses, so the 
+				// adherence rollups are rebuilt from the stored and archived events.
+				AdherenceRollup.fill(db, MIGRATION_CHUNK_SIZE);
+				break;
+			case 19:
+				// Version 19 added the prescriptions date_created column, the start of a supply 
+				// without a fill date. Existing prescriptions were created when first scheduled.
+				db.execSQL("ALTER TABLE " + PRESCRIPTIONS_TABLE_NAME + " ADD COLUMN " + PrescriptionColumns.PRESCRIPTION_DATE_CREATED + " INTEGER");
+				db.execSQL("UPDATE " + PRESCRIPTIONS_TABLE_NAME + " SET " + PrescriptionColumns.PRESCRIPTION_DATE_CREATED + "=("
+						+ "SELECT MIN(" + ScheduleColumns.SCHEDULES_FIRST_TIME + ") FROM " + SCHEDULES_TABLE_NAME
+						+ " WHERE " + SCHEDULES_TABLE_NAME + "." + ScheduleColumns.SCHEDULES_PRESCRIPTION + "=" + PRESCRIPTIONS_TABLE_NAME + "." + PrescriptionColumns._ID + ")");
+				db.execSQL("UPDATE " + PRESCRIPTIONS_TABLE_NAME + " SET " + PrescriptionColumns.PRESCRIPTION_DATE_CREATED + "=" + System.currentTimeMillis()
+						+ " WHERE " + PrescriptionColumns.PRESCRIPTION_DATE_CREATED + " IS NULL");
+				break;
+				
+			default:
+				throw new IllegalStateException("No migration step to database version " + version);
+			}
+		}
+		
+		private void dropAllTables(SQLiteDatabase db, int oldVersion, int newVersion) {
 			Log.d(LOG_TAG, "Dropping all tables from version " + oldVersion + " to migrate to version " + newVersion);
 			db.execSQL("DROP TABLE IF EXISTS " + DRUGS_TABLE_NAME);
 			db.execSQL("DROP TABLE IF EXISTS " + PATIENTS_TABLE_NAME);
@@ -109,6 +389,16 @@ public class StorageProvider extends ContentProvider {
 			db.execSQL("DROP TABLE IF EXISTS " + NOTIFICATION_EVENTS_TABLE_NAME);
 			db.execSQL("DROP TABLE IF EXISTS " + SYSTEM_EVENTS_TABLE_NAME);
 			db.execSQL("DROP TABLE IF EXISTS " + SYNC_EVENTS_TABLE_NAME);
+			db.execSQL("DROP TABLE IF EXISTS " + PRESCRIPTION_TIMES_TABLE_NAME);
+			db.execSQL("DROP TABLE IF EXISTS " + PRESCRIPTION_ADHERENCE_TABLE_NAME);
+			db.execSQL("DROP TABLE IF EXISTS " + PATIENT_ADHERENCE_TABLE_NAME);
+			db.execSQL("DROP TABLE IF EXISTS " + EVENT_ARCHIVES_TABLE_NAME);
+			db.execSQL("DROP TABLE IF EXISTS " + DRUGS_SEARCH_TABLE_NAME);
+			db.execSQL("DROP TABLE IF EXISTS " + PATIENTS_SEARCH_TABLE_NAME);
+			db.execSQL("DROP TABLE IF EXISTS " + DRUG_INTERACTIONS_TABLE_NAME);
+			db.execSQL("DROP TABLE IF EXISTS " + PRESCRIPTION_RUNOUTS_TABLE_NAME);
+			db.execSQL("DROP TABLE IF EXISTS " + NOTIFICATIONS_TABLE_NAME);
+			db.execSQL("DROP TABLE IF EXISTS " + DOSES_TABLE_NAME);
             onCreate(db);
 		}
 		
@@ -168,6 +458,7 @@ public class StorageProvider extends ContentProvider {
 					+ PrescriptionColumns.PRESCRIPTION_DAY_THURSDAY + " BLOB,"
 					+ PrescriptionColumns.PRESCRIPTION_DAY_FRIDAY + " BLOB,"
 					+ PrescriptionColumns.PRESCRIPTION_DAY_SATURDAY + " BLOB,"
+					+ PrescriptionColumns.PRESCRIPTION_DATE_CREATED + " INTEGER,"
 					
 					// FOREIGN KEY(patient) REFERENCES patients(_id), 
 					+ "FOREIGN KEY(" + PrescriptionColumns.PRESCRIPTION_PATIENT + ") REFERENCES " + PATIENTS_TABLE_NAME + "(" + PatientColumns._ID + "),"
@@ -226,6 +517,170 @@ public class StorageProvider extends ContentProvider {
 					+ SyncEventColumns.SYNC_EVENTS_EVENT_DATA + " INTEGER"
 					+ ");");
 		}
+		
+		private void createPrescriptionTimesTable(SQLiteDatabase db) {
+			Log.d(LOG_TAG, "Creating the " + PRESCRIPTION_TIMES_TABLE_NAME + " table...");
+			db.execSQL("CREATE TABLE " + PRESCRIPTION_TIMES_TABLE_NAME + " ("
+					+ PrescriptionTimeColumns._ID + " INTEGER PRIMARY KEY,"
+					+ PrescriptionTimeColumns.PRESCRIPTION_TIMES_PRESCRIPTION + " INTEGER NOT NULL,"
+					+ PrescriptionTimeColumns.PRESCRIPTION_TIMES_DAY_OF_WEEK + " INTEGER NOT NULL,"
+					+ PrescriptionTimeColumns.PRESCRIPTION_TIMES_MINUTE_OF_DAY + " INTEGER NOT NULL,"
+					
+					// FOREIGN KEY(prescription) REFERENCES prescriptions(_id) ON DELETE CASCADE
+					+ "FOREIGN KEY(" + PrescriptionTimeColumns.PRESCRIPTION_TIMES_PRESCRIPTION + ") REFERENCES " + PRESCRIPTIONS_TABLE_NAME + "(" + PrescriptionColumns._ID + ") ON DELETE CASCADE"
+					+ ");");
+		}
+		
+		private void createPrescriptionRunoutsTable(SQLiteDatabase db) {
+			Log.d(LOG_TAG, "Creating the " + PRESCRIPTION_RUNOUTS_TABLE_NAME + " table...");
+			db.execSQL("CREATE TABLE " + PRESCRIPTION_RUNOUTS_TABLE_NAME + " ("
+					+ PrescriptionRunoutColumns._ID + " INTEGER PRIMARY KEY,"
+					+ PrescriptionRunoutColumns.PRESCRIPTION_RUNOUTS_DATE + " INTEGER NOT NULL,"
+					
+					// FOREIGN KEY(_id) REFERENCES prescriptions(_id) ON DELETE CASCADE
+					+ "FOREIGN KEY(" + PrescriptionRunoutColumns._ID + ") REFERENCES " + PRESCRIPTIONS_TABLE_NAME + "(" + PrescriptionColumns._ID + ") ON DELETE CASCADE"
+					+ ");");
+		}
+		
+		private void createNotificationsTable(SQLiteDatabase db) {
+			Log.d(LOG_TAG, "Creating the " + NOTIFICATIONS_TABLE_NAME + " table...");
+			db.execSQL("CREATE TABLE " + NOTIFICATIONS_TABLE_NAME + " ("
+					+ NotificationColumns._ID + " INTEGER PRIMARY KEY,"
+					+ NotificationColumns.NOTIFICATIONS_POSTED_TIME + " INTEGER NOT NULL,"
+					+ NotificationColumns.NOTIFICATIONS_EXPIRE_TIME + " INTEGER NOT NULL,"
+					+ NotificationColumns.NOTIFICATIONS_STATUS_BAR_TEXT + " TEXT,"
+					+ NotificationColumns.NOTIFICATIONS_TITLE + " TEXT,"
+					+ NotificationColumns.NOTIFICATIONS_TEXT + " TEXT,"
+					
+					// FOREIGN KEY(_id) REFERENCES patients(_id) ON DELETE CASCADE
+					+ "FOREIGN KEY(" + NotificationColumns._ID + ") REFERENCES " + PATIENTS_TABLE_NAME + "(" + PatientColumns._ID + ") ON DELETE CASCADE"
+					+ ");");
+		}
+		
+		private void createDosesTable(SQLiteDatabase db) {
+			Log.d(LOG_TAG, "Creating the " + DOSES_TABLE_NAME + " table...");
+			db.execSQL("CREATE TABLE " + DOSES_TABLE_NAME + " ("
+					+ DoseColumns._ID + " INTEGER PRIMARY KEY,"
+					+ DoseColumns.DOSES_SCHEDULE + " INTEGER NOT NULL,"
+					+ DoseColumns.DOSES_PRESCRIPTION + " INTEGER NOT NULL,"
+					+ DoseColumns.DOSES_DUE_TIME + " INTEGER NOT NULL,"
+					+ DoseColumns.DOSES_STATE + " INTEGER NOT NULL,"
+					+ DoseColumns.DOSES_ALARM_TIME + " INTEGER NOT NULL,"
+					
+					// FOREIGN KEY(prescription) REFERENCES prescriptions(_id) ON DELETE CASCADE
+					+ "FOREIGN KEY(" + DoseColumns.DOSES_PRESCRIPTION + ") REFERENCES " + PRESCRIPTIONS_TABLE_NAME + "(" + PrescriptionColumns._ID + ") ON DELETE CASCADE"
+					+ ");");
+		}
+		
+		private void createDrugInteractionsTable(SQLiteDatabase db) {
+			Log.d(LOG_TAG, "Creating the " + DRUG_INTERACTIONS_TABLE_NAME + " table...");
+			db.execSQL("CREATE TABLE " + DRUG_INTERACTIONS_TABLE_NAME + " ("
+					+ DrugInteractionColumns._ID + " INTEGER PRIMARY KEY,"
+					+ DrugInteractionColumns.DRUG_INTERACTIONS_DRUG + " INTEGER NOT NULL,"
+					+ DrugInteractionColumns.DRUG_INTERACTIONS_OTHER_DRUG + " INTEGER NOT NULL,"
+					
+					// UNIQUE(drug, other_drug), which also indexes the interactions of each drug
+					+ "UNIQUE(" + DrugInteractionColumns.DRUG_INTERACTIONS_DRUG + "," + DrugInteractionColumns.DRUG_INTERACTIONS_OTHER_DRUG + "),"
+					// FOREIGN KEY(drug) REFERENCES drugs(_id) ON DELETE CASCADE
+					+ "FOREIGN KEY(" + DrugInteractionColumns.DRUG_INTERACTIONS_DRUG + ") REFERENCES " + DRUGS_TABLE_NAME + "(" + DrugColumns._ID + ") ON DELETE CASCADE"
+					+ ");");
+		}
+		
+		/**
+		 * Fills the drug_interactions table from the interactions column of the drugs 
+		 * that are already stored.
+		 */
+		private void fillDrugInteractionsTable(SQLiteDatabase db) {
+			Cursor c = db.query(DRUGS_TABLE_NAME, new String[] { DrugColumns._ID, DrugColumns.DRUG_INTERACTIONS }, 
+					DrugColumns.DRUG_INTERACTIONS + " IS NOT NULL", null, null, null, null);
+			try {
+				ContentValues interactions = new ContentValues();
+				while (c.moveToNext()) {
+					interactions.put(DrugColumns.DRUG_INTERACTIONS, c.getBlob(1));
+					writeDrugInteractions(db, c.getLong(0), interactions);
+				}
+			} finally {
+				c.close();
+			}
+		}
+		
+		/**
+		 * Rewrites the day columns still holding legacy serialized blobs in the compact 
+		 * format, MIGRATION_CHUNK_SIZE prescriptions at a time. The times themselves don't 
+		 * change, so the prescription_times rows stay as they are.
+		 */
+		private void compactPrescriptionDayTimes(SQLiteDatabase db) {
+			String[] projection = new String[DAY_COLUMNS.length + 1];
+			projection[0] = PrescriptionColumns._ID;
+			System.arraycopy(DAY_COLUMNS, 0, projection, 1, DAY_COLUMNS.length);
+			
+			long lastId = 0;
+			int rows;
+			int rewritten = 0;
+			
+			do {
+				Cursor c = db.query(PRESCRIPTIONS_TABLE_NAME, projection, PrescriptionColumns._ID + ">" + lastId, 
+						null, null, null, PrescriptionColumns._ID, String.valueOf(MIGRATION_CHUNK_SIZE));
+				rows = 0;
+				try {
+					while (c.moveToNext()) {
+						rows++;
+						lastId = c.getLong(0);
+						
+						ContentValues days = new ContentValues();
+						for (int i = 0; i < DAY_COLUMNS.length; i++) {
+							byte[] compact = c.isNull(i + 1) ? null : Prescription.compactDayBytes(c.getBlob(i + 1));
+							if (compact != null) {
+								days.put(DAY_COLUMNS[i], compact);
+							}
+						}
+						if (days.size() > 0) {
+							db.update(PRESCRIPTIONS_TABLE_NAME, days, PrescriptionColumns._ID + "=" + lastId, null);
+							rewritten++;
+						}
+					}
+				} finally {
+					c.close();
+				}
+			} while (rows == MIGRATION_CHUNK_SIZE);
+			
+			Log.d(LOG_TAG, "Rewrote the day times of " + rewritten + " prescriptions in the compact format");
+		}
+		
+		/**
+		 * Fills the prescription_times table from the day columns of the prescriptions 
+		 * that are already stored, MIGRATION_CHUNK_SIZE prescriptions at a time.
+		 */
+		private void fillPrescriptionTimesTable(SQLiteDatabase db) {
+			String[] projection = new String[DAY_COLUMNS.length + 1];
+			projection[0] = PrescriptionColumns._ID;
+			System.arraycopy(DAY_COLUMNS, 0, projection, 1, DAY_COLUMNS.length);
+			
+			long lastId = 0;
+			int rows;
+			
+			do {
+				Cursor c = db.query(PRESCRIPTIONS_TABLE_NAME, projection, PrescriptionColumns._ID + ">" + lastId, 
+						null, null, null, PrescriptionColumns._ID, String.valueOf(MIGRATION_CHUNK_SIZE));
+				rows = 0;
+				try {
+					while (c.moveToNext()) {
+						rows++;
+						lastId = c.getLong(0);
+						
+						ContentValues days = new ContentValues();
+						for (int i = 0; i < DAY_COLUMNS.length; i++) {
+							if (!c.isNull(i + 1)) {
+								days.put(DAY_COLUMNS[i], c.getBlob(i + 1));
+							}
+						}
+						writePrescriptionTimes(db, lastId, days);
+					}
+				} finally {
+					c.close();
+				}
+			} while (rows == MIGRATION_CHUNK_SIZE);
+		}
 	
 	}
 	
@@ -264,6 +719,44 @@ public class StorageProvider extends ContentProvider {
 		public static final String DRUG_SIZE = "size";
 	    
 	    public static final String DEFAULT_SORT_ORDER = DRUG_BRAND_NAME + " DESC";	
+	    
+	    // The drugs with a name starting with every word of the search query, see buildSearchUri().
+	    public static final Uri SEARCH_URI = Uri.parse("content://" + AUTHORITY + "/drugs/search");
+	    
+	    // The query parameter of the search URI, what the user typed.
+	    public static final String SEARCH_PARAMETER_QUERY = "q";
+	    
+	    /**
+	     * Builds a URI that finds the drugs with a brand, compound, nick or manufacturer name 
+	     * word starting with every word of the query. The brand name matches come first.
+	     * 
+	     * @param query What the user typed
+	     * @return The search URI
+	     */
+	    public static Uri buildSearchUri(String query) {
+	    	return SEARCH_URI.buildUpon().appendQueryParameter(SEARCH_PARAMETER_QUERY, query).build();
+	    }
+	}
+	
+	/**
+	 * One row per drug a drug interacts with. This table is kept in step with the 
+	 * interactions column of the drugs table by the provider and can't be written 
+	 * directly. See DrugInteractions for checking a regimen against it.
+	 */
+	public static final class DrugInteractionColumns implements BaseColumns {
+		// This class cannot be instantiated
+		private DrugInteractionColumns() {}
+		
+		public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/drug_interactions");
+		
+		public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.risotto.drug_interactions";
+		
+		public static final String DRUG_INTERACTIONS_DRUG = "drug";
+		
+		// The drug it interacts with, which doesn't have to be stored
+		public static final String DRUG_INTERACTIONS_OTHER_DRUG = "other_drug";
+		
+		public static final String DEFAULT_SORT_ORDER = DRUG_INTERACTIONS_DRUG + "," + DRUG_INTERACTIONS_OTHER_DRUG;
 	}
 	
 	public static final class PatientColumns implements BaseColumns {
@@ -287,6 +780,23 @@ public class StorageProvider extends ContentProvider {
 	    public static final String PATIENT_RELATIONS = "relations";
 	    
 	    public static final String DEFAULT_SORT_ORDER = PATIENT_LAST_NAME + " DESC";	
+	    
+	    // The patients with a name starting with every word of the search query, see buildSearchUri().
+	    public static final Uri SEARCH_URI = Uri.parse("content://" + AUTHORITY + "/patients/search");
+	    
+	    // The query parameter of the search URI, what the user typed.
+	    public static final String SEARCH_PARAMETER_QUERY = "q";
+	    
+	    /**
+	     * Builds a URI that finds the patients with a first or last name word starting with 
+	     * every word of the query. The first name matches come first.
+	     * 
+	     * @param query What the user typed
+	     * @return The search URI
+	     */
+	    public static Uri buildSearchUri(String query) {
+	    	return SEARCH_URI.buildUpon().appendQueryParameter(SEARCH_PARAMETER_QUERY, query).build();
+	    }
 	}
 	
 	public static final class PrescriptionColumns implements BaseColumns {
@@ -295,6 +805,9 @@ public class StorageProvider extends ContentProvider {
 		
 		public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/prescriptions");
 		
+		// The prescriptions joined with their drug and patient, see Prescription.fromJoinedCursor()
+		public static final Uri FULL_CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/prescriptions/full");
+		
 		public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.risotto.prescriptions";
 		
 		public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.risotto.prescription";
@@ -341,7 +854,12 @@ public class StorageProvider extends ContentProvider {
 	    
 	    public static final String PRESCRIPTION_DAY_SATURDAY = "day_saturday";
 	    
+	    // When the prescription was stored, set by insert() unless given
+	    public static final String PRESCRIPTION_DATE_CREATED = "date_created";
+	    
 	    public static final String DEFAULT_SORT_ORDER = PrescriptionColumns._ID + " DESC";	
+	    
+	    public static final String FULL_DEFAULT_SORT_ORDER = PRESCRIPTIONS_TABLE_NAME + "." + PrescriptionColumns._ID + " DESC";
 	}
 	
 	public static final class ScheduleColumns implements BaseColumns {
@@ -365,6 +883,128 @@ public class StorageProvider extends ContentProvider {
 	    public static final String SCHEDULES_COUNT_REMAIN = "count_remain";
 	    
 	    public static final String DEFAULT_SORT_ORDER = SCHEDULES_NEXT_TIME + " DESC";	
+	    
+	    // Earliest times first, used when walking the schedules that are due.
+	    public static final String DUE_SORT_ORDER = SCHEDULES_NEXT_TIME + " ASC";
+	    
+	    // The schedules with a known supply and at most the given number of doses left, 
+	    // the ones whose prescription needs a refill. Uses the count_remain index.
+	    public static final String LOW_SUPPLY_WHERE = SCHEDULES_COUNT_REMAIN + ">=0 AND " + SCHEDULES_COUNT_REMAIN + "<=?";
+	}
+	
+	/**
+	 * The date each scheduled prescription with a known supply runs out, the time of 
+	 * the last dose its supply covers. _id is the prescription's id. The rows are kept 
+	 * up to date by MainService whenever it schedules the prescriptions. Use 
+	 * buildRunoutUri() to find the prescriptions that run out in a given window.
+	 */
+	public static final class PrescriptionRunoutColumns implements BaseColumns {
+		// This class cannot be instantiated
+		private PrescriptionRunoutColumns() {}
+		
+		public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/prescription_runouts");
+		
+		// The full prescriptions, as in prescriptions/full, with their run out dates.
+		public static final Uri RUNOUT_CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/prescriptions/runout");
+		
+		public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.risotto.prescription_runouts";
+		
+		// The time of the last supplied dose, in ms
+		public static final String PRESCRIPTION_RUNOUTS_DATE = "runout_date";
+		
+		// Query parameters of the runout URI.
+		public static final String RUNOUT_PARAMETER_FROM = "from";
+		public static final String RUNOUT_PARAMETER_TO = "to";
+		
+		public static final String DEFAULT_SORT_ORDER = PRESCRIPTION_RUNOUTS_DATE + " ASC";
+		
+		/**
+		 * Builds a URI that selects the full prescriptions that run out from from 
+		 * (inclusive) to to (exclusive), soonest first.
+		 * 
+		 * @param from The start of the window in ms
+		 * @param to The end of the window in ms
+		 * @return The runout URI
+		 */
+		public static Uri buildRunoutUri(long from, long to) {
+			return RUNOUT_CONTENT_URI.buildUpon()
+					.appendQueryParameter(RUNOUT_PARAMETER_FROM, String.valueOf(from))
+					.appendQueryParameter(RUNOUT_PARAMETER_TO, String.valueOf(to))
+					.build();
+		}
+	}
+	
+	/**
+	 * The status bar notifications that are showing, one per patient, each listing 
+	 * the patient's doses that came due together. _id is the patient's id, which is 
+	 * also the id the notification is shown with, so showing the patient's next doses 
+	 * replaces the row. The rows are kept by 
+	 * StatusBarNotificationManager, which removes them once they are dismissed, 
+	 * expire, or their patient has no open doses left.
+	 */
+	public static final class NotificationColumns implements BaseColumns {
+		// This class cannot be instantiated
+		private NotificationColumns() {}
+		
+		public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/notifications");
+		
+		public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.risotto.notifications";
+		
+		public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.risotto.notification";
+		
+		// When the notification was shown, in ms
+		public static final String NOTIFICATIONS_POSTED_TIME = "posted_time";
+		
+		// When the notification stops being shown, in ms
+		public static final String NOTIFICATIONS_EXPIRE_TIME = "expire_time";
+		
+		public static final String NOTIFICATIONS_STATUS_BAR_TEXT = "status_bar_text";
+		
+		public static final String NOTIFICATIONS_TITLE = "title";
+		
+		public static final String NOTIFICATIONS_TEXT = "text";
+		
+		// Newest first, the ones to keep when there are too many.
+		public static final String DEFAULT_SORT_ORDER = NOTIFICATIONS_POSTED_TIME + " DESC";
+		
+		// The notifications that have expired by the given time.
+		public static final String EXPIRED_WHERE = NOTIFICATIONS_EXPIRE_TIME + "<=?";
+	}
+	
+	/**
+	 * The doses that were shown and wait for the user, one row per dose. A dose is 
+	 * pending while its notification shows and snoozed until its alarm_time; once it 
+	 * is acknowledged or missed the row is deleted and only its notification event is 
+	 * kept. See Dose for the states and the moves between them.
+	 */
+	public static final class DoseColumns implements BaseColumns {
+		// This class cannot be instantiated
+		private DoseColumns() {}
+		
+		public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/doses");
+		
+		public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.risotto.doses";
+		
+		public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.risotto.dose";
+		
+		public static final String DOSES_SCHEDULE = "schedule";
+		
+		public static final String DOSES_PRESCRIPTION = "prescription";
+		
+		// When the dose was due, in ms
+		public static final String DOSES_DUE_TIME = "due_time";
+		
+		// One of the Dose.STATE_ values
+		public static final String DOSES_STATE = "state";
+		
+		// When a snoozed dose is shown again, in ms
+		public static final String DOSES_ALARM_TIME = "alarm_time";
+		
+		public static final String DEFAULT_SORT_ORDER = DOSES_DUE_TIME + " ASC";
+		
+		// The doses of the given patient.
+		public static final String PATIENT_WHERE = DOSES_PRESCRIPTION + " IN (SELECT " + PrescriptionColumns._ID + " FROM "
+				+ PRESCRIPTIONS_TABLE_NAME + " WHERE " + PrescriptionColumns.PRESCRIPTION_PATIENT + "=?)";
 	}
 	
 	public static final class NotificationEventColumns implements BaseColumns {
@@ -433,11 +1073,245 @@ public class StorageProvider extends ContentProvider {
 
 		// Larger values (times) will be returned first
 		public static final String DEFAULT_SORT_ORDER = SYNC_EVENTS_TIMESTAMP + " DESC";
+	}
+	
+	/**
+	 * One row per time per day of a scheduled prescription. This table is kept in step 
+	 * with the day columns of the prescriptions table by the provider and can't be 
+	 * written directly. Use buildRangeUri() to find the times in a given window.
+	 */
+	public static final class PrescriptionTimeColumns implements BaseColumns {
+		// This class cannot be instantiated
+		private PrescriptionTimeColumns() {}
+		
+		public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/prescription_times");
+		
+		public static final Uri RANGE_CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/prescription_times/range");
+		
+		public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.risotto.prescription_times";
+		
+		public static final String PRESCRIPTION_TIMES_PRESCRIPTION = "prescription";
+		
+		// The day of the week, as in Calendar.DAY_OF_WEEK
+		public static final String PRESCRIPTION_TIMES_DAY_OF_WEEK = "day_of_week";
+		
+		// The time of day, in minutes since midnight
+		public static final String PRESCRIPTION_TIMES_MINUTE_OF_DAY = "minute_of_day";
+		
+		// Query parameters of the range URI.
+		public static final String RANGE_PARAMETER_DAY = "day";
+		public static final String RANGE_PARAMETER_FROM = "from";
+		public static final String RANGE_PARAMETER_TO = "to";
+		
+		public static final String DEFAULT_SORT_ORDER = PRESCRIPTION_TIMES_DAY_OF_WEEK + "," + PRESCRIPTION_TIMES_MINUTE_OF_DAY;
+		
+		/**
+		 * Builds a URI that selects the times on the given day from fromMinute (inclusive) 
+		 * to toMinute (exclusive). A toMinute before fromMinute is a window that crosses 
+		 * midnight, into the times of the next day before toMinute; they come after the 
+		 * times of the given day.
+		 * 
+		 * @param dayOfWeek The day of the week, as in Calendar.DAY_OF_WEEK
+		 * @param fromMinute The start of the window in minutes since midnight
+		 * @param toMinute The end of the window in minutes since midnight
+		 * @return The range URI
+		 */
+		public static Uri buildRangeUri(int dayOfWeek, int fromMinute, int toMinute) {
+			return RANGE_CONTENT_URI.buildUpon()
+					.appendQueryParameter(RANGE_PARAMETER_DAY, String.valueOf(dayOfWeek))
+					.appendQueryParameter(RANGE_PARAMETER_FROM, String.valueOf(fromMinute))
+					.appendQueryParameter(RANGE_PARAMETER_TO, String.valueOf(toMinute))
+					.build();
+		}
+		
+	}
+
+	public static final class AdherenceColumns implements BaseColumns {
+		// This class cannot be instantiated
+		private AdherenceColumns() {}
 		
+		// Changes to any of the rollups are sent to this URI.
+		public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/adherence");
+		
+		// The daily rollup rows, or with an id appended, the summary of one prescription or patient.
+		public static final Uri PRESCRIPTION_CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/adherence/prescriptions");
+		
+		public static final Uri PATIENT_CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/adherence/patients");
+		
+		public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.risotto.adherence";
+		
+		public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.risotto.adherence";
+		
+		public static final String ADHERENCE_PRESCRIPTION = "prescription";
+		
+		public static final String ADHERENCE_PATIENT = "patient";
+		
+		// The local day, as returned by toDay()
+		public static final String ADHERENCE_DAY = "day";
+		
+		// Doses taken, doses skipped or missed, and all notification events
+		public static final String ADHERENCE_TAKEN = "taken";
+		
+		public static final String ADHERENCE_MISSED = "missed";
+		
+		public static final String ADHERENCE_EVENTS = "events";
+		
+		// Running totals up to and including the day
+		public static final String ADHERENCE_TOTAL_TAKEN = "total_taken";
+		
+		public static final String ADHERENCE_TOTAL_MISSED = "total_missed";
+		
+		public static final String ADHERENCE_TOTAL_EVENTS = "total_events";
+		
+		// Days in a row, ending on this one, with a dose taken and none missed
+		public static final String ADHERENCE_STREAK = "streak";
+		
+		// Taken over taken plus missed, only in the summaries
+		public static final String ADHERENCE_RATE = "rate";
+		
+		// Query parameters of the summary URIs, both days are inclusive.
+		public static final String RANGE_PARAMETER_FROM = "from";
+		public static final String RANGE_PARAMETER_TO = "to";
+		
+		public static final String DEFAULT_SORT_ORDER = ADHERENCE_DAY;
+		
+		private static final long DAY_IN_MS = 24 * 60 * 60 * 1000;
+		
+		/**
+		 * Converts a timestamp into the number of local days since the epoch.
+		 * 
+		 * @param timestamp The time in ms
+		 * @return The local day
+		 */
+		public static int toDay(long timestamp) {
+			return (int) ((timestamp + TimeZone.getDefault().getOffset(timestamp)) / DAY_IN_MS);
+		}
+		
+		/**
+		 * Builds a URI for the adherence summary of one prescription from fromDay to toDay.
+		 */
+		public static Uri buildPrescriptionUri(long prescriptionId, int fromDay, int toDay) {
+			return buildRangeUri(PRESCRIPTION_CONTENT_URI, prescriptionId, fromDay, toDay);
+		}
+		
+		/**
+		 * Builds a URI for the adherence summary of one patient from fromDay to toDay.
+		 */
+		public static Uri buildPatientUri(long patientId, int fromDay, int toDay) {
+			return buildRangeUri(PATIENT_CONTENT_URI, patientId, fromDay, toDay);
+		}
+		
+		private static Uri buildRangeUri(Uri contentUri, long id, int fromDay, int toDay) {
+			return ContentUris.withAppendedId(contentUri, id).buildUpon()
+					.appendQueryParameter(RANGE_PARAMETER_FROM, String.valueOf(fromDay))
+					.appendQueryParameter(RANGE_PARAMETER_TO, String.valueOf(toDay))
+					.build();
+		}
+		
+	}
+
+	public static final class EventArchiveColumns implements BaseColumns {
+		// This class cannot be instantiated
+		private EventArchiveColumns() {}
+		
+		public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/event_archives");
+		
+		// Updating this URI archives the old events, see RETENTION_HORIZON.
+		public static final Uri RETENTION_URI = Uri.parse("content://" + AUTHORITY + "/event_archives/retention");
+		
+		public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.risotto.event_archives";
+		
+		public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.risotto.event_archive";
+		
+		// The event table the archived rows came from
+		public static final String EVENT_ARCHIVES_SOURCE_TABLE = "source_table";
+		
+		// The time bucket of the archived rows, start inclusive and end exclusive
+		public static final String EVENT_ARCHIVES_BUCKET_START = "bucket_start";
+		
+		public static final String EVENT_ARCHIVES_BUCKET_END = "bucket_end";
+		
+		public static final String EVENT_ARCHIVES_EVENT_COUNT = "event_count";
+		
+		// The compressed rows, read them with EventRetention.readArchive()
+		public static final String EVENT_ARCHIVES_DATA = "data";
+		
+		// The value for the retention URI: events older than this many ms are archived.
+		public static final String RETENTION_HORIZON = "horizon";
+		
+		public static final String DEFAULT_SORT_ORDER = EVENT_ARCHIVES_BUCKET_START + " DESC";
 	}
 
+	// The secondary indexes on the foreign key and timestamp columns, as { name, table, columns }, 
+	// by the database version that added them. An index may only be listed under a version its 
+	// table exists by, as each migration step only creates the indexes of its own version. A new 
+	// version with indexes gets its own list here, never new entries in an older one, and its 
+	// migration step calls createIndexes(db, version) once its tables exist.
+	private static final String[][] VERSION_4_INDEXES = {
+		{ "prescriptions_drug_index", PRESCRIPTIONS_TABLE_NAME, PrescriptionColumns.PRESCRIPTION_DRUG },
+		{ "prescriptions_patient_index", PRESCRIPTIONS_TABLE_NAME, PrescriptionColumns.PRESCRIPTION_PATIENT },
+		{ "schedules_prescription_next_time_index", SCHEDULES_TABLE_NAME, ScheduleColumns.SCHEDULES_PRESCRIPTION + "," + ScheduleColumns.SCHEDULES_NEXT_TIME },
+		{ "notification_events_timestamp_index", NOTIFICATION_EVENTS_TABLE_NAME, NotificationEventColumns.NOTIFICATION_EVENTS_TIMESTAMP },
+		{ "notification_events_prescription_timestamp_index", NOTIFICATION_EVENTS_TABLE_NAME, NotificationEventColumns.NOTIFICATION_EVENTS_PRESCRIPTION + "," + NotificationEventColumns.NOTIFICATION_EVENTS_TIMESTAMP },
+		{ "system_events_timestamp_index", SYSTEM_EVENTS_TABLE_NAME, SystemEventColumns.SYSTEM_EVENTS_TIMESTAMP },
+		{ "sync_events_timestamp_index", SYNC_EVENTS_TABLE_NAME, SyncEventColumns.SYNC_EVENTS_TIMESTAMP }
+	};
+	
+	private static final String[][] VERSION_5_INDEXES = {
+		{ "prescription_times_day_minute_index", PRESCRIPTION_TIMES_TABLE_NAME, PrescriptionTimeColumns.PRESCRIPTION_TIMES_DAY_OF_WEEK + "," + PrescriptionTimeColumns.PRESCRIPTION_TIMES_MINUTE_OF_DAY },
+		{ "prescription_times_prescription_index", PRESCRIPTION_TIMES_TABLE_NAME, PrescriptionTimeColumns.PRESCRIPTION_TIMES_PRESCRIPTION }
+	};
+	
+	private static final String[][] VERSION_6_INDEXES = {
+		{ "schedules_next_time_index", SCHEDULES_TABLE_NAME, ScheduleColumns.SCHEDULES_NEXT_TIME }
+	};
+	
+	private static final String[][] VERSION_8_INDEXES = {
+		{ "event_archives_source_bucket_index", EVENT_ARCHIVES_TABLE_NAME, EventArchiveColumns.EVENT_ARCHIVES_SOURCE_TABLE + "," + EventArchiveColumns.EVENT_ARCHIVES_BUCKET_START }
+	};
+	
+	private static final String[][] VERSION_9_INDEXES = {
+		{ "drugs_brand_name_index", DRUGS_TABLE_NAME, DrugColumns.DRUG_BRAND_NAME },
+		{ "patients_first_name_index", PATIENTS_TABLE_NAME, PatientColumns.PATIENT_FIRST_NAME }
+	};
+	
+	private static final String[][] VERSION_12_INDEXES = {
+		{ "schedules_count_remain_index", SCHEDULES_TABLE_NAME, ScheduleColumns.SCHEDULES_COUNT_REMAIN }
+	};
+	
+	private static final String[][] VERSION_13_INDEXES = {
+		{ "prescription_runouts_date_index", PRESCRIPTION_RUNOUTS_TABLE_NAME, PrescriptionRunoutColumns.PRESCRIPTION_RUNOUTS_DATE }
+	};
+	
+	private static final String[][] VERSION_16_INDEXES = {
+		{ "doses_prescription_index", DOSES_TABLE_NAME, DoseColumns.DOSES_PRESCRIPTION },
+		{ "doses_state_alarm_time_index", DOSES_TABLE_NAME, DoseColumns.DOSES_STATE + "," + DoseColumns.DOSES_ALARM_TIME }
+	};
+	
+	private static final String[][] NO_INDEXES = {};
+	
+	// The prescription day columns, in Calendar.DAY_OF_WEEK order starting at Calendar.SUNDAY.
+	private static final String[] DAY_COLUMNS = {
+		PrescriptionColumns.PRESCRIPTION_DAY_SUNDAY,
+		PrescriptionColumns.PRESCRIPTION_DAY_MONDAY,
+		PrescriptionColumns.PRESCRIPTION_DAY_TUESDAY,
+		PrescriptionColumns.PRESCRIPTION_DAY_WEDNESDAY,
+		PrescriptionColumns.PRESCRIPTION_DAY_THURSDAY,
+		PrescriptionColumns.PRESCRIPTION_DAY_FRIDAY,
+		PrescriptionColumns.PRESCRIPTION_DAY_SATURDAY
+	};
+	
 	private static StorageDatabaseHelper mOpenHelper;
 	
+	// The change notifications collected while a batch is running on the calling thread.
+	// A null value means no batch is running and notifications are sent right away.
+	private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<Set<Uri>>();
+	
+	// The prescriptions that changed since MainService last took them, see takeChangedPrescriptions().
+	private static final Set<Integer> sChangedPrescriptions = new HashSet<Integer>();
+	// Set when prescriptions changed without a known id, for example an update with a where clause.
+	private static boolean sAllPrescriptionsChanged = false;
+	
 	@Override
 	public boolean onCreate() {
 		mOpenHelper = new StorageDatabaseHelper(getContext());
@@ -454,10 +1328,12 @@ public class StorageProvider extends ContentProvider {
 	public String getType(Uri uri) {
 		switch(sUriMatcher.match(uri)) {
 		case URI_TYPE_DRUGS:
+		case URI_TYPE_DRUG_SEARCH:
 			return DrugColumns.CONTENT_TYPE;
 		case URI_TYPE_DRUG_ID:
 			return DrugColumns.CONTENT_ITEM_TYPE;
 		case URI_TYPE_PATIENTS:
+		case URI_TYPE_PATIENT_SEARCH:
 			return PatientColumns.CONTENT_TYPE;
 		case URI_TYPE_PATIENT_ID:
 			return PatientColumns.CONTENT_ITEM_TYPE;
@@ -465,6 +1341,10 @@ public class StorageProvider extends ContentProvider {
 			return PrescriptionColumns.CONTENT_TYPE;
 		case URI_TYPE_PRESCRIPTION_ID:
 			return PrescriptionColumns.CONTENT_ITEM_TYPE;
+		case URI_TYPE_PRESCRIPTIONS_FULL:
+			return PrescriptionColumns.CONTENT_TYPE;
+		case URI_TYPE_PRESCRIPTION_FULL_ID:
+			return PrescriptionColumns.CONTENT_ITEM_TYPE;
 		case URI_TYPE_SCHEDULES:
 			return ScheduleColumns.CONTENT_TYPE;
 		case URI_TYPE_SCHEDULE_ID:
@@ -481,6 +1361,33 @@ public class StorageProvider extends ContentProvider {
 			return SyncEventColumns.CONTENT_TYPE;
 		case URI_TYPE_SYNC_EVENT_ID:
 			return SyncEventColumns.CONTENT_ITEM_TYPE;
+		case URI_TYPE_PRESCRIPTION_TIMES:
+		case URI_TYPE_PRESCRIPTION_TIMES_RANGE:
+			return PrescriptionTimeColumns.CONTENT_TYPE;
+		case URI_TYPE_PRESCRIPTION_ADHERENCE:
+		case URI_TYPE_PATIENT_ADHERENCE:
+			return AdherenceColumns.CONTENT_TYPE;
+		case URI_TYPE_PRESCRIPTION_ADHERENCE_ID:
+		case URI_TYPE_PATIENT_ADHERENCE_ID:
+			return AdherenceColumns.CONTENT_ITEM_TYPE;
+		case URI_TYPE_EVENT_ARCHIVES:
+			return EventArchiveColumns.CONTENT_TYPE;
+		case URI_TYPE_EVENT_ARCHIVE_ID:
+			return EventArchiveColumns.CONTENT_ITEM_TYPE;
+		case URI_TYPE_DRUG_INTERACTIONS:
+			return DrugInteractionColumns.CONTENT_TYPE;
+		case URI_TYPE_PRESCRIPTION_RUNOUTS:
+			return PrescriptionRunoutColumns.CONTENT_TYPE;
+		case URI_TYPE_PRESCRIPTIONS_RUNOUT:
+			return PrescriptionColumns.CONTENT_TYPE;
+		case URI_TYPE_NOTIFICATIONS:
+			return NotificationColumns.CONTENT_TYPE;
+		case URI_TYPE_NOTIFICATION_ID:
+			return NotificationColumns.CONTENT_ITEM_TYPE;
+		case URI_TYPE_DOSES:
+			return DoseColumns.CONTENT_TYPE;
+		case URI_TYPE_DOSE_ID:
+			return DoseColumns.CONTENT_ITEM_TYPE;
 
 		default:
 			throw new IllegalArgumentException("Unknown URI " + uri);
@@ -488,91 +1395,579 @@ public class StorageProvider extends ContentProvider {
 	}
 
 	/**
-	 * Convenience method for determining whether the object already exists in the database.
+	 * Returns the secondary indexes the given database version added.
+	 */
+	private static String[][] getIndexes(int version) {
+		switch (version) {
+		case 4:
+			return VERSION_4_INDEXES;
+		case 5:
+			return VERSION_5_INDEXES;
+		case 6:
+			return VERSION_6_INDEXES;
+		case 8:
+			return VERSION_8_INDEXES;
+		case 9:
+			return VERSION_9_INDEXES;
+		case 12:
+			return VERSION_12_INDEXES;
+		case 13:
+			return VERSION_13_INDEXES;
+		case 16:
+			return VERSION_16_INDEXES;
+		default:
+			return NO_INDEXES;
+		}
+	}
+	
+	/**
+	 * Creates the secondary indexes the given database version added, if they don't 
+	 * exist yet. Their tables have to exist already.
 	 * 
-	 * Patient is the only object type implemented thus far.
+	 * @param db The database to create the indexes in
+	 * @param version The version whose indexes to create
+	 */
+	static void createIndexes(SQLiteDatabase db, int version) {
+		String[][] indexes = getIndexes(version);
+		for (int i = 0; i < indexes.length; i++) {
+			Log.d(LOG_TAG, "Creating the " + indexes[i][0] + " index...");
+			db.execSQL("CREATE INDEX IF NOT EXISTS " + indexes[i][0] + " ON " + indexes[i][1] + " (" + indexes[i][2] + ");");
+		}
+	}
+	
+	/**
+	 * Creates all of the secondary indexes, for a database created at the current version.
 	 * 
-	 * @param Object to check
-	 * @return whether or not the object already exists in the db.
+	 * @param db The database to create the indexes in
 	 */
-	public static boolean isInDatabase(Object o) {
-		String query = "";
-		String[] args = null;
-		SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-		boolean isPresent = false;
-		
-		if(o instanceof Drug) {
-			return false;
-		} else if(o instanceof Patient) {
-			args = new String[2];
-			args[0] = ((Patient)o).getFirstName();
-			args[1] = ((Patient)o).getLastName();
-			//ensure we do a case insensitive search (i.e JOE BLACK is the same as Joe Black)
-			query = "SELECT first_name, last_name FROM patients WHERE first_name=? AND last_name=? COLLATE NOCASE";
-			Cursor result = db.rawQuery(query, args);
-			isPresent = result.moveToFirst();
-			result.close();
-			return isPresent;
-		} else if(o instanceof Prescription) {
-			return false;
-		} else
-			return false;
+	static void createAllIndexes(SQLiteDatabase db) {
+		for (int version = 1; version <= DATABASE_VERSION; version++) {
+			createIndexes(db, version);
+		}
 	}
 	
-	public static Cursor prescriptionJoinQuery(String[] projection) {
-		Log.d(LOG_TAG,"prescriptionJoinQuery(before)");
-		SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-		
-		String proj = "";
-		String sqlQuery = "";
-		int count = 0;
-		//"SELECT * FROM table_a INNER JOIN table_b ON a.id=b.other_id WHERE b.property_id=?";
-		
-		// Prescription Query
-		// select * from prescriptions, drugs, patients WHERE prescriptions.drug = drugs._id and prescriptions.patient = patients._id;
-		try {
-			for(count = 0;count < projection.length - 1;count++) {
-				proj += projection[count] + ",";
+	/**
+	 * Drops all of the secondary indexes. Only used by the benchmarks to measure 
+	 * the queries without them.
+	 * 
+	 * @param db The database to drop the indexes from
+	 */
+	static void dropIndexes(SQLiteDatabase db) {
+		for (int version = 1; version <= DATABASE_VERSION; version++) {
+			String[][] indexes = getIndexes(version);
+			for (int i = 0; i < indexes.length; i++) {
+				db.execSQL("DROP INDEX IF EXISTS " + indexes[i][0] + ";");
 			}
-			proj += projection[count];
-
-			Log.d(LOG_TAG,"prescirptionJoinQuery(after)");
-		}catch (Exception e) {
-			proj = "*";
-			e.printStackTrace();
 		}
-		
-		sqlQuery = "select " + proj + " from prescriptions, drugs, patients WHERE prescriptions.drug = drugs._id and prescriptions.patient = patients._id";
-		return db.rawQuery(sqlQuery, null);
 	}
 	
-	@Override
-	public Uri insert(Uri uri, ContentValues values) {
-		
-		// A reference to the SQLite database.
-		SQLiteDatabase db;
-		// The id of the row that was inserted.
-		long rowId;
-		
-		switch(sUriMatcher.match(uri)) {
-		case URI_TYPE_DRUGS:
-			Log.d(LOG_TAG, "Insert into the drugs table...");
-			// Open the database.
-			db = mOpenHelper.getWritableDatabase();
-			// Call for the insert into the database.
-			rowId = db.insert(DRUGS_TABLE_NAME, null, values);
-			
-			// Check to make sure that the insert was successful
-			if (rowId > 0) {
-				// Append the row ID to the content uri
-				Uri drugUri = ContentUris.withAppendedId(DrugColumns.CONTENT_URI, rowId);
-				// Notify the application that the content has changed
-				getContext().getContentResolver().notifyChange(drugUri, null);
-				// Return the uri to the caller
-	            return drugUri;
-			} else {
-				// If the row ID was -1 the insert did not happen...
-				throw new SQLException("Failed to insert row into " + uri);
+	/**
+	 * Opens a separate database with the full risotto schema, so the benchmarks 
+	 * can fill it without touching the user's data. Delete it with 
+	 * Context.deleteDatabase() when done.
+	 * 
+	 * @param context The context used to open the database
+	 * @param databaseName The file name of the database
+	 * @return The helper for the new database
+	 */
+	public static SQLiteOpenHelper openScratchDatabase(Context context, String databaseName) {
+		return new StorageDatabaseHelper(context, databaseName);
+	}
+	
+	/**
+	 * Limits the number of rows a query on the given directory URI returns.
+	 * 
+	 * @param uri A directory URI, like DrugColumns.CONTENT_URI
+	 * @param limit The most rows to return
+	 * @return The URI with the limit query parameter
+	 */
+	public static Uri withLimit(Uri uri, int limit) {
+		return uri.buildUpon().appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit)).build();
+	}
+	
+	/**
+	 * Rewrites the prescription_times rows of one prescription for every day column 
+	 * present in the given values. Days that aren't in the values are left alone.
+	 * 
+	 * @param db The database to write to
+	 * @param prescriptionId The prescription the values belong to
+	 * @param values The prescription values being stored
+	 */
+	private static void writePrescriptionTimes(SQLiteDatabase db, long prescriptionId, ContentValues values) {
+		for (int i = 0; i < DAY_COLUMNS.length; i++) {
+			if (!values.containsKey(DAY_COLUMNS[i])) {
+				continue;
+			}
+			
+			int dayOfWeek = Calendar.SUNDAY + i;
+			
+			db.delete(PRESCRIPTION_TIMES_TABLE_NAME, 
+					PrescriptionTimeColumns.PRESCRIPTION_TIMES_PRESCRIPTION + "=" + prescriptionId 
+					+ " AND " + PrescriptionTimeColumns.PRESCRIPTION_TIMES_DAY_OF_WEEK + "=" + dayOfWeek, null);
+			
+			byte[] dayBytes = values.getAsByteArray(DAY_COLUMNS[i]);
+			if (dayBytes == null) {
+				continue;
+			}
+			
+			int[] minutes = Prescription.minutesFromDayBytes(dayBytes);
+			ContentValues timeValues = new ContentValues();
+			for (int j = 0; j < minutes.length; j++) {
+				timeValues.put(PrescriptionTimeColumns.PRESCRIPTION_TIMES_PRESCRIPTION, prescriptionId);
+				timeValues.put(PrescriptionTimeColumns.PRESCRIPTION_TIMES_DAY_OF_WEEK, dayOfWeek);
+				timeValues.put(PrescriptionTimeColumns.PRESCRIPTION_TIMES_MINUTE_OF_DAY, minutes[j]);
+				db.insert(PRESCRIPTION_TIMES_TABLE_NAME, null, timeValues);
+			}
+		}
+	}
+	
+	/**
+	 * Rewrites the drug_interactions rows of one drug if the interactions column is 
+	 * present in the given values.
+	 * 
+	 * @param db The database to write to
+	 * @param drugId The drug the values belong to
+	 * @param values The drug values being stored
+	 */
+	private static void writeDrugInteractions(SQLiteDatabase db, long drugId, ContentValues values) {
+		if (!values.containsKey(DrugColumns.DRUG_INTERACTIONS)) {
+			return;
+		}
+		
+		db.delete(DRUG_INTERACTIONS_TABLE_NAME, DrugInteractionColumns.DRUG_INTERACTIONS_DRUG + "=" + drugId, null);
+		
+		byte[] interactionBytes = values.getAsByteArray(DrugColumns.DRUG_INTERACTIONS);
+		if (interactionBytes == null) {
+			return;
+		}
+		
+		int[] otherDrugIds = Drug.interactionsFromBytes(interactionBytes);
+		// The same drug may be listed twice, only store it once.
+		Arrays.sort(otherDrugIds);
+		ContentValues interactionValues = new ContentValues();
+		for (int i = 0; i < otherDrugIds.length; i++) {
+			if (i > 0 && otherDrugIds[i] == otherDrugIds[i - 1]) {
+				continue;
+			}
+			interactionValues.put(DrugInteractionColumns.DRUG_INTERACTIONS_DRUG, drugId);
+			interactionValues.put(DrugInteractionColumns.DRUG_INTERACTIONS_OTHER_DRUG, otherDrugIds[i]);
+			db.insert(DRUG_INTERACTIONS_TABLE_NAME, null, interactionValues);
+		}
+	}
+	
+	private static boolean hasDayColumns(ContentValues values) {
+		for (int i = 0; i < DAY_COLUMNS.length; i++) {
+			if (values.containsKey(DAY_COLUMNS[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the table name behind the given URI type.
+	 * 
+	 * @param uriType The matched URI type
+	 * @return The table name, or null if the URI type is unknown
+	 */
+	private static String getTableName(int uriType) {
+		switch(uriType) {
+		case URI_TYPE_DRUGS:
+		case URI_TYPE_DRUG_ID:
+			return DRUGS_TABLE_NAME;
+		case URI_TYPE_PATIENTS:
+		case URI_TYPE_PATIENT_ID:
+			return PATIENTS_TABLE_NAME;
+		case URI_TYPE_PRESCRIPTIONS:
+		case URI_TYPE_PRESCRIPTION_ID:
+		case URI_TYPE_PRESCRIPTIONS_FULL:
+		case URI_TYPE_PRESCRIPTION_FULL_ID:
+			return PRESCRIPTIONS_TABLE_NAME;
+		case URI_TYPE_SCHEDULES:
+		case URI_TYPE_SCHEDULE_ID:
+			return SCHEDULES_TABLE_NAME;
+		case URI_TYPE_NOTIFICATION_EVENTS:
+		case URI_TYPE_NOTIFICATION_EVENT_ID:
+			return NOTIFICATION_EVENTS_TABLE_NAME;
+		case URI_TYPE_SYSTEM_EVENTS:
+		case URI_TYPE_SYSTEM_EVENT_ID:
+			return SYSTEM_EVENTS_TABLE_NAME;
+		case URI_TYPE_SYNC_EVENTS:
+		case URI_TYPE_SYNC_EVENT_ID:
+			return SYNC_EVENTS_TABLE_NAME;
+		case URI_TYPE_PRESCRIPTION_TIMES:
+		case URI_TYPE_PRESCRIPTION_TIMES_RANGE:
+			return PRESCRIPTION_TIMES_TABLE_NAME;
+		case URI_TYPE_PRESCRIPTION_ADHERENCE:
+		case URI_TYPE_PRESCRIPTION_ADHERENCE_ID:
+			return PRESCRIPTION_ADHERENCE_TABLE_NAME;
+		case URI_TYPE_PATIENT_ADHERENCE:
+		case URI_TYPE_PATIENT_ADHERENCE_ID:
+			return PATIENT_ADHERENCE_TABLE_NAME;
+		case URI_TYPE_EVENT_ARCHIVES:
+		case URI_TYPE_EVENT_ARCHIVE_ID:
+			return EVENT_ARCHIVES_TABLE_NAME;
+		case URI_TYPE_DRUG_INTERACTIONS:
+			return DRUG_INTERACTIONS_TABLE_NAME;
+		case URI_TYPE_PRESCRIPTION_RUNOUTS:
+			return PRESCRIPTION_RUNOUTS_TABLE_NAME;
+		case URI_TYPE_NOTIFICATIONS:
+		case URI_TYPE_NOTIFICATION_ID:
+			return NOTIFICATIONS_TABLE_NAME;
+		case URI_TYPE_DOSES:
+		case URI_TYPE_DOSE_ID:
+			return DOSES_TABLE_NAME;
+		default:
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the directory content URI of the table behind the given URI type.
+	 * 
+	 * @param uriType The matched URI type
+	 * @return The content URI, or null if the URI type is unknown
+	 */
+	private static Uri getContentUri(int uriType) {
+		switch(uriType) {
+		case URI_TYPE_DRUGS:
+		case URI_TYPE_DRUG_ID:
+			return DrugColumns.CONTENT_URI;
+		case URI_TYPE_PATIENTS:
+		case URI_TYPE_PATIENT_ID:
+			return PatientColumns.CONTENT_URI;
+		case URI_TYPE_PRESCRIPTIONS:
+		case URI_TYPE_PRESCRIPTION_ID:
+		case URI_TYPE_PRESCRIPTIONS_FULL:
+		case URI_TYPE_PRESCRIPTION_FULL_ID:
+			return PrescriptionColumns.CONTENT_URI;
+		case URI_TYPE_SCHEDULES:
+		case URI_TYPE_SCHEDULE_ID:
+			return ScheduleColumns.CONTENT_URI;
+		case URI_TYPE_NOTIFICATION_EVENTS:
+		case URI_TYPE_NOTIFICATION_EVENT_ID:
+			return NotificationEventColumns.CONTENT_URI;
+		case URI_TYPE_SYSTEM_EVENTS:
+		case URI_TYPE_SYSTEM_EVENT_ID:
+			return SystemEventColumns.CONTENT_URI;
+		case URI_TYPE_SYNC_EVENTS:
+		case URI_TYPE_SYNC_EVENT_ID:
+			return SyncEventColumns.CONTENT_URI;
+		case URI_TYPE_PRESCRIPTION_TIMES:
+		case URI_TYPE_PRESCRIPTION_TIMES_RANGE:
+			return PrescriptionTimeColumns.CONTENT_URI;
+		case URI_TYPE_PRESCRIPTION_ADHERENCE:
+		case URI_TYPE_PRESCRIPTION_ADHERENCE_ID:
+		case URI_TYPE_PATIENT_ADHERENCE:
+		case URI_TYPE_PATIENT_ADHERENCE_ID:
+			return AdherenceColumns.CONTENT_URI;
+		case URI_TYPE_EVENT_ARCHIVES:
+		case URI_TYPE_EVENT_ARCHIVE_ID:
+			return EventArchiveColumns.CONTENT_URI;
+		case URI_TYPE_DRUG_INTERACTIONS:
+			return DrugInteractionColumns.CONTENT_URI;
+		case URI_TYPE_PRESCRIPTION_RUNOUTS:
+			return PrescriptionRunoutColumns.CONTENT_URI;
+		case URI_TYPE_NOTIFICATIONS:
+		case URI_TYPE_NOTIFICATION_ID:
+			return NotificationColumns.CONTENT_URI;
+		case URI_TYPE_DOSES:
+		case URI_TYPE_DOSE_ID:
+			return DoseColumns.CONTENT_URI;
+		default:
+			return null;
+		}
+	}
+	
+	/**
+	 * Notifies the registered observers that the data at the given URI has changed.
+	 * 
+	 * The changed drugs and patients are dropped from the ModelCache first, and the 
+	 * DrugInteractions if they changed.
+	 * 
+	 * While a batch is running on the calling thread the notification is held back 
+	 * until the batch ends, along with the cache invalidation, so no cache lock is 
+	 * taken inside the batch transaction. The notifications are then collapsed into 
+	 * a single notification on each table's content URI, see endBatch().
+	 * 
+	 * The full prescriptions show their drugs and patients, so a drug or patient change 
+	 * is also sent on PrescriptionColumns.FULL_CONTENT_URI, which reaches the cursors 
+	 * of the full prescriptions. It isn't a change to any one prescription, so it 
+	 * doesn't reschedule any.
+	 * 
+	 * @param uri The URI that changed
+	 */
+	private void notifyChange(Uri uri) {
+		Set<Uri> pending = mPendingNotifications.get();
+		
+		if (pending != null) {
+			pending.add(uri);
+		} else {
+			invalidateCaches(uri);
+			recordPrescriptionChange(uri);
+			getContext().getContentResolver().notifyChange(uri, null);
+		}
+		
+		switch(sUriMatcher.match(uri)) {
+		case URI_TYPE_DRUGS:
+		case URI_TYPE_DRUG_ID:
+		case URI_TYPE_PATIENTS:
+		case URI_TYPE_PATIENT_ID:
+			this.notifyChange(PrescriptionColumns.FULL_CONTENT_URI);
+			break;
+		}
+	}
+	
+	/**
+	 * Remembers the prescription that changed with the given URI, so the schedules 
+	 * can be rebuilt for it alone. Call this before the change is sent.
+	 */
+	private static void recordPrescriptionChange(Uri uri) {
+		switch(sUriMatcher.match(uri)) {
+		case URI_TYPE_PRESCRIPTION_ID:
+			synchronized (sChangedPrescriptions) {
+				sChangedPrescriptions.add(Integer.valueOf(uri.getPathSegments().get(1)));
+			}
+			break;
+		case URI_TYPE_PRESCRIPTIONS:
+			synchronized (sChangedPrescriptions) {
+				sAllPrescriptionsChanged = true;
+			}
+			break;
+		}
+	}
+	
+	/**
+	 * Returns the ids of the prescriptions that changed since the last call, and 
+	 * forgets them. The changes are recorded before the observers are notified, so 
+	 * an observer that calls this sees at least the change it was notified of.
+	 * 
+	 * @return the changed prescription ids, or null if any prescription may have changed
+	 */
+	public static Set<Integer> takeChangedPrescriptions() {
+		synchronized (sChangedPrescriptions) {
+			Set<Integer> changed = sAllPrescriptionsChanged ? null : new HashSet<Integer>(sChangedPrescriptions);
+			sChangedPrescriptions.clear();
+			sAllPrescriptionsChanged = false;
+			return changed;
+		}
+	}
+	
+	/**
+	 * Drops the cached objects that changed with the given URI.
+	 */
+	private static void invalidateCaches(Uri uri) {
+		ModelCache.invalidate(uri);
+		DrugInteractions.invalidate(uri);
+	}
+	
+	/**
+	 * Starts holding back change notifications on the calling thread.
+	 * 
+	 * @return true if this call started the batch, false if a batch was already running
+	 */
+	private boolean beginBatch() {
+		if (mPendingNotifications.get() != null) {
+			return false;
+		}
+		mPendingNotifications.set(new HashSet<Uri>());
+		return true;
+	}
+	
+	/**
+	 * Stops holding back change notifications on the calling thread. The caches are 
+	 * invalidated either way, since objects read inside a rolled back batch may have 
+	 * been cached, and the collected notifications are sent if the batch was committed.
+	 * Call this after the batch transaction has ended.
+	 * <br><br>
+	 * The notifications are collapsed into one on the content URI of each table that 
+	 * was touched, instead of one for every row. A notification on a table's URI is 
+	 * also delivered to every observer registered on a URI below it, such as a row's 
+	 * item URI, whether or not that observer asked for descendants, so no observer 
+	 * misses a change. Sending one per row would have every cursor watching the table 
+	 * requery once for every row of the batch. The observers that need to know which 
+	 * prescriptions changed read them from takeChangedPrescriptions(), which is fed 
+	 * the uncollapsed URIs.
+	 * 
+	 * @param successful whether the batch transaction was committed
+	 */
+	private void endBatch(boolean successful) {
+		Set<Uri> pending = mPendingNotifications.get();
+		mPendingNotifications.set(null);
+		
+		if (pending == null) {
+			return;
+		}
+		
+		Set<Uri> contentUris = new HashSet<Uri>();
+		Iterator<Uri> it = pending.iterator();
+		while (it.hasNext()) {
+			Uri uri = it.next();
+			invalidateCaches(uri);
+			if (successful) {
+				recordPrescriptionChange(uri);
+			}
+			
+			// The table's URI reaches the observers of its rows as well.
+			Uri contentUri = getContentUri(sUriMatcher.match(uri));
+			contentUris.add(contentUri != null ? contentUri : uri);
+		}
+		
+		if (successful) {
+			it = contentUris.iterator();
+			while (it.hasNext()) {
+				getContext().getContentResolver().notifyChange(it.next(), null);
+			}
+		}
+	}
+	
+	/**
+	 * Inserts all of the given rows in a single transaction. Observers are notified 
+	 * once on the table's URI, after the transaction has been committed.
+	 * 
+	 * @param uri The content URI of the table to insert into
+	 * @param values The rows to insert
+	 * @return The number of rows inserted
+	 */
+	@Override
+	public int bulkInsert(Uri uri, ContentValues[] values) {
+		
+		String tableName = getTableName(sUriMatcher.match(uri));
+		
+		if (tableName == null) {
+			throw new IllegalArgumentException("Unknown URI " + uri);
+		}
+		
+		Log.d(LOG_TAG, "Bulk insert of " + values.length + " rows into the " + tableName + " table...");
+		
+		SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+		boolean outerBatch = this.beginBatch();
+		boolean successful = false;
+		int count = 0;
+		
+		db.beginTransaction();
+		try {
+			for (int i = 0; i < values.length; i++) {
+				// The insert joins the transaction that is already open.
+				this.insert(uri, values[i]);
+				count++;
+			}
+			db.setTransactionSuccessful();
+			successful = true;
+		} finally {
+			db.endTransaction();
+			if (outerBatch) {
+				this.endBatch(successful);
+			}
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Applies all of the given operations in a single transaction. If any operation 
+	 * fails none of them are committed. Observers are notified once per table, after 
+	 * the transaction has been committed.
+	 * 
+	 * @param operations The operations to apply
+	 * @return The results of the operations, in order
+	 */
+	@Override
+	public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) 
+			throws OperationApplicationException {
+		
+		Log.d(LOG_TAG, "Applying a batch of " + operations.size() + " operations...");
+		
+		SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+		boolean outerBatch = this.beginBatch();
+		boolean successful = false;
+		ContentProviderResult[] results;
+		
+		db.beginTransaction();
+		try {
+			results = super.applyBatch(operations);
+			db.setTransactionSuccessful();
+			successful = true;
+		} finally {
+			db.endTransaction();
+			if (outerBatch) {
+				this.endBatch(successful);
+			}
+		}
+		
+		return results;
+	}
+
+	/**
+	 * Convenience method for determining whether the object already exists in the database.
+	 * 
+	 * Patient is the only object type implemented thus far.
+	 * 
+	 * @param Object to check
+	 * @return whether or not the object already exists in the db.
+	 */
+	public static boolean isInDatabase(Object o) {
+		String query = "";
+		String[] args = null;
+		SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+		boolean isPresent = false;
+		
+		if(o instanceof Drug) {
+			return false;
+		} else if(o instanceof Patient) {
+			args = new String[2];
+			args[0] = ((Patient)o).getFirstName();
+			args[1] = ((Patient)o).getLastName();
+			//ensure we do a case insensitive search (i.e JOE BLACK is the same as Joe Black)
+			//compare the names themselves, the search index tokenizes them and would miss some duplicates
+			query = "SELECT first_name, last_name FROM patients WHERE first_name=? COLLATE NOCASE AND last_name=? COLLATE NOCASE";
+			Cursor result = db.rawQuery(query, args);
+			isPresent = result.moveToFirst();
+			result.close();
+			return isPresent;
+		} else if(o instanceof Prescription) {
+			return false;
+		} else
+			return false;
+	}
+	
+	@Override
+	public Uri insert(Uri uri, ContentValues values) {
+		
+		// A reference to the SQLite database.
+		SQLiteDatabase db;
+		// The id of the row that was inserted.
+		long rowId;
+		
+		switch(sUriMatcher.match(uri)) {
+		case URI_TYPE_DRUGS:
+			Log.d(LOG_TAG, "Insert into the drugs table...");
+			// Open the database.
+			db = mOpenHelper.getWritableDatabase();
+			// Store the drug and its interactions together.
+			db.beginTransaction();
+			try {
+				// Call for the insert into the database.
+				rowId = db.insert(DRUGS_TABLE_NAME, null, values);
+				if (rowId > 0) {
+					writeDrugInteractions(db, rowId, values);
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+			
+			// Check to make sure that the insert was successful
+			if (rowId > 0) {
+				// Append the row ID to the content uri
+				Uri drugUri = ContentUris.withAppendedId(DrugColumns.CONTENT_URI, rowId);
+				// Notify the application that the content has changed
+				this.notifyChange(drugUri);
+				// Return the uri to the caller
+	            return drugUri;
+			} else {
+				// If the row ID was -1 the insert did not happen...
+				throw new SQLException("Failed to insert row into " + uri);
 			}
 		case URI_TYPE_DRUG_ID:
 			Log.d(LOG_TAG, "Use update to modify a row in the drug table...");
@@ -589,7 +1984,7 @@ public class StorageProvider extends ContentProvider {
 				// Append the row ID to the content uri
 				Uri patientUri = ContentUris.withAppendedId(PatientColumns.CONTENT_URI, rowId);
 				// Notify the application that the content has changed
-				getContext().getContentResolver().notifyChange(patientUri, null);
+				this.notifyChange(patientUri);
 				// Return the uri to the caller
 	            return patientUri;
 			} else {
@@ -603,15 +1998,29 @@ public class StorageProvider extends ContentProvider {
 			Log.d(LOG_TAG, "Insert into the prescriptions table...");
 			// Open the database.
 			db = mOpenHelper.getWritableDatabase();
-			// Call for the insert into the database.
-			rowId = db.insert(PRESCRIPTIONS_TABLE_NAME, null, values);
+			if (!values.containsKey(PrescriptionColumns.PRESCRIPTION_DATE_CREATED)) {
+				values = new ContentValues(values);
+				values.put(PrescriptionColumns.PRESCRIPTION_DATE_CREATED, System.currentTimeMillis());
+			}
+			// Store the prescription and its times together.
+			db.beginTransaction();
+			try {
+				// Call for the insert into the database.
+				rowId = db.insert(PRESCRIPTIONS_TABLE_NAME, null, values);
+				if (rowId > 0) {
+					writePrescriptionTimes(db, rowId, values);
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
 			
 			// Check to make sure that the insert was successful
 			if (rowId > 0) {
 				// Append the row ID to the content uri
 				Uri prescriptionUri = ContentUris.withAppendedId(PrescriptionColumns.CONTENT_URI, rowId);
 				// Notify the application that the content has changed
-				getContext().getContentResolver().notifyChange(prescriptionUri, null);
+				this.notifyChange(prescriptionUri);
 				// Return the uri to the caller
 	            return prescriptionUri;
 			} else {
@@ -619,6 +2028,8 @@ public class StorageProvider extends ContentProvider {
 				throw new SQLException("Failed to insert row into " + uri);
 			}
 		case URI_TYPE_PRESCRIPTION_ID:
+		case URI_TYPE_PRESCRIPTIONS_FULL:
+		case URI_TYPE_PRESCRIPTION_FULL_ID:
 			Log.d(LOG_TAG, "Use update to modify a row in the prescriptions table...");
 			throw new IllegalArgumentException("Invalid URI: " + uri);
 		case URI_TYPE_SCHEDULES:
@@ -633,7 +2044,7 @@ public class StorageProvider extends ContentProvider {
 				// Append the row ID to the content uri
 				Uri schedulesUri = ContentUris.withAppendedId(ScheduleColumns.CONTENT_URI, rowId);
 				// Notify the application that the content has changed
-				getContext().getContentResolver().notifyChange(schedulesUri, null);
+				this.notifyChange(schedulesUri);
 				// Return the uri to the caller
 	            return schedulesUri;
 			} else {
@@ -648,15 +2059,26 @@ public class StorageProvider extends ContentProvider {
 			Log.d(LOG_TAG, "Insert into the notification events table...");
 			// Open the database.
 			db = mOpenHelper.getWritableDatabase();
-			// Call for the insert into the database.
-			rowId = db.insert(NOTIFICATION_EVENTS_TABLE_NAME, null, values);
+			// Store the event and its adherence rollups together.
+			db.beginTransaction();
+			try {
+				// Call for the insert into the database.
+				rowId = db.insert(NOTIFICATION_EVENTS_TABLE_NAME, null, values);
+				if (rowId > 0) {
+					AdherenceRollup.recordEvent(db, values);
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
 			
 			// Check to make sure that the insert was successful
 			if (rowId > 0) {
 				// Append the row ID to the content uri
 				Uri notificationEventUri = ContentUris.withAppendedId(NotificationEventColumns.CONTENT_URI, rowId);
 				// Notify the application that the content has changed
-				getContext().getContentResolver().notifyChange(notificationEventUri, null);
+				this.notifyChange(notificationEventUri);
+				this.notifyChange(AdherenceColumns.CONTENT_URI);
 				// Return the uri to the caller
 	            return notificationEventUri;
 			} else {
@@ -679,7 +2101,7 @@ public class StorageProvider extends ContentProvider {
 				// Append the row ID to the content uri
 				Uri systemEventUri = ContentUris.withAppendedId(SystemEventColumns.CONTENT_URI, rowId);
 				// Notify the application that the content has changed
-				getContext().getContentResolver().notifyChange(systemEventUri, null);
+				this.notifyChange(systemEventUri);
 				// Return the uri to the caller
 	            return systemEventUri;
 			} else {
@@ -702,7 +2124,7 @@ public class StorageProvider extends ContentProvider {
 				// Append the row ID to the content uri
 				Uri syncEventUri = ContentUris.withAppendedId(SyncEventColumns.CONTENT_URI, rowId);
 				// Notify the application that the content has changed
-				getContext().getContentResolver().notifyChange(syncEventUri, null);
+				this.notifyChange(syncEventUri);
 				// Return the uri to the caller
 	            return syncEventUri;
 			} else {
@@ -712,6 +2134,90 @@ public class StorageProvider extends ContentProvider {
 		case URI_TYPE_SYNC_EVENT_ID:
 			Log.d(LOG_TAG, "Use update to modify a row in the sync events table...");
 			throw new IllegalArgumentException("Invalid URI: " + uri);					
+		case URI_TYPE_PRESCRIPTION_TIMES:
+		case URI_TYPE_PRESCRIPTION_TIMES_RANGE:
+			Log.d(LOG_TAG, "The prescription times are written through the prescriptions table...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
+		case URI_TYPE_DRUG_INTERACTIONS:
+			Log.d(LOG_TAG, "The drug interactions are written through the drugs table...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
+		case URI_TYPE_PRESCRIPTION_RUNOUTS:
+			Log.d(LOG_TAG, "Insert into the prescription runouts table...");
+			// Open the database.
+			db = mOpenHelper.getWritableDatabase();
+			// Call for the insert into the database, the row id is the prescription's.
+			rowId = db.insert(PRESCRIPTION_RUNOUTS_TABLE_NAME, null, values);
+			
+			// Check to make sure that the insert was successful
+			if (rowId > 0) {
+				Uri runoutUri = ContentUris.withAppendedId(PrescriptionRunoutColumns.CONTENT_URI, rowId);
+				// Notify the application that the content has changed
+				this.notifyChange(runoutUri);
+				// Return the uri to the caller
+	            return runoutUri;
+			} else {
+				// If the row ID was -1 the insert did not happen...
+				throw new SQLException("Failed to insert row into " + uri);
+			}
+		case URI_TYPE_PRESCRIPTIONS_RUNOUT:
+			Log.d(LOG_TAG, "Write the run out dates through the prescription runouts URI...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
+		case URI_TYPE_NOTIFICATIONS:
+			Log.d(LOG_TAG, "Insert into the notifications table...");
+			// Open the database.
+			db = mOpenHelper.getWritableDatabase();
+			// The row id is the patient's, showing a patient's doses again replaces their row.
+			rowId = db.replace(NOTIFICATIONS_TABLE_NAME, null, values);
+			
+			// Check to make sure that the insert was successful
+			if (rowId > 0) {
+				Uri notificationUri = ContentUris.withAppendedId(NotificationColumns.CONTENT_URI, rowId);
+				// Notify the application that the content has changed
+				this.notifyChange(notificationUri);
+				// Return the uri to the caller
+	            return notificationUri;
+			} else {
+				// If the row ID was -1 the insert did not happen...
+				throw new SQLException("Failed to insert row into " + uri);
+			}
+		case URI_TYPE_NOTIFICATION_ID:
+			Log.d(LOG_TAG, "Use update to modify a row in the notifications table...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
+		case URI_TYPE_DOSES:
+			Log.d(LOG_TAG, "Insert into the doses table...");
+			// Open the database.
+			db = mOpenHelper.getWritableDatabase();
+			rowId = db.insert(DOSES_TABLE_NAME, null, values);
+			
+			// Check to make sure that the insert was successful
+			if (rowId > 0) {
+				Uri doseUri = ContentUris.withAppendedId(DoseColumns.CONTENT_URI, rowId);
+				// Notify the application that the content has changed
+				this.notifyChange(doseUri);
+				// Return the uri to the caller
+	            return doseUri;
+			} else {
+				// If the row ID was -1 the insert did not happen...
+				throw new SQLException("Failed to insert row into " + uri);
+			}
+		case URI_TYPE_DOSE_ID:
+			Log.d(LOG_TAG, "Use update to modify a row in the doses table...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
+		case URI_TYPE_DRUG_SEARCH:
+		case URI_TYPE_PATIENT_SEARCH:
+			Log.d(LOG_TAG, "The search indexes are written through the drugs and patients tables...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
+		case URI_TYPE_PRESCRIPTION_ADHERENCE:
+		case URI_TYPE_PRESCRIPTION_ADHERENCE_ID:
+		case URI_TYPE_PATIENT_ADHERENCE:
+		case URI_TYPE_PATIENT_ADHERENCE_ID:
+			Log.d(LOG_TAG, "The adherence rollups are written with the notification events...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
+		case URI_TYPE_EVENT_ARCHIVES:
+		case URI_TYPE_EVENT_ARCHIVE_ID:
+		case URI_TYPE_EVENT_RETENTION:
+			Log.d(LOG_TAG, "The event archives are written by the retention engine...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
 			
 		default:
 			throw new IllegalArgumentException("Unknown URI " + uri); 
@@ -795,12 +2301,73 @@ public class StorageProvider extends ContentProvider {
             count = db.delete(SYNC_EVENTS_TABLE_NAME, ScheduleColumns._ID + "=" + syncEventId
                     + (!TextUtils.isEmpty(where) ? " AND (" + where + ')' : ""), whereArgs);
 			break;
+		case URI_TYPE_PRESCRIPTION_TIMES:
+		case URI_TYPE_PRESCRIPTION_TIMES_RANGE:
+			Log.d(LOG_TAG, "The prescription times are removed with their prescription...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
+		case URI_TYPE_DRUG_INTERACTIONS:
+			Log.d(LOG_TAG, "The drug interactions are removed through the drugs table...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
+		case URI_TYPE_PRESCRIPTION_RUNOUTS:
+			Log.d(LOG_TAG, "Deleting the prescription runouts...");
+			count = db.delete(PRESCRIPTION_RUNOUTS_TABLE_NAME, where, whereArgs);
+			break;
+		case URI_TYPE_PRESCRIPTIONS_RUNOUT:
+			Log.d(LOG_TAG, "Delete the run out dates through the prescription runouts URI...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
+		case URI_TYPE_NOTIFICATIONS:
+			Log.d(LOG_TAG, "Deleting the notifications table...");
+			count = db.delete(NOTIFICATIONS_TABLE_NAME, where, whereArgs);
+			break;
+		case URI_TYPE_NOTIFICATION_ID:
+			Log.d(LOG_TAG, "Deleting one notification entry...");
+			String notificationId = uri.getPathSegments().get(1);
+            count = db.delete(NOTIFICATIONS_TABLE_NAME, NotificationColumns._ID + "=" + notificationId
+                    + (!TextUtils.isEmpty(where) ? " AND (" + where + ')' : ""), whereArgs);
+			break;
+		case URI_TYPE_DOSES:
+			Log.d(LOG_TAG, "Deleting the doses table...");
+			count = db.delete(DOSES_TABLE_NAME, where, whereArgs);
+			break;
+		case URI_TYPE_DOSE_ID:
+			Log.d(LOG_TAG, "Deleting one dose entry...");
+			String doseId = uri.getPathSegments().get(1);
+            count = db.delete(DOSES_TABLE_NAME, DoseColumns._ID + "=" + doseId
+                    + (!TextUtils.isEmpty(where) ? " AND (" + where + ')' : ""), whereArgs);
+			break;
+		case URI_TYPE_DRUG_SEARCH:
+		case URI_TYPE_PATIENT_SEARCH:
+			Log.d(LOG_TAG, "The search indexes are removed through the drugs and patients tables...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
+		case URI_TYPE_PRESCRIPTION_ADHERENCE:
+		case URI_TYPE_PRESCRIPTION_ADHERENCE_ID:
+		case URI_TYPE_PATIENT_ADHERENCE:
+		case URI_TYPE_PATIENT_ADHERENCE_ID:
+			Log.d(LOG_TAG, "The adherence rollups are removed with their prescription or patient...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
+		case URI_TYPE_EVENT_ARCHIVES:
+			Log.d(LOG_TAG, "Deleting the event archives...");
+			count = db.delete(EVENT_ARCHIVES_TABLE_NAME, where, whereArgs);
+			break;
+		case URI_TYPE_EVENT_ARCHIVE_ID:
+			Log.d(LOG_TAG, "Deleting one event archive...");
+			String eventArchiveId = uri.getPathSegments().get(1);
+            count = db.delete(EVENT_ARCHIVES_TABLE_NAME, EventArchiveColumns._ID + "=" + eventArchiveId
+                    + (!TextUtils.isEmpty(where) ? " AND (" + where + ')' : ""), whereArgs);
+			break;
+		case URI_TYPE_EVENT_RETENTION:
+			Log.d(LOG_TAG, "Use update to run the retention engine...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
+		case URI_TYPE_PRESCRIPTIONS_FULL:
+		case URI_TYPE_PRESCRIPTION_FULL_ID:
+			Log.d(LOG_TAG, "Delete prescriptions through the prescriptions URI...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
 			
 		default:
 			throw new IllegalArgumentException("Unknown URI " + uri); 
 		}
 		
-		getContext().getContentResolver().notifyChange(uri, null);
+		this.notifyChange(uri);
 		return count;
 	}
 
@@ -813,6 +2380,18 @@ public class StorageProvider extends ContentProvider {
 		SQLiteDatabase db;
 		String orderBy;
 		
+		// The optional row limit, used by the paged lists.
+		String limit = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+		if (limit != null) {
+			try {
+				if (Integer.parseInt(limit) < 0) {
+					throw new IllegalArgumentException("Invalid URI: " + uri);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid URI: " + uri);
+			}
+		}
+		
 		switch(sUriMatcher.match(uri)) {
 		case URI_TYPE_DRUGS:
 			
@@ -827,7 +2406,7 @@ public class StorageProvider extends ContentProvider {
 	        
 	        // Get the database and run the query
 	        db = mOpenHelper.getReadableDatabase();
-	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
 
 	        // Tell the cursor what uri to watch, so it knows when its source data changes
 	        c.setNotificationUri(getContext().getContentResolver(), uri);
@@ -847,16 +2426,62 @@ public class StorageProvider extends ContentProvider {
 	        
 	        // Get the database and run the query
 	        db = mOpenHelper.getReadableDatabase();
-	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
 
 	        // Tell the cursor what uri to watch, so it knows when its source data changes
 	        c.setNotificationUri(getContext().getContentResolver(), uri);
 	        return c;
 	               
+		case URI_TYPE_DRUG_SEARCH:
+			
+			Log.d(LOG_TAG, "Search for drugs...");
+			String drugSearch = uri.getQueryParameter(DrugColumns.SEARCH_PARAMETER_QUERY);
+			String drugMatchWhere = SearchIndex.getMatchWhere(DRUGS_SEARCH_TABLE_NAME, null, drugSearch, true);
+			qb.setTables(DRUGS_TABLE_NAME);
+			// A query without any words finds nothing.
+			qb.appendWhere(drugMatchWhere != null ? drugMatchWhere : "0");
+			
+	        if (TextUtils.isEmpty(sortOrder)) {
+	        	// The brand name matches first, then by brand name.
+	            orderBy = (drugMatchWhere != null) 
+	            		? SearchIndex.getRankOrder(DRUGS_SEARCH_TABLE_NAME, DrugColumns.DRUG_BRAND_NAME, drugSearch) + "," + DrugColumns.DRUG_BRAND_NAME 
+	            		: DrugColumns.DRUG_BRAND_NAME;
+	        } else {
+	            orderBy = sortOrder;
+	        }
+	        
+	        // Get the database and run the query
+	        db = mOpenHelper.getReadableDatabase();
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
+
+	        // The results change whenever the drugs do, so watch the drugs
+	        c.setNotificationUri(getContext().getContentResolver(), DrugColumns.CONTENT_URI);
+	        return c;
+	               
 		case URI_TYPE_PATIENTS:
 			
-			Log.d(LOG_TAG, "Query for all patients...");
+			Log.d(LOG_TAG, "Query for all patients...");
+			qb.setTables(PATIENTS_TABLE_NAME);
+			
+	        if (TextUtils.isEmpty(sortOrder)) {
+	            orderBy = PatientColumns.DEFAULT_SORT_ORDER;
+	        } else {
+	            orderBy = sortOrder;
+	        }
+	        
+	        // Get the database and run the query
+	        db = mOpenHelper.getReadableDatabase();
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
+
+	        // Tell the cursor what uri to watch, so it knows when its source data changes
+	        c.setNotificationUri(getContext().getContentResolver(), uri);
+	        return c;
+	        
+		case URI_TYPE_PATIENT_ID:
+			
+			Log.d(LOG_TAG, "Query for one patient...");
 			qb.setTables(PATIENTS_TABLE_NAME);
+			qb.appendWhere(PatientColumns._ID + "=" + uri.getPathSegments().get(1));
 			
 	        if (TextUtils.isEmpty(sortOrder)) {
 	            orderBy = PatientColumns.DEFAULT_SORT_ORDER;
@@ -866,30 +2491,37 @@ public class StorageProvider extends ContentProvider {
 	        
 	        // Get the database and run the query
 	        db = mOpenHelper.getReadableDatabase();
-	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
 
 	        // Tell the cursor what uri to watch, so it knows when its source data changes
 	        c.setNotificationUri(getContext().getContentResolver(), uri);
 	        return c;
 	        
-		case URI_TYPE_PATIENT_ID:
+		case URI_TYPE_PATIENT_SEARCH:
 			
-			Log.d(LOG_TAG, "Query for one patient...");
+			Log.d(LOG_TAG, "Search for patients...");
+			String patientSearch = uri.getQueryParameter(PatientColumns.SEARCH_PARAMETER_QUERY);
+			String patientMatchWhere = SearchIndex.getMatchWhere(PATIENTS_SEARCH_TABLE_NAME, null, patientSearch, true);
 			qb.setTables(PATIENTS_TABLE_NAME);
-			qb.appendWhere(PatientColumns._ID + "=" + uri.getPathSegments().get(1));
+			// A query without any words finds nothing.
+			qb.appendWhere(patientMatchWhere != null ? patientMatchWhere : "0");
 			
 	        if (TextUtils.isEmpty(sortOrder)) {
-	            orderBy = PatientColumns.DEFAULT_SORT_ORDER;
+	        	// The first name matches first, then by name.
+	            orderBy = (patientMatchWhere != null) 
+	            		? SearchIndex.getRankOrder(PATIENTS_SEARCH_TABLE_NAME, PatientColumns.PATIENT_FIRST_NAME, patientSearch) + "," 
+	            				+ PatientColumns.PATIENT_FIRST_NAME + "," + PatientColumns.PATIENT_LAST_NAME 
+	            		: PatientColumns.PATIENT_FIRST_NAME + "," + PatientColumns.PATIENT_LAST_NAME;
 	        } else {
 	            orderBy = sortOrder;
 	        }
 	        
 	        // Get the database and run the query
 	        db = mOpenHelper.getReadableDatabase();
-	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
 
-	        // Tell the cursor what uri to watch, so it knows when its source data changes
-	        c.setNotificationUri(getContext().getContentResolver(), uri);
+	        // The results change whenever the patients do, so watch the patients
+	        c.setNotificationUri(getContext().getContentResolver(), PatientColumns.CONTENT_URI);
 	        return c;
 	        
 		case URI_TYPE_PRESCRIPTIONS:
@@ -905,7 +2537,7 @@ public class StorageProvider extends ContentProvider {
 	        
 	        // Get the database and run the query
 	        db = mOpenHelper.getReadableDatabase();
-	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
 
 	        // Tell the cursor what uri to watch, so it knows when its source data changes
 	        c.setNotificationUri(getContext().getContentResolver(), uri);
@@ -925,7 +2557,7 @@ public class StorageProvider extends ContentProvider {
 	        
 	        // Get the database and run the query
 	        db = mOpenHelper.getReadableDatabase();
-	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
 
 	        // Tell the cursor what uri to watch, so it knows when its source data changes
 	        c.setNotificationUri(getContext().getContentResolver(), uri);
@@ -944,7 +2576,7 @@ public class StorageProvider extends ContentProvider {
 	        
 	        // Get the database and run the query
 	        db = mOpenHelper.getReadableDatabase();
-	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
 
 	        // Tell the cursor what uri to watch, so it knows when its source data changes
 	        c.setNotificationUri(getContext().getContentResolver(), uri);
@@ -964,7 +2596,7 @@ public class StorageProvider extends ContentProvider {
 	        
 	        // Get the database and run the query
 	        db = mOpenHelper.getReadableDatabase();
-	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
 
 	        // Tell the cursor what uri to watch, so it knows when its source data changes
 	        c.setNotificationUri(getContext().getContentResolver(), uri);
@@ -983,7 +2615,7 @@ public class StorageProvider extends ContentProvider {
 	        
 	        // Get the database and run the query
 	        db = mOpenHelper.getReadableDatabase();
-	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
 
 	        // Tell the cursor what uri to watch, so it knows when its source data changes
 	        c.setNotificationUri(getContext().getContentResolver(), uri);
@@ -1003,7 +2635,7 @@ public class StorageProvider extends ContentProvider {
 	        
 	        // Get the database and run the query
 	        db = mOpenHelper.getReadableDatabase();
-	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
 
 	        // Tell the cursor what uri to watch, so it knows when its source data changes
 	        c.setNotificationUri(getContext().getContentResolver(), uri);
@@ -1022,7 +2654,7 @@ public class StorageProvider extends ContentProvider {
 	        
 	        // Get the database and run the query
 	        db = mOpenHelper.getReadableDatabase();
-	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
 
 	        // Tell the cursor what uri to watch, so it knows when its source data changes
 	        c.setNotificationUri(getContext().getContentResolver(), uri);
@@ -1042,7 +2674,7 @@ public class StorageProvider extends ContentProvider {
 	        
 	        // Get the database and run the query
 	        db = mOpenHelper.getReadableDatabase();
-	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
 
 	        // Tell the cursor what uri to watch, so it knows when its source data changes
 	        c.setNotificationUri(getContext().getContentResolver(), uri);
@@ -1061,7 +2693,7 @@ public class StorageProvider extends ContentProvider {
 	        
 	        // Get the database and run the query
 	        db = mOpenHelper.getReadableDatabase();
-	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
 
 	        // Tell the cursor what uri to watch, so it knows when its source data changes
 	        c.setNotificationUri(getContext().getContentResolver(), uri);
@@ -1081,12 +2713,337 @@ public class StorageProvider extends ContentProvider {
 	        
 	        // Get the database and run the query
 	        db = mOpenHelper.getReadableDatabase();
-	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
 
 	        // Tell the cursor what uri to watch, so it knows when its source data changes
 	        c.setNotificationUri(getContext().getContentResolver(), uri);
 	        return c;     
 	        
+		case URI_TYPE_PRESCRIPTIONS_FULL:
+			
+			Log.d(LOG_TAG, "Query for all prescriptions with their drugs and patients...");
+			qb.setTables(FULL_PRESCRIPTIONS_TABLES);
+			qb.setProjectionMap(sFullPrescriptionProjectionMap);
+			
+	        if (TextUtils.isEmpty(sortOrder)) {
+	            orderBy = PrescriptionColumns.FULL_DEFAULT_SORT_ORDER;
+	        } else {
+	            orderBy = sortOrder;
+	        }
+	        
+	        // Get the database and run the query
+	        db = mOpenHelper.getReadableDatabase();
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
+
+	        // Watch all of the prescriptions, the drug and patient changes are sent on the full uri below it
+	        c.setNotificationUri(getContext().getContentResolver(), PrescriptionColumns.CONTENT_URI);
+	        return c;
+	        
+		case URI_TYPE_PRESCRIPTION_FULL_ID:
+			
+			Log.d(LOG_TAG, "Query for one prescription with its drug and patient...");
+			qb.setTables(FULL_PRESCRIPTIONS_TABLES);
+			qb.setProjectionMap(sFullPrescriptionProjectionMap);
+			qb.appendWhere(PRESCRIPTIONS_TABLE_NAME + "." + PrescriptionColumns._ID + "=" + uri.getPathSegments().get(2));
+			
+	        if (TextUtils.isEmpty(sortOrder)) {
+	            orderBy = PrescriptionColumns.FULL_DEFAULT_SORT_ORDER;
+	        } else {
+	            orderBy = sortOrder;
+	        }
+	        
+	        // Get the database and run the query
+	        db = mOpenHelper.getReadableDatabase();
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
+
+	        // Watch all of the prescriptions, the drug and patient changes are sent on the full uri below it
+	        c.setNotificationUri(getContext().getContentResolver(), PrescriptionColumns.CONTENT_URI);
+	        return c;
+	        
+		case URI_TYPE_PRESCRIPTION_TIMES:
+			
+			Log.d(LOG_TAG, "Query for all prescription times...");
+			qb.setTables(PRESCRIPTION_TIMES_TABLE_NAME);
+			
+	        if (TextUtils.isEmpty(sortOrder)) {
+	            orderBy = PrescriptionTimeColumns.DEFAULT_SORT_ORDER;
+	        } else {
+	            orderBy = sortOrder;
+	        }
+	        
+	        // Get the database and run the query
+	        db = mOpenHelper.getReadableDatabase();
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
+
+	        // The times change whenever their prescriptions do, so watch the prescriptions
+	        c.setNotificationUri(getContext().getContentResolver(), PrescriptionColumns.CONTENT_URI);
+	        return c;
+	        
+		case URI_TYPE_PRESCRIPTION_TIMES_RANGE:
+			
+			Log.d(LOG_TAG, "Query for a range of prescription times...");
+			qb.setTables(PRESCRIPTION_TIMES_TABLE_NAME);
+			
+			// A non numeric parameter throws a NumberFormatException back to the caller.
+			int dayOfWeek = Integer.parseInt(uri.getQueryParameter(PrescriptionTimeColumns.RANGE_PARAMETER_DAY));
+			int fromMinute = Integer.parseInt(uri.getQueryParameter(PrescriptionTimeColumns.RANGE_PARAMETER_FROM));
+			int toMinute = Integer.parseInt(uri.getQueryParameter(PrescriptionTimeColumns.RANGE_PARAMETER_TO));
+			
+			if (toMinute >= fromMinute) {
+				qb.appendWhere(PrescriptionTimeColumns.PRESCRIPTION_TIMES_DAY_OF_WEEK + "=" + dayOfWeek
+						+ " AND " + PrescriptionTimeColumns.PRESCRIPTION_TIMES_MINUTE_OF_DAY + ">=" + fromMinute
+						+ " AND " + PrescriptionTimeColumns.PRESCRIPTION_TIMES_MINUTE_OF_DAY + "<" + toMinute);
+			} else {
+				// The window crosses midnight: the rest of the day, then the start of the next one.
+				int nextDayOfWeek = (dayOfWeek % DAY_COLUMNS.length) + 1;
+				qb.appendWhere("(" + PrescriptionTimeColumns.PRESCRIPTION_TIMES_DAY_OF_WEEK + "=" + dayOfWeek
+						+ " AND " + PrescriptionTimeColumns.PRESCRIPTION_TIMES_MINUTE_OF_DAY + ">=" + fromMinute
+						+ ") OR (" + PrescriptionTimeColumns.PRESCRIPTION_TIMES_DAY_OF_WEEK + "=" + nextDayOfWeek
+						+ " AND " + PrescriptionTimeColumns.PRESCRIPTION_TIMES_MINUTE_OF_DAY + "<" + toMinute + ")");
+			}
+			
+	        if (TextUtils.isEmpty(sortOrder)) {
+	        	// In window order; the times of the next day are all before fromMinute.
+	            orderBy = PrescriptionTimeColumns.PRESCRIPTION_TIMES_MINUTE_OF_DAY + "<" + fromMinute + ","
+	            		+ PrescriptionTimeColumns.PRESCRIPTION_TIMES_MINUTE_OF_DAY;
+	        } else {
+	            orderBy = sortOrder;
+	        }
+	        
+	        // Get the database and run the query
+	        db = mOpenHelper.getReadableDatabase();
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
+
+	        // The times change whenever their prescriptions do, so watch the prescriptions
+	        c.setNotificationUri(getContext().getContentResolver(), PrescriptionColumns.CONTENT_URI);
+	        return c;
+	        
+		case URI_TYPE_DRUG_INTERACTIONS:
+			
+			Log.d(LOG_TAG, "Query for all drug interactions...");
+			qb.setTables(DRUG_INTERACTIONS_TABLE_NAME);
+			
+	        if (TextUtils.isEmpty(sortOrder)) {
+	            orderBy = DrugInteractionColumns.DEFAULT_SORT_ORDER;
+	        } else {
+	            orderBy = sortOrder;
+	        }
+	        
+	        // Get the database and run the query
+	        db = mOpenHelper.getReadableDatabase();
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
+
+	        // The interactions change whenever their drugs do, so watch the drugs
+	        c.setNotificationUri(getContext().getContentResolver(), DrugColumns.CONTENT_URI);
+	        return c;
+	        
+		case URI_TYPE_PRESCRIPTION_RUNOUTS:
+			
+			Log.d(LOG_TAG, "Query for all prescription runouts...");
+			qb.setTables(PRESCRIPTION_RUNOUTS_TABLE_NAME);
+			
+	        if (TextUtils.isEmpty(sortOrder)) {
+	            orderBy = PrescriptionRunoutColumns.DEFAULT_SORT_ORDER;
+	        } else {
+	            orderBy = sortOrder;
+	        }
+	        
+	        // Get the database and run the query
+	        db = mOpenHelper.getReadableDatabase();
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
+
+	        // Tell the cursor what uri to watch, so it knows when its source data changes
+	        c.setNotificationUri(getContext().getContentResolver(), PrescriptionRunoutColumns.CONTENT_URI);
+	        return c;
+	        
+		case URI_TYPE_PRESCRIPTIONS_RUNOUT:
+			
+			Log.d(LOG_TAG, "Query for the prescriptions that run out in a window...");
+			qb.setTables(RUNOUT_PRESCRIPTIONS_TABLES);
+			qb.setProjectionMap(sRunoutPrescriptionProjectionMap);
+			
+			// A range scan of the run out date index, without a start from the first date on. A 
+			// non numeric parameter throws a NumberFormatException back to the caller.
+			String runoutColumn = PRESCRIPTION_RUNOUTS_TABLE_NAME + "." + PrescriptionRunoutColumns.PRESCRIPTION_RUNOUTS_DATE;
+			String runoutFrom = uri.getQueryParameter(PrescriptionRunoutColumns.RUNOUT_PARAMETER_FROM);
+			String runoutTo = uri.getQueryParameter(PrescriptionRunoutColumns.RUNOUT_PARAMETER_TO);
+			qb.appendWhere(runoutColumn + ">=" + ((runoutFrom != null) ? Long.parseLong(runoutFrom) : 0));
+			if (runoutTo != null) {
+				qb.appendWhere(" AND " + runoutColumn + "<" + Long.parseLong(runoutTo));
+			}
+			
+	        if (TextUtils.isEmpty(sortOrder)) {
+	            orderBy = PRESCRIPTION_RUNOUTS_TABLE_NAME + "." + PrescriptionRunoutColumns.DEFAULT_SORT_ORDER;
+	        } else {
+	            orderBy = sortOrder;
+	        }
+	        
+	        // Get the database and run the query
+	        db = mOpenHelper.getReadableDatabase();
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
+
+	        // The run out dates are rewritten whenever the prescriptions are scheduled
+	        c.setNotificationUri(getContext().getContentResolver(), PrescriptionRunoutColumns.CONTENT_URI);
+	        return c;
+	        
+		case URI_TYPE_NOTIFICATIONS:
+			
+			Log.d(LOG_TAG, "Query for all notifications...");
+			qb.setTables(NOTIFICATIONS_TABLE_NAME);
+			
+	        if (TextUtils.isEmpty(sortOrder)) {
+	            orderBy = NotificationColumns.DEFAULT_SORT_ORDER;
+	        } else {
+	            orderBy = sortOrder;
+	        }
+	        
+	        // Get the database and run the query
+	        db = mOpenHelper.getReadableDatabase();
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
+
+	        // Tell the cursor what uri to watch, so it knows when its source data changes
+	        c.setNotificationUri(getContext().getContentResolver(), uri);
+	        return c;
+	        
+		case URI_TYPE_NOTIFICATION_ID:
+			
+			Log.d(LOG_TAG, "Query for one notification...");
+			qb.setTables(NOTIFICATIONS_TABLE_NAME);
+			qb.appendWhere(NotificationColumns._ID + "=" + uri.getPathSegments().get(1));
+			
+	        if (TextUtils.isEmpty(sortOrder)) {
+	            orderBy = NotificationColumns.DEFAULT_SORT_ORDER;
+	        } else {
+	            orderBy = sortOrder;
+	        }
+	        
+	        // Get the database and run the query
+	        db = mOpenHelper.getReadableDatabase();
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
+
+	        // Tell the cursor what uri to watch, so it knows when its source data changes
+	        c.setNotificationUri(getContext().getContentResolver(), uri);
+	        return c;
+	        
+		case URI_TYPE_DOSES:
+			
+			Log.d(LOG_TAG, "Query for all doses...");
+			qb.setTables(DOSES_TABLE_NAME);
+			
+	        if (TextUtils.isEmpty(sortOrder)) {
+	            orderBy = DoseColumns.DEFAULT_SORT_ORDER;
+	        } else {
+	            orderBy = sortOrder;
+	        }
+	        
+	        // Get the database and run the query
+	        db = mOpenHelper.getReadableDatabase();
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
+
+	        // Tell the cursor what uri to watch, so it knows when its source data changes
+	        c.setNotificationUri(getContext().getContentResolver(), uri);
+	        return c;
+	        
+		case URI_TYPE_DOSE_ID:
+			
+			Log.d(LOG_TAG, "Query for one dose...");
+			qb.setTables(DOSES_TABLE_NAME);
+			qb.appendWhere(DoseColumns._ID + "=" + uri.getPathSegments().get(1));
+			
+	        if (TextUtils.isEmpty(sortOrder)) {
+	            orderBy = DoseColumns.DEFAULT_SORT_ORDER;
+	        } else {
+	            orderBy = sortOrder;
+	        }
+	        
+	        // Get the database and run the query
+	        db = mOpenHelper.getReadableDatabase();
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
+
+	        // Tell the cursor what uri to watch, so it knows when its source data changes
+	        c.setNotificationUri(getContext().getContentResolver(), uri);
+	        return c;
+	        
+		case URI_TYPE_PRESCRIPTION_ADHERENCE:
+		case URI_TYPE_PATIENT_ADHERENCE:
+			
+			Log.d(LOG_TAG, "Query for the daily adherence rollups...");
+			qb.setTables(getTableName(sUriMatcher.match(uri)));
+			
+	        if (TextUtils.isEmpty(sortOrder)) {
+	            orderBy = AdherenceColumns.DEFAULT_SORT_ORDER;
+	        } else {
+	            orderBy = sortOrder;
+	        }
+	        
+	        // Get the database and run the query
+	        db = mOpenHelper.getReadableDatabase();
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
+
+	        // Tell the cursor what uri to watch, so it knows when its source data changes
+	        c.setNotificationUri(getContext().getContentResolver(), AdherenceColumns.CONTENT_URI);
+	        return c;
+	        
+		case URI_TYPE_EVENT_ARCHIVES:
+			
+			Log.d(LOG_TAG, "Query for all event archives...");
+			qb.setTables(EVENT_ARCHIVES_TABLE_NAME);
+			
+	        if (TextUtils.isEmpty(sortOrder)) {
+	            orderBy = EventArchiveColumns.DEFAULT_SORT_ORDER;
+	        } else {
+	            orderBy = sortOrder;
+	        }
+	        
+	        // Get the database and run the query
+	        db = mOpenHelper.getReadableDatabase();
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
+
+	        // Tell the cursor what uri to watch, so it knows when its source data changes
+	        c.setNotificationUri(getContext().getContentResolver(), uri);
+	        return c;
+	        
+		case URI_TYPE_EVENT_ARCHIVE_ID:
+			
+			Log.d(LOG_TAG, "Query for one event archive...");
+			qb.setTables(EVENT_ARCHIVES_TABLE_NAME);
+			qb.appendWhere(EventArchiveColumns._ID + "=" + uri.getPathSegments().get(1));
+			
+	        if (TextUtils.isEmpty(sortOrder)) {
+	            orderBy = EventArchiveColumns.DEFAULT_SORT_ORDER;
+	        } else {
+	            orderBy = sortOrder;
+	        }
+	        
+	        // Get the database and run the query
+	        db = mOpenHelper.getReadableDatabase();
+	        c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
+
+	        // Tell the cursor what uri to watch, so it knows when its source data changes
+	        c.setNotificationUri(getContext().getContentResolver(), uri);
+	        return c;
+	        
+		case URI_TYPE_PRESCRIPTION_ADHERENCE_ID:
+		case URI_TYPE_PATIENT_ADHERENCE_ID:
+			
+			Log.d(LOG_TAG, "Query for an adherence summary...");
+			int uriType = sUriMatcher.match(uri);
+			String keyColumn = (uriType == URI_TYPE_PRESCRIPTION_ADHERENCE_ID) ? AdherenceColumns.ADHERENCE_PRESCRIPTION : AdherenceColumns.ADHERENCE_PATIENT;
+			long key = Long.parseLong(uri.getPathSegments().get(2));
+			
+			// Without a range, summarize everything up to today. A non numeric parameter throws 
+			// a NumberFormatException back to the caller.
+			String fromParameter = uri.getQueryParameter(AdherenceColumns.RANGE_PARAMETER_FROM);
+			String toParameter = uri.getQueryParameter(AdherenceColumns.RANGE_PARAMETER_TO);
+			int fromDay = (fromParameter != null) ? Integer.parseInt(fromParameter) : 0;
+			int toDay = (toParameter != null) ? Integer.parseInt(toParameter) : AdherenceColumns.toDay(System.currentTimeMillis());
+			
+			db = mOpenHelper.getReadableDatabase();
+			c = AdherenceRollup.querySummary(db, getTableName(uriType), keyColumn, key, fromDay, toDay);
+			
+	        // Tell the cursor what uri to watch, so it knows when its source data changes
+	        c.setNotificationUri(getContext().getContentResolver(), AdherenceColumns.CONTENT_URI);
+	        return c;
 	        
 		default:
 			throw new IllegalArgumentException("Unknown URI " + uri); 
@@ -1103,12 +3060,12 @@ public class StorageProvider extends ContentProvider {
 		switch(sUriMatcher.match(uri)) {
 		case URI_TYPE_DRUGS:
 			Log.d(LOG_TAG, "Update called on drugs table...");
-			count = db.update(DRUGS_TABLE_NAME, values, where, whereArgs);
+			count = this.updateDrugs(db, values, where, whereArgs);
             break;
 		case URI_TYPE_DRUG_ID:
 			Log.d(LOG_TAG, "Update called for one drug...");
 			String drugId = uri.getPathSegments().get(1);
-            count = db.update(DRUGS_TABLE_NAME, values, DrugColumns._ID + "=" + drugId
+            count = this.updateDrugs(db, values, DrugColumns._ID + "=" + drugId
                     + (!TextUtils.isEmpty(where) ? " AND (" + where + ')' : ""), whereArgs);
             break;                  
 		case URI_TYPE_PATIENTS:
@@ -1123,12 +3080,12 @@ public class StorageProvider extends ContentProvider {
             break;
 		case URI_TYPE_PRESCRIPTIONS:
 			Log.d(LOG_TAG, "Updates called on prescriptions table...");
-			count = db.update(PRESCRIPTIONS_TABLE_NAME, values, where, whereArgs);
+			count = this.updatePrescriptions(db, values, where, whereArgs);
             break;
 		case URI_TYPE_PRESCRIPTION_ID:
 			Log.d(LOG_TAG, "Update called for one prescription...");
 			String prescriptionId = uri.getPathSegments().get(1);
-            count = db.update(PRESCRIPTIONS_TABLE_NAME, values, PrescriptionColumns._ID + "=" + prescriptionId
+            count = this.updatePrescriptions(db, values, PrescriptionColumns._ID + "=" + prescriptionId
                     + (!TextUtils.isEmpty(where) ? " AND (" + where + ')' : ""), whereArgs);
             break;
 		case URI_TYPE_SCHEDULES:
@@ -1171,11 +3128,157 @@ public class StorageProvider extends ContentProvider {
             count = db.update(SYNC_EVENTS_TABLE_NAME, values, ScheduleColumns._ID + "=" + syncEventId
                     + (!TextUtils.isEmpty(where) ? " AND (" + where + ')' : ""), whereArgs);
             break;  
+		case URI_TYPE_PRESCRIPTION_TIMES:
+		case URI_TYPE_PRESCRIPTION_TIMES_RANGE:
+			Log.d(LOG_TAG, "The prescription times are updated through the prescriptions table...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
+		case URI_TYPE_DRUG_INTERACTIONS:
+			Log.d(LOG_TAG, "The drug interactions are updated through the drugs table...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
+		case URI_TYPE_PRESCRIPTION_RUNOUTS:
+			Log.d(LOG_TAG, "Updates called on prescription runouts table...");
+			count = db.update(PRESCRIPTION_RUNOUTS_TABLE_NAME, values, where, whereArgs);
+			break;
+		case URI_TYPE_PRESCRIPTIONS_RUNOUT:
+			Log.d(LOG_TAG, "Update the run out dates through the prescription runouts URI...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
+		case URI_TYPE_NOTIFICATIONS:
+			Log.d(LOG_TAG, "Updates called on notifications table...");
+			count = db.update(NOTIFICATIONS_TABLE_NAME, values, where, whereArgs);
+			break;
+		case URI_TYPE_NOTIFICATION_ID:
+			Log.d(LOG_TAG, "Update called for one notification...");
+			String notificationId = uri.getPathSegments().get(1);
+            count = db.update(NOTIFICATIONS_TABLE_NAME, values, NotificationColumns._ID + "=" + notificationId
+                    + (!TextUtils.isEmpty(where) ? " AND (" + where + ')' : ""), whereArgs);
+            break;
+		case URI_TYPE_DOSES:
+			Log.d(LOG_TAG, "Updates called on doses table...");
+			count = db.update(DOSES_TABLE_NAME, values, where, whereArgs);
+			break;
+		case URI_TYPE_DOSE_ID:
+			Log.d(LOG_TAG, "Update called for one dose...");
+			String doseId = uri.getPathSegments().get(1);
+            count = db.update(DOSES_TABLE_NAME, values, DoseColumns._ID + "=" + doseId
+                    + (!TextUtils.isEmpty(where) ? " AND (" + where + ')' : ""), whereArgs);
+            break;
+		case URI_TYPE_DRUG_SEARCH:
+		case URI_TYPE_PATIENT_SEARCH:
+			Log.d(LOG_TAG, "The search indexes are updated through the drugs and patients tables...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
+		case URI_TYPE_PRESCRIPTION_ADHERENCE:
+		case URI_TYPE_PRESCRIPTION_ADHERENCE_ID:
+		case URI_TYPE_PATIENT_ADHERENCE:
+		case URI_TYPE_PATIENT_ADHERENCE_ID:
+			Log.d(LOG_TAG, "The adherence rollups are updated with the notification events...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
+		case URI_TYPE_EVENT_ARCHIVES:
+		case URI_TYPE_EVENT_ARCHIVE_ID:
+			Log.d(LOG_TAG, "The event archives can't be changed...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
+		case URI_TYPE_EVENT_RETENTION:
+			Log.d(LOG_TAG, "Running the event retention engine...");
+			Long horizon = values.getAsLong(EventArchiveColumns.RETENTION_HORIZON);
+			if (horizon == null || horizon.longValue() < 0) {
+				throw new IllegalArgumentException("A retention horizon is required: " + uri);
+			}
+			count = EventRetention.run(db, horizon.longValue());
+			if (count > 0) {
+				this.notifyChange(NotificationEventColumns.CONTENT_URI);
+				this.notifyChange(SystemEventColumns.CONTENT_URI);
+				this.notifyChange(SyncEventColumns.CONTENT_URI);
+				this.notifyChange(EventArchiveColumns.CONTENT_URI);
+			}
+			// The changes have already been sent.
+			return count;
+		case URI_TYPE_PRESCRIPTIONS_FULL:
+		case URI_TYPE_PRESCRIPTION_FULL_ID:
+			Log.d(LOG_TAG, "Update prescriptions through the prescriptions URI...");
+			throw new IllegalArgumentException("Invalid URI: " + uri);
             
 		default:
 			throw new IllegalArgumentException("Unknown URI " + uri); 
 		}
 		
+		if (count > 0) {
+			this.notifyChange(uri);
+		}
+		return count;
+	}
+	
+	/**
+	 * Updates the matching drugs and, if their interactions are being changed, their 
+	 * rows in the drug_interactions table, in one transaction.
+	 */
+	private int updateDrugs(SQLiteDatabase db, ContentValues values, String where, String[] whereArgs) {
+		if (!values.containsKey(DrugColumns.DRUG_INTERACTIONS)) {
+			return db.update(DRUGS_TABLE_NAME, values, where, whereArgs);
+		}
+		
+		int count;
+		
+		db.beginTransaction();
+		try {
+			// Find the drugs first, the update may change what the where clause matches.
+			Cursor c = db.query(DRUGS_TABLE_NAME, new String[] { DrugColumns._ID }, where, whereArgs, null, null, null);
+			long[] drugIds = new long[c.getCount()];
+			try {
+				for (int i = 0; c.moveToNext(); i++) {
+					drugIds[i] = c.getLong(0);
+				}
+			} finally {
+				c.close();
+			}
+			
+			count = db.update(DRUGS_TABLE_NAME, values, where, whereArgs);
+			
+			for (int i = 0; i < drugIds.length; i++) {
+				writeDrugInteractions(db, drugIds[i], values);
+			}
+			
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Updates the matching prescriptions and, if any day columns are being changed, 
+	 * their rows in the prescription_times table, in one transaction.
+	 */
+	private int updatePrescriptions(SQLiteDatabase db, ContentValues values, String where, String[] whereArgs) {
+		if (!hasDayColumns(values)) {
+			return db.update(PRESCRIPTIONS_TABLE_NAME, values, where, whereArgs);
+		}
+		
+		int count;
+		
+		db.beginTransaction();
+		try {
+			// Find the prescriptions first, the update may change what the where clause matches.
+			Cursor c = db.query(PRESCRIPTIONS_TABLE_NAME, new String[] { PrescriptionColumns._ID }, where, whereArgs, null, null, null);
+			long[] prescriptionIds = new long[c.getCount()];
+			try {
+				for (int i = 0; c.moveToNext(); i++) {
+					prescriptionIds[i] = c.getLong(0);
+				}
+			} finally {
+				c.close();
+			}
+			
+			count = db.update(PRESCRIPTIONS_TABLE_NAME, values, where, whereArgs);
+			
+			for (int i = 0; i < prescriptionIds.length; i++) {
+				writePrescriptionTimes(db, prescriptionIds[i], values);
+			}
+			
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		
 		return count;
 	}
 	
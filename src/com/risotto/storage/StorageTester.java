@@ -11,6 +11,7 @@ import com.risotto.model.Drug;
 import com.risotto.model.Patient;
 import com.risotto.model.Prescription;
 import com.risotto.model.event.Event;
+import com.risotto.model.event.EventSink;
 import com.risotto.model.event.NotificationEvent;
 import com.risotto.model.event.NotificationEvent.NotificationEventType;
 import com.risotto.model.event.SyncEvent;
@@ -124,6 +125,9 @@ public class StorageTester {
 		
 		syncEventsCursor.close();
 		
+		// The events are buffered, write them out before the query test reads them.
+		EventSink.getInstance(context).flush();
+		
 		log("Insert test complete.");
 	}
 	
@@ -150,7 +154,7 @@ public class StorageTester {
 		
 		drugCursor.close();
 		
-		Cursor prescriptionCursor = StorageProvider.prescriptionJoinQuery(null);		
+		Cursor prescriptionCursor = context.getContentResolver().query(StorageProvider.PrescriptionColumns.FULL_CONTENT_URI, null, null, null, null);
 		
 		if ( prescriptionCursor != null ) {
 		
@@ -0,0 +1,270 @@
+package com.risotto.view;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Hashtable;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.graphics.Typeface;
+import android.os.Debug;
+import android.util.Log;
+import android.view.View;
+import android.view.View.MeasureSpec;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.SimpleCursorAdapter;
+import android.widget.TextView;
+
+import com.risotto.R;
+import com.risotto.model.Drug;
+import com.risotto.model.Patient;
+import com.risotto.storage.StorageProvider;
+import com.risotto.view.drug.DrugViewCursorAdapter;
+import com.risotto.view.patient.PatientViewCursorAdapter;
+
+/**
+ * On-device benchmark for the drug and patient lists. Like StorageBenchmark, it is run
+ * by hand from MainActivity and reports through the log.
+ *
+ * Scrolling is simulated by binding every row of a ROW_COUNT row cursor into a small
+ * pool of recycled row views, ROWS_PER_FRAME rows per frame, and measuring each bound
+ * row. The old SimpleCursorAdapter pipeline, which builds a Drug or Patient for every
+ * bound column, is compared with the row adapters. The time per frame and the number
+ * of objects allocated on the benchmark thread are reported for both.
+ */
+public class ListBindingBenchmark {
+
+	private static final String LOG_TAG = "RISOTTO_LIST_BENCHMARK";
+
+	// The scratch database the benchmark fills.
+	private static final String BENCHMARK_DATABASE_NAME = "risotto_list_benchmark.db";
+
+	// The number of rows in each list.
+	private static final int ROW_COUNT = 10000;
+	// The number of row views the list keeps around, one more than fit on the screen.
+	private static final int RECYCLED_VIEWS = 11;
+	// The number of rows that scroll into view every frame during a fling.
+	private static final int ROWS_PER_FRAME = 2;
+	// The time a frame may take at 60 frames per second.
+	private static final long FRAME_BUDGET_NS = 16666667L;
+	// The width the rows are measured at.
+	private static final int ROW_WIDTH = 480;
+
+	public static void runBenchmark(Context context) {
+		log("Starting the list binding benchmark...");
+
+		context.deleteDatabase(BENCHMARK_DATABASE_NAME);
+		SQLiteOpenHelper helper = StorageProvider.openScratchDatabase(context, BENCHMARK_DATABASE_NAME);
+		SQLiteDatabase db = helper.getWritableDatabase();
+
+		try {
+			fillDatabase(db);
+
+			Cursor drugCursor = db.query(StorageProvider.DRUGS_TABLE_NAME, null, null, null, null, null, null);
+			try {
+				scroll(context, "drugs, SimpleCursorAdapter", oldDrugAdapter(context, drugCursor));
+				scroll(context, "drugs, DrugViewCursorAdapter", new DrugViewCursorAdapter(context, drugCursor));
+			} finally {
+				drugCursor.close();
+			}
+
+			Cursor patientCursor = db.query(StorageProvider.PATIENTS_TABLE_NAME, null, null, null, null, null, null);
+			try {
+				scroll(context, "patients, SimpleCursorAdapter", oldPatientAdapter(context, patientCursor));
+				scroll(context, "patients, PatientViewCursorAdapter", new PatientViewCursorAdapter(context, patientCursor));
+			} finally {
+				patientCursor.close();
+			}
+		} finally {
+			helper.close();
+			context.deleteDatabase(BENCHMARK_DATABASE_NAME);
+		}
+
+		log("List binding benchmark complete.");
+	}
+
+	/**
+	 * Binds every row of the adapter into the recycled views and reports the frame
+	 * times and allocations.
+	 */
+	private static void scroll(Context context, String name, BaseAdapter adapter) {
+		ListView parent = new ListView(context);
+		View[] views = new View[RECYCLED_VIEWS];
+		int widthSpec = MeasureSpec.makeMeasureSpec(ROW_WIDTH, MeasureSpec.EXACTLY);
+		int heightSpec = MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
+
+		// Fill the screen first, so only rebinding recycled views is counted.
+		for (int i = 0; i < RECYCLED_VIEWS; i++) {
+			views[i] = adapter.getView(i, null, parent);
+		}
+
+		int count = adapter.getCount();
+		int frames = 0;
+		int slowFrames = 0;
+		long totalTime = 0;
+		long worstFrame = 0;
+
+		Debug.startAllocCounting();
+		Debug.resetThreadAllocCount();
+		Debug.resetThreadAllocSize();
+
+		for (int position = RECYCLED_VIEWS; position < count; position += ROWS_PER_FRAME) {
+			long start = System.nanoTime();
+
+			for (int i = position; i < position + ROWS_PER_FRAME && i < count; i++) {
+				// The row scrolling out at the top is reused for the row scrolling in.
+				int slot = i % RECYCLED_VIEWS;
+				views[slot] = adapter.getView(i, views[slot], parent);
+				views[slot].measure(widthSpec, heightSpec);
+			}
+
+			long frameTime = System.nanoTime() - start;
+			totalTime += frameTime;
+			worstFrame = Math.max(worstFrame, frameTime);
+			if (frameTime > FRAME_BUDGET_NS) {
+				slowFrames++;
+			}
+			frames++;
+		}
+
+		int allocations = Debug.getThreadAllocCount();
+		int allocatedBytes = Debug.getThreadAllocSize();
+		Debug.stopAllocCounting();
+
+		log(name + ": " + frames + " frames, " + (totalTime / frames / 1000) + "us average, "
+				+ (worstFrame / 1000) + "us worst, " + slowFrames + " over budget");
+		log(name + ": " + allocations + " objects, " + allocatedBytes + " bytes allocated ("
+				+ (allocations / (count - RECYCLED_VIEWS)) + " objects per row)");
+	}
+
+	/**
+	 * The drug list as it was bound before DrugViewCursorAdapter, building a Drug for
+	 * every bound column.
+	 */
+	private static BaseAdapter oldDrugAdapter(Context context, Cursor cursor) {
+		SimpleCursorAdapter adapter = new SimpleCursorAdapter(context,
+				R.layout.drug_list_item,
+				cursor,
+				new String[] { StorageProvider.DrugColumns.DRUG_BRAND_NAME,
+						StorageProvider.DrugColumns.DRUG_STRENGTH },
+				new int[] { R.id.drug_list_view_name,
+						R.id.drug_list_view_strength });
+
+		adapter.setViewBinder(new SimpleCursorAdapter.ViewBinder() {
+			public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
+				Drug newDrug = Drug.fromCursor(cursor);
+
+				if (columnIndex == cursor.getColumnIndex(StorageProvider.DrugColumns.DRUG_BRAND_NAME)) {
+					((TextView)view).setText(newDrug.getBrandName());
+				} else if (columnIndex == cursor.getColumnIndex(StorageProvider.DrugColumns.DRUG_STRENGTH)) {
+					if (!newDrug.getPrintableStrength().equals("")) {
+						((TextView)view).setText(newDrug.getPrintableStrength());
+						((TextView)view).setTypeface(Typeface.create("null", Typeface.ITALIC));
+					}
+				} else {
+					return false;
+				}
+				return true;
+			}
+		});
+		return adapter;
+	}
+
+	/**
+	 * The patient list with the per column Patient binder, which deserializes the
+	 * relations of every row once per bound column.
+	 */
+	private static BaseAdapter oldPatientAdapter(Context context, Cursor cursor) {
+		SimpleCursorAdapter adapter = new SimpleCursorAdapter(context,
+				R.layout.patient_list_item,
+				cursor,
+				new String[] { StorageProvider.PatientColumns.PATIENT_FIRST_NAME,
+						StorageProvider.PatientColumns.PATIENT_LAST_NAME },
+				new int[] { R.id.patient_list_view_first_name,
+						R.id.patient_list_view_last_name });
+
+		adapter.setViewBinder(new SimpleCursorAdapter.ViewBinder() {
+			public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
+				Patient patient = Patient.fromCursor(cursor);
+
+				if (columnIndex == cursor.getColumnIndex(StorageProvider.PatientColumns.PATIENT_FIRST_NAME)) {
+					((TextView)view).setText(patient.getFirstName());
+				} else {
+					((TextView)view).setText(patient.getLastName());
+				}
+				return true;
+			}
+		});
+		return adapter;
+	}
+
+	/**
+	 * Fills the drug and patient tables with ROW_COUNT generated rows each. Every patient
+	 * has a few relations, so the old binder has something to deserialize.
+	 */
+	private static void fillDatabase(SQLiteDatabase db) {
+		long start = System.currentTimeMillis();
+
+		byte[] relations = serializeRelations();
+
+		db.beginTransaction();
+		try {
+			SQLiteStatement drugInsert = db.compileStatement("INSERT INTO " + StorageProvider.DRUGS_TABLE_NAME
+					+ " (" + StorageProvider.DrugColumns.DRUG_BRAND_NAME
+					+ "," + StorageProvider.DrugColumns.DRUG_STRENGTH
+					+ "," + StorageProvider.DrugColumns.DRUG_STRENGTH_LABEL + ") VALUES (?,?,?)");
+			for (int i = 1; i <= ROW_COUNT; i++) {
+				drugInsert.bindString(1, "Drug " + i);
+				drugInsert.bindLong(2, 5 * (1 + i % 100));
+				drugInsert.bindString(3, "mg");
+				drugInsert.executeInsert();
+			}
+			drugInsert.close();
+
+			SQLiteStatement patientInsert = db.compileStatement("INSERT INTO " + StorageProvider.PATIENTS_TABLE_NAME
+					+ " (" + StorageProvider.PatientColumns.PATIENT_FIRST_NAME
+					+ "," + StorageProvider.PatientColumns.PATIENT_LAST_NAME
+					+ "," + StorageProvider.PatientColumns.PATIENT_RELATIONS + ") VALUES (?,?,?)");
+			for (int i = 1; i <= ROW_COUNT; i++) {
+				patientInsert.bindString(1, "Patient");
+				patientInsert.bindString(2, "Number " + i);
+				patientInsert.bindBlob(3, relations);
+				patientInsert.executeInsert();
+			}
+			patientInsert.close();
+
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+
+		log("Filled the list benchmark database with " + ROW_COUNT + " rows per table in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	private static byte[] serializeRelations() {
+		Hashtable<Integer, String> relations = new Hashtable<Integer, String>();
+		relations.put(1, Patient.RELATION.MOTHER.toString());
+		relations.put(2, Patient.RELATION.FATHER.toString());
+		relations.put(3, Patient.RELATION.SON.toString());
+
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bos);
+			oos.writeObject(relations);
+			oos.close();
+			return bos.toByteArray();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void log(String message) {
+		Log.d(LOG_TAG, message);
+	}
+
+}
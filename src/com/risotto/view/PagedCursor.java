@@ -0,0 +1,141 @@
+package com.risotto.view;
+
+import java.util.ArrayList;
+
+import android.database.AbstractCursor;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+/**
+ * A read only cursor over the pages loaded by a PagedListLoader, in order. Pages are
+ * added to the end as the list scrolls, so the rows already loaded keep their positions
+ * and the adapter only has to be told the data set changed.
+ */
+class PagedCursor extends AbstractCursor {
+
+	private final ArrayList<Cursor> mPages = new ArrayList<Cursor>();
+	// The position of the first row of every page.
+	private final ArrayList<Integer> mPageStarts = new ArrayList<Integer>();
+	private int mCount = 0;
+
+	// The page the current row is in.
+	private Cursor mCurrentPage;
+
+	PagedCursor(Cursor firstPage) {
+		addPage(firstPage);
+	}
+
+	/**
+	 * Adds a page after the last one. The cursor owns the page from now on.
+	 */
+	void addPage(Cursor page) {
+		mPages.add(page);
+		mPageStarts.add(mCount);
+		mCount += page.getCount();
+	}
+
+	/**
+	 * Reads a column of the last row without moving this cursor.
+	 *
+	 * @param columnName the column to read
+	 * @return the value of the column in the last row
+	 */
+	String getLastRowString(String columnName) {
+		Cursor lastPage = mPages.get(mPages.size() - 1);
+		int position = lastPage.getPosition();
+
+		lastPage.moveToLast();
+		String value = lastPage.getString(lastPage.getColumnIndexOrThrow(columnName));
+		// The current row may be in this page.
+		lastPage.moveToPosition(position);
+
+		return value;
+	}
+
+	@Override
+	public boolean onMove(int oldPosition, int newPosition) {
+		// Find the last page starting at or before the new position.
+		int low = 0;
+		int high = mPages.size() - 1;
+		while (low < high) {
+			int middle = (low + high + 1) / 2;
+			if (mPageStarts.get(middle) <= newPosition) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		mCurrentPage = mPages.get(low);
+		return mCurrentPage.moveToPosition(newPosition - mPageStarts.get(low));
+	}
+
+	@Override
+	public int getCount() {
+		return mCount;
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return mPages.get(0).getColumnNames();
+	}
+
+	@Override
+	public String getString(int column) {
+		return mCurrentPage.getString(column);
+	}
+
+	@Override
+	public void copyStringToBuffer(int column, CharArrayBuffer buffer) {
+		mCurrentPage.copyStringToBuffer(column, buffer);
+	}
+
+	@Override
+	public short getShort(int column) {
+		return mCurrentPage.getShort(column);
+	}
+
+	@Override
+	public int getInt(int column) {
+		return mCurrentPage.getInt(column);
+	}
+
+	@Override
+	public long getLong(int column) {
+		return mCurrentPage.getLong(column);
+	}
+
+	@Override
+	public float getFloat(int column) {
+		return mCurrentPage.getFloat(column);
+	}
+
+	@Override
+	public double getDouble(int column) {
+		return mCurrentPage.getDouble(column);
+	}
+
+	@Override
+	public byte[] getBlob(int column) {
+		return mCurrentPage.getBlob(column);
+	}
+
+	@Override
+	public boolean isNull(int column) {
+		return mCurrentPage.isNull(column);
+	}
+
+	@Override
+	public boolean requery() {
+		// The loader reloads the pages in the background instead.
+		return false;
+	}
+
+	@Override
+	public void close() {
+		super.close();
+		for (int i = 0; i < mPages.size(); i++) {
+			mPages.get(i).close();
+		}
+	}
+}
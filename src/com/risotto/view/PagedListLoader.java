@@ -0,0 +1,243 @@
+package com.risotto.view;
+
+import android.content.AsyncQueryHandler;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.util.Log;
+import android.widget.AbsListView;
+import android.widget.CursorAdapter;
+import android.widget.ListView;
+
+import com.risotto.storage.StorageProvider;
+
+/**
+ * Loads a list from the provider in pages, on a background thread, so an activity never
+ * waits for a whole table before it draws. Only the first PAGE_SIZE rows are read before
+ * the list appears; the next page is read when the list scrolls near the end of the
+ * rows already loaded.
+ * <br><br>
+ * Pages are found with a keyset instead of an offset: every page asks for the rows that
+ * sort after the last row loaded, by the sort column and then the id. With an index on
+ * the sort column each page costs the same however far down the list it is.
+ * <br><br>
+ * When the provider reports a change the loaded rows are read again in the background and
+ * the adapter is given the new cursor once they are ready, instead of calling requery().
+ * Call close() when the activity is destroyed.
+ */
+public class PagedListLoader implements AbsListView.OnScrollListener {
+
+	private static final String LOG_TAG = "RISOTTO_PAGED_LIST_LOADER";
+
+	// The number of rows read per page.
+	public static final int PAGE_SIZE = 50;
+	// How close to the end of the loaded rows the list gets before the next page is read.
+	private static final int PREFETCH_ROWS = PAGE_SIZE / 2;
+
+	private static final int TOKEN_RELOAD = 1;
+	private static final int TOKEN_PAGE = 2;
+
+	private final Context mContext;
+	private final CursorAdapter mAdapter;
+	private final QueryHandler mQueryHandler;
+	private final ContentObserver mObserver;
+
+	private final Uri mUri;
+	private final String[] mProjection;
+	// The sort column, or null to sort by the id alone, and the id column, as used in SQL.
+	private final String mSortColumn;
+	private final String mIdColumn;
+	private final boolean mDescending;
+
+	private PagedCursor mCursor;
+	// Bumped on every reload, so pages of an older reload are thrown away.
+	private int mGeneration = 0;
+	private boolean mReloading = false;
+	// The number of rows the running reload asked for.
+	private int mReloadLimit = PAGE_SIZE;
+	private boolean mReloadPending = false;
+	private boolean mLoadingPage = false;
+	private boolean mExhausted = false;
+	private boolean mClosed = false;
+
+	/**
+	 * @param context the activity showing the list
+	 * @param adapter the adapter the loaded cursors are given to
+	 * @param uri a directory URI of StorageProvider that supports the limit query parameter
+	 * @param projection the columns to load, must include the sort and id columns
+	 * @param sortColumn the column the list is sorted by, or null to sort by the id alone
+	 * @param idColumn the unique id column, qualified with its table for joined URIs
+	 * @param descending whether the list is sorted in descending order
+	 */
+	public PagedListLoader(Context context, CursorAdapter adapter, Uri uri, String[] projection,
+			String sortColumn, String idColumn, boolean descending) {
+		mContext = context;
+		mAdapter = adapter;
+		mUri = uri;
+		mProjection = projection;
+		mSortColumn = sortColumn;
+		mIdColumn = idColumn;
+		mDescending = descending;
+
+		mQueryHandler = new QueryHandler(context);
+		mObserver = new ContentObserver(new Handler()) {
+			@Override
+			public void onChange(boolean selfChange) {
+				PagedListLoader.this.reload();
+			}
+		};
+	}
+
+	/**
+	 * Starts loading the first page and watching the URI for changes. The list must
+	 * already be showing the adapter.
+	 */
+	public void start(ListView listView) {
+		listView.setOnScrollListener(this);
+
+		mContext.getContentResolver().registerContentObserver(mUri, true, mObserver);
+		this.reload();
+	}
+
+	/**
+	 * Stops loading and closes the cursor.
+	 */
+	public void close() {
+		mClosed = true;
+		mContext.getContentResolver().unregisterContentObserver(mObserver);
+		mQueryHandler.cancelOperation(TOKEN_RELOAD);
+		mQueryHandler.cancelOperation(TOKEN_PAGE);
+		mAdapter.changeCursor(null);
+		mCursor = null;
+	}
+
+	/**
+	 * Reads the rows already loaded again, or the first page if nothing is loaded yet.
+	 */
+	public void reload() {
+		if (mReloading) {
+			// Read once more when the running reload is done.
+			mReloadPending = true;
+			return;
+		}
+
+		mGeneration++;
+		mReloading = true;
+		mReloadPending = false;
+
+		// A page of the old rows is no use any more.
+		mQueryHandler.cancelOperation(TOKEN_PAGE);
+		mLoadingPage = false;
+
+		mReloadLimit = PAGE_SIZE;
+		if (mCursor != null) {
+			mReloadLimit = Math.max(PAGE_SIZE, mCursor.getCount());
+		}
+
+		mQueryHandler.startQuery(TOKEN_RELOAD, Integer.valueOf(mGeneration),
+				StorageProvider.withLimit(mUri, mReloadLimit), mProjection, null, null, this.getOrderBy());
+	}
+
+	private void loadNextPage() {
+		if (mCursor.getCount() == 0) {
+			mExhausted = true;
+			return;
+		}
+
+		String selection;
+		String[] selectionArgs;
+		String id = mCursor.getLastRowString(columnName(mIdColumn));
+		String before = mDescending ? "<" : ">";
+
+		if (mSortColumn == null) {
+			selection = mIdColumn + before + "?";
+			selectionArgs = new String[] { id };
+		} else {
+			// The first term on its own lets the sort column's index find the page.
+			String sort = mCursor.getLastRowString(columnName(mSortColumn));
+			selection = mSortColumn + before + "=? AND (" + mSortColumn + before + "? OR " + mIdColumn + before + "?)";
+			selectionArgs = new String[] { sort, sort, id };
+		}
+
+		mLoadingPage = true;
+		mQueryHandler.startQuery(TOKEN_PAGE, Integer.valueOf(mGeneration),
+				StorageProvider.withLimit(mUri, PAGE_SIZE), mProjection, selection, selectionArgs, this.getOrderBy());
+	}
+
+	private String getOrderBy() {
+		String direction = mDescending ? " DESC" : " ASC";
+		if (mSortColumn == null) {
+			return mIdColumn + direction;
+		}
+		return mSortColumn + direction + "," + mIdColumn + direction;
+	}
+
+	// The name of a column in the cursor, without its table.
+	private static String columnName(String column) {
+		return column.substring(column.lastIndexOf('.') + 1);
+	}
+
+	public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+		if (mCursor == null || mReloading || mLoadingPage || mExhausted) {
+			return;
+		}
+
+		if (firstVisibleItem + visibleItemCount >= totalItemCount - PREFETCH_ROWS) {
+			this.loadNextPage();
+		}
+	}
+
+	public void onScrollStateChanged(AbsListView view, int scrollState) {
+	}
+
+	private class QueryHandler extends AsyncQueryHandler {
+
+		QueryHandler(Context context) {
+			super(context.getContentResolver());
+		}
+
+		@Override
+		protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+			if (mClosed || ((Integer) cookie).intValue() != mGeneration) {
+				if (cursor != null) {
+					cursor.close();
+				}
+				return;
+			}
+
+			if (cursor == null) {
+				Log.e(LOG_TAG, "Could not load " + mUri);
+				mReloading = false;
+				mLoadingPage = false;
+				return;
+			}
+
+			switch (token) {
+			case TOKEN_RELOAD:
+				// Fewer rows than were asked for means the end was reached.
+				mExhausted = cursor.getCount() < mReloadLimit;
+				mCursor = new PagedCursor(cursor);
+				mReloading = false;
+
+				// The adapter closes the old cursor.
+				mAdapter.changeCursor(mCursor);
+				Log.d(LOG_TAG, "Loaded " + mCursor.getCount() + " rows of " + mUri);
+
+				if (mReloadPending) {
+					PagedListLoader.this.reload();
+				}
+				break;
+			case TOKEN_PAGE:
+				mExhausted = cursor.getCount() < PAGE_SIZE;
+				mCursor.addPage(cursor);
+				mLoadingPage = false;
+
+				mAdapter.notifyDataSetChanged();
+				Log.d(LOG_TAG, "Loaded a page, " + mCursor.getCount() + " rows of " + mUri);
+				break;
+			}
+		}
+	}
+}
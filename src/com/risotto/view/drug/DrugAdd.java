@@ -1,6 +1,5 @@
 package com.risotto.view.drug;
 
-import java.util.HashMap;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -38,7 +37,7 @@ public class DrugAdd extends Activity implements View.OnClickListener, AdapterVi
 	public static final String EDIT_DRUG_ACTION="com.risotto.action.EDIT_DRUG";
 	
 	private static final String LOG_TAG = "DrugAdd";
-	private HashMap<String,Object> wizardData = new HashMap<String,Object>();
+	private WizardData wizardData = new WizardData();
 	
 	//Declare a PROJECTION - a 'filter' to the content provider to only
 	//return specific fields during a query
@@ -7,7 +7,6 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteConstraintException;
-import android.graphics.Typeface;
 import android.net.Uri;
 import android.os.Bundle;
 import android.util.Log;
@@ -19,14 +18,13 @@ import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView.AdapterContextMenuInfo;
 import android.widget.ListView;
-import android.widget.SimpleCursorAdapter;
-import android.widget.TextView;
 
 import com.risotto.R;
 import com.risotto.model.Drug;
 import com.risotto.model.Prescription;
 import com.risotto.service.MainService;
 import com.risotto.storage.StorageProvider;
+import com.risotto.view.PagedListLoader;
 
 /**
  * Displays the list of drugs that have been added to the application. Also
@@ -35,7 +33,7 @@ import com.risotto.storage.StorageProvider;
  * @author nick
  * 
  */
-public class DrugView extends ListActivity implements SimpleCursorAdapter.ViewBinder {
+public class DrugView extends ListActivity {
 
 	protected final static String LOG_TAG = "DrugView";
 
@@ -46,6 +44,7 @@ public class DrugView extends ListActivity implements SimpleCursorAdapter.ViewBi
 	public static final String DRUG_DETAILS_BRAND_NAME = "com.risotto.view.drug.DrugView.DrugDetails_NAME";
 	private ContentResolver contentResolver;
 	private Uri drugUri;
+	private PagedListLoader drugLoader;
 
 	// define location of buttons:
 	public static final int MENU_ITEM_ADD_POSITION = Menu.FIRST;
@@ -166,31 +165,24 @@ public class DrugView extends ListActivity implements SimpleCursorAdapter.ViewBi
 
 		getListView().setOnCreateContextMenuListener(this);
 
-		Cursor drugCursor = this.getContentResolver().query(
-				StorageProvider.DrugColumns.CONTENT_URI, DRUG_PROJECTION, null, null, null);
+		// Binds each row once, without building a Drug per column.
+		DrugViewCursorAdapter adapter = new DrugViewCursorAdapter(this, null);
+		setListAdapter(adapter);
 
-		if (null != drugCursor) {
-			startManagingCursor(drugCursor);
-
-			Log.d(LOG_TAG, "count: " + drugCursor.getCount());
-			Log.d(LOG_TAG, "cursor column count: " + drugCursor.getColumnCount());
-
-			SimpleCursorAdapter adapter = new SimpleCursorAdapter(this, // context
-					R.layout.drug_list_item, // layout
-					drugCursor, // cursor
-					new String[] { StorageProvider.DrugColumns.DRUG_BRAND_NAME,
-							StorageProvider.DrugColumns.DRUG_STRENGTH }, // column
-																			// name
-					new int[] { R.id.drug_list_view_name,
-							R.id.drug_list_view_strength }); // mapping
-
-			adapter.setViewBinder(this);
-			setListAdapter(adapter);
-		}
+		// Load the drugs by name, a page at a time, in the background.
+		drugLoader = new PagedListLoader(this, adapter, StorageProvider.DrugColumns.CONTENT_URI, DRUG_PROJECTION,
+				StorageProvider.DrugColumns.DRUG_BRAND_NAME, StorageProvider.DrugColumns._ID, false);
+		drugLoader.start(getListView());
 		
 		registerForContextMenu(getListView());
 	}
 
+	@Override
+	protected void onDestroy() {
+		drugLoader.close();
+		super.onDestroy();
+	}
+
 	@Override
 	protected void onListItemClick(ListView l, View v, int position, long id) {
 		Intent editIntent = new Intent();
@@ -218,23 +210,6 @@ public class DrugView extends ListActivity implements SimpleCursorAdapter.ViewBi
 		dCursor.close();
 	}
 
-	public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
-		Log.d(LOG_TAG, "cursor index: " + cursor.getPosition());
-		Drug newDrug = Drug.fromCursor(cursor);
-
-		if (columnIndex == cursor.getColumnIndex(StorageProvider.DrugColumns.DRUG_BRAND_NAME)) {
-			((TextView)view).setText(newDrug.getBrandName());
-		} else if (columnIndex == cursor.getColumnIndex(StorageProvider.DrugColumns.DRUG_STRENGTH)) {
-			if(!newDrug.getPrintableStrength().equals("")){
-				((TextView)view).setText(newDrug.getPrintableStrength());
-				((TextView)view).setTypeface(Typeface.create("null", Typeface.ITALIC));
-			}
-		} else {
-			return false;
-		}		
-		return true;
-	}
-	
 	/**
 	 * Method called when a user presses and holds on an item in the list - creates the menu.
 	 */
@@ -288,13 +263,13 @@ public class DrugView extends ListActivity implements SimpleCursorAdapter.ViewBi
 				} catch(SQLiteConstraintException foreignKey){
 					//if this exception was thrown, that means this drug is scheduled for a prescription, get that information
 					Log.d(LOG_TAG,"Attempting to delete patient who has assoicated prescription - caught exception.");
-					Cursor prepCursor = getContentResolver().query(StorageProvider.PrescriptionColumns.CONTENT_URI, 
-							Prescription.DEFAULT_PRESCRIPTION_PROJECTION, 
+					Cursor prepCursor = getContentResolver().query(StorageProvider.PrescriptionColumns.FULL_CONTENT_URI, 
+							null, 
 							"drug=?", 
 							new String[] {String.valueOf(_id)}, 
 							null);
 					if(prepCursor.moveToFirst()){
-						Prescription p = Prescription.fromCursor(prepCursor, getApplicationContext());
+						Prescription p = Prescription.fromJoinedCursor(prepCursor, getApplicationContext());
 						new AlertDialog.Builder(this)
 					    .setTitle("Scheduled prescription found for " + p.getDrug().getBrandName())
 					    .setMessage(p.getPatient().getFirstName() + " is scheduled to take " + p.getDrug().getBrandName() 
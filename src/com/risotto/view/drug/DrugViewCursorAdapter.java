@@ -0,0 +1,128 @@
+package com.risotto.view.drug;
+
+import android.content.Context;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.graphics.Typeface;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ResourceCursorAdapter;
+import android.widget.TextView;
+
+import com.risotto.R;
+import com.risotto.storage.StorageProvider;
+
+/**
+ * Binds the rows of the drug list. The column indexes are looked up once per cursor and
+ * every row is bound once, straight from the cursor into the views kept in its ViewHolder,
+ * without building a Drug. The text is copied into buffers owned by the row, so binding
+ * a recycled row doesn't allocate.
+ */
+public class DrugViewCursorAdapter extends ResourceCursorAdapter {
+
+	// Created once, instead of on every bind.
+	private static final Typeface STRENGTH_TYPEFACE = Typeface.create((String) null, Typeface.ITALIC);
+
+	private static final String NULL_LABEL = "null";
+
+	// The cursor the column indexes were looked up in.
+	private Cursor mIndexedCursor;
+	private int mBrandNameIndex;
+	private int mStrengthIndex;
+	private int mStrengthLabelIndex;
+
+	private static class ViewHolder {
+		TextView brandName;
+		TextView strength;
+
+		final CharArrayBuffer brandNameBuffer = new CharArrayBuffer(64);
+		final CharArrayBuffer strengthLabelBuffer = new CharArrayBuffer(16);
+		char[] strengthChars = new char[32];
+	}
+
+	public DrugViewCursorAdapter(Context context, Cursor c) {
+		super(context, R.layout.drug_list_item, c);
+	}
+
+	@Override
+	public View newView(Context context, Cursor cursor, ViewGroup parent) {
+		View view = super.newView(context, cursor, parent);
+
+		ViewHolder holder = new ViewHolder();
+		holder.brandName = (TextView) view.findViewById(R.id.drug_list_view_name);
+		holder.strength = (TextView) view.findViewById(R.id.drug_list_view_strength);
+		holder.strength.setTypeface(STRENGTH_TYPEFACE);
+		view.setTag(holder);
+
+		return view;
+	}
+
+	@Override
+	public void bindView(View view, Context context, Cursor cursor) {
+		if (cursor != mIndexedCursor) {
+			mBrandNameIndex = cursor.getColumnIndexOrThrow(StorageProvider.DrugColumns.DRUG_BRAND_NAME);
+			mStrengthIndex = cursor.getColumnIndexOrThrow(StorageProvider.DrugColumns.DRUG_STRENGTH);
+			mStrengthLabelIndex = cursor.getColumnIndexOrThrow(StorageProvider.DrugColumns.DRUG_STRENGTH_LABEL);
+			mIndexedCursor = cursor;
+		}
+
+		ViewHolder holder = (ViewHolder) view.getTag();
+
+		cursor.copyStringToBuffer(mBrandNameIndex, holder.brandNameBuffer);
+		holder.brandName.setText(holder.brandNameBuffer.data, 0, holder.brandNameBuffer.sizeCopied);
+
+		// The same text as Drug.getPrintableStrength(): the strength followed by its label.
+		int length = 0;
+		int strength = cursor.isNull(mStrengthIndex) ? -1 : cursor.getInt(mStrengthIndex);
+		if (strength >= 0) {
+			length = appendInt(holder, 0, strength);
+
+			cursor.copyStringToBuffer(mStrengthLabelIndex, holder.strengthLabelBuffer);
+			if (!isNullLabel(holder.strengthLabelBuffer)) {
+				length = append(holder, length, holder.strengthLabelBuffer.data, holder.strengthLabelBuffer.sizeCopied);
+			}
+		}
+		holder.strength.setText(holder.strengthChars, 0, length);
+	}
+
+	/**
+	 * Writes the decimal digits of a positive value at the given offset of the row's strength text.
+	 *
+	 * @return the new length of the text
+	 */
+	private static int appendInt(ViewHolder holder, int offset, int value) {
+		int digits = 1;
+		for (int rest = value / 10; rest > 0; rest /= 10) {
+			digits++;
+		}
+
+		for (int i = offset + digits - 1; i >= offset; i--) {
+			holder.strengthChars[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return offset + digits;
+	}
+
+	private static int append(ViewHolder holder, int offset, char[] chars, int count) {
+		if (offset + count > holder.strengthChars.length) {
+			char[] grown = new char[offset + count];
+			System.arraycopy(holder.strengthChars, 0, grown, 0, offset);
+			holder.strengthChars = grown;
+		}
+		System.arraycopy(chars, 0, holder.strengthChars, offset, count);
+		return offset + count;
+	}
+
+	// The label is stored as the string "NULL" when there isn't one.
+	private static boolean isNullLabel(CharArrayBuffer label) {
+		if (label.sizeCopied != NULL_LABEL.length()) {
+			return false;
+		}
+		for (int i = 0; i < label.sizeCopied; i++) {
+			if (Character.toLowerCase(label.data[i]) != NULL_LABEL.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -1,6 +1,5 @@
 package com.risotto.view.patient;
 
-import java.util.HashMap;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -31,7 +30,7 @@ public class PatientAdd extends Activity implements OnClickListener {
 	private boolean inWizard = false;
 	private boolean goToNewDrug = false;
 	
-	private HashMap<String,Object> wizardData = new HashMap<String,Object>();
+	private WizardData wizardData = new WizardData();
 	
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
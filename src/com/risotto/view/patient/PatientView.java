@@ -16,32 +16,25 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView.AdapterContextMenuInfo;
-import android.widget.SimpleCursorAdapter;
 
 import com.risotto.R;
-import com.risotto.model.Patient;
 import com.risotto.model.Prescription;
 import com.risotto.storage.StorageProvider;
+import com.risotto.view.PagedListLoader;
 
-public class PatientView extends ListActivity implements SimpleCursorAdapter.ViewBinder {
+public class PatientView extends ListActivity {
 
 	public static final String LOG_TAG = "com.risotto.view.drug.PatientView";
 	public static final int MENU_ITEM_ADD_POSITION = Menu.FIRST;
 	
+	private PagedListLoader patientLoader;
+	
 	private static String[] PATIENT_PROJECTION = {
 		StorageProvider.PatientColumns._ID,
 		StorageProvider.PatientColumns.PATIENT_FIRST_NAME,
 		StorageProvider.PatientColumns.PATIENT_LAST_NAME,
 	};
 		
-	private static String[] VIEW_DB_COLUMN_MAPPING = {
-		StorageProvider.PatientColumns.PATIENT_FIRST_NAME,
-		StorageProvider.PatientColumns.PATIENT_LAST_NAME
-	};
-	private static int[] VIEW_ID_MAPPING = {
-		R.id.patient_list_view_first_name,
-		R.id.patient_list_view_last_name
-	};
 	
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
@@ -62,35 +55,24 @@ public class PatientView extends ListActivity implements SimpleCursorAdapter.Vie
 		
 		  getListView().setOnCreateContextMenuListener(this);
 		  
-		  Cursor cursor = this.getContentResolver().query(getIntent().getData(), PATIENT_PROJECTION, null, null, null);
-		  
-		  if(null != cursor) {
-			  startManagingCursor(cursor);
-			  
-		  Log.d(LOG_TAG,"count: " + cursor.getCount());
-		  Log.d(LOG_TAG,"cursor column count: " + cursor.getColumnCount());
-		  
-		  //note: the cursor originally points to a null row, needs to move before trying to print data
-		  //cursor.moveToFirst();
-		  
-		  //Log.d(LOG_TAG,"cursor.toString(0)" + cursor.getString(1));
-		  
-		  //TextView drugListItem = (TextView)this.findViewById(R.layout.drug_list_item);
+		  // Binds each row once, without building a Patient.
+		  PatientViewCursorAdapter adapter = new PatientViewCursorAdapter(this, null);
+		  setListAdapter(adapter);
 		  
-		  SimpleCursorAdapter adapter = new SimpleCursorAdapter(
-				  this,						//context
-			  R.layout.patient_list_item,	//layout
-			  cursor,					//cursor
-			  VIEW_DB_COLUMN_MAPPING, 
-			  VIEW_ID_MAPPING); //mapping
-		  
-		  //adapter.setViewBinder(this);
-			  setListAdapter(adapter);
-		  }
+		  // Load the patients by first name, a page at a time, in the background.
+		  patientLoader = new PagedListLoader(this, adapter, getIntent().getData(), PATIENT_PROJECTION,
+				  StorageProvider.PatientColumns.PATIENT_FIRST_NAME, StorageProvider.PatientColumns._ID, false);
+		  patientLoader.start(getListView());
 		
 		  registerForContextMenu(getListView());
 	}
 	
+	@Override
+	protected void onDestroy() {
+		patientLoader.close();
+		super.onDestroy();
+	}
+	
 	/**
 	 * This method is only called once and that's the first time the options
 	 * menu is displayed.
@@ -131,11 +113,6 @@ public class PatientView extends ListActivity implements SimpleCursorAdapter.Vie
 		}
 	}
 	
-	public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
-		Patient patient = Patient.fromCursor(cursor);
-		return true;
-	}
-	
 	/**
 	 * Method called when a user presses and holds on an item in the list - creates the menu.
 	 */
@@ -184,13 +161,13 @@ public class PatientView extends ListActivity implements SimpleCursorAdapter.Vie
 				} catch(SQLiteConstraintException foreignKey){
 					//if this exception was thrown, that means this patient is scheduled for a prescription, get that information
 					Log.d(LOG_TAG,"Attempting to delete patient who has assoicated prescription - caught exception.");
-					Cursor prepCursor = getContentResolver().query(StorageProvider.PrescriptionColumns.CONTENT_URI, 
-							Prescription.DEFAULT_PRESCRIPTION_PROJECTION, 
+					Cursor prepCursor = getContentResolver().query(StorageProvider.PrescriptionColumns.FULL_CONTENT_URI, 
+							null, 
 							"patient=?", 
 							new String[] {String.valueOf(_id)}, 
 							null);
 					if(prepCursor.moveToFirst()){
-						Prescription p = Prescription.fromCursor(prepCursor, getApplicationContext());
+						Prescription p = Prescription.fromJoinedCursor(prepCursor, getApplicationContext());
 						new AlertDialog.Builder(this)
 					    .setTitle("Scheduled prescription found for " + fName)
 					    .setMessage(fName + " is scheduled to take " + p.getDrug().getBrandName() 
@@ -0,0 +1,67 @@
+package com.risotto.view.patient;
+
+import android.content.Context;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ResourceCursorAdapter;
+import android.widget.TextView;
+
+import com.risotto.R;
+import com.risotto.storage.StorageProvider;
+
+/**
+ * Binds the rows of the patient list. The column indexes are looked up once per cursor
+ * and every row is bound once, straight from the cursor into the views kept in its
+ * ViewHolder, without building a Patient or reading its relations. The names are copied
+ * into buffers owned by the row, so binding a recycled row doesn't allocate.
+ */
+public class PatientViewCursorAdapter extends ResourceCursorAdapter {
+
+	// The cursor the column indexes were looked up in.
+	private Cursor mIndexedCursor;
+	private int mFirstNameIndex;
+	private int mLastNameIndex;
+
+	private static class ViewHolder {
+		TextView firstName;
+		TextView lastName;
+
+		final CharArrayBuffer firstNameBuffer = new CharArrayBuffer(32);
+		final CharArrayBuffer lastNameBuffer = new CharArrayBuffer(32);
+	}
+
+	public PatientViewCursorAdapter(Context context, Cursor c) {
+		super(context, R.layout.patient_list_item, c);
+	}
+
+	@Override
+	public View newView(Context context, Cursor cursor, ViewGroup parent) {
+		View view = super.newView(context, cursor, parent);
+
+		ViewHolder holder = new ViewHolder();
+		holder.firstName = (TextView) view.findViewById(R.id.patient_list_view_first_name);
+		holder.lastName = (TextView) view.findViewById(R.id.patient_list_view_last_name);
+		view.setTag(holder);
+
+		return view;
+	}
+
+	@Override
+	public void bindView(View view, Context context, Cursor cursor) {
+		if (cursor != mIndexedCursor) {
+			mFirstNameIndex = cursor.getColumnIndexOrThrow(StorageProvider.PatientColumns.PATIENT_FIRST_NAME);
+			mLastNameIndex = cursor.getColumnIndexOrThrow(StorageProvider.PatientColumns.PATIENT_LAST_NAME);
+			mIndexedCursor = cursor;
+		}
+
+		ViewHolder holder = (ViewHolder) view.getTag();
+
+		cursor.copyStringToBuffer(mFirstNameIndex, holder.firstNameBuffer);
+		holder.firstName.setText(holder.firstNameBuffer.data, 0, holder.firstNameBuffer.sizeCopied);
+
+		cursor.copyStringToBuffer(mLastNameIndex, holder.lastNameBuffer);
+		holder.lastName.setText(holder.lastNameBuffer.data, 0, holder.lastNameBuffer.sizeCopied);
+	}
+}
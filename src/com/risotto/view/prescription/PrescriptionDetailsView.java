@@ -26,14 +26,14 @@ public class PrescriptionDetailsView extends Activity {
 		
 		int _id = Integer.parseInt(getIntent().getExtras().getString(PrescriptionView.PRESCRIPTION_DETAILS_DB_ID));
 
-		Uri pUri = StorageProvider.PrescriptionColumns.CONTENT_URI.buildUpon().appendPath(String.valueOf(_id)).build();
+		Uri pUri = StorageProvider.PrescriptionColumns.FULL_CONTENT_URI.buildUpon().appendPath(String.valueOf(_id)).build();
 		
-		Cursor pCursor = this.getContentResolver().query(pUri, Prescription.DEFAULT_PRESCRIPTION_PROJECTION, null, null, null);
+		Cursor pCursor = this.getContentResolver().query(pUri, null, null, null, null);
 		
 		//TODO: what do we do if the prescription can't be found in the DB?  Something has gone very wrong if so b/c it was displayed
 		//in the list of all prescriptions
 		if(pCursor.moveToFirst())
-			prep = Prescription.fromCursor(pCursor, getApplicationContext());
+			prep = Prescription.fromJoinedCursor(pCursor, getApplicationContext());
 		else
 			throw new IllegalArgumentException("Could not find prescription in db with id: " + _id);
 		
@@ -19,6 +19,7 @@ import android.widget.TextView;
 
 import com.risotto.R;
 import com.risotto.storage.StorageProvider;
+import com.risotto.view.PagedListLoader;
 import com.risotto.view.wizard.WhoWillBeTaking;
 
 public class PrescriptionView extends ListActivity implements SimpleCursorAdapter.ViewBinder {
@@ -29,14 +30,13 @@ public class PrescriptionView extends ListActivity implements SimpleCursorAdapte
 	
 	public static final String PRESCRIPTION_DETAILS_DB_ID = "com.risotto.view.prescription.Prescription_DB_ID";
 	
-	private Cursor prepCursor;
 	private SimpleCursorAdapter prepAdapter;
+	private PagedListLoader prepLoader;
 	
 	private static final String[] PRESCRIPTION_PROJECTION = {
 		//Prescription columns
-		//has a dot b/c it's used in prescriptionJoinQuery, which will put these fields directly into
-		//the SQL query
-		StorageProvider.PRESCRIPTIONS_TABLE_NAME + "." + StorageProvider.PrescriptionColumns._ID,
+		//the prescriptions/full URI maps these names to the joined tables
+		StorageProvider.PrescriptionColumns._ID,
 		StorageProvider.PrescriptionColumns.PRESCRIPTION_PATIENT,
 		StorageProvider.PrescriptionColumns.PRESCRIPTION_DATE_EXPIRATION,
 		StorageProvider.PrescriptionColumns.PRESCRIPTION_SCHEDULED,
@@ -124,7 +124,7 @@ public class PrescriptionView extends ListActivity implements SimpleCursorAdapte
 				
 				Uri prepUri = StorageProvider.PrescriptionColumns.CONTENT_URI.buildUpon().appendPath(String.valueOf(_id)).build();
 				if(getContentResolver().delete(prepUri,null,null) > 0) {
-					prepCursor.requery();
+					// The loader sees the change and reloads the list.
 					return true;
 				} else {
 					return false;
@@ -138,18 +138,10 @@ public class PrescriptionView extends ListActivity implements SimpleCursorAdapte
 	public void onCreate(Bundle savedInstanceState) {
 	  super.onCreate(savedInstanceState);
 	  
-	  prepCursor = StorageProvider.prescriptionJoinQuery(PRESCRIPTION_PROJECTION);
-
-	  if (null != prepCursor) {
-			startManagingCursor(prepCursor);
-
-			Log.d(LOG_TAG, "count: " + prepCursor.getCount());
-			Log.d(LOG_TAG, "cursor column count: " + prepCursor.getColumnCount());
-			
 			prepAdapter = new SimpleCursorAdapter(
 					this, // context
 					R.layout.prescription_list_view, // layout
-					prepCursor, // cursor
+					null, // cursor, set by the loader
 					new String[] { 
 						StorageProvider.PatientColumns.PATIENT_FIRST_NAME,
 						StorageProvider.PatientColumns.PATIENT_LAST_NAME,
@@ -160,15 +152,21 @@ public class PrescriptionView extends ListActivity implements SimpleCursorAdapte
 			
 			prepAdapter.setViewBinder(this);
 			setListAdapter(prepAdapter);
-	  }
-	  else {
-		  Log.d(LOG_TAG,"prepCursor was null");
-		  finish();
-	  }
+			
+			// Load the newest prescriptions first, a page at a time, in the background.
+			prepLoader = new PagedListLoader(this, prepAdapter, StorageProvider.PrescriptionColumns.FULL_CONTENT_URI, PRESCRIPTION_PROJECTION,
+					null, StorageProvider.PRESCRIPTIONS_TABLE_NAME + "." + StorageProvider.PrescriptionColumns._ID, true);
+			prepLoader.start(getListView());
 		
 	  registerForContextMenu(getListView());
 	}
 	
+	@Override
+	protected void onDestroy() {
+		prepLoader.close();
+		super.onDestroy();
+	}
+	
 	@Override
     protected void onListItemClick(ListView l, View v, int position, long id) {
 		Intent editIntent = new Intent();
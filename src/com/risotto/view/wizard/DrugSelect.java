@@ -1,15 +1,16 @@
 package com.risotto.view.wizard;
 
-import java.util.HashMap;
 
 import android.app.ListActivity;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
+import android.widget.FilterQueryProvider;
 import android.widget.ListView;
 import android.widget.SimpleCursorAdapter;
 
@@ -20,7 +21,7 @@ import com.risotto.view.drug.DrugAdd;
 
 public class DrugSelect extends ListActivity implements View.OnClickListener {
 	public static final String LOG_TAG = "com.risotto.view.wizard.DrugSelect";
-	private HashMap<String,Object> wizardData = new HashMap<String,Object>();
+	private WizardData wizardData = new WizardData();
 	
 	private static String[] DRUG_PROJECTION = {
 		StorageProvider.DrugColumns._ID,
@@ -68,6 +69,16 @@ public class DrugSelect extends ListActivity implements View.OnClickListener {
 				  VIEW_ID_MAPPING);
 		  
 		 setListAdapter(adapter);
+		 
+		 // Typing filters the list through the search index, off the main thread.
+		 adapter.setFilterQueryProvider(new FilterQueryProvider() {
+			 public Cursor runQuery(CharSequence constraint) {
+				 Uri uri = TextUtils.isEmpty(constraint) ? StorageProvider.DrugColumns.CONTENT_URI
+						 : StorageProvider.DrugColumns.buildSearchUri(constraint.toString());
+				 return getContentResolver().query(uri, DRUG_PROJECTION, null, null, null);
+			 }
+		 });
+		 getListView().setTextFilterEnabled(true);
 		  
 	}
 	
@@ -1,6 +1,5 @@
 package com.risotto.view.wizard;
 
-import java.util.HashMap;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -27,7 +26,7 @@ public class EnterDrugDetails extends Activity implements OnClickListener,OnItem
 	public static final String LOG_TAG = "com.risotto.view.wizard.EnterDrugDetails";
 	
 	private static final String[] DRUG_LABEL_POSITIONS = { "Pills","mL","mg","oz","Tablespoons" };
-	private HashMap<String,Object> wizardData = new HashMap<String,Object>();
+	private WizardData wizardData = new WizardData();
 	
 	private Drug drug;
 	private Patient patient;
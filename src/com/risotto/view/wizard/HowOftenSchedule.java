@@ -1,7 +1,6 @@
  package com.risotto.view.wizard;
 
 import java.util.Calendar;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Vector;
 
@@ -46,7 +45,7 @@ public class HowOftenSchedule extends ListActivity implements OnClickListener,Ti
 	private int setMinute;
 	
 	private LinearLayout container;
-	private HashMap<String,Object> wizardData = new HashMap<String,Object>();
+	private WizardData wizardData = new WizardData();
 	private RadioButton am,pm;
 	
 	
@@ -1,6 +1,5 @@
 package com.risotto.view.wizard;
 
-import java.util.HashMap;
 
 import android.app.Activity;
 import android.content.Intent;
@@ -19,7 +18,7 @@ public class OverCounterOrPrescription extends Activity implements OnClickListen
 
 	public static final String LOG_TAG = "com.risotto.view.wizard.OverCounterOrPrescriptiong";
 	
-	private HashMap<String,Object> wizardData = new HashMap<String,Object>();
+	private WizardData wizardData = new WizardData();
 	
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
@@ -2,16 +2,19 @@ package com.risotto.view.wizard;
 
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.HashMap;
 import java.util.Iterator;
 
 import android.app.Activity;
 import android.app.AlertDialog;
-import android.content.ContentValues;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.util.Log;
 import android.view.View;
 import android.view.View.OnClickListener;
@@ -21,6 +24,8 @@ import android.widget.TextView;
 import com.risotto.MainActivity;
 import com.risotto.R;
 import com.risotto.model.Drug;
+import com.risotto.model.DrugInteractions;
+import com.risotto.model.ModelCache;
 import com.risotto.model.Patient;
 import com.risotto.model.Prescription;
 import com.risotto.storage.StorageProvider;
@@ -29,7 +34,7 @@ public class ScheduleReview extends Activity implements OnClickListener {
 	
 	public static final String LOG_TAG = "com.risotto.view.wizard.ScheduleReview";
 	
-	private HashMap<String,Object> wizardData = new HashMap<String,Object>();
+	private WizardData wizardData = new WizardData();
 	private Drug drug;
 	private Patient patient;
 	private Prescription prep;
@@ -47,8 +52,7 @@ public class ScheduleReview extends Activity implements OnClickListener {
 			  Log.d(LOG_TAG,"No data found in intent.");
 		}
 		
-		//TIMES COMES OUT AS AN ARRAYLIST
-		//WHAT THE FUCK IS GOING ON?
+		//times always come out as an ArrayList, see WizardData.put()
 		
 		try {
 			drug = (Drug) wizardData.get(WizardData.DRUG);
@@ -114,6 +118,64 @@ public class ScheduleReview extends Activity implements OnClickListener {
     }
 
 	public void onClick(View v) {
+		//check the new drug against the drugs the patient already takes before storing anything,
+		//the check may have to load the interactions so it runs off the UI thread
+		v.setEnabled(false);
+		new InteractionCheck(v).execute();
+	}
+	
+	/**
+	 * Finds the drugs the patient already takes that interact with the new drug, in the 
+	 * background, then schedules the prescription or asks the user first.
+	 */
+	private class InteractionCheck extends AsyncTask<Void, Void, String> {
+		private final View button;
+		
+		InteractionCheck(View button) {
+			this.button = button;
+		}
+		
+		protected String doInBackground(Void... params) {
+			int[] interactions = DrugInteractions.get(ScheduleReview.this).findInteractions(patient.get_id(), drug);
+			
+			String names = "";
+			for(int i = 0; i < interactions.length; i++) {
+				Drug other = ModelCache.getDrug(ScheduleReview.this, interactions[i]);
+				if(other != null) {
+					names += "\n" + other.getBrandName();
+				}
+			}
+			return names;
+		}
+		
+		protected void onPostExecute(String names) {
+			button.setEnabled(true);
+			
+			if(isFinishing()) {
+				return;
+			}
+			if(names.length() == 0) {
+				schedule();
+				return;
+			}
+			warn(names);
+		}
+	}
+	
+	private void warn(String names) {
+		new AlertDialog.Builder(this)
+	    .setTitle("Drug interaction")
+	    .setMessage(drug.getBrandName() + " interacts with drugs " + patient.getFirstName() + " already takes:" + names)
+	    .setPositiveButton("Schedule anyway", new DialogInterface.OnClickListener() { 
+	    	public void onClick(DialogInterface dialog, int which) {
+	    		schedule();
+	    	}
+	    })
+	    .setNegativeButton("Cancel", null)
+	    .show();
+	}
+	
+	private void schedule() {
 		//don't need these since they get added when we make the prep object a content value
 /*		ContentValues drugCV = drug.toContentValues();
 		Uri newDrugUri = this.getContentResolver().insert(StorageProvider.DrugColumns.CONTENT_URI, drugCV);
@@ -137,9 +199,21 @@ public class ScheduleReview extends Activity implements OnClickListener {
 		prep.setPatient(patient);
 		prep.setDrug(drug);
 		
-		ContentValues prescriptionCV = prep.toContentValues(getApplicationContext());
-		Uri newPrepUri = this.getContentResolver().insert(StorageProvider.PrescriptionColumns.CONTENT_URI, prescriptionCV);
-		Log.d(LOG_TAG,"finished adding prescription; uri = " + newPrepUri);
+		// Store the drug, patient and prescription in one transaction.
+		ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		prep.addInsertOperations(operations);
+		
+		try {
+			ContentProviderResult[] results = this.getContentResolver().applyBatch(StorageProvider.AUTHORITY, operations);
+			Uri newPrepUri = results[results.length - 1].uri;
+			Log.d(LOG_TAG,"finished adding prescription; uri = " + newPrepUri);
+		} catch (RemoteException e) {
+			Log.e(LOG_TAG,"Unable to store the prescription.", e);
+			return;
+		} catch (OperationApplicationException e) {
+			Log.e(LOG_TAG,"Unable to store the prescription.", e);
+			return;
+		}
 		
 		
 		
@@ -1,6 +1,5 @@
 package com.risotto.view.wizard;
 
-import java.util.HashMap;
 
 import android.app.Activity;
 import android.content.Intent;
@@ -17,7 +16,7 @@ import com.risotto.model.Prescription;
 public class TakeItEveryDay extends Activity implements OnClickListener {
 	
 	public static final String LOG_TAG = "com.risotto.view.wizard.TakeItEveryDay";
-	private HashMap<String,Object> wizardData = new HashMap<String,Object>();
+	private WizardData wizardData = new WizardData();
 	
 	Prescription prep;
 	
@@ -1,6 +1,5 @@
 package com.risotto.view.wizard;
 
-import java.util.HashMap;
 
 import android.app.Activity;
 import android.content.Intent;
@@ -29,7 +28,7 @@ public class WhenTakeIt extends Activity implements OnClickListener {
 	private Patient patient;
 	private Drug drug;
 	
-	private HashMap<String,Object> wizardData = new HashMap<String,Object>();
+	private WizardData wizardData = new WizardData();
 	
 	/* (non-Javadoc)
 	 * @see android.app.Activity#onCreate(android.os.Bundle)
@@ -1,6 +1,5 @@
 package com.risotto.view.wizard;
 
-import java.util.Hashtable;
 
 import org.xmlpull.v1.XmlPullParser;
 
@@ -19,6 +18,7 @@ import android.widget.RelativeLayout.LayoutParams;
 import android.widget.TextView;
 
 import com.risotto.R;
+import com.risotto.model.ModelCache;
 import com.risotto.model.Patient;
 import com.risotto.storage.StorageProvider;
 import com.risotto.view.patient.PatientAdd;
@@ -44,7 +44,7 @@ public class WhoWillBeTaking extends Activity implements OnClickListener {
 	public static final String LOG_TAG = "com.risotto.view.wizard.WhoWillBeTaking";
 	
 	//create the hashtable that is passed along in the wizard
-	private Hashtable<String,Object> wizardData = new Hashtable<String,Object>();
+	private WizardData wizardData = new WizardData();
 	private Patient patient;
 	
 	private static String[] DRUG_PROJECTION = {
@@ -138,7 +138,8 @@ public class WhoWillBeTaking extends Activity implements OnClickListener {
 				
 				if(pCursor.moveToFirst()) {
 					Log.d(LOG_TAG,"found record for user 'Me', resuing.");
-					patient = Patient.fromCursor(pCursor);
+					// The projection only has the names, load the whole patient through the cache.
+					patient = ModelCache.getPatient(this, pCursor.getInt(pCursor.getColumnIndex(StorageProvider.PatientColumns._ID)));
 				}
 				else {
 					Log.d(LOG_TAG,"creating new patient object for user - 'Me'.");
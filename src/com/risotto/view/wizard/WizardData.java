@@ -1,11 +1,21 @@
 package com.risotto.view.wizard;
 
+import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.HashMap;
+import java.util.List;
+import java.util.TimeZone;
 
 import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.util.Log;
 
-public class WizardData {
+import com.risotto.model.Drug;
+import com.risotto.model.Patient;
+import com.risotto.model.Prescription;
+
+public class WizardData implements Parcelable {
 
 	
 	public static final String LOG_TAG = "com.risotto.view.wizard.WizardData";
@@ -18,8 +28,12 @@ public class WizardData {
 	 * Design outline:
 	 * 	- classes in the wizard will need to pass along drug, patient, & prescription objects
 	 * as the user moves through the wizard; to facilitate this, classes will put them into a 
-	 * hashtable and add the hashtable to the intent; this will make it easier for packing & unpacking intents
+	 * WizardData and add it to the intent; this will make it easier for packing & unpacking intents
 	 * and for checking if a certain piece of data exists
+	 *
+	 * 	- the WizardData is written to the intent as a Parcelable, and the drug, patient and
+	 * prescription are written with their own writeToParcel(), so moving from one screen to
+	 * the next never goes through Java serialization
 	 * 
 	 */
 	//Code for copying
@@ -38,21 +52,149 @@ public class WizardData {
 	public static final String CONTENTS = "com.risotto.view.wizard.hashtable";
 	public static final String TIMES = "com.risotto.view.wizard.times";
 	
+	// The keys in the order they are written to a parcel, one bit each in the header.
+	private static final String[] KEYS = { PATIENT, DRUG, PRESCRIPTION, CREATE_NEW_DRUG, TIMES };
+
+	public static final Parcelable.Creator<WizardData> CREATOR = new Parcelable.Creator<WizardData>() {
+		public WizardData createFromParcel(Parcel in) {
+			return new WizardData(in);
+		}
+
+		public WizardData[] newArray(int size) {
+			return new WizardData[size];
+		}
+	};
+
+	private final HashMap<String,Object> contents = new HashMap<String,Object>();
+
+	public WizardData() {
+	}
+
+	/**
+	 * Reads the data written by writeToParcel().
+	 */
+	private WizardData(Parcel in) {
+		int present = in.readInt();
+
+		if ((present & (1 << 0)) != 0) {
+			contents.put(PATIENT, Patient.CREATOR.createFromParcel(in));
+		}
+		if ((present & (1 << 1)) != 0) {
+			contents.put(DRUG, Drug.CREATOR.createFromParcel(in));
+		}
+		if ((present & (1 << 2)) != 0) {
+			contents.put(PRESCRIPTION, Prescription.CREATOR.createFromParcel(in));
+		}
+		if ((present & (1 << 3)) != 0) {
+			contents.put(CREATE_NEW_DRUG, Boolean.valueOf(in.readInt() != 0));
+		}
+		if ((present & (1 << 4)) != 0) {
+			int count = in.readInt();
+			ArrayList<Calendar> times = new ArrayList<Calendar>(count);
+			for (int i = 0; i < count; i++) {
+				Calendar time = Calendar.getInstance(TimeZone.getTimeZone(in.readString()));
+				time.setTimeInMillis(in.readLong());
+				times.add(time);
+			}
+			contents.put(TIMES, times);
+		}
+	}
+
+	/**
+	 * Stores a piece of wizard data under one of the keys above.
+	 *
+	 * @param key PATIENT, DRUG, PRESCRIPTION, CREATE_NEW_DRUG or TIMES
+	 * @param value a Patient, Drug, Prescription, Boolean or List of Calendar, to match the key
+	 * @throws IllegalArgumentException if the key is unknown or the value doesn't match it
+	 */
+	@SuppressWarnings("unchecked")
+	public void put(String key, Object value) throws IllegalArgumentException {
+		if(value == null) {
+			contents.remove(key);
+			return;
+		}
+
+		if((PATIENT.equals(key) && value instanceof Patient)
+				|| (DRUG.equals(key) && value instanceof Drug)
+				|| (PRESCRIPTION.equals(key) && value instanceof Prescription)
+				|| (CREATE_NEW_DRUG.equals(key) && value instanceof Boolean)) {
+			contents.put(key, value);
+		} else if(TIMES.equals(key) && value instanceof List) {
+			//always hand the times back as an ArrayList, whatever list they were put in as
+			contents.put(key, new ArrayList<Calendar>((List<Calendar>)value));
+		} else {
+			throw new IllegalArgumentException("Can't store " + value.getClass() + " as " + key);
+		}
+	}
+
+	public Object get(String key) {
+		return contents.get(key);
+	}
+
+	public boolean containsKey(String key) {
+		return contents.containsKey(key);
+	}
+
+	public int describeContents() {
+		return 0;
+	}
+
+	/**
+	 * Writes a header with one bit per key that is present, then the value of each
+	 * present key in the order of KEYS. The times are written as their time zone and
+	 * time in ms.
+	 */
+	@SuppressWarnings("unchecked")
+	public void writeToParcel(Parcel out, int flags) {
+		int present = 0;
+		for(int i = 0; i < KEYS.length; i++) {
+			if(contents.containsKey(KEYS[i])) {
+				present |= 1 << i;
+			}
+		}
+		out.writeInt(present);
+
+		if(contents.containsKey(PATIENT)) {
+			((Patient)contents.get(PATIENT)).writeToParcel(out, flags);
+		}
+		if(contents.containsKey(DRUG)) {
+			((Drug)contents.get(DRUG)).writeToParcel(out, flags);
+		}
+		if(contents.containsKey(PRESCRIPTION)) {
+			((Prescription)contents.get(PRESCRIPTION)).writeToParcel(out, flags);
+		}
+		if(contents.containsKey(CREATE_NEW_DRUG)) {
+			out.writeInt(((Boolean)contents.get(CREATE_NEW_DRUG)).booleanValue() ? 1 : 0);
+		}
+		if(contents.containsKey(TIMES)) {
+			ArrayList<Calendar> times = (ArrayList<Calendar>)contents.get(TIMES);
+			out.writeInt(times.size());
+			for(int i = 0; i < times.size(); i++) {
+				out.writeString(times.get(i).getTimeZone().getID());
+				out.writeLong(times.get(i).getTimeInMillis());
+			}
+		}
+	}
+
 	/**
 	 * Helper method for pulling wizard data out of bundle.
 	 * 
 	 * @param extras Bundle object from intent 
-	 * @return the hashtable from the intent
+	 * @return the wizard data from the intent
 	 * @throws IllegalArgumentException if the intent doesn't have the data
 	 */
-	public static HashMap<String,Object> getData(Bundle extras) throws IllegalArgumentException {
+	public static WizardData getData(Bundle extras) throws IllegalArgumentException {
 		if(extras != null && extras.containsKey(WizardData.CONTENTS)) {
-			 return (HashMap<String,Object>)extras.getSerializable((WizardData.CONTENTS));
+			extras.setClassLoader(WizardData.class.getClassLoader());
+			WizardData data = extras.getParcelable(WizardData.CONTENTS);
+			return data;
 		}
 		else {
 			Log.d(LOG_TAG,"containsKey returned false");
-			Log.d(LOG_TAG,"extra empty?: " + extras.isEmpty());
-			Log.d(LOG_TAG,"extra size: " + extras.size());
+			if(extras != null) {
+				Log.d(LOG_TAG,"extra empty?: " + extras.isEmpty());
+				Log.d(LOG_TAG,"extra size: " + extras.size());
+			}
 			throw new IllegalArgumentException("No data found.");
 		}
 	}
@@ -0,0 +1,147 @@
+package com.risotto.view.wizard;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Vector;
+
+import android.content.Context;
+import android.os.Debug;
+import android.os.Parcel;
+import android.util.Log;
+
+import com.risotto.model.Drug;
+import com.risotto.model.Patient;
+import com.risotto.model.Prescription;
+
+/**
+ * On-device benchmark for the data passed between the wizard screens. Like StorageBenchmark,
+ * it is run by hand from MainActivity and reports through the log.
+ *
+ * The wizard data at the review screen, a patient, a drug, a prescription with its times and
+ * the list of times, is marshalled into bytes and read back ITERATIONS times, the way an
+ * intent extra crosses to the next activity. The HashMap of Serializable objects the wizard
+ * used to pass is compared with WizardData and the hand written Parcelables. The time per
+ * round trip, the size of the marshalled data and the objects allocated on the benchmark
+ * thread are reported for both.
+ */
+public class WizardDataBenchmark {
+
+	private static final String LOG_TAG = "RISOTTO_WIZARD_BENCHMARK";
+
+	// The number of round trips timed for each path.
+	private static final int ITERATIONS = 1000;
+	// The round trips run first, so the classes are loaded before anything is counted.
+	private static final int WARM_UP_ITERATIONS = 50;
+
+	public static void runBenchmark(Context context) {
+		log("Starting the wizard data benchmark...");
+
+		Patient patient = new Patient("Pat", "Example", Patient.GENDER.FEMALE);
+		patient.setAge(42);
+
+		Drug drug = new Drug("Amoxil", Drug.TYPE.PRESCRIPTION, 500, "mg");
+		drug.setCompoundName("Amoxicillin");
+		drug.setManufacturer("Example Labs");
+		drug.setForm(Drug.FORM.CAPSULES);
+
+		Prescription prep = new Prescription(patient, drug, Prescription.DOSE_TYPE_EVERY_DAY, 1, 30);
+		prep.addTimeEveryDay("8:00");
+		prep.addTimeEveryDay("20:00");
+
+		Vector<Calendar> times = new Vector<Calendar>();
+		Calendar morning = Calendar.getInstance();
+		morning.set(Calendar.HOUR_OF_DAY, 8);
+		morning.set(Calendar.MINUTE, 0);
+		times.add(morning);
+		Calendar evening = Calendar.getInstance();
+		evening.set(Calendar.HOUR_OF_DAY, 20);
+		evening.set(Calendar.MINUTE, 0);
+		times.add(evening);
+
+		// The extras as the wizard used to pass them.
+		HashMap<String,Object> serializableData = new HashMap<String,Object>();
+		serializableData.put(WizardData.PATIENT, patient);
+		serializableData.put(WizardData.DRUG, drug);
+		serializableData.put(WizardData.PRESCRIPTION, prep);
+		serializableData.put(WizardData.CREATE_NEW_DRUG, Boolean.FALSE);
+		serializableData.put(WizardData.TIMES, times);
+
+		WizardData parcelableData = new WizardData();
+		parcelableData.put(WizardData.PATIENT, patient);
+		parcelableData.put(WizardData.DRUG, drug);
+		parcelableData.put(WizardData.PRESCRIPTION, prep);
+		parcelableData.put(WizardData.CREATE_NEW_DRUG, Boolean.FALSE);
+		parcelableData.put(WizardData.TIMES, times);
+
+		roundTrips("Serializable HashMap", serializableData);
+		roundTrips("WizardData Parcelable", parcelableData);
+
+		log("Wizard data benchmark complete.");
+	}
+
+	/**
+	 * Writes the data to a parcel as a Bundle writes an extra, marshals it, and reads it back
+	 * from a second parcel, ITERATIONS times.
+	 */
+	private static void roundTrips(String name, Object data) {
+		ClassLoader loader = WizardDataBenchmark.class.getClassLoader();
+		int bytes = 0;
+
+		for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+			unmarshal(marshal(data), loader);
+		}
+
+		long marshalTime = 0;
+		long unmarshalTime = 0;
+
+		Debug.startAllocCounting();
+		Debug.resetThreadAllocCount();
+		Debug.resetThreadAllocSize();
+
+		for (int i = 0; i < ITERATIONS; i++) {
+			long start = System.nanoTime();
+			byte[] marshalled = marshal(data);
+			long middle = System.nanoTime();
+			unmarshal(marshalled, loader);
+
+			marshalTime += middle - start;
+			unmarshalTime += System.nanoTime() - middle;
+			bytes = marshalled.length;
+		}
+
+		int allocations = Debug.getThreadAllocCount();
+		int allocatedBytes = Debug.getThreadAllocSize();
+		Debug.stopAllocCounting();
+
+		log(name + ": " + (marshalTime / ITERATIONS / 1000) + "us to marshal, "
+				+ (unmarshalTime / ITERATIONS / 1000) + "us to unmarshal, " + bytes + " bytes");
+		log(name + ": " + (allocations / ITERATIONS) + " objects, "
+				+ (allocatedBytes / ITERATIONS) + " bytes allocated per round trip");
+	}
+
+	private static byte[] marshal(Object data) {
+		Parcel out = Parcel.obtain();
+		try {
+			out.writeValue(data);
+			return out.marshall();
+		} finally {
+			out.recycle();
+		}
+	}
+
+	private static Object unmarshal(byte[] marshalled, ClassLoader loader) {
+		Parcel in = Parcel.obtain();
+		try {
+			in.unmarshall(marshalled, 0, marshalled.length);
+			in.setDataPosition(0);
+			return in.readValue(loader);
+		} finally {
+			in.recycle();
+		}
+	}
+
+	private static void log(String message) {
+		Log.d(LOG_TAG, message);
+	}
+
+}
@@ -0,0 +1,162 @@
+package com.risotto.model;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for Recurrence. Recurrence only uses java.util, so these run as plain JUnit tests
+ * on any JVM, no device or emulator is needed.
+ *
+ * The daylight saving time cases use America/New_York, where the clocks went forward at
+ * 2:00 on 2026-03-08 and go back at 2:00 on 2026-11-01.
+ */
+public class RecurrenceTest extends TestCase {
+
+	private static final TimeZone NEW_YORK = TimeZone.getTimeZone("America/New_York");
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+	// Minutes since midnight.
+	private static final int ONE_THIRTY = 90;
+	private static final int TWO_THIRTY = 150;
+	private static final int EIGHT = 480;
+	private static final int TWENTY = 1200;
+
+	public void testDstGapIsDueAtTheChange() {
+		Recurrence recurrence = new Recurrence(everyDay(TWO_THIRTY), NEW_YORK, time(NEW_YORK, 2026, Calendar.MARCH, 7, 0, 0), Recurrence.UNLIMITED);
+
+		// 2:30 doesn't exist on 2026-03-08, the dose is due at 3:00 EDT.
+		long from = time(NEW_YORK, 2026, Calendar.MARCH, 8, 0, 0);
+		assertEquals(time(UTC, 2026, Calendar.MARCH, 8, 7, 0), recurrence.next(from));
+
+		// The day after is back at 2:30, now EDT.
+		long[] times = new long[3];
+		assertEquals(3, recurrence.expand(time(NEW_YORK, 2026, Calendar.MARCH, 7, 0, 0), time(NEW_YORK, 2026, Calendar.MARCH, 10, 0, 0), times));
+		assertEquals(time(UTC, 2026, Calendar.MARCH, 7, 7, 30), times[0]);
+		assertEquals(time(UTC, 2026, Calendar.MARCH, 8, 7, 0), times[1]);
+		assertEquals(time(UTC, 2026, Calendar.MARCH, 9, 6, 30), times[2]);
+	}
+
+	public void testDstOverlapIsDueOnce() {
+		long start = time(NEW_YORK, 2026, Calendar.OCTOBER, 31, 0, 0);
+		Recurrence recurrence = new Recurrence(everyDay(ONE_THIRTY), NEW_YORK, start, Recurrence.UNLIMITED);
+
+		// 1:30 happens twice on 2026-11-01, the dose is only due the first time, in EDT.
+		long[] times = new long[4];
+		int count = recurrence.expand(start, time(NEW_YORK, 2026, Calendar.NOVEMBER, 3, 0, 0), times);
+		assertEquals(3, count);
+		assertEquals(time(UTC, 2026, Calendar.OCTOBER, 31, 5, 30), times[0]);
+		assertEquals(time(UTC, 2026, Calendar.NOVEMBER, 1, 5, 30), times[1]);
+		assertEquals(time(UTC, 2026, Calendar.NOVEMBER, 2, 6, 30), times[2]);
+
+		// Between the two 1:30s the next dose is the next day's.
+		assertEquals(times[2], recurrence.next(times[1] + 1));
+		assertEquals(3, recurrence.count(start, time(NEW_YORK, 2026, Calendar.NOVEMBER, 3, 0, 0)));
+	}
+
+	public void testCountLimit() {
+		long start = time(UTC, 2026, Calendar.JANUARY, 1, 0, 0);
+		Recurrence recurrence = new Recurrence(everyDay(EIGHT, TWENTY), UTC, start, 3);
+
+		long[] times = new long[10];
+		assertEquals(3, recurrence.expand(start, time(UTC, 2026, Calendar.JANUARY, 10, 0, 0), times));
+		assertEquals(time(UTC, 2026, Calendar.JANUARY, 1, 8, 0), times[0]);
+		assertEquals(time(UTC, 2026, Calendar.JANUARY, 1, 20, 0), times[1]);
+		assertEquals(time(UTC, 2026, Calendar.JANUARY, 2, 8, 0), times[2]);
+
+		assertEquals(Recurrence.NO_OCCURRENCE, recurrence.next(times[2] + 1));
+		assertEquals(3, recurrence.count(start, time(UTC, 2027, Calendar.JANUARY, 1, 0, 0)));
+		// The doses are counted from the start, not from the window.
+		assertEquals(1, recurrence.count(times[2], time(UTC, 2027, Calendar.JANUARY, 1, 0, 0)));
+	}
+
+	public void testGetLast() {
+		long start = time(UTC, 2026, Calendar.JANUARY, 1, 0, 0);
+		assertEquals(time(UTC, 2026, Calendar.JANUARY, 10, 8, 0), new Recurrence(everyDay(EIGHT), UTC, start, 10).getLast());
+
+		// Mondays and Thursdays at 8:00; 2026-01-01 was a Thursday.
+		int[][] minutesByDay = new int[7][];
+		minutesByDay[Calendar.MONDAY - Calendar.SUNDAY] = new int[] { EIGHT };
+		minutesByDay[Calendar.THURSDAY - Calendar.SUNDAY] = new int[] { EIGHT };
+		Recurrence weekly = new Recurrence(minutesByDay, UTC, start, 5);
+		assertEquals(time(UTC, 2026, Calendar.JANUARY, 15, 8, 0), weekly.getLast());
+
+		// The last dose is the last one expand() finds.
+		long[] times = new long[10];
+		int count = weekly.expand(start, time(UTC, 2027, Calendar.JANUARY, 1, 0, 0), times);
+		assertEquals(5, count);
+		assertEquals(weekly.getLast(), times[count - 1]);
+
+		// A count across the clocks going forward.
+		long springStart = time(NEW_YORK, 2026, Calendar.MARCH, 7, 0, 0);
+		assertEquals(time(UTC, 2026, Calendar.MARCH, 8, 7, 0), new Recurrence(everyDay(TWO_THIRTY), NEW_YORK, springStart, 2).getLast());
+	}
+
+	public void testGetLastUnlimited() {
+		Recurrence recurrence = new Recurrence(everyDay(EIGHT), UTC, 0, Recurrence.UNLIMITED);
+		assertEquals(Recurrence.NO_OCCURRENCE, recurrence.getLast());
+	}
+
+	public void testNoDoses() {
+		long start = time(UTC, 2026, Calendar.JANUARY, 1, 0, 0);
+		Recurrence recurrence = new Recurrence(everyDay(EIGHT), UTC, start, 0);
+
+		assertEquals(Recurrence.NO_DOSES, recurrence.getLast());
+		assertEquals(Recurrence.NO_OCCURRENCE, recurrence.next(start));
+		assertEquals(0, recurrence.expand(start, time(UTC, 2027, Calendar.JANUARY, 1, 0, 0), new long[10]));
+		assertEquals(0, recurrence.count(start, time(UTC, 2027, Calendar.JANUARY, 1, 0, 0)));
+	}
+
+	public void testNoTimes() {
+		Recurrence recurrence = new Recurrence(new int[7][], UTC, 0, Recurrence.UNLIMITED);
+
+		assertEquals(0, recurrence.getWeekCount());
+		assertFalse(recurrence.isDaily());
+		assertEquals(Recurrence.NO_OCCURRENCE, recurrence.next(0));
+	}
+
+	public void testNextMatchesExpand() {
+		long start = time(NEW_YORK, 2026, Calendar.JANUARY, 1, 0, 0);
+		Recurrence recurrence = new Recurrence(everyDay(ONE_THIRTY, TWO_THIRTY, EIGHT, TWENTY), NEW_YORK, start, 1000);
+
+		long[] times = new long[1];
+		for (long from = start; from < start + 366 * 24 * 60 * 60 * 1000L; from += 37 * 60 * 1000L) {
+			long expected = (recurrence.expand(from, Recurrence.NO_OCCURRENCE, times) == 1) ? times[0] : Recurrence.NO_OCCURRENCE;
+			assertEquals(expected, recurrence.next(from));
+		}
+	}
+
+	public void testIsDaily() {
+		assertTrue(new Recurrence(everyDay(EIGHT, TWENTY), UTC, 0, Recurrence.UNLIMITED).isDaily());
+
+		int[][] minutesByDay = everyDay(EIGHT);
+		minutesByDay[Calendar.SUNDAY - Calendar.SUNDAY] = new int[] { TWENTY };
+		assertFalse(new Recurrence(minutesByDay, UTC, 0, Recurrence.UNLIMITED).isDaily());
+	}
+
+	public void testInvalidTime() {
+		try {
+			new Recurrence(everyDay(24 * 60), UTC, 0, Recurrence.UNLIMITED);
+			fail("A time past the end of the day was accepted.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	// The same times on every day of the week.
+	private static int[][] everyDay(int... minutes) {
+		int[][] minutesByDay = new int[7][];
+		for (int day = 0; day < minutesByDay.length; day++) {
+			minutesByDay[day] = minutes;
+		}
+		return minutesByDay;
+	}
+
+	private static long time(TimeZone timeZone, int year, int month, int day, int hour, int minute) {
+		Calendar calendar = Calendar.getInstance(timeZone);
+		calendar.clear();
+		calendar.set(year, month, day, hour, minute);
+		return calendar.getTimeInMillis();
+	}
+}
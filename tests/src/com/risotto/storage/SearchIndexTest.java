@@ -0,0 +1,37 @@
+package com.risotto.storage;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the FTS3 queries SearchIndex builds from what the user typed. The queries
+ * have to split the text into the same words the simple tokenizer indexed the names
+ * as, or a stored name is never found.
+ */
+public class SearchIndexTest extends TestCase {
+
+	public void testAsciiWords() {
+		assertEquals("tylenol* extra*", SearchIndex.toMatchExpression(null, "Tylenol Extra", true));
+		assertEquals("tylenol extra", SearchIndex.toMatchExpression(null, "  TYLENOL, extra ", false));
+		assertEquals("brand_name:tyl*", SearchIndex.toMatchExpression("brand_name", "Tyl", true));
+	}
+
+	public void testOperatorsAreSeparators() {
+		assertEquals("a* or* b* c*", SearchIndex.toMatchExpression(null, "a OR\"b\" -c*", true));
+		assertNull(SearchIndex.toMatchExpression(null, " -*\"() ", true));
+		assertNull(SearchIndex.toMatchExpression(null, null, true));
+	}
+
+	public void testCurlyApostropheStaysInTheWord() {
+		// O'Brien typed with a right single quotation mark, U+2019, is indexed as one word;
+		// the ASCII apostrophe splits it in two.
+		assertEquals("o\u2019brien*", SearchIndex.toMatchExpression(null, "O\u2019Brien", true));
+		assertEquals("o* brien*", SearchIndex.toMatchExpression(null, "O'Brien", true));
+	}
+
+	public void testAccentedLettersStayInTheWord() {
+		assertEquals("last_name:jos\u00e9*", SearchIndex.toMatchExpression("last_name", "Jos\u00e9", true));
+		// Only the ASCII letters are lower cased, like the index does.
+		assertEquals("\u00c9mile z\u00d6e", SearchIndex.toMatchExpression(null, "\u00c9MILE Z\u00d6E", false));
+		assertEquals("\u00c9mile*", SearchIndex.toMatchExpression(null, "\u00c9mile", true));
+	}
+}